@@ -0,0 +1,134 @@
+package com.robertsoultanaev.javasphinx.benchmark;
+
+import com.robertsoultanaev.javasphinx.crypto.ECCGroup;
+import com.robertsoultanaev.javasphinx.crypto.PublicKeyCache;
+import org.bouncycastle.math.ec.ECPoint;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the group operations in {@link ECCGroup}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ECCGroupBenchmark {
+
+    private static final int BATCH_SIZE = 8;
+    /**
+     * Number of keys cycled through by {@link #exponUncachedKey()}, more than the cache remembers.
+     */
+    private static final int DIRECTORY_SIZE = 8 * PublicKeyCache.DEFAULT_CAPACITY * PublicKeyCache.DEFAULT_ADMISSION_FACTOR;
+
+    /**
+     * Group id, secp224r1 (713) or X25519 (1034).
+     */
+    @Param({"713", "1034"})
+    public int groupId;
+
+    private ECCGroup group;
+    private ECPoint base;
+    private BigInteger exponent;
+    private PublicKeyCache keyCache;
+    private PublicKeyCache missCache;
+    private ECPoint[] directory;
+    private int next;
+    private ECPoint[] bases;
+    private BigInteger[] exponents;
+
+    @Setup
+    public void setUp() {
+        group = ECCGroup.byId(groupId);
+        base = group.expon(group.getGenerator(), group.genSecret());
+        exponent = group.genSecret();
+        keyCache = new PublicKeyCache(PublicKeyCache.DEFAULT_CAPACITY);
+        keyCache.prepare(group, base);
+
+        missCache = new PublicKeyCache(PublicKeyCache.DEFAULT_CAPACITY);
+        directory = new ECPoint[DIRECTORY_SIZE];
+        for (int i = 0; i < DIRECTORY_SIZE; i++) {
+            directory[i] = group.exponGenerator(group.genSecret());
+        }
+
+        bases = new ECPoint[BATCH_SIZE];
+        exponents = new BigInteger[BATCH_SIZE];
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            bases[i] = group.expon(group.getGenerator(), group.genSecret());
+            exponents[i] = group.genSecret();
+        }
+    }
+
+    @Benchmark
+    public ECPoint expon() {
+        return group.expon(base, exponent).normalize();
+    }
+
+    @Benchmark
+    public ECPoint exponCachedKey() {
+        return keyCache.expon(group, base, exponent).normalize();
+    }
+
+    /**
+     * Multiply through the cache with keys of a directory too large for it, every lookup misses. Compare with
+     * {@link #expon()}.
+     */
+    @Benchmark
+    public ECPoint exponUncachedKey() {
+        ECPoint key = directory[next];
+        next = (next + 1) % DIRECTORY_SIZE;
+        return missCache.expon(group, key, exponent).normalize();
+    }
+
+    @Benchmark
+    public ECPoint exponGeneratorVariableBase() {
+        return group.expon(group.getGenerator(), exponent).normalize();
+    }
+
+    @Benchmark
+    public ECPoint exponGenerator() {
+        return group.exponGenerator(exponent).normalize();
+    }
+
+    /**
+     * Multiply and encode a batch point by point, one field inversion per point.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public byte[][] exponEach() {
+        byte[][] encoded = new byte[BATCH_SIZE][];
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            encoded[i] = group.encodePoint(group.expon(bases[i], exponents[i]));
+        }
+        return encoded;
+    }
+
+    /**
+     * Multiply and encode a batch with {@link ECCGroup#exponAll(ECPoint[], BigInteger[])}, one field inversion in all.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public byte[][] exponAll() {
+        ECPoint[] results = group.exponAll(bases, exponents);
+        byte[][] encoded = new byte[BATCH_SIZE][];
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            encoded[i] = group.encodePoint(results[i]);
+        }
+        return encoded;
+    }
+}
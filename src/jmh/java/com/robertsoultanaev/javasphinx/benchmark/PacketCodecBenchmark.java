@@ -0,0 +1,100 @@
+package com.robertsoultanaev.javasphinx.benchmark;
+
+import com.robertsoultanaev.javasphinx.SphinxException;
+import com.robertsoultanaev.javasphinx.SphinxParams;
+import com.robertsoultanaev.javasphinx.codec.FramePool;
+import com.robertsoultanaev.javasphinx.codec.PacketBuffer;
+import com.robertsoultanaev.javasphinx.codec.PacketCodec;
+import com.robertsoultanaev.javasphinx.codec.PacketFormat;
+import com.robertsoultanaev.javasphinx.crypto.ECCGroup;
+import com.robertsoultanaev.javasphinx.packet.header.PacketContent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of reading and writing packets in the available wire formats.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PacketCodecBenchmark {
+
+    @Param({"MSGPACK", "BINARY"})
+    public PacketFormat format;
+
+    @Param({"1024", "8192"})
+    public int bodyLength;
+
+    private PacketCodec codec;
+    private PacketBuffer packet;
+    private ByteBuffer encoded;
+    private ByteBuffer out;
+    private FramePool pool;
+
+    @Setup
+    public void setUp() throws SphinxException {
+        SphinxFixture fixture = new SphinxFixture(5, bodyLength);
+        PacketContent packetContent = fixture.client.createForwardMessage(fixture.nodelist, fixture.keys, "bob".getBytes(), "this is a test".getBytes());
+
+        SphinxParams params = new SphinxParams(SphinxFixture.KEY_LENGTH, bodyLength, SphinxFixture.headerLength(5), new ECCGroup(), format);
+        codec = params.packetCodec();
+        packet = new PacketBuffer(params);
+        packet.load(packetContent);
+
+        encoded = ByteBuffer.allocateDirect(codec.encodedLength());
+        codec.write(packet, encoded);
+        out = ByteBuffer.allocateDirect(codec.encodedLength());
+        pool = new FramePool(params, false);
+    }
+
+    @Benchmark
+    public PacketBuffer read() throws SphinxException {
+        encoded.clear();
+        codec.read(encoded, packet);
+        return packet;
+    }
+
+    @Benchmark
+    public ByteBuffer write() throws SphinxException {
+        out.clear();
+        codec.write(packet, out);
+        return out;
+    }
+
+    /**
+     * Write into a newly allocated frame per packet, as a packet path without a pool does.
+     */
+    @Benchmark
+    public ByteBuffer writeAllocated() throws SphinxException {
+        ByteBuffer frame = ByteBuffer.allocate(codec.encodedLength());
+        codec.write(packet, frame);
+        return frame.flip();
+    }
+
+    /**
+     * Write into a frame of a {@link FramePool} and release it, compare to {@link #writeAllocated()} with
+     * {@code -prof gc}.
+     */
+    @Benchmark
+    public int writePooled() throws SphinxException {
+        ByteBuffer frame = codec.write(packet, pool);
+        int length = frame.remaining();
+        pool.release(frame);
+        return length;
+    }
+}
@@ -0,0 +1,88 @@
+package com.robertsoultanaev.javasphinx.benchmark;
+
+import com.robertsoultanaev.javasphinx.SphinxException;
+import com.robertsoultanaev.javasphinx.SphinxParams;
+import com.robertsoultanaev.javasphinx.pki.MixDescriptor;
+import com.robertsoultanaev.javasphinx.pki.PkiSnapshot;
+import org.bouncycastle.math.ec.ECPoint;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opening a PKI directory file of {@code nodes} mix nodes, and looking up a node of an open directory. The lookup of
+ * a node whose public key is not decoded yet costs one point decompression on top.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PkiDirectoryBenchmark {
+
+    @Param({"100000"})
+    public int nodes;
+
+    private SphinxParams params;
+    private Path file;
+    private PkiSnapshot snapshot;
+    private int[] ids;
+    private final SplittableRandom random = new SplittableRandom(1);
+
+    @Setup
+    public void setUp() throws IOException, SphinxException {
+        params = new SphinxParams();
+        // Consecutive multiples of the generator, distinct keys without a scalar multiplication each
+        ECPoint generator = params.getGroup().getGenerator();
+        ECPoint key = generator;
+        Map<Integer, ECPoint> keys = new HashMap<>();
+        Map<Integer, byte[]> metadata = new HashMap<>();
+        for (int i = 0; i < nodes; i++) {
+            keys.put(i * 3, key.normalize());
+            metadata.put(i * 3, ("mix" + i + ".example.org:4000").getBytes());
+            key = key.add(generator);
+        }
+
+        file = Files.createTempFile("pki", ".directory");
+        PkiSnapshot.of(params, 1, keys, metadata).write(file);
+        snapshot = PkiSnapshot.load(params, file);
+        ids = keys.keySet().stream().mapToInt(Integer::intValue).toArray();
+        for (int id : ids) {
+            snapshot.get(id);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public PkiSnapshot load() throws IOException {
+        return PkiSnapshot.load(params, file);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public MixDescriptor lookUp() throws SphinxException {
+        return snapshot.get(ids[random.nextInt(ids.length)]);
+    }
+}
@@ -0,0 +1,61 @@
+package com.robertsoultanaev.javasphinx.benchmark;
+
+import com.robertsoultanaev.javasphinx.SphinxException;
+import com.robertsoultanaev.javasphinx.replay.ReplayFilter;
+import com.robertsoultanaev.javasphinx.replay.TagSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of replay detection in {@link ReplayFilter} with a filter already holding {@code tags} tags.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReplayFilterBenchmark {
+
+    private static final int LOOKUP_TAGS = 1 << 16;
+
+    @Param({"1000000", "4000000"})
+    public int tags;
+
+    private ReplayFilter filter;
+    private byte[][] seenTags;
+    private int next;
+
+    @Setup
+    public void setUp() throws SphinxException {
+        SplittableRandom random = new SplittableRandom(42);
+        filter = new ReplayFilter(tags * 2, 2);
+        seenTags = new byte[LOOKUP_TAGS][];
+        for (int i = 0; i < tags; i++) {
+            byte[] tag = new byte[TagSet.TAG_LENGTH];
+            random.nextBytes(tag);
+            filter.markSeen(tag);
+            if (i < LOOKUP_TAGS) {
+                seenTags[i] = tag;
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean rejectReplay() throws SphinxException {
+        next = (next + 1) & (LOOKUP_TAGS - 1);
+        return filter.markSeen(seenTags[next]);
+    }
+}
@@ -0,0 +1,106 @@
+package com.robertsoultanaev.javasphinx.benchmark;
+
+import com.robertsoultanaev.javasphinx.routing.AscendingRoutingStrategy;
+import com.robertsoultanaev.javasphinx.routing.DirectorySnapshot;
+import com.robertsoultanaev.javasphinx.routing.RandomRoutingStrategy;
+import com.robertsoultanaev.javasphinx.routing.WeightedRoutingStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Selection of a route of {@link #MIX_COUNT} hops from a directory of {@code directorySize} nodes. The strategies
+ * draw from a {@link DirectorySnapshot} prepared once; the baselines are the previous per-packet implementations,
+ * which sorted the whole directory for every route.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoutingBenchmark {
+
+    private static final int MIX_COUNT = 5;
+
+    @Param({"100", "1000", "10000", "50000"})
+    public int directorySize;
+
+    private int[] identifiers;
+    private DirectorySnapshot directory;
+    private final RandomRoutingStrategy random = new RandomRoutingStrategy();
+    private final AscendingRoutingStrategy ascending = new AscendingRoutingStrategy();
+    private WeightedRoutingStrategy weighted;
+
+    @Setup
+    public void setUp() {
+        SplittableRandom rng = new SplittableRandom(1);
+        identifiers = rng.ints(directorySize * 4L, 0, Integer.MAX_VALUE).distinct().limit(directorySize).toArray();
+        directory = new DirectorySnapshot(identifiers);
+
+        Map<Integer, Double> weights = new HashMap<>();
+        for (int identifier : identifiers) {
+            weights.put(identifier, 1 + rng.nextDouble() * 99);
+        }
+        weighted = new WeightedRoutingStrategy(weights);
+        weighted.route(directory, MIX_COUNT);
+        ascending.route(directory, MIX_COUNT);
+    }
+
+    @Benchmark
+    public int[] random() {
+        return random.route(directory, MIX_COUNT);
+    }
+
+    @Benchmark
+    public int[] ascending() {
+        return ascending.route(directory, MIX_COUNT);
+    }
+
+    @Benchmark
+    public int[] weighted() {
+        return weighted.route(directory, MIX_COUNT);
+    }
+
+    @Benchmark
+    public int[] randomBaseline() {
+        SecureRandom secureRandom = new SecureRandom();
+        long[] randoms = new long[identifiers.length];
+        for (int i = 0; i < randoms.length; i++) {
+            byte[] rand = new byte[8];
+            secureRandom.nextBytes(rand);
+            randoms[i] = (new BigInteger(1, rand)).longValue();
+        }
+        HashMap<Long, Integer> randToIndex = new HashMap<>();
+        for (int i = 0; i < randoms.length; i++) {
+            randToIndex.put(randoms[i], i);
+        }
+        Arrays.sort(randoms);
+        int[] result = new int[MIX_COUNT];
+        for (int i = 0; i < MIX_COUNT; i++) {
+            result[i] = identifiers[randToIndex.get(randoms[i])];
+        }
+        return result;
+    }
+
+    @Benchmark
+    public int[] ascendingBaseline() {
+        return Arrays.stream(identifiers).sorted().limit(MIX_COUNT).toArray();
+    }
+}
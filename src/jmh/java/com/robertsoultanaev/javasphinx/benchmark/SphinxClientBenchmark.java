@@ -0,0 +1,138 @@
+package com.robertsoultanaev.javasphinx.benchmark;
+
+import com.robertsoultanaev.javasphinx.SphinxClient;
+import com.robertsoultanaev.javasphinx.SphinxException;
+import com.robertsoultanaev.javasphinx.packet.ProcessedPacket;
+import com.robertsoultanaev.javasphinx.packet.SphinxPacket;
+import com.robertsoultanaev.javasphinx.packet.header.HeaderAndSecrets;
+import com.robertsoultanaev.javasphinx.packet.header.PacketContent;
+import com.robertsoultanaev.javasphinx.packet.message.DestinationAndMessage;
+import com.robertsoultanaev.javasphinx.packet.reply.SingleUseReplyBlock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the packet creation, receiving and serialisation methods in {@link SphinxClient}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SphinxClientBenchmark {
+
+    private static final byte[] DEST = "bob".getBytes();
+    private static final byte[] MESSAGE = "this is a test".getBytes();
+    private static final byte[] SURB_DEST = "myself".getBytes();
+    private static final int SURB_BATCH = 64;
+
+    @Param({"3", "5", "8"})
+    public int hops;
+
+    @Param({"1024", "8192"})
+    public int bodyLength;
+
+    private SphinxFixture fixture;
+    private SphinxClient client;
+    private byte[] headerDest;
+    private HeaderAndSecrets forwardHeader;
+    private SphinxPacket packet;
+    private byte[] packedPacket;
+    private byte[] finalMacKey;
+    private byte[] finalDelta;
+    private SingleUseReplyBlock surb;
+    private byte[] surbDelta;
+
+    @Setup
+    public void setUp() throws SphinxException {
+        fixture = new SphinxFixture(hops, bodyLength);
+        client = fixture.client;
+        headerDest = DEST;
+        forwardHeader = client.createForwardHeader(fixture.nodelist, fixture.keys);
+
+        PacketContent forward = client.createForwardMessage(fixture.nodelist, fixture.keys, DEST, MESSAGE);
+        packet = client.createPacket(forward);
+        packedPacket = client.packMessage(packet);
+
+        ProcessedPacket processed = routeToEnd(forward);
+        finalMacKey = processed.macKey();
+        finalDelta = processed.packetContent().delta();
+
+        surb = client.createSurb(fixture.nodelist, fixture.keys, SURB_DEST);
+        surbDelta = routeToEnd(client.packageSurb(surb.nymTuple(), MESSAGE)).packetContent().delta();
+    }
+
+    private ProcessedPacket routeToEnd(PacketContent packetContent) throws SphinxException {
+        ProcessedPacket processed = null;
+        for (int i = 0; i < fixture.nodes.length; i++) {
+            processed = fixture.nodes[i].sphinxProcess(packetContent);
+            packetContent = processed.packetContent();
+        }
+        return processed;
+    }
+
+    @Benchmark
+    public HeaderAndSecrets createHeader() throws SphinxException {
+        return client.createHeader(fixture.nodelist, fixture.keys, headerDest);
+    }
+
+    @Benchmark
+    public PacketContent createForwardMessage() throws SphinxException {
+        return client.createForwardMessage(fixture.nodelist, fixture.keys, DEST, MESSAGE);
+    }
+
+    /**
+     * Send cost with a header taken from a {@link com.robertsoultanaev.javasphinx.runtime.HeaderPool}. The header is
+     * reused here, which must never happen outside of a benchmark.
+     */
+    @Benchmark
+    public PacketContent createForwardMessagePrepared() throws SphinxException {
+        return client.createForwardMessage(forwardHeader, DEST, MESSAGE);
+    }
+
+    @Benchmark
+    public SingleUseReplyBlock createSurb() throws SphinxException {
+        return client.createSurb(fixture.nodelist, fixture.keys, SURB_DEST);
+    }
+
+    /**
+     * Bulk creation of {@link #SURB_BATCH} SURBs on the common fork-join pool, compare to that many times
+     * {@link #createSurb()}.
+     */
+    @Benchmark
+    public SingleUseReplyBlock[] createSurbs() throws SphinxException {
+        return client.createSurbs(SURB_BATCH, fixture.nodelist, fixture.keys, SURB_DEST);
+    }
+
+    @Benchmark
+    public DestinationAndMessage receiveForward() throws SphinxException {
+        return client.receiveForward(finalMacKey, finalDelta);
+    }
+
+    @Benchmark
+    public byte[] receiveSurb() throws SphinxException {
+        return client.receiveSurb(surb.keyTuple(), surbDelta);
+    }
+
+    @Benchmark
+    public byte[] packMessage() throws SphinxException {
+        return client.packMessage(packet);
+    }
+
+    @Benchmark
+    public SphinxPacket unpackMessage() throws SphinxException {
+        return client.unpackMessage(packedPacket);
+    }
+}
@@ -0,0 +1,49 @@
+package com.robertsoultanaev.javasphinx.benchmark;
+
+import com.robertsoultanaev.javasphinx.SphinxClient;
+import com.robertsoultanaev.javasphinx.SphinxException;
+import com.robertsoultanaev.javasphinx.SphinxNode;
+import com.robertsoultanaev.javasphinx.SphinxParams;
+import com.robertsoultanaev.javasphinx.crypto.ECCGroup;
+import com.robertsoultanaev.javasphinx.pki.PkiEntry;
+import com.robertsoultanaev.javasphinx.pki.PkiGenerator;
+import com.robertsoultanaev.javasphinx.routing.AscendingRoutingStrategy;
+import org.bouncycastle.math.ec.ECPoint;
+
+/**
+ * Shared setup for the benchmarks: a route of {@code hops} freshly keyed mix nodes and the parameters to reach them.
+ */
+final class SphinxFixture {
+
+    static final int KEY_LENGTH = 16;
+
+    final SphinxParams params;
+    final SphinxClient client;
+    final SphinxNode[] nodes;
+    final byte[][] nodelist;
+    final ECPoint[] keys;
+
+    SphinxFixture(int hops, int bodyLength) throws SphinxException {
+        params = new SphinxParams(KEY_LENGTH, bodyLength, headerLength(hops), new ECCGroup());
+        client = new SphinxClient(params, new AscendingRoutingStrategy());
+
+        PkiGenerator generator = new PkiGenerator(params);
+        nodes = new SphinxNode[hops];
+        nodelist = new byte[hops][];
+        keys = new ECPoint[hops];
+        for (int i = 0; i < hops; i++) {
+            PkiEntry entry = generator.generateKeyPair();
+            nodes[i] = new SphinxNode(params, new AscendingRoutingStrategy(), entry.priv());
+            nodelist[i] = client.encodeNode(i, 0);
+            keys[i] = entry.pub();
+        }
+    }
+
+    /**
+     * Header length that leaves room for the routing information of the given number of hops, mirroring the
+     * default of 192 bytes for 5 hops.
+     */
+    static int headerLength(int hops) {
+        return 32 + hops * 32;
+    }
+}
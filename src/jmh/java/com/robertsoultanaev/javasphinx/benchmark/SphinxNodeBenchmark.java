@@ -0,0 +1,85 @@
+package com.robertsoultanaev.javasphinx.benchmark;
+
+import com.robertsoultanaev.javasphinx.SphinxException;
+import com.robertsoultanaev.javasphinx.SphinxNode;
+import com.robertsoultanaev.javasphinx.packet.ProcessedFrame;
+import com.robertsoultanaev.javasphinx.packet.ProcessedPacket;
+import com.robertsoultanaev.javasphinx.packet.ProcessingResult;
+import com.robertsoultanaev.javasphinx.packet.header.PacketContent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the mix node side processing in {@link SphinxNode}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SphinxNodeBenchmark {
+
+    private static final int BATCH_SIZE = 64;
+
+    @Param({"3", "5", "8"})
+    public int hops;
+
+    @Param({"1024", "8192"})
+    public int bodyLength;
+
+    private SphinxNode node;
+    private PacketContent packetContent;
+    private List<PacketContent> batch;
+    private ByteBuffer packedIn;
+    private ByteBuffer packedOut;
+
+    @Setup
+    public void setUp() throws SphinxException {
+        SphinxFixture fixture = new SphinxFixture(hops, bodyLength);
+        node = fixture.nodes[0];
+        packetContent = fixture.client.createForwardMessage(fixture.nodelist, fixture.keys, "bob".getBytes(), "this is a test".getBytes());
+
+        byte[] packed = fixture.client.packMessage(fixture.client.createPacket(packetContent));
+        packedIn = ByteBuffer.allocateDirect(packed.length).put(packed);
+        packedOut = ByteBuffer.allocateDirect(packed.length);
+
+        batch = new ArrayList<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(fixture.client.createForwardMessage(fixture.nodelist, fixture.keys, "bob".getBytes(), "this is a test".getBytes()));
+        }
+    }
+
+    @Benchmark
+    public ProcessedPacket sphinxProcess() throws SphinxException {
+        return node.sphinxProcess(packetContent);
+    }
+
+    @Benchmark
+    public ProcessedFrame processBuffer() throws SphinxException {
+        packedIn.clear();
+        packedOut.clear();
+        return node.process(packedIn, packedOut);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<ProcessingResult> processBatch() {
+        return node.processBatch(batch);
+    }
+}
@@ -0,0 +1,132 @@
+package com.robertsoultanaev.javasphinx.benchmark;
+
+import com.robertsoultanaev.javasphinx.SphinxException;
+import com.robertsoultanaev.javasphinx.SphinxParams;
+import com.robertsoultanaev.javasphinx.codec.PacketFormat;
+import com.robertsoultanaev.javasphinx.crypto.BcSymmetricProvider;
+import com.robertsoultanaev.javasphinx.crypto.HopKeys;
+import com.robertsoultanaev.javasphinx.crypto.JceSymmetricProvider;
+import com.robertsoultanaev.javasphinx.crypto.PrimitiveSuite;
+import com.robertsoultanaev.javasphinx.crypto.SymmetricProvider;
+import org.bouncycastle.math.ec.ECPoint;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the symmetric primitives in {@link SphinxParams}. The Lioness benchmarks depend on the body length
+ * only. The header benchmarks work on a header sized for the hop count, and {@link #headerKeys()} derives the keys of
+ * every hop.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SphinxParamsBenchmark {
+
+    @Param({"3", "5", "10"})
+    public int hops;
+
+    @Param({"1024", "8192"})
+    public int bodyLength;
+
+    @Param({"AES_BC", "AES_JCE", "CHACHA20_BLAKE2"})
+    public String primitives;
+
+    private SphinxParams params;
+    private byte[] key;
+    private byte[] body;
+    private byte[] encryptedBody;
+    private byte[] header;
+    private ECPoint sharedSecret;
+    private ECPoint[] hopSecrets;
+
+    @Setup
+    public void setUp() throws SphinxException {
+        SphinxParams fixtureParams = new SphinxFixture(hops, bodyLength).params;
+        PrimitiveSuite suite = primitives.equals("CHACHA20_BLAKE2") ? PrimitiveSuite.CHACHA20_BLAKE2 : PrimitiveSuite.AES_SHA256;
+        SymmetricProvider symmetricProvider = primitives.equals("AES_BC") ? new BcSymmetricProvider() : new JceSymmetricProvider();
+        params = new SphinxParams(fixtureParams.keyLength(), bodyLength, fixtureParams.headerLength(),
+                fixtureParams.getGroup(), PacketFormat.MSGPACK, suite, symmetricProvider);
+
+        SecureRandom random = new SecureRandom();
+        key = new byte[params.keyLength()];
+        random.nextBytes(key);
+        body = new byte[params.bodyLength()];
+        random.nextBytes(body);
+        encryptedBody = params.lionessEnc(key, body);
+        header = new byte[params.headerLength() - 32];
+        random.nextBytes(header);
+        sharedSecret = params.derivePublicKey(params.generatePrivateKey());
+        hopSecrets = new ECPoint[hops];
+        for (int i = 0; i < hops; i++) {
+            hopSecrets[i] = params.derivePublicKey(params.generatePrivateKey());
+        }
+    }
+
+    @Benchmark
+    public byte[] lionessEnc() throws SphinxException {
+        return params.lionessEnc(key, body);
+    }
+
+    @Benchmark
+    public byte[] lionessDec() throws SphinxException {
+        return params.lionessDec(key, encryptedBody);
+    }
+
+    @Benchmark
+    public byte[] lionessEncInPlace() throws SphinxException {
+        // Encrypting the result again each time costs the same as encrypting fresh input
+        params.lionessEnc(key, body, 0, body.length);
+        return body;
+    }
+
+    @Benchmark
+    public byte[] mu() {
+        return params.mu(key, header);
+    }
+
+    /**
+     * Encrypt a header in place with the header stream cipher, as every hop does.
+     */
+    @Benchmark
+    public byte[] headerStream() throws SphinxException {
+        params.xorRho(key, 0, header, 0, header.length);
+        return header;
+    }
+
+    /**
+     * Derive the keys of every hop of a header from its shared secrets, as the client does when building it.
+     */
+    @Benchmark
+    public HopKeys headerKeys() {
+        HopKeys last = null;
+        for (ECPoint secret : hopSecrets) {
+            last = params.deriveHopKeys(params.getAesKey(secret));
+        }
+        return last;
+    }
+
+    @Benchmark
+    public HopKeys deriveHopKeys() {
+        return params.deriveHopKeys(key);
+    }
+
+    @Benchmark
+    public byte[] getAesKey() {
+        return params.getAesKey(sharedSecret);
+    }
+}
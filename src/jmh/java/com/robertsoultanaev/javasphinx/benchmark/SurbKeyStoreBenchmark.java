@@ -0,0 +1,83 @@
+package com.robertsoultanaev.javasphinx.benchmark;
+
+import com.robertsoultanaev.javasphinx.SphinxException;
+import com.robertsoultanaev.javasphinx.surb.SurbKeyStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of {@link SurbKeyStore} in a memory-mapped file already holding {@code surbs} SURBs. Every operation takes
+ * the key tuple of a stored SURB and stores it again, so the number of outstanding SURBs stays constant.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SurbKeyStoreBenchmark {
+
+    private static final int KEY_LENGTH = 16;
+    private static final int HOPS = 5;
+
+    @Param({"1000000"})
+    public int surbs;
+
+    private Path file;
+    private SurbKeyStore store;
+    private byte[][] xids;
+    private long expiry;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SphinxException {
+        SplittableRandom random = new SplittableRandom(42);
+        file = Files.createTempFile("surbs", ".store");
+        Files.delete(file);
+        store = new SurbKeyStore(file, surbs, KEY_LENGTH, HOPS);
+        expiry = System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1);
+
+        xids = new byte[surbs][];
+        for (int i = 0; i < surbs; i++) {
+            xids[i] = new byte[KEY_LENGTH];
+            random.nextBytes(xids[i]);
+            byte[][] keyTuple = new byte[HOPS + 1][KEY_LENGTH];
+            for (byte[] key : keyTuple) {
+                random.nextBytes(key);
+            }
+            store.put(xids[i], keyTuple, expiry);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        store.close();
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public byte[][] takeAndPut() throws SphinxException {
+        byte[] xid = xids[next];
+        next = next + 1 == xids.length ? 0 : next + 1;
+        byte[][] keyTuple = store.take(xid);
+        store.put(xid, keyTuple, expiry);
+        return keyTuple;
+    }
+}
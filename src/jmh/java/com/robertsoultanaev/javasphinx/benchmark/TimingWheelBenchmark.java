@@ -0,0 +1,77 @@
+package com.robertsoultanaev.javasphinx.benchmark;
+
+import com.robertsoultanaev.javasphinx.runtime.TimingWheel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Steady state of a delay scheduler with {@code inFlight} pending packets: every operation schedules one packet with a
+ * uniformly random delay of up to twice the number of pending packets, in ticks, and advances the clock by one tick.
+ * The binary heap behind {@link java.util.concurrent.DelayQueue} serves as the baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class TimingWheelBenchmark {
+
+    @Param({"1000000", "4000000"})
+    public int inFlight;
+
+    private SplittableRandom random;
+    private TimingWheel<Object> wheel;
+    private PriorityQueue<long[]> heap;
+    private long tick;
+    private final Object packet = new Object();
+    private Consumer<Object> release;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        release = blackhole::consume;
+        random = new SplittableRandom(1);
+        wheel = new TimingWheel<>(4, 8, 0);
+        heap = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+        for (int i = 0; i < inFlight; i++) {
+            long deadline = 1 + random.nextLong(2L * inFlight);
+            wheel.add(packet, deadline);
+            heap.add(new long[]{deadline});
+        }
+        tick = 0;
+    }
+
+    @Benchmark
+    public int timingWheel() {
+        tick++;
+        wheel.add(packet, tick + 1 + random.nextLong(2L * inFlight));
+        return wheel.advance(tick, release);
+    }
+
+    @Benchmark
+    public int priorityQueue(Blackhole blackhole) {
+        tick++;
+        heap.add(new long[]{tick + 1 + random.nextLong(2L * inFlight)});
+        int count = 0;
+        while (heap.peek()[0] <= tick) {
+            blackhole.consume(heap.poll());
+            count++;
+        }
+        return count;
+    }
+}
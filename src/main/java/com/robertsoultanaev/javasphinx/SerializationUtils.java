@@ -49,7 +49,7 @@ public final class SerializationUtils {
     }
 
     /**
-     * Decode an elliptic curve point from its binary representation.
+     * Decode an elliptic curve point of the default group from its binary representation.
      * @param encodedECPoint Binary representation of an elliptic curve point.
      * @return Elliptic curve point as the ECPoint type.
      */
@@ -58,10 +58,30 @@ public final class SerializationUtils {
         return ecCurve.decodePoint(encodedECPoint);
     }
 
+    /**
+     * Decode an elliptic curve point of the given group from its binary representation.
+     * @param group Group the point belongs to.
+     * @param encodedECPoint Binary representation of an elliptic curve point.
+     * @return Elliptic curve point as the ECPoint type.
+     */
+    public static ECPoint decodeECPoint(ECCGroup group, byte[] encodedECPoint) {
+        return group.decodePoint(encodedECPoint);
+    }
+
     public static byte[] encodeECPoint(ECPoint point) {
         return point.getEncoded(true);
     }
 
+    /**
+     * Encode an elliptic curve point of the given group to its binary representation.
+     * @param group Group the point belongs to.
+     * @param point Elliptic curve point.
+     * @return Binary representation of point.
+     */
+    public static byte[] encodeECPoint(ECCGroup group, ECPoint point) {
+        return group.encodePoint(point);
+    }
+
     public static String base64encode(byte[] bytes) {
         return Base64.toBase64String(bytes);
     }
@@ -1,6 +1,16 @@
 package com.robertsoultanaev.javasphinx;
 
+import com.robertsoultanaev.javasphinx.codec.FramePool;
+import com.robertsoultanaev.javasphinx.codec.PacketBuffer;
+import com.robertsoultanaev.javasphinx.codec.PacketCodec;
 import com.robertsoultanaev.javasphinx.crypto.ECCGroup;
+import com.robertsoultanaev.javasphinx.crypto.HopKeys;
+import com.robertsoultanaev.javasphinx.crypto.PrimitiveSuite;
+import com.robertsoultanaev.javasphinx.crypto.PublicKeyCache;
+import com.robertsoultanaev.javasphinx.crypto.SecureRandoms;
+import com.robertsoultanaev.javasphinx.metrics.Counter;
+import com.robertsoultanaev.javasphinx.metrics.Metrics;
+import com.robertsoultanaev.javasphinx.metrics.Stage;
 import com.robertsoultanaev.javasphinx.packet.RoutingFlag;
 import com.robertsoultanaev.javasphinx.packet.SphinxPacket;
 import com.robertsoultanaev.javasphinx.packet.header.Header;
@@ -9,6 +19,9 @@ import com.robertsoultanaev.javasphinx.packet.header.PacketContent;
 import com.robertsoultanaev.javasphinx.packet.message.DestinationAndMessage;
 import com.robertsoultanaev.javasphinx.packet.reply.NymTuple;
 import com.robertsoultanaev.javasphinx.packet.reply.SingleUseReplyBlock;
+import com.robertsoultanaev.javasphinx.pki.MixDescriptor;
+import com.robertsoultanaev.javasphinx.pki.PkiSnapshot;
+import com.robertsoultanaev.javasphinx.routing.DirectorySnapshot;
 import com.robertsoultanaev.javasphinx.routing.RoutingStrategy;
 import org.bouncycastle.math.ec.ECPoint;
 import org.bouncycastle.util.encoders.Hex;
@@ -18,10 +31,14 @@ import org.msgpack.core.MessageUnpacker;
 
 import java.io.IOException;
 import java.math.BigInteger;
-import java.security.SecureRandom;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import static com.robertsoultanaev.javasphinx.SerializationUtils.concatenate;
 import static com.robertsoultanaev.javasphinx.SerializationUtils.slice;
@@ -33,12 +50,29 @@ public class SphinxClient {
 
     public static final int MAX_DEST_SIZE = 127;
 
+    /**
+     * Number of SURBs whose headers {@link #createSurbs(int, byte[][], ECPoint[], byte[], ForkJoinPool)} builds
+     * together on one thread, sharing their field inversions.
+     */
+    private static final int SURB_BATCH_SIZE = 8;
+
     private final SphinxParams params;
     private final RoutingStrategy routingStrategy;
+    private final PublicKeyCache keyCache;
+    private final ThreadLocal<PacketBuffer> packetScratch;
 
     public SphinxClient(final SphinxParams params, final RoutingStrategy routingStrategy) {
+        this(params, routingStrategy, PublicKeyCache.shared());
+    }
+
+    /**
+     * @param keyCache Cache of prepared mix node public keys used when building headers
+     */
+    public SphinxClient(final SphinxParams params, final RoutingStrategy routingStrategy, final PublicKeyCache keyCache) {
         this.params = params;
         this.routingStrategy = routingStrategy;
+        this.keyCache = keyCache;
+        this.packetScratch = ThreadLocal.withInitial(() -> new PacketBuffer(params));
     }
 
     public SphinxPacket createPacket(PacketContent packetContent) {
@@ -56,6 +90,16 @@ public class SphinxClient {
      * @return Identifier of the mix node in binary format.
      */
     public byte[] encodeNode(int idnum, int additionalInfo) throws SphinxException {
+        return encodeRelayNode(idnum, additionalInfo);
+    }
+
+    /**
+     * Encode the mix node nextNodeId into binary format, without a client at hand.
+     * @param idnum Identifier of the mix node.
+     * @param additionalInfo packet identifier, the first mix uses this to route reply packets
+     * @return Identifier of the mix node in binary format.
+     */
+    public static byte[] encodeRelayNode(int idnum, int additionalInfo) throws SphinxException {
         MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
 
         try {
@@ -86,6 +130,30 @@ public class SphinxClient {
         return routingStrategy.route(identifiers, mixCount);
     }
 
+    /**
+     * Select a subset of mix node identifiers according to the Client's {@link RoutingStrategy}
+     * @param directory snapshot of the mix node ids, reused for every route drawn from the same directory
+     * @param mixCount count of ids to select from the directory
+     * @return mix identifiers
+     */
+    public int[] route(DirectorySnapshot directory, int mixCount) throws SphinxException {
+        if (directory.size() < mixCount) {
+            throw new SphinxException("Number of possible elements (%d) was less than the requested number (%d)"
+                    .formatted(directory.size(), mixCount));
+        }
+        return routingStrategy.route(directory, mixCount);
+    }
+
+    /**
+     * Select a subset of the mix nodes of a PKI directory according to the Client's {@link RoutingStrategy}
+     * @param directory PKI directory of the current epoch
+     * @param mixCount count of ids to select from the directory
+     * @return mix identifiers
+     */
+    public int[] route(PkiSnapshot directory, int mixCount) throws SphinxException {
+        return route(directory.nodeIds(), mixCount);
+    }
+
     /**
      * Create a Sphinx header.
      * @param nodelist List of encoded mix node identifiers used to route the Sphinx packet.
@@ -94,19 +162,19 @@ public class SphinxClient {
      * @return Header and the list of secrets used to encrypt the payload in a nested manner.
      */
     public HeaderAndSecrets createHeader(byte[][] nodelist, ECPoint[] keys, byte[] dest) throws SphinxException {
-        class HeaderRecord {
-            final ECPoint alpha;
-            final ECPoint s;
-            final BigInteger b;
-            final byte[] aes;
-
-            HeaderRecord(ECPoint alpha, ECPoint s, BigInteger b, byte[] aes) {
-                this.alpha = alpha;
-                this.s = s;
-                this.b = b;
-                this.aes = aes;
-            }
-        }
+        return createHeaders(nodelist, keys, new byte[][]{dest})[0];
+    }
+
+    /**
+     * Create Sphinx headers for the same route. The scalar multiplications of a hop are done for all headers at once,
+     * so the headers share the field inversions that bring the resulting points back to affine coordinates.
+     * @param nodelist List of encoded mix node identifiers used to route the Sphinx packets.
+     * @param keys List of the corresponding public keys of the mix nodes in nodelist.
+     * @param dests Final destination of each Sphinx packet.
+     * @return Header and the list of secrets at the index of its destination.
+     */
+    private HeaderAndSecrets[] createHeaders(byte[][] nodelist, ECPoint[] keys, byte[][] dests) throws SphinxException {
+        long start = Metrics.start();
 
         byte[][] nodeMeta = new byte[nodelist.length][];
         for (int i = 0; i < nodelist.length; i++) {
@@ -115,26 +183,50 @@ public class SphinxClient {
             nodeMeta[i] = concatenate(nodeLength, node);
         }
 
-        int nu = nodelist.length;
         ECCGroup group = params.getGroup();
+        int count = dests.length;
 
-        BigInteger blindFactor = group.genSecret();
-        List<HeaderRecord> asbtuples = new ArrayList<>();
-
-        for (ECPoint k : keys) {
-            ECPoint alpha = group.expon(group.getGenerator(), blindFactor);
-            ECPoint s = group.expon(k, blindFactor);
-            byte[] aesS = params.getAesKey(s);
-
-            BigInteger b = params.hb(alpha, aesS);
-            blindFactor = blindFactor.multiply(b);
-            blindFactor = blindFactor.mod(group.getOrder());
-
-            HeaderRecord headerRecord = new HeaderRecord(alpha, s, b, aesS);
+        BigInteger[] blindFactors = new BigInteger[count];
+        for (int c = 0; c < count; c++) {
+            blindFactors[c] = group.genSecret(SecureRandoms.current());
+        }
+        // Only the alpha of the first hop goes into the header, the nodes derive the others
+        ECPoint[] alphas = group.exponGeneratorAll(blindFactors);
+
+        HopKeys[][] hopKeys = new HopKeys[count][keys.length];
+        byte[][][] secrets = new byte[count][keys.length][];
+        ECPoint[] bases = new ECPoint[count];
+        for (int i = 0; i < keys.length; i++) {
+            ECPoint prepared = keyCache.lookup(group, keys[i]);
+            ECPoint[] s;
+            if (prepared != null) {
+                Arrays.fill(bases, prepared);
+                s = group.exponPrecomputedAll(bases, blindFactors);
+            } else {
+                Arrays.fill(bases, keys[i]);
+                s = group.exponAll(bases, blindFactors);
+            }
+            for (int c = 0; c < count; c++) {
+                secrets[c][i] = params.getAesKey(s[c]);
+                hopKeys[c][i] = params.deriveHopKeys(secrets[c][i]);
+                blindFactors[c] = blindFactors[c].multiply(hopKeys[c][i].blind()).mod(group.getOrder());
+            }
+        }
 
-            asbtuples.add(headerRecord);
+        HeaderAndSecrets[] headers = new HeaderAndSecrets[count];
+        for (int c = 0; c < count; c++) {
+            headers[c] = new HeaderAndSecrets(assembleHeader(nodeMeta, hopKeys[c], alphas[c], dests[c]), secrets[c]);
         }
 
+        Metrics.stage(Stage.CLIENT_CREATE_HEADER, start);
+        return headers;
+    }
+
+    /**
+     * Build the nested beta and gamma of a header from the keys shared with each hop.
+     */
+    private Header assembleHeader(byte[][] nodeMeta, HopKeys[] hopKeys, ECPoint alpha, byte[] dest) throws SphinxException {
+        int nu = nodeMeta.length;
         byte[] phi = {};
         int minLen = params.headerLength() - 32;
 
@@ -146,7 +238,7 @@ public class SphinxClient {
             byte[] zeroes2 = new byte[minLen];
             Arrays.fill(zeroes2, (byte) 0x00);
             byte[] zeroes2plain = concatenate(zeroes2, plain);
-            phi = params.xorRho(params.hrho(asbtuples.get(i-1).aes), zeroes2plain);
+            phi = params.xorRho(hopKeys[i-1].rho(), zeroes2plain);
             phi = slice(phi, minLen, phi.length);
 
             minLen -= nodeMeta[i].length + params.keyLength();
@@ -169,15 +261,14 @@ public class SphinxClient {
             throw new SphinxException("Length of random pad (" + randomPadLen + ") must be non-negative");
         }
 
-        SecureRandom secureRandom = new SecureRandom();
         byte[] randomPad = new byte[randomPadLen];
-        secureRandom.nextBytes(randomPad);
+        SecureRandoms.current().nextBytes(randomPad);
 
         byte[] beta = concatenate(finalRouting, randomPad);
-        beta = params.xorRho(params.hrho(asbtuples.get(nu - 1).aes), beta);
+        beta = params.xorRho(hopKeys[nu - 1].rho(), beta);
         beta = concatenate(beta, phi);
 
-        byte[] gamma = params.mu(params.hmu(asbtuples.get(nu-1).aes), beta);
+        byte[] gamma = params.mu(hopKeys[nu-1].mu(), beta);
 
         for (int i = nu - 2; i >= 0; i--) {
             byte[] nodeId = nodeMeta[i+1];
@@ -186,18 +277,11 @@ public class SphinxClient {
             byte[] plainBeta = slice(beta, plainBetaLen);
             byte[] plain = concatenate(nodeId, gamma, plainBeta);
 
-            beta = params.xorRho(params.hrho(asbtuples.get(i).aes), plain);
-            gamma = params.mu(params.hmu(asbtuples.get(i).aes), beta);
-        }
-
-        Header header = new Header(asbtuples.get(0).alpha, beta, gamma);
-
-        byte[][] secrets = new byte[asbtuples.size()][];
-        for (int i = 0; i < asbtuples.size(); i++) {
-            secrets[i] = asbtuples.get(i).aes;
+            beta = params.xorRho(hopKeys[i].rho(), plain);
+            gamma = params.mu(hopKeys[i].mu(), beta);
         }
 
-        return new HeaderAndSecrets(header, secrets);
+        return new Header(alpha, beta, gamma);
     }
 
     /**
@@ -209,13 +293,22 @@ public class SphinxClient {
      * @return Header and payload of a Sphinx packet encrypted in a nested manner.
      */
     public PacketContent createForwardMessage(byte[][] nodelist, ECPoint[] keys, byte[] destination, byte[] message) throws SphinxException {
-        if (!(destination.length > 0 && destination.length < MAX_DEST_SIZE)) {
-            throw new SphinxException("Destination has to be between 1 and " + MAX_DEST_SIZE + " bytes long");
-        }
-
-        MessageBufferPacker packer;
+        checkDestination(destination);
+        long start = Metrics.start();
+        PacketContent packetContent = createForwardMessage(createForwardHeader(nodelist, keys), destination, message);
+        Metrics.stage(Stage.CLIENT_CREATE_FORWARD_MESSAGE, start);
+        return packetContent;
+    }
 
-        packer = MessagePack.newDefaultBufferPacker();
+    /**
+     * Create the header of a forward Sphinx message. All public key operations of a forward message happen here, so
+     * headers can be prepared ahead of the messages, see {@link com.robertsoultanaev.javasphinx.runtime.HeaderPool}.
+     * @param nodelist List of encoded mix node identifiers used to route the Sphinx packet.
+     * @param keys List of the corresponding public keys of the mix nodes in nodelist.
+     * @return Header and the list of secrets used to encrypt the payload in a nested manner.
+     */
+    public HeaderAndSecrets createForwardHeader(byte[][] nodelist, ECPoint[] keys) throws SphinxException {
+        MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
         try {
             packer.packArrayHeader(1);
             packer.packString(RoutingFlag.DESTINATION.value());
@@ -225,9 +318,22 @@ public class SphinxClient {
         }
 
         byte[] finalDestination = packer.toByteArray();
-        HeaderAndSecrets headerAndSecrets = createHeader(nodelist, keys, finalDestination);
+        return createHeader(nodelist, keys, finalDestination);
+    }
+
+    /**
+     * Create a forward Sphinx message with a header from {@link #createForwardHeader(byte[][], ECPoint[])}. Every
+     * header must only be used for a single message, otherwise the messages can be linked.
+     * @param headerAndSecrets Header of the message and the secrets it was created with.
+     * @param destination Final destination.
+     * @param message Data payload.
+     * @return Header and payload of a Sphinx packet encrypted in a nested manner.
+     */
+    public PacketContent createForwardMessage(HeaderAndSecrets headerAndSecrets, byte[] destination, byte[] message) throws SphinxException {
+        checkDestination(destination);
+        long start = Metrics.start();
 
-        packer = MessagePack.newDefaultBufferPacker();
+        MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
         try {
             packer.packArrayHeader(2);
             packer.packBinaryHeader(destination.length);
@@ -243,18 +349,86 @@ public class SphinxClient {
 
         byte[][] secrets = headerAndSecrets.secrets();
         byte[] payload = padBody(params.bodyLength() - params.keyLength(), encodedDestAndMsg);
-        byte[] mac = params.mu(params.hpi(secrets[nodelist.length - 1]), payload);
-        byte[] body = concatenate(mac, payload);
-
-        byte[] delta = params.pi(params.hpi(secrets[nodelist.length - 1]), body);
+        byte[] mac = params.mu(params.hpi(secrets[secrets.length - 1]), payload);
+        byte[] delta = concatenate(mac, payload);
 
-        for (int i = nodelist.length - 2; i >= 0; i--) {
-            delta = params.pi(params.hpi(secrets[i]), delta);
+        for (int i = secrets.length - 1; i >= 0; i--) {
+            params.pi(params.hpi(secrets[i]), delta, 0);
         }
 
+        Metrics.stage(Stage.CLIENT_ENCRYPT_PAYLOAD, start);
         return new PacketContent(headerAndSecrets.header(), delta);
     }
 
+    /**
+     * Create the header of a forward Sphinx message through mix nodes of a PKI directory. If the packet format carries
+     * epoch hints, the header carries the hint of the directory, so the mix nodes use their keys of that epoch.
+     * Otherwise it has hint 0.
+     * @param directory PKI directory the mix nodes are looked up in.
+     * @param route Identifiers of the mix nodes used to route the Sphinx packet.
+     * @return Header and the list of secrets used to encrypt the payload in a nested manner.
+     */
+    public HeaderAndSecrets createForwardHeader(PkiSnapshot directory, int[] route) throws SphinxException {
+        MixDescriptor[] nodes = directory.resolve(route);
+        HeaderAndSecrets headerAndSecrets = createForwardHeader(encodedNodes(nodes), publicKeys(nodes));
+        Header header = headerAndSecrets.header().withEpochHint(epochHint(directory));
+        return new HeaderAndSecrets(header, headerAndSecrets.secrets());
+    }
+
+    /**
+     * Create a forward Sphinx message through mix nodes of a PKI directory.
+     * @param directory PKI directory the mix nodes are looked up in.
+     * @param route Identifiers of the mix nodes used to route the Sphinx packet.
+     * @param destination Final destination.
+     * @param message Data payload.
+     * @return Header and payload of a Sphinx packet encrypted in a nested manner.
+     */
+    public PacketContent createForwardMessage(PkiSnapshot directory, int[] route, byte[] destination, byte[] message) throws SphinxException {
+        checkDestination(destination);
+        long start = Metrics.start();
+        PacketContent packetContent = createForwardMessage(createForwardHeader(directory, route), destination, message);
+        Metrics.stage(Stage.CLIENT_CREATE_FORWARD_MESSAGE, start);
+        return packetContent;
+    }
+
+    /**
+     * Create a single-use reply block through mix nodes of a PKI directory.
+     * @param directory PKI directory the mix nodes are looked up in.
+     * @param route Identifiers of the mix nodes used to route replies.
+     * @param dest Final destination of the Sphinx packet.
+     * @return An identifier for the SURB, key tuple to receive a message addressed to this SURB, and the reply block itself.
+     */
+    public SingleUseReplyBlock createSurb(PkiSnapshot directory, int[] route, byte[] dest) throws SphinxException {
+        MixDescriptor[] nodes = directory.resolve(route);
+        SingleUseReplyBlock surb = createSurb(encodedNodes(nodes), publicKeys(nodes), dest);
+        NymTuple nymTuple = surb.nymTuple();
+        Header header = nymTuple.header().withEpochHint(epochHint(directory));
+        return new SingleUseReplyBlock(surb.xid(), surb.keyTuple(), new NymTuple(nymTuple.node(), header, nymTuple.kTilde()));
+    }
+
+    /**
+     * Epoch hint of headers built from a PKI directory, 0 if the packet format cannot carry it.
+     */
+    private int epochHint(PkiSnapshot directory) {
+        return params.packetFormat().carriesEpochHints() ? Header.hintOf(directory.epoch()) : 0;
+    }
+
+    private static byte[][] encodedNodes(MixDescriptor[] nodes) {
+        byte[][] nodelist = new byte[nodes.length][];
+        for (int i = 0; i < nodes.length; i++) {
+            nodelist[i] = nodes[i].encodedNode();
+        }
+        return nodelist;
+    }
+
+    private static ECPoint[] publicKeys(MixDescriptor[] nodes) {
+        ECPoint[] keys = new ECPoint[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            keys[i] = nodes[i].publicKey();
+        }
+        return keys;
+    }
+
     /**
      * Create a single-use reply block to receive replies anonymously.
      * @param nodelist List of encoded mix node identifiers used to route the Sphinx packet.
@@ -263,44 +437,104 @@ public class SphinxClient {
      * @return An identifier for the SURB, key tuple to receive a message addressed to this SURB, and the reply block itself.
      */
     public SingleUseReplyBlock createSurb(byte[][] nodelist, ECPoint[] keys, byte[] dest) throws SphinxException {
-        SecureRandom secureRandom = new SecureRandom();
-        int nu = nodelist.length;
+        return createSurbBatch(1, nodelist, keys, dest)[0];
+    }
 
-        byte[] xid = new byte[params.keyLength()];
-        secureRandom.nextBytes(xid);
+    /**
+     * Create single-use reply blocks for the same route on the calling thread, with their headers built together by
+     * {@link #createHeaders(byte[][], ECPoint[], byte[][])}.
+     */
+    private SingleUseReplyBlock[] createSurbBatch(int count, byte[][] nodelist, ECPoint[] keys, byte[] dest) throws SphinxException {
+        byte[][] xids = new byte[count][];
+        byte[][] finalDests = new byte[count][];
+        for (int c = 0; c < count; c++) {
+            byte[] xid = new byte[params.keyLength()];
+            SecureRandoms.current().nextBytes(xid);
+
+            MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+            try {
+                packer.packArrayHeader(3);
+                packer.packString(RoutingFlag.SURB.value());
+                packer.packBinaryHeader(dest.length);
+                packer.writePayload(dest);
+                packer.packBinaryHeader(xid.length);
+                packer.writePayload(xid);
+                packer.close();
+            } catch (IOException ex) {
+                throw new SphinxException("Failed to pack SURB");
+            }
 
-        MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
-        try {
-            packer.packArrayHeader(3);
-            packer.packString(RoutingFlag.SURB.value());
-            packer.packBinaryHeader(dest.length);
-            packer.writePayload(dest);
-            packer.packBinaryHeader(xid.length);
-            packer.writePayload(xid);
-            packer.close();
-        } catch (IOException ex) {
-            throw new SphinxException("Failed to pack SURB");
+            xids[c] = xid;
+            finalDests[c] = packer.toByteArray();
         }
 
-        byte[] finalDest = packer.toByteArray();
-        HeaderAndSecrets headerAndSecrets = createHeader(nodelist, keys, finalDest);
+        HeaderAndSecrets[] headers = createHeaders(nodelist, keys, finalDests);
 
-        byte[] ktilde = new byte[params.keyLength()];
-        secureRandom.nextBytes(ktilde);
+        SingleUseReplyBlock[] surbs = new SingleUseReplyBlock[count];
+        for (int c = 0; c < count; c++) {
+            HeaderAndSecrets headerAndSecrets = headers[c];
 
-        byte[][] hashedSecrets = new byte[headerAndSecrets.secrets().length][];
-        for (int i = 0; i < hashedSecrets.length; i++) {
-            hashedSecrets[i] = params.hpi(headerAndSecrets.secrets()[i]);
-        }
+            byte[] ktilde = new byte[params.keyLength()];
+            SecureRandoms.current().nextBytes(ktilde);
+
+            byte[][] hashedSecrets = new byte[headerAndSecrets.secrets().length][];
+            for (int i = 0; i < hashedSecrets.length; i++) {
+                hashedSecrets[i] = params.hpi(headerAndSecrets.secrets()[i]);
+            }
+
+            byte[][] keytuple = new byte[hashedSecrets.length + 1][];
+            keytuple[0] = ktilde;
+
+            System.arraycopy(hashedSecrets, 0, keytuple, 1, keytuple.length - 1);
 
-        byte[][] keytuple = new byte[hashedSecrets.length + 1][];
-        keytuple[0] = ktilde;
+            NymTuple nymTuple = new NymTuple(nodelist[0], headerAndSecrets.header(), ktilde);
 
-        System.arraycopy(hashedSecrets, 0, keytuple, 1, keytuple.length - 1);
+            surbs[c] = new SingleUseReplyBlock(xids[c], keytuple, nymTuple);
+        }
+        return surbs;
+    }
+
+    /**
+     * Create single-use reply blocks in parallel on the common fork-join pool.
+     * @see #createSurbs(int, byte[][], ECPoint[], byte[], ForkJoinPool)
+     */
+    public SingleUseReplyBlock[] createSurbs(int count, byte[][] nodelist, ECPoint[] keys, byte[] dest) throws SphinxException {
+        return createSurbs(count, nodelist, keys, dest, ForkJoinPool.commonPool());
+    }
 
-        NymTuple nymTuple = new NymTuple(nodelist[0], headerAndSecrets.header(), ktilde);
+    /**
+     * Create single-use reply blocks for the same route in parallel.
+     * @param count Number of SURBs to create.
+     * @param nodelist List of encoded mix node identifiers used to route the Sphinx packet.
+     * @param keys List of the corresponding public keys of the mix nodes in nodelist.
+     * @param dest Final destination of the Sphinx packet.
+     * @param pool Pool the SURBs are created on.
+     * @return The SURBs, as returned by {@link #createSurb(byte[][], ECPoint[], byte[])}.
+     */
+    public SingleUseReplyBlock[] createSurbs(int count, byte[][] nodelist, ECPoint[] keys, byte[] dest, ForkJoinPool pool) throws SphinxException {
+        List<Callable<SingleUseReplyBlock[]>> tasks = new ArrayList<>();
+        for (int from = 0; from < count; from += SURB_BATCH_SIZE) {
+            int size = Math.min(SURB_BATCH_SIZE, count - from);
+            tasks.add(() -> createSurbBatch(size, nodelist, keys, dest));
+        }
+        List<Future<SingleUseReplyBlock[]>> futures = pool.invokeAll(tasks);
 
-        return new SingleUseReplyBlock(xid, keytuple, nymTuple);
+        SingleUseReplyBlock[] surbs = new SingleUseReplyBlock[count];
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                SingleUseReplyBlock[] batch = futures.get(i).get();
+                System.arraycopy(batch, 0, surbs, i * SURB_BATCH_SIZE, batch.length);
+            }
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof SphinxException) {
+                throw (SphinxException) ex.getCause();
+            }
+            throw new SphinxException("Failed to create SURBs: " + ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SphinxException("Interrupted while creating SURBs");
+        }
+        return surbs;
     }
 
     /**
@@ -326,12 +560,14 @@ public class SphinxClient {
      * @return Final destination and data payload of the Sphinx message.
      */
     public DestinationAndMessage receiveForward(byte[] macKey, byte[] delta) throws SphinxException {
+        long start = Metrics.start();
         byte[] mac = slice(delta, params.keyLength());
         byte[] body = slice(delta, params.keyLength(), delta.length);
 
         byte[] expectedMac = params.mu(macKey, body);
 
         if (!Arrays.equals(mac, expectedMac)) {
+            Metrics.count(Counter.CLIENT_MAC_FAILURES);
             String messageMacStr = Hex.toHexString(mac);
             String expectedMacStr = Hex.toHexString(expectedMac);
             throw new SphinxException("Provided MAC (" + messageMacStr + ") did not match the expected MAC (" + expectedMacStr + ")");
@@ -352,6 +588,7 @@ public class SphinxClient {
             throw new SphinxException("Failed to unpack the destination and message");
         }
 
+        Metrics.stage(Stage.CLIENT_RECEIVE_FORWARD, start);
         return new DestinationAndMessage(destination, message);
     }
 
@@ -393,13 +630,21 @@ public class SphinxClient {
 
         Header header = sphinxPacket.packetContent().header();
         byte[] delta = sphinxPacket.packetContent().delta();
+        checkPacketParams(sphinxPacket);
+        if (header.epochHint() != 0) {
+            throw new SphinxException("Key epoch hints require the binary packet format");
+        }
         byte[] packedEcPoint = packECPoint(header.alpha());
+        boolean packSuite = params.suite() != PrimitiveSuite.AES_SHA256;
 
         try {
             packer.packArrayHeader(2);
-            packer.packArrayHeader(2);
+            packer.packArrayHeader(packSuite ? 3 : 2);
             packer.packInt(headerLength);
             packer.packInt(bodyLength);
+            if (packSuite) {
+                packer.packInt(params.suite().id());
+            }
             packer.packArrayHeader(2);
             packer.packArrayHeader(3);
             packer.packExtensionTypeHeader((byte) 2, packedEcPoint.length);
@@ -425,13 +670,14 @@ public class SphinxClient {
      */
     public SphinxPacket unpackMessage(byte[] m) throws SphinxException {
         MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(m);
-        int headerLength, bodyLength;
+        int headerLength, bodyLength, suiteId;
         byte[] packedAlpha, beta, gamma, delta;
         try {
             unpacker.unpackArrayHeader();
-            unpacker.unpackArrayHeader();
+            int lengthsSize = unpacker.unpackArrayHeader();
             headerLength = unpacker.unpackInt();
             bodyLength = unpacker.unpackInt();
+            suiteId = lengthsSize > 2 ? unpacker.unpackInt() : PrimitiveSuite.AES_SHA256.id();
             unpacker.unpackArrayHeader();
             unpacker.unpackArrayHeader();
             int alphaLength = unpacker.unpackExtensionTypeHeader().getLength();
@@ -447,11 +693,18 @@ public class SphinxClient {
             throw new SphinxException("Failed to unpack the sphinx packet");
         }
 
+        if (suiteId != params.suite().id()) {
+            throw new SphinxException("Packet primitive suite (" + suiteId + ") did not match the parameters (" + params.suite().id() + ")");
+        }
+
         unpacker = MessagePack.newDefaultUnpacker(packedAlpha);
         byte[] encodedAlpha;
         try {
             unpacker.unpackArrayHeader();
-            unpacker.unpackInt();
+            int groupId = unpacker.unpackInt();
+            if (groupId != params.getGroup().id()) {
+                throw new SphinxException("Unsupported curve (" + groupId + ")");
+            }
             int encodedAlphaLength = unpacker.unpackBinaryHeader();
             encodedAlpha = unpacker.readPayload(encodedAlphaLength);
             unpacker.close();
@@ -459,7 +712,12 @@ public class SphinxClient {
             throw new SphinxException("Failed to unpack alpha");
         }
 
-        ECPoint alpha = SerializationUtils.decodeECPoint(encodedAlpha);
+        ECPoint alpha;
+        try {
+            alpha = SerializationUtils.decodeECPoint(params.getGroup(), encodedAlpha);
+        } catch (IllegalArgumentException ex) {
+            throw new SphinxException("Invalid alpha");
+        }
 
         Header header = new Header(alpha, beta, gamma);
 
@@ -468,6 +726,75 @@ public class SphinxClient {
         return new SphinxPacket(params, packetContent);
     }
 
+    /**
+     * Encode a Sphinx packet in the {@link SphinxParams#packetFormat()} of the parameters.
+     * @param sphinxPacket Sphinx packet and the Sphinx parameter lengths.
+     * @return Encoded packet of {@link SphinxParams#packedPacketLength()} bytes.
+     */
+    public byte[] encodePacket(SphinxPacket sphinxPacket) throws SphinxException {
+        PacketCodec codec = params.packetCodec();
+        PacketBuffer packet = loadPacket(sphinxPacket);
+
+        ByteBuffer out = ByteBuffer.allocate(codec.encodedLength());
+        codec.write(packet, out);
+        return out.array();
+    }
+
+    /**
+     * Encode a Sphinx packet in the {@link SphinxParams#packetFormat()} of the parameters into a frame of the pool.
+     * @param sphinxPacket Sphinx packet and the Sphinx parameter lengths.
+     * @param pool Pool of frames for the parameters of this client.
+     * @return Frame holding the encoded packet between its position and limit, to be released to the pool once the
+     *         packet has been sent.
+     */
+    public ByteBuffer encodePacket(SphinxPacket sphinxPacket, FramePool pool) throws SphinxException {
+        return params.packetCodec().write(loadPacket(sphinxPacket), pool);
+    }
+
+    /**
+     * Decode a Sphinx packet encoded in the {@link SphinxParams#packetFormat()} of the parameters.
+     * @param m Encoded packet.
+     * @return Decoded Sphinx packet.
+     */
+    public SphinxPacket decodePacket(byte[] m) throws SphinxException {
+        return decodePacket(ByteBuffer.wrap(m));
+    }
+
+    /**
+     * Decode a Sphinx packet encoded in the {@link SphinxParams#packetFormat()} of the parameters.
+     * @param in Buffer holding the encoded packet, which may be a pooled frame, its position is advanced past the
+     *           packet. The decoded packet does not refer to the buffer.
+     * @return Decoded Sphinx packet.
+     */
+    public SphinxPacket decodePacket(ByteBuffer in) throws SphinxException {
+        PacketBuffer packet = packetScratch.get();
+        params.packetCodec().read(in, packet);
+
+        PacketContent packetContent;
+        try {
+            packetContent = packet.toPacketContent();
+        } catch (IllegalArgumentException ex) {
+            throw new SphinxException("Invalid alpha");
+        }
+
+        return new SphinxPacket(params, packetContent);
+    }
+
+    /**
+     * Load a packet into the packet buffer of the calling thread.
+     */
+    private PacketBuffer loadPacket(SphinxPacket sphinxPacket) throws SphinxException {
+        checkPacketParams(sphinxPacket);
+
+        PacketBuffer packet = packetScratch.get();
+        try {
+            packet.load(sphinxPacket.packetContent());
+        } catch (IllegalArgumentException ex) {
+            throw new SphinxException(ex.getMessage());
+        }
+        return packet;
+    }
+
     /**
      * Compute the maximum number of bytes that can be packet into a single Sphinx packet payload with the given parameters.
      * @return Maximum number of bytes that can be packet into a single Sphinx packet payload with the given parameters.
@@ -523,13 +850,28 @@ public class SphinxClient {
         return ret;
     }
 
+    private static void checkDestination(byte[] destination) throws SphinxException {
+        if (!(destination.length > 0 && destination.length < MAX_DEST_SIZE)) {
+            throw new SphinxException("Destination has to be between 1 and " + MAX_DEST_SIZE + " bytes long");
+        }
+    }
+
+    private void checkPacketParams(SphinxPacket sphinxPacket) throws SphinxException {
+        if (sphinxPacket.groupId() != params.getGroup().id()) {
+            throw new SphinxException("Packet group (" + sphinxPacket.groupId() + ") did not match the parameters (" + params.getGroup().id() + ")");
+        }
+        if (sphinxPacket.suiteId() != params.suite().id()) {
+            throw new SphinxException("Packet primitive suite (" + sphinxPacket.suiteId() + ") did not match the parameters (" + params.suite().id() + ")");
+        }
+    }
+
     private byte[] packECPoint(ECPoint ecPoint) throws SphinxException {
-        byte[] encodedEcPoint = SerializationUtils.encodeECPoint(ecPoint);
+        byte[] encodedEcPoint = SerializationUtils.encodeECPoint(params.getGroup(), ecPoint);
 
         MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
         try {
             packer.packArrayHeader(2);
-            packer.packInt(ECCGroup.DEFAULT_CURVE_NID);
+            packer.packInt(params.getGroup().id());
             packer.packBinaryHeader(encodedEcPoint.length);
             packer.writePayload(encodedEcPoint);
             packer.close();
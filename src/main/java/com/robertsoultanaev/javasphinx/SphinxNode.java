@@ -1,35 +1,95 @@
 package com.robertsoultanaev.javasphinx;
 
+import com.robertsoultanaev.javasphinx.codec.PacketBuffer;
+import com.robertsoultanaev.javasphinx.codec.PacketCodec;
 import com.robertsoultanaev.javasphinx.crypto.ECCGroup;
+import com.robertsoultanaev.javasphinx.crypto.HopKeys;
+import com.robertsoultanaev.javasphinx.metrics.Counter;
+import com.robertsoultanaev.javasphinx.metrics.Metrics;
+import com.robertsoultanaev.javasphinx.metrics.Stage;
+import com.robertsoultanaev.javasphinx.packet.ProcessedFrame;
 import com.robertsoultanaev.javasphinx.packet.ProcessedPacket;
+import com.robertsoultanaev.javasphinx.packet.ProcessingResult;
 import com.robertsoultanaev.javasphinx.packet.SphinxPacket;
 import com.robertsoultanaev.javasphinx.packet.header.Header;
 import com.robertsoultanaev.javasphinx.packet.header.PacketContent;
+import com.robertsoultanaev.javasphinx.pki.NodeKeyRing;
+import com.robertsoultanaev.javasphinx.pki.NodeKeyRing.EpochKey;
+import com.robertsoultanaev.javasphinx.replay.ReplayDetectedException;
+import com.robertsoultanaev.javasphinx.replay.ReplayFilter;
 import com.robertsoultanaev.javasphinx.routing.RoutingStrategy;
 import org.bouncycastle.math.ec.ECPoint;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Class representing a mix node
  */
 public class SphinxNode {
 
+    /**
+     * Number of packets below which a batch is no longer split up. A single packet already costs two scalar
+     * multiplications, so even small ranges are worth a task of their own. The packets of a range share their field
+     * inversions, but the saving is small next to the multiplications and does not make up for running a range of 8
+     * on one thread.
+     */
+    private static final int BATCH_SPLIT_THRESHOLD = 4;
+
     private final SphinxParams params;
     private final SphinxClient client;
     private final BigInteger secret;
+    private final ReplayFilter replayFilter;
+    private final NodeKeyRing keyRing;
+    private final ThreadLocal<WireScratch> wireScratch;
 
     public SphinxNode(final SphinxParams params, final RoutingStrategy routingStrategy, final BigInteger secret) {
+        this(params, routingStrategy, secret, null);
+    }
+
+    /**
+     * @param replayFilter Filter used to reject packets whose tag has already been seen, null to disable replay detection
+     */
+    public SphinxNode(final SphinxParams params, final RoutingStrategy routingStrategy, final BigInteger secret, final ReplayFilter replayFilter) {
         this.params = params;
         this.client = new SphinxClient(params, routingStrategy);
         this.secret = secret;
+        this.replayFilter = replayFilter;
+        this.keyRing = null;
+        this.wireScratch = ThreadLocal.withInitial(() -> new WireScratch(params));
+    }
+
+    /**
+     * Create a node whose keys are rotated while it runs. Every packet is processed with the key of the epoch named by
+     * its {@link Header#epochHint()}, and checked against the replay tags of that epoch.
+     * @param keyRing Private keys of the node by key epoch
+     * @throws IllegalArgumentException If the packet format of the parameters does not carry epoch hints.
+     */
+    public SphinxNode(final SphinxParams params, final RoutingStrategy routingStrategy, final NodeKeyRing keyRing) {
+        if (!params.packetFormat().carriesEpochHints()) {
+            throw new IllegalArgumentException("Key rings require a packet format that carries epoch hints, not " + params.packetFormat());
+        }
+        this.params = params;
+        this.client = new SphinxClient(params, routingStrategy);
+        this.secret = null;
+        this.replayFilter = null;
+        this.keyRing = keyRing;
+        this.wireScratch = ThreadLocal.withInitial(() -> new WireScratch(params));
     }
 
     public SphinxClient client() {
         return client;
     }
 
+    public SphinxParams params() {
+        return params;
+    }
+
     /**
      * Method that processes Sphinx packets at a mix node
      * @param packetContent Header and encrypted payload of the Sphinx packet
@@ -37,49 +97,388 @@ public class SphinxNode {
      */
     public ProcessedPacket sphinxProcess(PacketContent packetContent) throws SphinxException {
         ECCGroup group = params.getGroup();
-        ECPoint alpha = packetContent.header().alpha();
+        EpochKey key = selectKey(packetContent.header().epochHint());
+
+        long start = Metrics.start();
+        ECPoint s = group.expon(packetContent.header().alpha(), secretOf(key));
+        Metrics.stage(Stage.NODE_SHARED_SECRET, start);
+        Unwrapped unwrapped = unwrap(packetContent, key, s);
+
+        long t = Metrics.start();
+        ECPoint alpha = group.expon(packetContent.header().alpha(), unwrapped.hopKeys().blind());
+        Metrics.stage(Stage.NODE_BLINDING, t);
+        ProcessedPacket processed = finish(packetContent, unwrapped, alpha);
+        Metrics.stage(Stage.NODE_TOTAL, start);
+        return processed;
+    }
+
+    /**
+     * State of a packet between the two scalar multiplications of its processing.
+     */
+    private record Unwrapped(HopKeys hopKeys, byte[] tag, byte[] routing, byte[] beta, byte[] gamma) {
+    }
+
+    /**
+     * Check the MAC and the replay tag of a packet and decrypt its routing information, given the shared secret.
+     */
+    private Unwrapped unwrap(PacketContent packetContent, EpochKey key, ECPoint s) throws SphinxException {
         byte[] beta = packetContent.header().beta();
         byte[] gamma = packetContent.header().gamma();
-        byte[] delta = packetContent.delta();
 
-        ECPoint s = group.expon(alpha, secret);
+        long t = Metrics.start();
         byte[] aesS = params.getAesKey(s);
+        t = Metrics.stage(Stage.NODE_AES_KEY, t);
 
         if (beta.length != (params.headerLength() - 32)) {
             throw new SphinxException("Length of beta (" + beta.length + ") did not match expected length (" + (params.headerLength() - 32) + ")");
         }
 
-        if (!Arrays.equals(gamma, params.mu(params.hmu(aesS), beta))) {
+        HopKeys hopKeys = params.deriveHopKeys(aesS);
+        t = Metrics.stage(Stage.NODE_KEY_DERIVATION, t);
+
+        if (!Arrays.equals(gamma, params.mu(hopKeys.mu(), beta))) {
+            Metrics.count(Counter.NODE_MAC_FAILURES);
             throw new SphinxException("MAC mismatch");
         }
+        t = Metrics.stage(Stage.NODE_MAC, t);
+
+        byte[] tag = hopKeys.tau();
+        if (!markSeen(key, tag)) {
+            Metrics.count(Counter.NODE_REPLAYS);
+            throw new ReplayDetectedException("Packet tag has already been seen");
+        }
 
         byte[] betaPadZeroes = new byte[2 * params.bodyLength()];
         Arrays.fill(betaPadZeroes, (byte) 0x00);
         byte[] betaPad = SerializationUtils.concatenate(beta, betaPadZeroes);
 
-        byte[] B = params.xorRho(params.hrho(aesS), betaPad);
+        byte[] B = params.xorRho(hopKeys.rho(), betaPad);
 
         byte length = B[0];
+        if (length < 0) {
+            throw new SphinxException("Length of routing information (" + length + ") must be non-negative");
+        }
         byte[] routing = SerializationUtils.slice(B, 1, 1 + length);
         byte[] rest = SerializationUtils.slice(B, 1 + length, B.length);
-
-        byte[] tag = params.htau(aesS);
-        BigInteger b = params.hb(alpha, aesS);
-        alpha = group.expon(alpha, b);
         gamma = SerializationUtils.slice(rest, params.keyLength());
         beta = SerializationUtils.slice(rest, params.keyLength(), params.keyLength() + (params.headerLength() - 32));
-        delta = params.pii(params.hpi(aesS), delta);
+        Metrics.stage(Stage.NODE_HEADER_STREAM, t);
+
+        return new Unwrapped(hopKeys, tag, routing, beta, gamma);
+    }
 
-        byte[] macKey = params.hpi(aesS);
+    /**
+     * Decrypt the payload of an unwrapped packet and assemble the packet for the next hop around the blinded alpha.
+     */
+    private ProcessedPacket finish(PacketContent packetContent, Unwrapped unwrapped, ECPoint alpha) throws SphinxException {
+        long t = Metrics.start();
+        byte[] delta = params.pii(unwrapped.hopKeys().pi(), packetContent.delta());
+        Metrics.stage(Stage.NODE_PAYLOAD, t);
 
-        Header header = new Header(alpha, beta, gamma);
+        byte[] macKey = unwrapped.hopKeys().pi();
+
+        Header header = new Header(alpha, unwrapped.beta(), unwrapped.gamma(), packetContent.header().epochHint());
 
         PacketContent packetContent1 = new PacketContent(header, delta);
 
-        return new ProcessedPacket(tag, routing, packetContent1, macKey);
+        Metrics.countProcessed(unwrapped.routing());
+        return new ProcessedPacket(unwrapped.tag(), unwrapped.routing(), packetContent1, macKey);
+    }
+
+    /**
+     * Process a packed Sphinx packet straight from the wire. The packet is read from the current position of the input
+     * buffer and the packet for the next hop is written at the current position of the output buffer, both in the
+     * {@link SphinxParams#packetFormat()} of the parameters. Both buffers may be direct. All intermediate state lives in buffers reused by the calling thread.
+     * @param in Buffer holding the packed packet, its position is advanced past the packet
+     * @param out Buffer receiving the packed packet for the next hop, its position is advanced past the packet
+     * @return Tag, routing information and MAC key of the processed packet
+     */
+    public ProcessedFrame process(ByteBuffer in, ByteBuffer out) throws SphinxException {
+        WireScratch scratch = wireScratch.get();
+        scratch.codec.read(in, scratch.packet);
+        ProcessedFrame frame = process(scratch.packet, scratch.stream);
+        scratch.codec.write(scratch.packet, out);
+        return frame;
+    }
+
+    /**
+     * Process a Sphinx packet in place. On return the buffer holds the packet for the next hop.
+     * @param packet Buffer holding the header and encrypted payload of the Sphinx packet
+     * @return Tag, routing information and MAC key of the processed packet
+     */
+    public ProcessedFrame process(PacketBuffer packet) throws SphinxException {
+        return process(packet, wireScratch.get().stream);
+    }
+
+    private ProcessedFrame process(PacketBuffer packet, byte[] stream) throws SphinxException {
+        ECCGroup group = params.getGroup();
+        byte[] beta = packet.beta();
+        byte[] gamma = packet.gamma();
+        int betaLength = beta.length;
+        int keyLength = params.keyLength();
+        EpochKey key = selectKey(packet.epochHint());
+
+        long start = Metrics.start();
+        ECPoint alpha;
+        try {
+            alpha = SerializationUtils.decodeECPoint(group, packet.alpha());
+        } catch (IllegalArgumentException ex) {
+            throw new SphinxException("Invalid alpha");
+        }
+        ECPoint s = group.expon(alpha, secretOf(key));
+        long t = Metrics.stage(Stage.NODE_SHARED_SECRET, start);
+        byte[] aesS = params.getAesKey(s);
+        t = Metrics.stage(Stage.NODE_AES_KEY, t);
+
+        HopKeys hopKeys = params.deriveHopKeys(aesS);
+        t = Metrics.stage(Stage.NODE_KEY_DERIVATION, t);
+
+        if (!Arrays.equals(gamma, params.mu(hopKeys.mu(), beta))) {
+            Metrics.count(Counter.NODE_MAC_FAILURES);
+            throw new SphinxException("MAC mismatch");
+        }
+        t = Metrics.stage(Stage.NODE_MAC, t);
+
+        byte[] tag = hopKeys.tau();
+        if (!markSeen(key, tag)) {
+            Metrics.count(Counter.NODE_REPLAYS);
+            throw new ReplayDetectedException("Packet tag has already been seen");
+        }
+
+        // Decrypt beta first to learn the routing length, then extend the keystream over the zero padding only as
+        // far as the next gamma and beta reach
+        byte[] rhoKey = hopKeys.rho();
+        System.arraycopy(beta, 0, stream, 0, betaLength);
+        params.xorRho(rhoKey, 0, stream, 0, betaLength);
+
+        byte length = stream[0];
+        if (length < 0) {
+            throw new SphinxException("Length of routing information (" + length + ") must be non-negative");
+        }
+        int gammaOffset = 1 + length;
+        int betaOffset = gammaOffset + keyLength;
+        int streamLength = betaOffset + betaLength;
+        Arrays.fill(stream, betaLength, streamLength, (byte) 0x00);
+        params.xorRho(rhoKey, betaLength, stream, betaLength, streamLength - betaLength);
+
+        byte[] routing = Arrays.copyOfRange(stream, 1, gammaOffset);
+        System.arraycopy(stream, gammaOffset, gamma, 0, keyLength);
+        System.arraycopy(stream, betaOffset, beta, 0, betaLength);
+        t = Metrics.stage(Stage.NODE_HEADER_STREAM, t);
+
+        byte[] nextAlpha = SerializationUtils.encodeECPoint(group, group.expon(alpha, hopKeys.blind()));
+        System.arraycopy(nextAlpha, 0, packet.alpha(), 0, nextAlpha.length);
+        t = Metrics.stage(Stage.NODE_BLINDING, t);
+
+        byte[] macKey = hopKeys.pi();
+        params.pii(macKey, packet.delta(), 0);
+        Metrics.stage(Stage.NODE_PAYLOAD, t);
+
+        Metrics.stage(Stage.NODE_TOTAL, start);
+        Metrics.countProcessed(routing);
+        return new ProcessedFrame(tag, routing, macKey);
+    }
+
+    /**
+     * Key of the epoch named by a packet, null for a node with a single key, which ignores the hint.
+     */
+    private EpochKey selectKey(int epochHint) throws SphinxException {
+        if (keyRing == null) {
+            return null;
+        }
+        EpochKey key = keyRing.select(epochHint);
+        if (key == null) {
+            throw new SphinxException("No key is active for epoch hint " + epochHint);
+        }
+        return key;
+    }
+
+    private BigInteger secretOf(EpochKey key) {
+        return key == null ? secret : key.secret();
+    }
+
+    private boolean markSeen(EpochKey key, byte[] tag) throws SphinxException {
+        if (key != null) {
+            return keyRing.markSeen(key, tag);
+        }
+        return replayFilter == null || replayFilter.markSeen(tag);
+    }
+
+    /**
+     * Process a batch of Sphinx packets in parallel on the common fork-join pool.
+     * @param packets Headers and encrypted payloads of the Sphinx packets
+     * @return One result per packet, in the order of the input
+     */
+    public List<ProcessingResult> processBatch(List<PacketContent> packets) {
+        return processBatch(ForkJoinPool.commonPool(), packets);
+    }
+
+    /**
+     * Process a batch of Sphinx packets in parallel on the given fork-join pool.
+     * @param pool Pool to run the processing on
+     * @param packets Headers and encrypted payloads of the Sphinx packets
+     * @return One result per packet, in the order of the input
+     */
+    public List<ProcessingResult> processBatch(ForkJoinPool pool, List<PacketContent> packets) {
+        PacketContent[] input = packets.toArray(new PacketContent[0]);
+        ProcessedPacket[] output = new ProcessedPacket[input.length];
+        SphinxException[] errors = processBatch(pool, input, output);
+
+        List<ProcessingResult> results = new ArrayList<>(input.length);
+        for (int i = 0; i < input.length; i++) {
+            results.add(new ProcessingResult(output[i], errors[i]));
+        }
+        return results;
+    }
+
+    /**
+     * Process a batch of Sphinx packets in parallel on the common fork-join pool.
+     * @param packets Headers and encrypted payloads of the Sphinx packets
+     * @param results Array receiving the processed packet at the index of its input, null if the packet was rejected
+     * @return The reason each packet was rejected at the index of its input, null if the packet was processed
+     */
+    public SphinxException[] processBatch(PacketContent[] packets, ProcessedPacket[] results) {
+        return processBatch(ForkJoinPool.commonPool(), packets, results);
+    }
+
+    /**
+     * Process a batch of Sphinx packets in parallel on the given fork-join pool. A packet that fails to process does
+     * not affect the other packets of the batch.
+     * @param pool Pool to run the processing on
+     * @param packets Headers and encrypted payloads of the Sphinx packets
+     * @param results Array receiving the processed packet at the index of its input, null if the packet was rejected
+     * @return The reason each packet was rejected at the index of its input, null if the packet was processed
+     */
+    public SphinxException[] processBatch(ForkJoinPool pool, PacketContent[] packets, ProcessedPacket[] results) {
+        if (results.length < packets.length) {
+            throw new IllegalArgumentException("Result array (" + results.length + ") is smaller than the batch (" + packets.length + ")");
+        }
+
+        SphinxException[] errors = new SphinxException[packets.length];
+        pool.invoke(new BatchTask(packets, results, errors, 0, packets.length));
+        return errors;
     }
 
     public SphinxPacket repack(ProcessedPacket packet) {
         return new SphinxPacket(params, packet.packetContent());
     }
+
+    private class BatchTask extends RecursiveAction {
+        private final PacketContent[] packets;
+        private final ProcessedPacket[] results;
+        private final SphinxException[] errors;
+        private final int from;
+        private final int to;
+
+        BatchTask(PacketContent[] packets, ProcessedPacket[] results, SphinxException[] errors, int from, int to) {
+            this.packets = packets;
+            this.results = results;
+            this.errors = errors;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH_SPLIT_THRESHOLD) {
+                processRange();
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new BatchTask(packets, results, errors, from, middle),
+                    new BatchTask(packets, results, errors, middle, to));
+        }
+
+        /**
+         * Process the packets of the range with one batched multiplication for all shared secrets and one for all
+         * blinded alphas, so the range shares the field inversions that bring the points back to affine coordinates.
+         */
+        private void processRange() {
+            ECCGroup group = params.getGroup();
+            int n = to - from;
+            EpochKey[] keys = new EpochKey[n];
+            boolean[] live = new boolean[n];
+            ECPoint[] bases = new ECPoint[n];
+            BigInteger[] exps = new BigInteger[n];
+
+            int count = 0;
+            for (int i = 0; i < n; i++) {
+                try {
+                    keys[i] = selectKey(packets[from + i].header().epochHint());
+                } catch (SphinxException | RuntimeException ex) {
+                    reject(i, ex);
+                    continue;
+                }
+                live[i] = true;
+                bases[count] = packets[from + i].header().alpha();
+                exps[count++] = secretOf(keys[i]);
+            }
+
+            // Stage latencies of the range are recorded per packet, like those of single packets
+            long start = Metrics.start();
+            ECPoint[] secrets = group.exponAll(Arrays.copyOf(bases, count), Arrays.copyOf(exps, count));
+            Metrics.stage(Stage.NODE_SHARED_SECRET, start, count);
+
+            Unwrapped[] unwrapped = new Unwrapped[n];
+            int j = 0;
+            count = 0;
+            for (int i = 0; i < n; i++) {
+                if (!live[i]) {
+                    continue;
+                }
+                try {
+                    unwrapped[i] = unwrap(packets[from + i], keys[i], secrets[j++]);
+                } catch (SphinxException | RuntimeException ex) {
+                    live[i] = false;
+                    reject(i, ex);
+                    continue;
+                }
+                bases[count] = packets[from + i].header().alpha();
+                exps[count++] = unwrapped[i].hopKeys().blind();
+            }
+
+            long t = Metrics.start();
+            ECPoint[] alphas = group.exponAll(Arrays.copyOf(bases, count), Arrays.copyOf(exps, count));
+            Metrics.stage(Stage.NODE_BLINDING, t, count);
+
+            int processed = 0;
+            j = 0;
+            for (int i = 0; i < n; i++) {
+                if (!live[i]) {
+                    continue;
+                }
+                try {
+                    results[from + i] = finish(packets[from + i], unwrapped[i], alphas[j++]);
+                    processed++;
+                } catch (SphinxException | RuntimeException ex) {
+                    reject(i, ex);
+                }
+            }
+            Metrics.stage(Stage.NODE_TOTAL, start, processed);
+        }
+
+        private void reject(int i, Exception ex) {
+            results[from + i] = null;
+            // A malformed packet must not take the other packets of the batch down, whatever it trips over
+            errors[from + i] = ex instanceof SphinxException sphinxException
+                    ? sphinxException : new SphinxException("Failed to process packet: " + ex);
+        }
+    }
+
+    /**
+     * Per-thread buffers of the buffer based processing path.
+     */
+    private static final class WireScratch {
+        private final PacketCodec codec;
+        private final PacketBuffer packet;
+        private final byte[] stream;
+
+        WireScratch(SphinxParams params) {
+            this.codec = params.packetCodec();
+            this.packet = new PacketBuffer(params);
+            // Length byte, the longest routing information it can announce, the next gamma and the next beta
+            this.stream = new byte[1 + Byte.MAX_VALUE + params.keyLength() + (params.headerLength() - 32)];
+        }
+    }
 }
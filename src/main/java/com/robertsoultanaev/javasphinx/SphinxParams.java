@@ -1,14 +1,13 @@
 package com.robertsoultanaev.javasphinx;
 
+import com.robertsoultanaev.javasphinx.codec.PacketCodec;
+import com.robertsoultanaev.javasphinx.codec.PacketFormat;
+import com.robertsoultanaev.javasphinx.crypto.CryptoContext;
 import com.robertsoultanaev.javasphinx.crypto.ECCGroup;
-import org.bouncycastle.crypto.CipherParameters;
-import org.bouncycastle.crypto.Mac;
-import org.bouncycastle.crypto.digests.SHA256Digest;
-import org.bouncycastle.crypto.engines.AESEngine;
-import org.bouncycastle.crypto.macs.HMac;
-import org.bouncycastle.crypto.modes.SICBlockCipher;
-import org.bouncycastle.crypto.params.KeyParameter;
-import org.bouncycastle.crypto.params.ParametersWithIV;
+import com.robertsoultanaev.javasphinx.crypto.ChaCha20KeyStream;
+import com.robertsoultanaev.javasphinx.crypto.HopKeys;
+import com.robertsoultanaev.javasphinx.crypto.PrimitiveSuite;
+import com.robertsoultanaev.javasphinx.crypto.SymmetricProvider;
 import org.bouncycastle.math.ec.ECPoint;
 
 import java.math.BigInteger;
@@ -18,21 +17,70 @@ import static com.robertsoultanaev.javasphinx.SerializationUtils.slice;
 
 /**
  * Class to represent the parameters of the Sphinx cryptographic computations, and house the internal crytographic functions used to create Sphinx packets.
+ * Instances are safe to share between threads, the cipher engines are kept in a {@link CryptoContext} per thread.
  */
 public class SphinxParams {
 
-    private static final int OVERHEAD = 19;
+    private static final byte[] FLAVOR_HB = "hbhbhbhbhbhbhbhb".getBytes();
+    private static final byte[] FLAVOR_HRHO = "hrhohrhohrhohrho".getBytes();
+    private static final byte[] FLAVOR_HMU = "hmu:hmu:hmu:hmu:".getBytes();
+    private static final byte[] FLAVOR_HPI = "hpi:hpi:hpi:hpi:".getBytes();
+    private static final byte[] FLAVOR_HTAU = "htauhtauhtauhtau".getBytes();
+    private static final byte[][] HOP_KEY_FLAVORS = {FLAVOR_HRHO, FLAVOR_HMU, FLAVOR_HPI, FLAVOR_HTAU, FLAVOR_HB};
+    // Shared by all calls, key streams only read the IV
+    private static final byte[] ZERO_IV = new byte[16];
 
     private final int keyLength;
     private final int bodyLength;
     private final int headerLength;
     private final ECCGroup group;
+    private final PacketFormat packetFormat;
+    private volatile PacketCodec packetCodec;
+    private final PrimitiveSuite suite;
+    private final SymmetricProvider symmetricProvider;
+    private final ThreadLocal<CryptoContext> context;
 
     public SphinxParams(int keyLength, int bodyLength, int headerLength, ECCGroup group) {
+        this(keyLength, bodyLength, headerLength, group, PacketFormat.MSGPACK);
+    }
+
+    public SphinxParams(int keyLength, int bodyLength, int headerLength, ECCGroup group, PacketFormat packetFormat) {
+        this(keyLength, bodyLength, headerLength, group, packetFormat, SymmetricProvider.defaultProvider());
+    }
+
+    public SphinxParams(int keyLength, int bodyLength, int headerLength, ECCGroup group, PacketFormat packetFormat,
+                        SymmetricProvider symmetricProvider) {
+        this(keyLength, bodyLength, headerLength, group, packetFormat, PrimitiveSuite.AES_SHA256, symmetricProvider);
+    }
+
+    public SphinxParams(int keyLength, int bodyLength, int headerLength, ECCGroup group, PacketFormat packetFormat,
+                        PrimitiveSuite suite) {
+        this(keyLength, bodyLength, headerLength, group, packetFormat, suite, SymmetricProvider.defaultProvider());
+    }
+
+    /**
+     * @param keyLength Length of the symmetric keys and MACs.
+     * @param bodyLength Length of the packet body.
+     * @param headerLength Length of the packet header.
+     * @param group Group of the public keys.
+     * @param packetFormat Wire format of the packets.
+     * @param suite Symmetric primitives of the network.
+     * @param symmetricProvider Implementation of AES-CTR, only used by {@link PrimitiveSuite#AES_SHA256}.
+     */
+    public SphinxParams(int keyLength, int bodyLength, int headerLength, ECCGroup group, PacketFormat packetFormat,
+                        PrimitiveSuite suite, SymmetricProvider symmetricProvider) {
+        if (suite == PrimitiveSuite.CHACHA20_BLAKE2 && keyLength != ChaCha20KeyStream.KEY_LENGTH) {
+            throw new IllegalArgumentException("Suite " + suite + " requires a key length of " + ChaCha20KeyStream.KEY_LENGTH);
+        }
+
         this.keyLength = keyLength;
         this.bodyLength = bodyLength;
         this.headerLength = headerLength;
         this.group = group;
+        this.packetFormat = packetFormat;
+        this.suite = suite;
+        this.symmetricProvider = symmetricProvider;
+        this.context = ThreadLocal.withInitial(() -> new CryptoContext(suite, symmetricProvider));
     }
 
     public SphinxParams() {
@@ -55,8 +103,36 @@ public class SphinxParams {
         return headerLength + bodyLength;
     }
 
+    /**
+     * Exact length of a packet encoded in the {@link #packetFormat()} of these parameters.
+     */
     public int packedPacketLength() {
-        return 2 * OVERHEAD + packetLength();
+        return packetCodec().encodedLength();
+    }
+
+    public PacketFormat packetFormat() {
+        return packetFormat;
+    }
+
+    /**
+     * Codec of the {@link #packetFormat()} of these parameters, used to put packets on the wire.
+     */
+    public PacketCodec packetCodec() {
+        PacketCodec codec = packetCodec;
+        if (codec == null) {
+            // Codecs are immutable, so a racing thread at worst builds an equivalent one
+            codec = packetFormat.newCodec(this);
+            packetCodec = codec;
+        }
+        return codec;
+    }
+
+    public PrimitiveSuite suite() {
+        return suite;
+    }
+
+    public SymmetricProvider symmetricProvider() {
+        return symmetricProvider;
     }
 
     public ECCGroup getGroup() {
@@ -68,93 +144,96 @@ public class SphinxParams {
     }
 
     public ECPoint derivePublicKey(BigInteger privateKey) {
-        return group.expon(group.getGenerator(), privateKey);
+        return group.exponGenerator(privateKey);
     }
 
-    public byte[] aesCtr(byte[] key, byte[] message, byte[] iv) {
-        CipherParameters params = new ParametersWithIV(new KeyParameter(key), iv);
-        SICBlockCipher engine = new SICBlockCipher(new AESEngine());
-
-        engine.init(true, params);
+    /**
+     * Crypto context of the calling thread.
+     */
+    public CryptoContext context() {
+        return context.get();
+    }
 
+    /**
+     * Encrypt with the stream cipher of the {@link #suite()}, which is AES-CTR unless the parameters use
+     * {@link PrimitiveSuite#CHACHA20_BLAKE2}.
+     */
+    public byte[] aesCtr(byte[] key, byte[] message, byte[] iv) {
         byte[] ciphertext = new byte[message.length];
 
-        engine.processBytes(message, 0, message.length, ciphertext, 0);
+        context().xorKeyStream(key, iv, 0, message, 0, message.length, ciphertext, 0);
 
         return ciphertext;
     }
 
     public byte[] aesCtr(byte[] key, byte[] message) {
-        byte[] iv = {0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0};
-        return aesCtr(key, message, iv);
+        return aesCtr(key, message, ZERO_IV);
+    }
+
+    /**
+     * XOR the keystream of the {@link #suite()} starting at the given stream position into a region of a buffer, in
+     * place.
+     * @param key Cipher key.
+     * @param iv Initial vector, the initial counter block for AES-CTR.
+     * @param position Offset into the keystream in bytes.
+     * @param data Buffer holding the data.
+     * @param offset Start of the region in data.
+     * @param length Length of the region.
+     */
+    public void aesCtr(byte[] key, byte[] iv, long position, byte[] data, int offset, int length) {
+        context().xorKeyStream(key, iv, position, data, offset, length, data, offset);
     }
 
     public void lionessCheckLengths(byte[] key, byte[] message) throws SphinxException {
+        lionessCheckLengths(key, message.length);
+    }
+
+    private void lionessCheckLengths(byte[] key, int messageLength) throws SphinxException {
         if (key.length != keyLength) {
             throw new SphinxException("Length of provided key (" + key.length + ") did not match the required key length (" + keyLength + ")");
         }
 
-        if (message.length < keyLength * 2) {
-            throw new SphinxException("Length of provided message (" + message.length + ") needs to be at least double the length of the key (" + keyLength + ")");
+        if (messageLength < keyLength * 2) {
+            throw new SphinxException("Length of provided message (" + messageLength + ") needs to be at least double the length of the key (" + keyLength + ")");
         }
     }
 
     public byte[] lionessEnc(byte[] key, byte[] message) throws SphinxException {
-        lionessCheckLengths(key, message);
-
-        // Round 1
-        byte[] messageShort = slice(message, keyLength);
-        byte[] messageLong = slice(message, keyLength, message.length);
-        byte[] one = "1".getBytes();
-        byte[] k1 = slice(hash(concatenate(messageLong, key, one)), keyLength);
-        byte[] c = aesCtr(key, messageShort, k1);
-        byte[] r1 = concatenate(c, messageLong);
-
-        // Round 2
-        byte[] r1Short = slice(r1, keyLength);
-        byte[] r1Long = slice(r1, keyLength, message.length);
-        c = aesCtr(key, r1Long, r1Short);
-        byte[] r2 = concatenate(r1Short, c);
-
-        // Round 3
-        byte[] r2Short = slice(r2, keyLength);
-        byte[] r2Long = slice(r2, keyLength, message.length);
-        byte[] three = "3".getBytes();
-        byte[] k3 = slice(hash(concatenate(r2Long, key, three)), keyLength);
-        c = aesCtr(key, r2Short, k3);
-        byte[] r3 = concatenate(c, r2Long);
-
-        // Round 4
-        byte[] r3Short = slice(r3, keyLength);
-        byte[] r3Long = slice(r3, keyLength, message.length);
-        c = aesCtr(key, r3Long, r3Short);
-
-        return concatenate(r3Short, c);
+        byte[] ciphertext = message.clone();
+        lionessEnc(key, ciphertext, 0, ciphertext.length);
+        return ciphertext;
     }
 
     public byte[] lionessDec(byte[] key, byte[] message) throws SphinxException {
-        lionessCheckLengths(key, message);
-
-        byte[] r4Short = slice(message, keyLength);
-        byte[] r4Long = slice(message, keyLength, message.length);
-
-        // Round 4
-        byte[] r3Long = aesCtr(key, r4Long, r4Short);
-
-        // Round 3
-        byte[] three = "3".getBytes();
-        byte[] k2 = slice(hash(concatenate(r3Long, key, three)), keyLength);
-        byte[] r2Short = aesCtr(key, r4Short, k2);
-
-        // Round 2
-        byte[] r1Long = aesCtr(key, r3Long, r2Short);
+        byte[] plaintext = message.clone();
+        lionessDec(key, plaintext, 0, plaintext.length);
+        return plaintext;
+    }
 
-        // Round 1
-        byte[] one = "1".getBytes();
-        byte[] k0 = slice(hash(concatenate(r1Long, key, one)), keyLength);
-        byte[] c = aesCtr(key, r2Short, k0);
+    /**
+     * Apply {@link #lionessEnc(byte[], byte[])} to a region of a buffer in place, without intermediate copies of the
+     * message.
+     * @param key Key of length keyLength.
+     * @param buf Buffer holding the message.
+     * @param offset Start of the message in buf.
+     * @param length Length of the message, at least twice the key length.
+     */
+    public void lionessEnc(byte[] key, byte[] buf, int offset, int length) throws SphinxException {
+        lionessCheckLengths(key, length);
+        context().lionessEnc(key, buf, offset, length);
+    }
 
-        return concatenate(c, r1Long);
+    /**
+     * Apply {@link #lionessDec(byte[], byte[])} to a region of a buffer in place, without intermediate copies of the
+     * message.
+     * @param key Key of length keyLength.
+     * @param buf Buffer holding the message.
+     * @param offset Start of the message in buf.
+     * @param length Length of the message, at least twice the key length.
+     */
+    public void lionessDec(byte[] key, byte[] buf, int offset, int length) throws SphinxException {
+        lionessCheckLengths(key, length);
+        context().lionessDec(key, buf, offset, length);
     }
 
     public byte[] xorRho(byte[] key, byte[] plain) throws SphinxException {
@@ -165,14 +244,26 @@ public class SphinxParams {
         return aesCtr(key, plain);
     }
 
-    public byte[] mu(byte[] key, byte[] data) {
-        Mac mac = new HMac(new SHA256Digest());
-        CipherParameters cipherParameters = new KeyParameter(key);
-        mac.init(cipherParameters);
-        byte[] output = new byte[mac.getMacSize()];
+    /**
+     * Apply {@link #xorRho(byte[], byte[])} to a region of a buffer in place, starting at the given stream position.
+     * Encrypting a message in several pieces at increasing positions gives the same result as encrypting it at once,
+     * which allows generating only as much of the keystream as is needed.
+     * @param key Key of length keyLength.
+     * @param position Offset into the keystream in bytes.
+     * @param data Buffer holding the data.
+     * @param offset Start of the region in data.
+     * @param length Length of the region.
+     */
+    public void xorRho(byte[] key, long position, byte[] data, int offset, int length) throws SphinxException {
+        if (key.length != keyLength) {
+            throw new SphinxException("Length of provided key (" + key.length + ") did not match the required key length (" + keyLength + ")");
+        }
 
-        mac.update(data, 0, data.length);
-        mac.doFinal(output, 0);
+        aesCtr(key, ZERO_IV, position, data, offset, length);
+    }
+
+    public byte[] mu(byte[] key, byte[] data) {
+        byte[] output = context().hmac(key, data, 0, data.length);
 
         return slice(output, keyLength);
     }
@@ -201,14 +292,22 @@ public class SphinxParams {
         return lionessDec(key, data);
     }
 
-    public byte[] hash(byte[] data) {
-        SHA256Digest digest = new SHA256Digest();
-        byte[] output = new byte[digest.getDigestSize()];
+    /**
+     * Apply {@link #pi(byte[], byte[])} to a body of bodyLength bytes in place.
+     */
+    public void pi(byte[] key, byte[] buf, int offset) throws SphinxException {
+        lionessEnc(key, buf, offset, bodyLength);
+    }
 
-        digest.update(data, 0, data.length);
-        digest.doFinal(output, 0);
+    /**
+     * Apply {@link #pii(byte[], byte[])} to a body of bodyLength bytes in place.
+     */
+    public void pii(byte[] key, byte[] buf, int offset) throws SphinxException {
+        lionessDec(key, buf, offset, bodyLength);
+    }
 
-        return output;
+    public byte[] hash(byte[] data) {
+        return context().hash(data, 0, data.length);
     }
 
     public byte[] getAesKey(ECPoint s) {
@@ -222,39 +321,39 @@ public class SphinxParams {
     }
 
     public byte[] deriveKey(byte[] k, byte[] flavor) {
-        byte[] m = new byte[keyLength];
-
-        return aesCtr(k, m, flavor);
+        return context().deriveKeys(k, new byte[][]{flavor}, keyLength)[0];
     }
 
     public BigInteger hb(ECPoint alpha, byte[] k) {
-        byte[] flavor = "hbhbhbhbhbhbhbhb".getBytes();
-        byte[] K = deriveKey(k, flavor);
+        byte[] K = deriveKey(k, FLAVOR_HB);
 
         return group.makeexp(K);
     }
 
     public byte[] hrho(byte[] k) {
-        byte[] flavor = "hrhohrhohrhohrho".getBytes();
-
-        return deriveKey(k, flavor);
+        return deriveKey(k, FLAVOR_HRHO);
     }
 
     public byte[] hmu(byte[] k) {
-        byte[] flavor = "hmu:hmu:hmu:hmu:".getBytes();
-
-        return deriveKey(k, flavor);
+        return deriveKey(k, FLAVOR_HMU);
     }
 
     public byte[] hpi(byte[] k) {
-        byte[] flavor = "hpi:hpi:hpi:hpi:".getBytes();
-
-        return deriveKey(k, flavor);
+        return deriveKey(k, FLAVOR_HPI);
     }
 
     public byte[] htau(byte[] k) {
-        byte[] flavor = "htauhtauhtauhtau".getBytes();
+        return deriveKey(k, FLAVOR_HTAU);
+    }
+
+    /**
+     * Derive all subkeys of a hop from its shared secret at once, expanding the AES key of the secret only once.
+     * @param k Shared secret of the hop, as returned by {@link #getAesKey(ECPoint)}.
+     * @return The values of {@link #hrho}, {@link #hmu}, {@link #hpi}, {@link #htau} and {@link #hb} for k.
+     */
+    public HopKeys deriveHopKeys(byte[] k) {
+        byte[][] keys = context().deriveKeys(k, HOP_KEY_FLAVORS, keyLength);
 
-        return deriveKey(k, flavor);
+        return new HopKeys(keys[0], keys[1], keys[2], keys[3], group.makeexp(keys[4]));
     }
 }
@@ -0,0 +1,160 @@
+package com.robertsoultanaev.javasphinx.codec;
+
+import com.robertsoultanaev.javasphinx.SphinxException;
+import com.robertsoultanaev.javasphinx.SphinxParams;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Versioned fixed-layout packet format. All fields sit at offsets known from the parameters, multi-byte integers are
+ * big endian:
+ *
+ * <pre>
+ * offset  length  field
+ *      0       4  magic "SPHX"
+ *      4       1  format version
+ *      5       1  primitive suite id
+ *      6       2  group id
+ *      8       4  header length
+ *     12       4  body length
+ *     16       1  key epoch hint
+ *     17       3  reserved, zero
+ *     20       a  alpha, encoded by the group
+ *   20+a     h-32 beta
+ *      .       k  gamma
+ *      .       b  delta
+ * </pre>
+ *
+ * Reading validates the prefix and copies the fields straight into a {@link PacketBuffer}, there is no parsing of
+ * variable length framing.
+ */
+public final class BinaryPacketCodec implements PacketCodec {
+
+    public static final int MAGIC = 0x53504858;
+    public static final byte VERSION = 2;
+    public static final int PREFIX_LENGTH = 20;
+
+    private static final int VERSION_OFFSET = 4;
+    private static final int SUITE_OFFSET = 5;
+    private static final int GROUP_OFFSET = 6;
+    private static final int HEADER_LENGTH_OFFSET = 8;
+    private static final int BODY_LENGTH_OFFSET = 12;
+    private static final int EPOCH_HINT_OFFSET = 16;
+
+    private final SphinxParams params;
+    private final int betaOffset;
+    private final int gammaOffset;
+    private final int deltaOffset;
+    private final int encodedLength;
+
+    public BinaryPacketCodec(SphinxParams params) {
+        this.params = params;
+        this.betaOffset = PREFIX_LENGTH + params.getGroup().encodedPointLength();
+        this.gammaOffset = betaOffset + params.headerLength() - 32;
+        this.deltaOffset = gammaOffset + params.keyLength();
+        this.encodedLength = deltaOffset + params.bodyLength();
+    }
+
+    @Override
+    public int encodedLength() {
+        return encodedLength;
+    }
+
+    public int alphaOffset() {
+        return PREFIX_LENGTH;
+    }
+
+    public int betaOffset() {
+        return betaOffset;
+    }
+
+    public int gammaOffset() {
+        return gammaOffset;
+    }
+
+    public int deltaOffset() {
+        return deltaOffset;
+    }
+
+    @Override
+    public void read(ByteBuffer in, PacketBuffer packet) throws SphinxException {
+        if (in.remaining() < encodedLength) {
+            throw new SphinxException("Packet is truncated");
+        }
+
+        int start = in.position();
+        if (getInt(in, start) != MAGIC) {
+            throw new SphinxException("Not a binary Sphinx packet");
+        }
+        int version = in.get(start + VERSION_OFFSET);
+        if (version != VERSION) {
+            throw new SphinxException("Unsupported packet format version (" + version + ")");
+        }
+        int suiteId = in.get(start + SUITE_OFFSET) & 0xff;
+        if (suiteId != params.suite().id()) {
+            throw new SphinxException("Packet primitive suite (" + suiteId + ") did not match the parameters (" + params.suite().id() + ")");
+        }
+        int groupId = getShort(in, start + GROUP_OFFSET) & 0xffff;
+        if (groupId != params.getGroup().id()) {
+            throw new SphinxException("Unsupported curve (" + groupId + ")");
+        }
+        int headerLength = getInt(in, start + HEADER_LENGTH_OFFSET);
+        int bodyLength = getInt(in, start + BODY_LENGTH_OFFSET);
+        if (headerLength != params.headerLength() || bodyLength != params.bodyLength()) {
+            throw new SphinxException("Packet lengths (" + headerLength + ", " + bodyLength + ") did not match the parameters (" + params.headerLength() + ", " + params.bodyLength() + ")");
+        }
+
+        int hintAndReserved = getInt(in, start + EPOCH_HINT_OFFSET);
+        if ((hintAndReserved & 0xffffff) != 0) {
+            throw new SphinxException("Reserved bytes of the packet prefix are not zero");
+        }
+
+        packet.epochHint(hintAndReserved >>> 24);
+        in.get(start + PREFIX_LENGTH, packet.alpha());
+        in.get(start + betaOffset, packet.beta());
+        in.get(start + gammaOffset, packet.gamma());
+        in.get(start + deltaOffset, packet.delta());
+        in.position(start + encodedLength);
+    }
+
+    @Override
+    public void write(PacketBuffer packet, ByteBuffer out) throws SphinxException {
+        if (out.remaining() < encodedLength) {
+            throw new SphinxException("Output buffer (" + out.remaining() + ") is too small for the packet (" + encodedLength + ")");
+        }
+
+        int start = out.position();
+        putInt(out, start, MAGIC);
+        out.put(start + VERSION_OFFSET, VERSION);
+        out.put(start + SUITE_OFFSET, (byte) params.suite().id());
+        putShort(out, start + GROUP_OFFSET, (short) params.getGroup().id());
+        putInt(out, start + HEADER_LENGTH_OFFSET, params.headerLength());
+        putInt(out, start + BODY_LENGTH_OFFSET, params.bodyLength());
+        putInt(out, start + EPOCH_HINT_OFFSET, packet.epochHint() << 24);
+
+        out.put(start + PREFIX_LENGTH, packet.alpha());
+        out.put(start + betaOffset, packet.beta());
+        out.put(start + gammaOffset, packet.gamma());
+        out.put(start + deltaOffset, packet.delta());
+        out.position(start + encodedLength);
+    }
+
+    private static int getInt(ByteBuffer buffer, int index) {
+        int value = buffer.getInt(index);
+        return buffer.order() == ByteOrder.BIG_ENDIAN ? value : Integer.reverseBytes(value);
+    }
+
+    private static short getShort(ByteBuffer buffer, int index) {
+        short value = buffer.getShort(index);
+        return buffer.order() == ByteOrder.BIG_ENDIAN ? value : Short.reverseBytes(value);
+    }
+
+    private static void putInt(ByteBuffer buffer, int index, int value) {
+        buffer.putInt(index, buffer.order() == ByteOrder.BIG_ENDIAN ? value : Integer.reverseBytes(value));
+    }
+
+    private static void putShort(ByteBuffer buffer, int index, short value) {
+        buffer.putShort(index, buffer.order() == ByteOrder.BIG_ENDIAN ? value : Short.reverseBytes(value));
+    }
+}
@@ -0,0 +1,193 @@
+package com.robertsoultanaev.javasphinx.codec;
+
+import com.robertsoultanaev.javasphinx.SphinxParams;
+import com.robertsoultanaev.javasphinx.metrics.Counter;
+import com.robertsoultanaev.javasphinx.metrics.Metrics;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Pool of frames, buffers of {@link SphinxParams#packedPacketLength()} bytes that hold one encoded packet each.
+ * <p>
+ * Packet paths take a frame from the pool instead of allocating a packet sized array per packet, and release it once
+ * the packet has been consumed. Every thread keeps up to {@code threadCacheSize} released frames for itself, so a
+ * thread that acquires and releases its own frames never touches shared state. Frames beyond that go to a bounded
+ * lock-free stack shared by all threads, which also carries frames from the threads releasing them to the threads
+ * acquiring them. A frame released while both are full is left to the garbage collector.
+ * <p>
+ * With leak detection on, the pool remembers where every frame that is out was acquired, rejects frames released twice
+ * and reports the frames never released in {@link #checkLeaks()}. It is on when the system property
+ * {@code javasphinx.pool.leakDetection} is {@code true}, as in the tests of this library.
+ */
+public final class FramePool {
+
+    public static final boolean LEAK_DETECTION = Boolean.getBoolean("javasphinx.pool.leakDetection");
+    public static final int DEFAULT_THREAD_CACHE_SIZE = 16;
+    public static final int DEFAULT_SHARED_CAPACITY = 1024;
+
+    private final int frameLength;
+    private final boolean direct;
+    private final int sharedCapacity;
+    private final AtomicReference<Node> shared = new AtomicReference<>();
+    private final AtomicInteger sharedSize = new AtomicInteger();
+    private final ThreadLocal<ThreadCache> threadCache;
+    private final Map<ByteBuffer, Throwable> outstanding;
+
+    /**
+     * @param params Parameters the frames are sized for.
+     * @param direct Whether frames are allocated outside the heap, which saves a copy when they are read from or
+     *               written to a channel.
+     */
+    public FramePool(SphinxParams params, boolean direct) {
+        this(params, direct, DEFAULT_THREAD_CACHE_SIZE, DEFAULT_SHARED_CAPACITY, LEAK_DETECTION);
+    }
+
+    /**
+     * @param params Parameters the frames are sized for.
+     * @param direct Whether frames are allocated outside the heap.
+     * @param threadCacheSize Number of released frames every thread keeps for itself.
+     * @param sharedCapacity Number of released frames kept for all threads.
+     * @param leakDetection Whether frames are tracked from acquisition to release.
+     */
+    public FramePool(SphinxParams params, boolean direct, int threadCacheSize, int sharedCapacity, boolean leakDetection) {
+        if (threadCacheSize < 0 || sharedCapacity < 0) {
+            throw new IllegalArgumentException("Cache sizes (" + threadCacheSize + ", " + sharedCapacity + ") must be non-negative");
+        }
+
+        this.frameLength = params.packedPacketLength();
+        this.direct = direct;
+        this.sharedCapacity = sharedCapacity;
+        this.threadCache = ThreadLocal.withInitial(() -> new ThreadCache(threadCacheSize));
+        this.outstanding = leakDetection ? Collections.synchronizedMap(new IdentityHashMap<>()) : null;
+    }
+
+    /**
+     * Length of every frame of the pool.
+     */
+    public int frameLength() {
+        return frameLength;
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * Take a frame from the pool, allocating one if the pool is empty.
+     * @return Frame with position 0, limit and capacity {@link #frameLength()} and big endian byte order. Its contents
+     *         are left over from its previous use.
+     */
+    public ByteBuffer acquire() {
+        ThreadCache cache = threadCache.get();
+        ByteBuffer frame = cache.count > 0 ? cache.pop() : pollShared();
+        if (frame == null) {
+            Metrics.count(Counter.POOL_MISSES);
+            frame = direct ? ByteBuffer.allocateDirect(frameLength) : ByteBuffer.allocate(frameLength);
+        } else {
+            Metrics.count(Counter.POOL_HITS);
+            frame.clear().order(ByteOrder.BIG_ENDIAN);
+        }
+
+        if (outstanding != null) {
+            outstanding.put(frame, new Throwable("Frame acquired here"));
+        }
+        return frame;
+    }
+
+    /**
+     * Give a frame back to the pool. The frame must not be used afterwards.
+     * @param frame Frame returned by {@link #acquire()} of this pool.
+     * @throws IllegalArgumentException If the frame does not belong to this pool, or with leak detection on, if it has
+     *                                  already been released.
+     */
+    public void release(ByteBuffer frame) {
+        if (frame.capacity() != frameLength || frame.isDirect() != direct) {
+            throw new IllegalArgumentException("Frame was not acquired from this pool");
+        }
+        if (outstanding != null && outstanding.remove(frame) == null) {
+            throw new IllegalArgumentException("Frame was released twice or not acquired from this pool");
+        }
+
+        ThreadCache cache = threadCache.get();
+        if (!cache.offer(frame)) {
+            offerShared(frame);
+        }
+    }
+
+    /**
+     * Check that every frame acquired so far has been released. Does nothing without leak detection.
+     * @throws IllegalStateException If frames are still out, caused by the acquisition of one of them.
+     */
+    public void checkLeaks() {
+        if (outstanding == null) {
+            return;
+        }
+        synchronized (outstanding) {
+            if (!outstanding.isEmpty()) {
+                throw new IllegalStateException(outstanding.size() + " frames were not released",
+                        outstanding.values().iterator().next());
+            }
+        }
+    }
+
+    private ByteBuffer pollShared() {
+        Node head;
+        do {
+            head = shared.get();
+            if (head == null) {
+                return null;
+            }
+        } while (!shared.compareAndSet(head, head.next));
+        sharedSize.decrementAndGet();
+        return head.frame;
+    }
+
+    private void offerShared(ByteBuffer frame) {
+        if (sharedSize.incrementAndGet() > sharedCapacity) {
+            sharedSize.decrementAndGet();
+            return;
+        }
+        // Nodes are never reused, so a head that compares equal has not been popped and pushed again in between
+        Node head;
+        Node node;
+        do {
+            head = shared.get();
+            node = new Node(frame, head);
+        } while (!shared.compareAndSet(head, node));
+    }
+
+    private record Node(ByteBuffer frame, Node next) {
+    }
+
+    /**
+     * Frames released by one thread, used as a stack.
+     */
+    private static final class ThreadCache {
+        private final ByteBuffer[] frames;
+        private int count;
+
+        ThreadCache(int size) {
+            this.frames = new ByteBuffer[size];
+        }
+
+        ByteBuffer pop() {
+            ByteBuffer frame = frames[--count];
+            frames[count] = null;
+            return frame;
+        }
+
+        boolean offer(ByteBuffer frame) {
+            if (count == frames.length) {
+                return false;
+            }
+            frames[count++] = frame;
+            return true;
+        }
+    }
+}
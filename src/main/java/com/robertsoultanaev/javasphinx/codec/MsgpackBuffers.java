@@ -0,0 +1,174 @@
+package com.robertsoultanaev.javasphinx.codec;
+
+import com.robertsoultanaev.javasphinx.SphinxException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Minimal msgpack reader and writer working directly on a {@link ByteBuffer}, covering the types used by the packet
+ * format. Encodings are chosen exactly like msgpack-core does, so the output is byte-identical to
+ * {@link org.msgpack.core.MessagePacker}.
+ */
+final class MsgpackBuffers {
+
+    private MsgpackBuffers() {
+    }
+
+    static int readArrayHeader(ByteBuffer in) throws SphinxException {
+        int b = in.get() & 0xff;
+        if ((b & 0xf0) == 0x90) {
+            return b & 0x0f;
+        }
+        return switch (b) {
+            case 0xdc -> in.getShort() & 0xffff;
+            case 0xdd -> checkedLength(in.getInt());
+            default -> throw unexpected("array", b);
+        };
+    }
+
+    static int readInt(ByteBuffer in) throws SphinxException {
+        int b = in.get() & 0xff;
+        if (b < 0x80) {
+            return b;
+        }
+        if (b >= 0xe0) {
+            return (byte) b;
+        }
+        return switch (b) {
+            case 0xcc -> in.get() & 0xff;
+            case 0xcd -> in.getShort() & 0xffff;
+            case 0xce -> checkedLength(in.getInt());
+            case 0xd0 -> in.get();
+            case 0xd1 -> in.getShort();
+            case 0xd2 -> in.getInt();
+            default -> throw unexpected("int", b);
+        };
+    }
+
+    static int readBinaryHeader(ByteBuffer in) throws SphinxException {
+        int b = in.get() & 0xff;
+        return switch (b) {
+            case 0xc4 -> in.get() & 0xff;
+            case 0xc5 -> in.getShort() & 0xffff;
+            case 0xc6 -> checkedLength(in.getInt());
+            default -> throw unexpected("bin", b);
+        };
+    }
+
+    /**
+     * Read an extension type header.
+     * @return Length of the payload, the type byte has been consumed but is not returned.
+     */
+    static int readExtensionTypeHeader(ByteBuffer in, byte expectedType) throws SphinxException {
+        int b = in.get() & 0xff;
+        int length = switch (b) {
+            case 0xd4 -> 1;
+            case 0xd5 -> 2;
+            case 0xd6 -> 4;
+            case 0xd7 -> 8;
+            case 0xd8 -> 16;
+            case 0xc7 -> in.get() & 0xff;
+            case 0xc8 -> in.getShort() & 0xffff;
+            case 0xc9 -> checkedLength(in.getInt());
+            default -> throw unexpected("ext", b);
+        };
+        byte type = in.get();
+        if (type != expectedType) {
+            throw new SphinxException("Unexpected msgpack extension type " + type + ", expected " + expectedType);
+        }
+        return length;
+    }
+
+    static void writeArrayHeader(ByteBuffer out, int size) {
+        if (size < (1 << 4)) {
+            out.put((byte) (0x90 | size));
+        } else if (size < (1 << 16)) {
+            out.put((byte) 0xdc).putShort((short) size);
+        } else {
+            out.put((byte) 0xdd).putInt(size);
+        }
+    }
+
+    static void writeInt(ByteBuffer out, int value) {
+        if (value < -(1 << 5)) {
+            if (value < -(1 << 15)) {
+                out.put((byte) 0xd2).putInt(value);
+            } else if (value < -(1 << 7)) {
+                out.put((byte) 0xd1).putShort((short) value);
+            } else {
+                out.put((byte) 0xd0).put((byte) value);
+            }
+        } else if (value < (1 << 7)) {
+            out.put((byte) value);
+        } else if (value < (1 << 8)) {
+            out.put((byte) 0xcc).put((byte) value);
+        } else if (value < (1 << 16)) {
+            out.put((byte) 0xcd).putShort((short) value);
+        } else {
+            out.put((byte) 0xce).putInt(value);
+        }
+    }
+
+    static void writeBinaryHeader(ByteBuffer out, int length) {
+        if (length < (1 << 8)) {
+            out.put((byte) 0xc4).put((byte) length);
+        } else if (length < (1 << 16)) {
+            out.put((byte) 0xc5).putShort((short) length);
+        } else {
+            out.put((byte) 0xc6).putInt(length);
+        }
+    }
+
+    static void writeExtensionTypeHeader(ByteBuffer out, byte type, int length) {
+        switch (length) {
+            case 1 -> out.put((byte) 0xd4);
+            case 2 -> out.put((byte) 0xd5);
+            case 4 -> out.put((byte) 0xd6);
+            case 8 -> out.put((byte) 0xd7);
+            case 16 -> out.put((byte) 0xd8);
+            default -> {
+                if (length < (1 << 8)) {
+                    out.put((byte) 0xc7).put((byte) length);
+                } else if (length < (1 << 16)) {
+                    out.put((byte) 0xc8).putShort((short) length);
+                } else {
+                    out.put((byte) 0xc9).putInt(length);
+                }
+            }
+        }
+        out.put(type);
+    }
+
+    static int arrayHeaderLength(int size) {
+        return size < (1 << 4) ? 1 : size < (1 << 16) ? 3 : 5;
+    }
+
+    static int intLength(int value) {
+        if (value < -(1 << 5)) {
+            return value < -(1 << 15) ? 5 : value < -(1 << 7) ? 3 : 2;
+        }
+        return value < (1 << 7) ? 1 : value < (1 << 8) ? 2 : value < (1 << 16) ? 3 : 5;
+    }
+
+    static int binaryHeaderLength(int length) {
+        return length < (1 << 8) ? 2 : length < (1 << 16) ? 3 : 5;
+    }
+
+    static int extensionTypeHeaderLength(int length) {
+        return switch (length) {
+            case 1, 2, 4, 8, 16 -> 2;
+            default -> length < (1 << 8) ? 3 : length < (1 << 16) ? 4 : 6;
+        };
+    }
+
+    private static int checkedLength(int length) throws SphinxException {
+        if (length < 0) {
+            throw new SphinxException("Msgpack length (" + Integer.toUnsignedString(length) + ") is out of range");
+        }
+        return length;
+    }
+
+    private static SphinxException unexpected(String expected, int format) {
+        return new SphinxException("Unexpected msgpack format byte 0x" + Integer.toHexString(format) + ", expected " + expected);
+    }
+}
@@ -0,0 +1,143 @@
+package com.robertsoultanaev.javasphinx.codec;
+
+import com.robertsoultanaev.javasphinx.SphinxException;
+import com.robertsoultanaev.javasphinx.SphinxParams;
+import com.robertsoultanaev.javasphinx.crypto.PrimitiveSuite;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import static com.robertsoultanaev.javasphinx.codec.MsgpackBuffers.*;
+
+/**
+ * Reads and writes the msgpack packet format of {@link com.robertsoultanaev.javasphinx.SphinxClient#packMessage}
+ * directly from and into {@link ByteBuffer}s, without intermediate arrays or unpacker objects.
+ *
+ * The primitive suite follows the lengths as a third element of the first array, unless it is the default
+ * {@link PrimitiveSuite#AES_SHA256}, so packets of the default suite stay readable by the Python implementation.
+ * The format has no room for a key epoch hint, packets read from it carry hint 0 and packets with another hint are
+ * rejected, see {@link BinaryPacketCodec}.
+ */
+public final class MsgpackPacketCodec implements PacketCodec {
+
+    private static final byte ALPHA_EXTENSION_TYPE = 2;
+
+    private final SphinxParams params;
+    private final boolean writeSuite;
+    private final int packedAlphaLength;
+    private final int encodedLength;
+
+    public MsgpackPacketCodec(SphinxParams params) {
+        this.params = params;
+        this.writeSuite = params.suite() != PrimitiveSuite.AES_SHA256;
+        int alphaLength = params.getGroup().encodedPointLength();
+        this.packedAlphaLength = arrayHeaderLength(2) + intLength(params.getGroup().id())
+                + binaryHeaderLength(alphaLength) + alphaLength;
+
+        int betaLength = params.headerLength() - 32;
+        this.encodedLength = arrayHeaderLength(2)
+                + arrayHeaderLength(writeSuite ? 3 : 2) + intLength(params.headerLength()) + intLength(params.bodyLength())
+                + (writeSuite ? intLength(params.suite().id()) : 0)
+                + arrayHeaderLength(2) + arrayHeaderLength(3)
+                + extensionTypeHeaderLength(packedAlphaLength) + packedAlphaLength
+                + binaryHeaderLength(betaLength) + betaLength
+                + binaryHeaderLength(params.keyLength()) + params.keyLength()
+                + binaryHeaderLength(params.bodyLength()) + params.bodyLength();
+    }
+
+    @Override
+    public int encodedLength() {
+        return encodedLength;
+    }
+
+    @Override
+    public void read(ByteBuffer in, PacketBuffer packet) throws SphinxException {
+        try {
+            expectArrayHeader(in, 2);
+            int lengthsSize = readArrayHeader(in);
+            if (lengthsSize != 2 && lengthsSize != 3) {
+                throw new SphinxException("Unexpected msgpack array size " + lengthsSize + ", expected 2 or 3");
+            }
+            int headerLength = readInt(in);
+            int bodyLength = readInt(in);
+            int suiteId = lengthsSize > 2 ? readInt(in) : PrimitiveSuite.AES_SHA256.id();
+            if (suiteId != params.suite().id()) {
+                throw new SphinxException("Packet primitive suite (" + suiteId + ") did not match the parameters (" + params.suite().id() + ")");
+            }
+            if (headerLength != params.headerLength() || bodyLength != params.bodyLength()) {
+                throw new SphinxException("Packet lengths (" + headerLength + ", " + bodyLength + ") did not match the parameters (" + params.headerLength() + ", " + params.bodyLength() + ")");
+            }
+
+            expectArrayHeader(in, 2);
+            expectArrayHeader(in, 3);
+            int extensionLength = readExtensionTypeHeader(in, ALPHA_EXTENSION_TYPE);
+            if (extensionLength != packedAlphaLength) {
+                throw new SphinxException("Length of packed alpha (" + extensionLength + ") did not match the expected length (" + packedAlphaLength + ")");
+            }
+            expectArrayHeader(in, 2);
+            int curveNid = readInt(in);
+            if (curveNid != params.getGroup().id()) {
+                throw new SphinxException("Unsupported curve (" + curveNid + ")");
+            }
+            readField(in, packet.alpha());
+            readField(in, packet.beta());
+            readField(in, packet.gamma());
+            readField(in, packet.delta());
+            packet.epochHint(0);
+        } catch (BufferUnderflowException ex) {
+            throw new SphinxException("Packet is truncated");
+        }
+    }
+
+    @Override
+    public void write(PacketBuffer packet, ByteBuffer out) throws SphinxException {
+        if (out.remaining() < encodedLength) {
+            throw new SphinxException("Output buffer (" + out.remaining() + ") is too small for the packet (" + encodedLength + ")");
+        }
+        if (packet.epochHint() != 0) {
+            throw new SphinxException("Key epoch hints require the binary packet format");
+        }
+
+        try {
+            writeArrayHeader(out, 2);
+            writeArrayHeader(out, writeSuite ? 3 : 2);
+            writeInt(out, params.headerLength());
+            writeInt(out, params.bodyLength());
+            if (writeSuite) {
+                writeInt(out, params.suite().id());
+            }
+            writeArrayHeader(out, 2);
+            writeArrayHeader(out, 3);
+            writeExtensionTypeHeader(out, ALPHA_EXTENSION_TYPE, packedAlphaLength);
+            writeArrayHeader(out, 2);
+            writeInt(out, params.getGroup().id());
+            writeField(out, packet.alpha());
+            writeField(out, packet.beta());
+            writeField(out, packet.gamma());
+            writeField(out, packet.delta());
+        } catch (BufferOverflowException ex) {
+            throw new SphinxException("Output buffer is too small for the packet");
+        }
+    }
+
+    private static void expectArrayHeader(ByteBuffer in, int size) throws SphinxException {
+        int actual = readArrayHeader(in);
+        if (actual != size) {
+            throw new SphinxException("Unexpected msgpack array size " + actual + ", expected " + size);
+        }
+    }
+
+    private static void readField(ByteBuffer in, byte[] field) throws SphinxException {
+        int length = readBinaryHeader(in);
+        if (length != field.length) {
+            throw new SphinxException("Length of packet field (" + length + ") did not match the expected length (" + field.length + ")");
+        }
+        in.get(field);
+    }
+
+    private static void writeField(ByteBuffer out, byte[] field) {
+        writeBinaryHeader(out, field.length);
+        out.put(field);
+    }
+}
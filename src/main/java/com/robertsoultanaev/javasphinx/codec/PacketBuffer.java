@@ -0,0 +1,91 @@
+package com.robertsoultanaev.javasphinx.codec;
+
+import com.robertsoultanaev.javasphinx.SerializationUtils;
+import com.robertsoultanaev.javasphinx.SphinxParams;
+import com.robertsoultanaev.javasphinx.crypto.ECCGroup;
+import com.robertsoultanaev.javasphinx.packet.header.Header;
+import com.robertsoultanaev.javasphinx.packet.header.PacketContent;
+
+/**
+ * Reusable, fixed-layout working copy of a Sphinx packet. The arrays are allocated once from the {@link SphinxParams}
+ * and overwritten in place by the codecs and the mix node, so a buffer can be recycled for every packet.
+ */
+public final class PacketBuffer {
+
+    private final ECCGroup group;
+    private final byte[] alpha;
+    private final byte[] beta;
+    private final byte[] gamma;
+    private final byte[] delta;
+    private int epochHint;
+
+    public PacketBuffer(SphinxParams params) {
+        this.group = params.getGroup();
+        this.alpha = new byte[group.encodedPointLength()];
+        this.beta = new byte[params.headerLength() - 32];
+        this.gamma = new byte[params.keyLength()];
+        this.delta = new byte[params.bodyLength()];
+    }
+
+    /**
+     * Encoded group element of the header, see {@link ECCGroup#encodePoint}.
+     */
+    public byte[] alpha() {
+        return alpha;
+    }
+
+    public byte[] beta() {
+        return beta;
+    }
+
+    public byte[] gamma() {
+        return gamma;
+    }
+
+    public byte[] delta() {
+        return delta;
+    }
+
+    /**
+     * Key epoch hint of the header, see {@link Header#epochHint()}.
+     */
+    public int epochHint() {
+        return epochHint;
+    }
+
+    public void epochHint(int epochHint) {
+        if (epochHint < 0 || epochHint > 0xff) {
+            throw new IllegalArgumentException("Epoch hint (" + epochHint + ") must fit in a byte");
+        }
+        this.epochHint = epochHint;
+    }
+
+    /**
+     * Copy a packet into this buffer.
+     * @param packetContent Header and payload of a Sphinx packet with lengths matching this buffer.
+     */
+    public void load(PacketContent packetContent) {
+        Header header = packetContent.header();
+        copy(SerializationUtils.encodeECPoint(group, header.alpha()), alpha);
+        copy(header.beta(), beta);
+        copy(header.gamma(), gamma);
+        copy(packetContent.delta(), delta);
+        epochHint = header.epochHint();
+    }
+
+    /**
+     * Copy the contents of this buffer into a new packet.
+     * @return Header and payload of the Sphinx packet held by this buffer.
+     */
+    public PacketContent toPacketContent() {
+        Header header = new Header(SerializationUtils.decodeECPoint(group, alpha), beta.clone(), gamma.clone(), epochHint);
+        return new PacketContent(header, delta.clone());
+    }
+
+    private static void copy(byte[] source, byte[] target) {
+        if (source.length != target.length) {
+            throw new IllegalArgumentException("Length of packet field (" + source.length + ") did not match the expected length (" + target.length + ")");
+        }
+        System.arraycopy(source, 0, target, 0, source.length);
+    }
+}
@@ -0,0 +1,53 @@
+package com.robertsoultanaev.javasphinx.codec;
+
+import com.robertsoultanaev.javasphinx.SphinxException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Wire format of Sphinx packets, reading and writing {@link PacketBuffer}s directly from and into {@link ByteBuffer}s.
+ * Every packet of a given set of parameters encodes to the same number of bytes.
+ */
+public interface PacketCodec {
+
+    /**
+     * Exact number of bytes of an encoded packet.
+     */
+    int encodedLength();
+
+    /**
+     * Read an encoded packet from the current position of the buffer into a packet buffer.
+     * @param in Buffer holding the encoded packet, its position is advanced past the packet.
+     * @param packet Buffer receiving the fields of the packet.
+     */
+    void read(ByteBuffer in, PacketBuffer packet) throws SphinxException;
+
+    /**
+     * Write the packet held by a packet buffer at the current position of the output buffer.
+     * @param packet Buffer holding the fields of the packet.
+     * @param out Buffer receiving the encoded packet, its position is advanced past the packet.
+     */
+    void write(PacketBuffer packet, ByteBuffer out) throws SphinxException;
+
+    /**
+     * Write the packet held by a packet buffer into a frame of the pool.
+     * @param packet Buffer holding the fields of the packet.
+     * @param pool Pool of frames of {@link #encodedLength()} bytes.
+     * @return Frame holding the encoded packet between its position and limit, to be released to the pool once the
+     *         packet has been sent.
+     */
+    default ByteBuffer write(PacketBuffer packet, FramePool pool) throws SphinxException {
+        if (pool.frameLength() != encodedLength()) {
+            throw new IllegalArgumentException("Frame length of the pool (" + pool.frameLength() + ") did not match the encoded length (" + encodedLength() + ")");
+        }
+
+        ByteBuffer frame = pool.acquire();
+        try {
+            write(packet, frame);
+        } catch (SphinxException | RuntimeException ex) {
+            pool.release(frame);
+            throw ex;
+        }
+        return frame.flip();
+    }
+}
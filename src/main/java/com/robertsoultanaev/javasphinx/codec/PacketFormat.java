@@ -0,0 +1,49 @@
+package com.robertsoultanaev.javasphinx.codec;
+
+import com.robertsoultanaev.javasphinx.SphinxParams;
+
+/**
+ * Wire formats a network can use for its packets.
+ */
+public enum PacketFormat {
+    /**
+     * Nested msgpack format of {@link com.robertsoultanaev.javasphinx.SphinxClient#packMessage}, compatible with the
+     * Python implementation.
+     */
+    MSGPACK {
+        @Override
+        public PacketCodec newCodec(SphinxParams params) {
+            return new MsgpackPacketCodec(params);
+        }
+
+        @Override
+        public boolean carriesEpochHints() {
+            return false;
+        }
+    },
+    /**
+     * Versioned fixed-offset format of {@link BinaryPacketCodec}.
+     */
+    BINARY {
+        @Override
+        public PacketCodec newCodec(SphinxParams params) {
+            return new BinaryPacketCodec(params);
+        }
+
+        @Override
+        public boolean carriesEpochHints() {
+            return true;
+        }
+    };
+
+    /**
+     * Create the codec of this format for the given parameters.
+     */
+    public abstract PacketCodec newCodec(SphinxParams params);
+
+    /**
+     * Whether packets of this format carry the key epoch hint of their header. Packets of the other formats always
+     * have hint 0.
+     */
+    public abstract boolean carriesEpochHints();
+}
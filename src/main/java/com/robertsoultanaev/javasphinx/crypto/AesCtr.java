@@ -0,0 +1,27 @@
+package com.robertsoultanaev.javasphinx.crypto;
+
+/**
+ * AES in counter mode with a 128 bit big endian counter, the {@link KeyStream} of {@link PrimitiveSuite#AES_SHA256}.
+ * The initial vector is the initial counter block.
+ */
+public interface AesCtr extends KeyStream {
+
+    int BLOCK_SIZE = 16;
+
+    /**
+     * Counter block holding a keystream position, found by adding the block index to the initial counter block modulo
+     * 2^128.
+     * @param iv Initial counter block.
+     * @param position Offset into the keystream in bytes.
+     * @param counter Receives the counter block.
+     */
+    static void counterBlock(byte[] iv, long position, byte[] counter) {
+        System.arraycopy(iv, 0, counter, 0, BLOCK_SIZE);
+        long carry = position / BLOCK_SIZE;
+        for (int i = BLOCK_SIZE - 1; i >= 0 && carry != 0; i--) {
+            long sum = (counter[i] & 0xff) + (carry & 0xff);
+            counter[i] = (byte) sum;
+            carry = (carry >>> 8) + (sum >>> 8);
+        }
+    }
+}
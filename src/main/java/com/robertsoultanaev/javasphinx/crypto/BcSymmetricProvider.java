@@ -0,0 +1,51 @@
+package com.robertsoultanaev.javasphinx.crypto;
+
+import org.bouncycastle.crypto.engines.AESEngine;
+import org.bouncycastle.crypto.modes.SICBlockCipher;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+
+import java.util.Arrays;
+
+/**
+ * Symmetric provider using BouncyCastle's table based AES engine. Works on any JVM.
+ */
+public class BcSymmetricProvider implements SymmetricProvider {
+
+    @Override
+    public AesCtr newAesCtr() {
+        return new BcAesCtr();
+    }
+
+    private static final class BcAesCtr implements AesCtr {
+        private final SICBlockCipher ctr = new SICBlockCipher(new AESEngine());
+        private final byte[] counter = new byte[BLOCK_SIZE];
+        private byte[] ctrKey;
+
+        @Override
+        public void process(byte[] key, byte[] iv, long position, byte[] in, int inOff, int length, byte[] out, int outOff) {
+            // Start at the counter block holding the position rather than using seekTo, which does not wrap the
+            // counter around like the cipher itself does
+            AesCtr.counterBlock(iv, position, counter);
+            if (Arrays.equals(key, ctrKey)) {
+                // Only the counter changes, the expanded key of the engine stays in place
+                ctr.init(true, new ParametersWithIV(null, counter));
+            } else {
+                ctr.init(true, new ParametersWithIV(new KeyParameter(key), counter));
+                ctrKey = key.clone();
+            }
+            for (int i = (int) (position % BLOCK_SIZE); i > 0; i--) {
+                ctr.returnByte((byte) 0);
+            }
+
+            if (length < ctr.getBlockSize()) {
+                // SICBlockCipher rejects inputs shorter than a block in processBytes
+                for (int i = 0; i < length; i++) {
+                    out[outOff + i] = ctr.returnByte(in[inOff + i]);
+                }
+            } else {
+                ctr.processBytes(in, inOff, length, out, outOff);
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.robertsoultanaev.javasphinx.crypto;
+
+import org.bouncycastle.crypto.CipherParameters;
+import org.bouncycastle.crypto.Mac;
+import org.bouncycastle.crypto.digests.Blake2bDigest;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+/**
+ * BLAKE2b in keyed mode as a {@link Mac}, giving 256 bit tags.
+ */
+final class Blake2bMac implements Mac {
+
+    private static final int MAC_SIZE = 32;
+
+    private Blake2bDigest digest;
+
+    @Override
+    public void init(CipherParameters params) {
+        if (!(params instanceof KeyParameter)) {
+            throw new IllegalArgumentException("BLAKE2b MAC needs a KeyParameter");
+        }
+        digest = new Blake2bDigest(((KeyParameter) params).getKey(), MAC_SIZE, null, null);
+    }
+
+    @Override
+    public String getAlgorithmName() {
+        return "BLAKE2b-MAC";
+    }
+
+    @Override
+    public int getMacSize() {
+        return MAC_SIZE;
+    }
+
+    @Override
+    public void update(byte in) {
+        digest.update(in);
+    }
+
+    @Override
+    public void update(byte[] in, int inOff, int len) {
+        digest.update(in, inOff, len);
+    }
+
+    @Override
+    public int doFinal(byte[] out, int outOff) {
+        // Blake2bDigest resets itself with the key still in place
+        return digest.doFinal(out, outOff);
+    }
+
+    @Override
+    public void reset() {
+        digest.reset();
+    }
+}
@@ -0,0 +1,37 @@
+package com.robertsoultanaev.javasphinx.crypto;
+
+import org.bouncycastle.crypto.engines.ChaCha7539Engine;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+
+/**
+ * ChaCha20 keystream of {@link PrimitiveSuite#CHACHA20_BLAKE2}. The 16 byte Sphinx key and the first 16 bytes of the
+ * initial vector together form the 256 bit ChaCha20 key, the nonce is zero. Every initial vector thus selects an
+ * independent stream, like the counter blocks of AES-CTR do, without truncating it to the 96 bit nonce.
+ */
+public final class ChaCha20KeyStream implements KeyStream {
+
+    public static final int KEY_LENGTH = 16;
+
+    private static final int IV_LENGTH = 16;
+    private static final byte[] NONCE = new byte[12];
+
+    private final ChaCha7539Engine engine = new ChaCha7539Engine();
+    private final byte[] chachaKey = new byte[KEY_LENGTH + IV_LENGTH];
+
+    @Override
+    public void process(byte[] key, byte[] iv, long position, byte[] in, int inOff, int length, byte[] out, int outOff) {
+        if (key.length != KEY_LENGTH) {
+            throw new IllegalArgumentException("ChaCha20 needs a key of " + KEY_LENGTH + " bytes, got " + key.length);
+        }
+
+        System.arraycopy(key, 0, chachaKey, 0, KEY_LENGTH);
+        System.arraycopy(iv, 0, chachaKey, KEY_LENGTH, IV_LENGTH);
+        engine.init(true, new ParametersWithIV(new KeyParameter(chachaKey), NONCE));
+        if (position != 0) {
+            engine.seekTo(position);
+        }
+
+        engine.processBytes(in, inOff, length, out, outOff);
+    }
+}
@@ -0,0 +1,167 @@
+package com.robertsoultanaev.javasphinx.crypto;
+
+import org.bouncycastle.crypto.ExtendedDigest;
+import org.bouncycastle.crypto.Mac;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+import java.util.Arrays;
+
+/**
+ * Reusable symmetric primitives for the Sphinx computations. Creating the engines and expanding keys is a noticeable
+ * part of the cost of the short messages Sphinx works on, so a context keeps its engines and remembers the last key
+ * each of them was initialised with. Consecutive operations under the same key, like the rounds of Lioness, skip the
+ * key schedule. The primitives are those of a {@link PrimitiveSuite}, AES-CTR comes from a {@link SymmetricProvider}.
+ * <p>
+ * A context is not thread-safe. {@link com.robertsoultanaev.javasphinx.SphinxParams} keeps one per thread.
+ */
+public final class CryptoContext {
+
+    private static final byte LIONESS_ROUND_1 = '1';
+    private static final byte LIONESS_ROUND_3 = '3';
+
+    private final PrimitiveSuite suite;
+    private final KeyStream stream;
+    private final Mac mac;
+    private final ExtendedDigest digest;
+    private final byte[] roundIv;
+
+    private byte[] macKey;
+
+    public CryptoContext() {
+        this(new BcSymmetricProvider());
+    }
+
+    public CryptoContext(SymmetricProvider symmetricProvider) {
+        this(PrimitiveSuite.AES_SHA256, symmetricProvider);
+    }
+
+    public CryptoContext(PrimitiveSuite suite, SymmetricProvider symmetricProvider) {
+        this.suite = suite;
+        this.stream = suite.newKeyStream(symmetricProvider);
+        this.mac = suite.newMac();
+        this.digest = suite.newDigest();
+        this.roundIv = new byte[digest.getDigestSize()];
+    }
+
+    public PrimitiveSuite suite() {
+        return suite;
+    }
+
+    /**
+     * XOR the keystream of the suite's stream cipher into a region of a buffer.
+     * @param key Cipher key.
+     * @param iv Initial vector, the initial counter block for AES-CTR.
+     * @param position Offset into the keystream in bytes.
+     * @param in Buffer holding the input.
+     * @param inOff Start of the input in in.
+     * @param length Length of the input.
+     * @param out Buffer receiving the output, may be the same as in.
+     * @param outOff Start of the output in out.
+     */
+    public void xorKeyStream(byte[] key, byte[] iv, long position, byte[] in, int inOff, int length, byte[] out, int outOff) {
+        stream.process(key, iv, position, in, inOff, length, out, outOff);
+    }
+
+    /**
+     * Lioness encryption of a region of a buffer in place. The first keyLength bytes of the region form the short half
+     * and the rest the long half. Gives the same result as {@link com.robertsoultanaev.javasphinx.SphinxParams#lionessEnc(byte[], byte[])}.
+     * @param key Key of length keyLength.
+     * @param buf Buffer holding the message.
+     * @param off Start of the message in buf.
+     * @param len Length of the message, at least twice the key length.
+     */
+    public void lionessEnc(byte[] key, byte[] buf, int off, int len) {
+        hashRound(key, buf, off, len, LIONESS_ROUND_1);
+        xorRound(key, buf, off, len);
+        hashRound(key, buf, off, len, LIONESS_ROUND_3);
+        xorRound(key, buf, off, len);
+    }
+
+    /**
+     * Inverse of {@link #lionessEnc(byte[], byte[], int, int)}, in place.
+     */
+    public void lionessDec(byte[] key, byte[] buf, int off, int len) {
+        xorRound(key, buf, off, len);
+        hashRound(key, buf, off, len, LIONESS_ROUND_3);
+        xorRound(key, buf, off, len);
+        hashRound(key, buf, off, len, LIONESS_ROUND_1);
+    }
+
+    /**
+     * Encrypt the short half under the initial vector H(long half || key || round)[:keyLength].
+     */
+    private void hashRound(byte[] key, byte[] buf, int off, int len, byte round) {
+        int keyLength = key.length;
+        digest.reset();
+        digest.update(buf, off + keyLength, len - keyLength);
+        digest.update(key, 0, keyLength);
+        digest.update(round);
+        digest.doFinal(roundIv, 0);
+        Arrays.fill(roundIv, keyLength, roundIv.length, (byte) 0);
+
+        stream.process(key, roundIv, 0, buf, off, keyLength, buf, off);
+    }
+
+    /**
+     * Encrypt the long half under the short half as initial vector.
+     */
+    private void xorRound(byte[] key, byte[] buf, int off, int len) {
+        int keyLength = key.length;
+        System.arraycopy(buf, off, roundIv, 0, keyLength);
+
+        stream.process(key, roundIv, 0, buf, off + keyLength, len - keyLength, buf, off + keyLength);
+    }
+
+    /**
+     * Derive several subkeys from one key in a single pass, each being the AES-CTR keystream of the given length
+     * starting at the counter block of its flavor.
+     * @param key AES key.
+     * @param flavors Initial counter blocks, one per subkey.
+     * @param length Length of each subkey.
+     * @return The subkeys in the order of the flavors.
+     */
+    public byte[][] deriveKeys(byte[] key, byte[][] flavors, int length) {
+        byte[][] keys = new byte[flavors.length][];
+        if (suite == PrimitiveSuite.AES_SHA256) {
+            for (int i = 0; i < flavors.length; i++) {
+                keys[i] = new byte[length];
+                xorKeyStream(key, flavors[i], 0, keys[i], 0, length, keys[i], 0);
+            }
+        } else {
+            // Keyed BLAKE2b of each flavor, keying the MAC only once
+            for (int i = 0; i < flavors.length; i++) {
+                keys[i] = Arrays.copyOf(hmac(key, flavors[i], 0, flavors[i].length), length);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Compute the MAC of the suite, HMAC-SHA256 or keyed BLAKE2b, over a region of a buffer.
+     * @return The full 32 byte MAC.
+     */
+    public byte[] hmac(byte[] key, byte[] data, int offset, int length) {
+        if (Arrays.equals(key, macKey)) {
+            mac.reset();
+        } else {
+            mac.init(new KeyParameter(key));
+            macKey = key.clone();
+        }
+
+        byte[] output = new byte[mac.getMacSize()];
+        mac.update(data, offset, length);
+        mac.doFinal(output, 0);
+        return output;
+    }
+
+    /**
+     * Compute the hash of the suite, SHA256 or BLAKE2b-256, over a region of a buffer.
+     */
+    public byte[] hash(byte[] data, int offset, int length) {
+        digest.reset();
+        byte[] output = new byte[digest.getDigestSize()];
+        digest.update(data, offset, length);
+        digest.doFinal(output, 0);
+        return output;
+    }
+}
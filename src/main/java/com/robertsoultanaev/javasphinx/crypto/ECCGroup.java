@@ -1,39 +1,91 @@
 package com.robertsoultanaev.javasphinx.crypto;
 
-import org.bouncycastle.jce.ECNamedCurveTable;
 import org.bouncycastle.math.ec.ECPoint;
-import org.bouncycastle.jce.spec.ECParameterSpec;
-import org.bouncycastle.util.BigIntegers;
 
 import java.math.BigInteger;
 import java.security.SecureRandom;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * Class to represent an elliptic curve group and providing methods for cryptographic computations.
+ * The curve arithmetic is delegated to a {@link Group} backend.
  */
 public class ECCGroup {
     public static final String DEFAULT_CURVE_NAME = "secp224r1";
     public static final int DEFAULT_CURVE_NID = 713;
 
+    private final Group backend;
     private final ECPoint generator;
     private final BigInteger order;
 
     public ECCGroup() {
-        ECParameterSpec ecSpec = ECNamedCurveTable.getParameterSpec(DEFAULT_CURVE_NAME);
-        generator = ecSpec.getG();
-        order = ecSpec.getN();
+        this(new WeierstrassGroup(DEFAULT_CURVE_NAME, DEFAULT_CURVE_NID));
+    }
+
+    public ECCGroup(Group backend) {
+        this.backend = backend;
+        this.generator = backend.getGenerator();
+        this.order = backend.getOrder();
+    }
+
+    /**
+     * Get the group over Curve25519 using the X25519 Montgomery ladder.
+     * @return Curve25519 group.
+     */
+    public static ECCGroup x25519() {
+        return new ECCGroup(new X25519Group());
+    }
+
+    /**
+     * Get the group with the given identifier.
+     * @param id OpenSSL NID of the curve, as carried in packets.
+     * @return Group with the given identifier.
+     * @throws IllegalArgumentException If no group with the given identifier is supported.
+     */
+    public static ECCGroup byId(int id) {
+        switch (id) {
+            case DEFAULT_CURVE_NID:
+                return new ECCGroup();
+            case X25519Group.NID:
+                return x25519();
+            default:
+                throw new IllegalArgumentException("Unsupported group " + id);
+        }
     }
 
     /**
-     * Generate a random number modulo the group order to be used as a secret.
-     * @return Number modulo the group order.
+     * Get the identifier of the group carried in packets.
+     * @return OpenSSL NID of the curve.
+     */
+    public int id() {
+        return backend.id();
+    }
+
+    /**
+     * Get the backend implementing the curve arithmetic.
+     * @return Backend of the group.
+     */
+    public Group getBackend() {
+        return backend;
+    }
+
+    /**
+     * Generate a random number to be used as a secret, as prescribed by the backend, from the random source of the
+     * calling thread.
+     * @return Secret scalar.
      */
     public BigInteger genSecret() {
-        SecureRandom secureRandom = new SecureRandom();
-        BigInteger lowerBound = BigInteger.ZERO;
-        BigInteger upperBound = order.subtract(BigInteger.ONE);
-        return BigIntegers.createRandomInRange(lowerBound, upperBound, secureRandom);
+        return backend.genSecret();
+    }
+
+    /**
+     * Generate a random number to be used as a secret, as prescribed by the backend.
+     * @param random Source of the randomness.
+     * @return Secret scalar.
+     */
+    public BigInteger genSecret(SecureRandom random) {
+        return backend.genSecret(random);
     }
 
     /**
@@ -59,7 +111,88 @@ public class ECCGroup {
      * @return base to the power exp.
      */
     public ECPoint expon(ECPoint base, BigInteger exp) {
-        return base.multiply(exp);
+        return backend.expon(base, exp);
+    }
+
+    /**
+     * Raise the generator of the group to the power exp, using the precomputed table of the generator if the
+     * backend has one.
+     * @param exp Exponent to raise the generator to.
+     * @return The generator to the power exp.
+     */
+    public ECPoint exponGenerator(BigInteger exp) {
+        return exponPrecomputed(generator, exp);
+    }
+
+    /**
+     * Prepare a point that is used as base many times, by building its fixed-base table if the backend has one.
+     * @param base Base elliptic curve point.
+     * @return Point equal to base, carrying what is used by {@link #exponPrecomputed(ECPoint, BigInteger)}.
+     */
+    public ECPoint precompute(ECPoint base) {
+        return backend.precompute(base);
+    }
+
+    /**
+     * Raise a base prepared by {@link #precompute(ECPoint)} to the power exp.
+     * @param base Base elliptic curve point returned by {@link #precompute(ECPoint)}.
+     * @param exp Exponent to raise base to.
+     * @return base to the power exp.
+     */
+    public ECPoint exponPrecomputed(ECPoint base, BigInteger exp) {
+        return backend.exponPrecomputed(base, exp);
+    }
+
+    /**
+     * Raise every base to the power of the exponent at the same index. The results come back normalized, and the
+     * backend brings them to affine coordinates together with a single field inversion, which makes this cheaper
+     * than calling {@link #expon(ECPoint, BigInteger)} for each base and encoding the results.
+     * @param bases Base elliptic curve points.
+     * @param exps Exponents, one per base.
+     * @return bases[i] to the power exps[i] at index i.
+     */
+    public ECPoint[] exponAll(ECPoint[] bases, BigInteger[] exps) {
+        checkBatch(bases, exps);
+        return backend.exponAll(bases, exps);
+    }
+
+    /**
+     * Raise every base prepared by {@link #precompute(ECPoint)} to the power of the exponent at the same index, with
+     * normalized results like {@link #exponAll(ECPoint[], BigInteger[])}.
+     * @param bases Base elliptic curve points returned by {@link #precompute(ECPoint)}.
+     * @param exps Exponents, one per base.
+     * @return bases[i] to the power exps[i] at index i.
+     */
+    public ECPoint[] exponPrecomputedAll(ECPoint[] bases, BigInteger[] exps) {
+        checkBatch(bases, exps);
+        return backend.exponPrecomputedAll(bases, exps);
+    }
+
+    /**
+     * Raise the generator of the group to the power of each exponent, with normalized results like
+     * {@link #exponAll(ECPoint[], BigInteger[])}.
+     * @param exps Exponents to raise the generator to.
+     * @return The generator to the power exps[i] at index i.
+     */
+    public ECPoint[] exponGeneratorAll(BigInteger[] exps) {
+        ECPoint[] bases = new ECPoint[exps.length];
+        Arrays.fill(bases, generator);
+        return backend.exponPrecomputedAll(bases, exps);
+    }
+
+    /**
+     * Encode points in the compact form used in packets, normalizing all of them together first.
+     * @param points Elliptic curve points, left unchanged.
+     * @return Compact binary representation of points[i] at index i.
+     */
+    public byte[][] encodePoints(ECPoint[] points) {
+        ECPoint[] normalized = points.clone();
+        backend.normalizeAll(normalized);
+        byte[][] encoded = new byte[normalized.length][];
+        for (int i = 0; i < normalized.length; i++) {
+            encoded[i] = backend.encodePoint(normalized[i]);
+        }
+        return encoded;
     }
 
     /**
@@ -74,7 +207,7 @@ public class ECCGroup {
             finalExponent = finalExponent.multiply(exponent).mod(order);
         }
 
-        return base.multiply(finalExponent);
+        return backend.expon(base, finalExponent);
     }
 
     /**
@@ -95,7 +228,40 @@ public class ECCGroup {
      * @return Binary representation of alpha.
      */
     public byte[] printable(ECPoint alpha) {
-        return alpha.getEncoded(false);
+        return backend.printable(alpha);
+    }
+
+    /**
+     * Encode given ECPoint in the compact form used in packets.
+     * @param point Elliptic curve point.
+     * @return Compact binary representation of point.
+     */
+    public byte[] encodePoint(ECPoint point) {
+        return backend.encodePoint(point);
+    }
+
+    /**
+     * Decode an ECPoint from the compact form used in packets.
+     * @param encoded Compact binary representation of a point.
+     * @return Elliptic curve point.
+     * @throws IllegalArgumentException If encoded is not a valid point of the group.
+     */
+    public ECPoint decodePoint(byte[] encoded) {
+        return backend.decodePoint(encoded);
+    }
+
+    /**
+     * Get the length of the compact form of a point.
+     * @return Length in bytes of an encoded point.
+     */
+    public int encodedPointLength() {
+        return backend.encodedPointLength();
+    }
+
+    private static void checkBatch(ECPoint[] bases, BigInteger[] exps) {
+        if (bases.length != exps.length) {
+            throw new IllegalArgumentException("Number of bases (" + bases.length + ") did not match the number of exponents (" + exps.length + ")");
+        }
     }
 
 }
@@ -0,0 +1,113 @@
+package com.robertsoultanaev.javasphinx.crypto;
+
+import org.bouncycastle.math.ec.ECPoint;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+/**
+ * Backend of an {@link ECCGroup}: a prime order group of elliptic curve points with its scalar multiplication and
+ * encodings. Elements are represented as BouncyCastle {@link ECPoint}s, how they are multiplied and put on the wire is up
+ * to the backend.
+ */
+public interface Group {
+
+    /**
+     * Identifier of the group carried in packets, the OpenSSL NID of the curve.
+     */
+    int id();
+
+    /**
+     * Name of the curve.
+     */
+    String name();
+
+    ECPoint getGenerator();
+
+    BigInteger getOrder();
+
+    /**
+     * Generate a random secret scalar suitable as private key in this group, from the random source of the calling
+     * thread.
+     */
+    default BigInteger genSecret() {
+        return genSecret(SecureRandoms.current());
+    }
+
+    /**
+     * Generate a random secret scalar suitable as private key in this group.
+     * @param random Source of the randomness.
+     */
+    BigInteger genSecret(SecureRandom random);
+
+    /**
+     * Raise base to the power exp.
+     */
+    ECPoint expon(ECPoint base, BigInteger exp);
+
+    /**
+     * Prepare a point that is used as base many times. Backends without precomputation return the point itself.
+     */
+    ECPoint precompute(ECPoint base);
+
+    /**
+     * Raise a base returned by {@link #precompute(ECPoint)} to the power exp.
+     */
+    ECPoint exponPrecomputed(ECPoint base, BigInteger exp);
+
+    /**
+     * Raise every base to the power of the exponent at the same index. The results are normalized, backends share
+     * one field inversion among all of them where they can.
+     */
+    default ECPoint[] exponAll(ECPoint[] bases, BigInteger[] exps) {
+        ECPoint[] results = new ECPoint[bases.length];
+        for (int i = 0; i < bases.length; i++) {
+            results[i] = expon(bases[i], exps[i]);
+        }
+        normalizeAll(results);
+        return results;
+    }
+
+    /**
+     * Raise every base returned by {@link #precompute(ECPoint)} to the power of the exponent at the same index, with
+     * normalized results like {@link #exponAll(ECPoint[], BigInteger[])}.
+     */
+    default ECPoint[] exponPrecomputedAll(ECPoint[] bases, BigInteger[] exps) {
+        ECPoint[] results = new ECPoint[bases.length];
+        for (int i = 0; i < bases.length; i++) {
+            results[i] = exponPrecomputed(bases[i], exps[i]);
+        }
+        normalizeAll(results);
+        return results;
+    }
+
+    /**
+     * Replace every point of the array by its normalized form.
+     */
+    default void normalizeAll(ECPoint[] points) {
+        for (int i = 0; i < points.length; i++) {
+            points[i] = points[i].normalize();
+        }
+    }
+
+    /**
+     * Encode a point in the compact form used in packets.
+     */
+    byte[] encodePoint(ECPoint point);
+
+    /**
+     * Decode a point from the compact form used in packets.
+     * @throws IllegalArgumentException If the encoding is not a valid point of the group.
+     */
+    ECPoint decodePoint(byte[] encoded);
+
+    /**
+     * Length of the compact form of a point.
+     */
+    int encodedPointLength();
+
+    /**
+     * Encode a point in the form that shared secrets are derived from.
+     */
+    byte[] printable(ECPoint point);
+}
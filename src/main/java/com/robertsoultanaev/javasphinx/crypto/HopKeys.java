@@ -0,0 +1,10 @@
+package com.robertsoultanaev.javasphinx.crypto;
+
+import java.math.BigInteger;
+
+/**
+ * Type to combine the subkeys derived from the shared secret of one hop: header stream key (hrho), header MAC key (hmu),
+ * payload key (hpi), replay tag (htau) and blinding factor (hb)
+ */
+public record HopKeys(byte[] rho, byte[] mu, byte[] pi, byte[] tau, BigInteger blind) {
+}
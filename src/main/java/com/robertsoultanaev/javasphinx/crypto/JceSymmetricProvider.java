@@ -0,0 +1,85 @@
+package com.robertsoultanaev.javasphinx.crypto;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * Symmetric provider using the JDK's {@code AES/CTR/NoPadding} cipher, which HotSpot backs with AES-NI and a
+ * counter mode intrinsic on x86 and with the ARMv8 crypto extensions on aarch64.
+ */
+public class JceSymmetricProvider implements SymmetricProvider {
+
+    private static final String TRANSFORMATION = "AES/CTR/NoPadding";
+    private static final int CHUNK_SIZE = 1024;
+
+    /**
+     * Whether the JDK offers AES in counter mode.
+     */
+    public static boolean isAvailable() {
+        try {
+            Cipher.getInstance(TRANSFORMATION);
+            return true;
+        } catch (GeneralSecurityException ex) {
+            return false;
+        }
+    }
+
+    @Override
+    public AesCtr newAesCtr() {
+        try {
+            return new JceAesCtr(Cipher.getInstance(TRANSFORMATION));
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("AES/CTR is not available", ex);
+        }
+    }
+
+    private static final class JceAesCtr implements AesCtr {
+        private final Cipher cipher;
+        private final byte[] counter = new byte[BLOCK_SIZE];
+        private final byte[] skip = new byte[BLOCK_SIZE];
+        private final byte[] chunk = new byte[CHUNK_SIZE];
+        private byte[] ctrKey;
+        private SecretKeySpec keySpec;
+
+        JceAesCtr(Cipher cipher) {
+            this.cipher = cipher;
+        }
+
+        @Override
+        public void process(byte[] key, byte[] iv, long position, byte[] in, int inOff, int length, byte[] out, int outOff) {
+            if (!Arrays.equals(key, ctrKey)) {
+                ctrKey = key.clone();
+                keySpec = new SecretKeySpec(ctrKey, "AES");
+            }
+
+            // The JCE cipher cannot seek, so start at the counter block holding the position and discard the bytes of
+            // that block before it
+            AesCtr.counterBlock(iv, position, counter);
+            int skipLength = (int) (position % BLOCK_SIZE);
+
+            try {
+                // The provider keeps the expanded key while it is initialised with an equal key
+                cipher.init(Cipher.ENCRYPT_MODE, keySpec, new IvParameterSpec(counter));
+                if (skipLength != 0) {
+                    cipher.update(skip, 0, skipLength, skip, 0);
+                }
+                if (in == out) {
+                    // The cipher copies overlapping input to a fresh array first, so go through a scratch buffer
+                    // instead
+                    for (int done = 0; done < length; done += CHUNK_SIZE) {
+                        int n = Math.min(CHUNK_SIZE, length - done);
+                        cipher.update(in, inOff + done, n, chunk, 0);
+                        System.arraycopy(chunk, 0, out, outOff + done, n);
+                    }
+                } else {
+                    cipher.update(in, inOff, length, out, outOff);
+                }
+            } catch (GeneralSecurityException ex) {
+                throw new IllegalStateException("AES/CTR failed", ex);
+            }
+        }
+    }
+}
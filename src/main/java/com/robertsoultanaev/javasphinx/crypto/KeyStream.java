@@ -0,0 +1,21 @@
+package com.robertsoultanaev.javasphinx.crypto;
+
+/**
+ * Seekable stream cipher keyed by a key and an initial vector, used for all stream encryption in Sphinx. Instances
+ * keep engine state between calls and are not thread-safe.
+ */
+public interface KeyStream {
+
+    /**
+     * XOR the keystream into a region of a buffer.
+     * @param key Key of the cipher.
+     * @param iv Initial vector, only read and never modified.
+     * @param position Offset into the keystream in bytes.
+     * @param in Buffer holding the input.
+     * @param inOff Start of the input in in.
+     * @param length Length of the input.
+     * @param out Buffer receiving the output, may be the same as in.
+     * @param outOff Start of the output in out.
+     */
+    void process(byte[] key, byte[] iv, long position, byte[] in, int inOff, int length, byte[] out, int outOff);
+}
@@ -0,0 +1,86 @@
+package com.robertsoultanaev.javasphinx.crypto;
+
+import org.bouncycastle.crypto.ExtendedDigest;
+import org.bouncycastle.crypto.Mac;
+import org.bouncycastle.crypto.digests.Blake2bDigest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.macs.HMac;
+
+/**
+ * Symmetric primitives a network uses for the stream encryption, MACs, hashing and key derivation of Sphinx. All nodes
+ * and clients of a network must use the same suite, it is recorded in the encoded packets.
+ */
+public enum PrimitiveSuite {
+    /**
+     * AES-CTR, HMAC-SHA256 and SHA256, with subkeys derived as AES-CTR keystreams. Compatible with the Python
+     * implementation.
+     */
+    AES_SHA256(0) {
+        @Override
+        KeyStream newKeyStream(SymmetricProvider symmetricProvider) {
+            return symmetricProvider.newAesCtr();
+        }
+
+        @Override
+        Mac newMac() {
+            return new HMac(new SHA256Digest());
+        }
+
+        @Override
+        ExtendedDigest newDigest() {
+            return new SHA256Digest();
+        }
+    },
+    /**
+     * ChaCha20, keyed BLAKE2b and BLAKE2b-256, with subkeys derived as keyed BLAKE2b of their flavor. For hosts without
+     * AES hardware support. Requires 16 byte keys.
+     */
+    CHACHA20_BLAKE2(1) {
+        @Override
+        KeyStream newKeyStream(SymmetricProvider symmetricProvider) {
+            return new ChaCha20KeyStream();
+        }
+
+        @Override
+        Mac newMac() {
+            return new Blake2bMac();
+        }
+
+        @Override
+        ExtendedDigest newDigest() {
+            return new Blake2bDigest(256);
+        }
+    };
+
+    private final int id;
+
+    PrimitiveSuite(int id) {
+        this.id = id;
+    }
+
+    /**
+     * Identifier of the suite in encoded packets.
+     */
+    public int id() {
+        return id;
+    }
+
+    /**
+     * Look up a suite by its identifier.
+     * @throws IllegalArgumentException If the identifier is unknown.
+     */
+    public static PrimitiveSuite byId(int id) {
+        for (PrimitiveSuite suite : values()) {
+            if (suite.id == id) {
+                return suite;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported primitive suite " + id);
+    }
+
+    abstract KeyStream newKeyStream(SymmetricProvider symmetricProvider);
+
+    abstract Mac newMac();
+
+    abstract ExtendedDigest newDigest();
+}
@@ -0,0 +1,151 @@
+package com.robertsoultanaev.javasphinx.crypto;
+
+import org.bouncycastle.math.ec.ECPoint;
+
+import java.math.BigInteger;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of mix node public keys prepared for fixed-base multiplication.
+ * <p>
+ * Clients build headers against the same directory of mix nodes over and over. Building the comb table of a public key
+ * once and keeping it makes every later multiplication with that key as fast as one with the group generator. The
+ * cache is keyed by the public key itself and is meant to be shared, by default all clients use {@link #shared()},
+ * whose capacity is set by the system property {@code javasphinx.keyCache.capacity}. Lookups take a short lock, which
+ * is negligible next to the multiplication that follows.
+ * <p>
+ * Building a table costs more than one plain multiplication, so a key is only prepared once it is used again while
+ * it is still remembered among the recently seen keys. Keys of a directory much larger than the cache, which are
+ * rarely used twice in a row, are multiplied the plain way and never cost more than without the cache.
+ */
+public final class PublicKeyCache {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+    /**
+     * Number of recently seen keys remembered per prepared key by default.
+     */
+    public static final int DEFAULT_ADMISSION_FACTOR = 4;
+
+    private static final PublicKeyCache SHARED =
+            new PublicKeyCache(Integer.getInteger("javasphinx.keyCache.capacity", DEFAULT_CAPACITY));
+
+    private final int capacity;
+    private final Map<ECPoint, ECPoint> prepared;
+    // Keys used once that are prepared when they are used again, in the order they were seen
+    private final Map<ECPoint, Boolean> seen;
+
+    /**
+     * @param capacity Maximum number of prepared keys, the least recently used key is evicted beyond that.
+     */
+    public PublicKeyCache(int capacity) {
+        this(capacity, capacity * DEFAULT_ADMISSION_FACTOR);
+    }
+
+    /**
+     * @param capacity Maximum number of prepared keys, the least recently used key is evicted beyond that.
+     * @param admissionCapacity Number of keys used once that are remembered, a key is prepared when it is used
+     *                          again before it is forgotten.
+     */
+    public PublicKeyCache(int capacity, int admissionCapacity) {
+        if (capacity < 1 || admissionCapacity < 1) {
+            throw new IllegalArgumentException("Capacities (" + capacity + ", " + admissionCapacity + ") must be positive");
+        }
+
+        this.capacity = capacity;
+        this.prepared = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ECPoint, ECPoint> eldest) {
+                return size() > PublicKeyCache.this.capacity;
+            }
+        };
+        this.seen = new LinkedHashMap<>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ECPoint, Boolean> eldest) {
+                return size() > admissionCapacity;
+            }
+        };
+    }
+
+    /**
+     * Cache shared by all clients that are not given their own.
+     */
+    public static PublicKeyCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Get the prepared form of a public key if it is worth preparing. A key that is not cached is prepared and cached
+     * only if it was seen before, otherwise it is remembered as seen.
+     * @param group Group the key belongs to.
+     * @param key Public key of a mix node.
+     * @return Point equal to key, usable with {@link ECCGroup#exponPrecomputed(ECPoint, BigInteger)}, or null if the
+     *         key is to be multiplied the plain way.
+     */
+    public ECPoint lookup(ECCGroup group, ECPoint key) {
+        synchronized (prepared) {
+            ECPoint cached = prepared.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            if (seen.remove(key) == null) {
+                seen.put(key, Boolean.TRUE);
+                return null;
+            }
+        }
+        return prepare(group, key);
+    }
+
+    /**
+     * Get the prepared form of a public key, preparing and caching it if it is not cached yet, whether it was seen
+     * before or not.
+     * @param group Group the key belongs to.
+     * @param key Public key of a mix node.
+     * @return Point equal to key, usable with {@link ECCGroup#exponPrecomputed(ECPoint, BigInteger)}.
+     */
+    public ECPoint prepare(ECCGroup group, ECPoint key) {
+        ECPoint cached;
+        synchronized (prepared) {
+            cached = prepared.get(key);
+        }
+        if (cached != null) {
+            return cached;
+        }
+
+        // Prepared outside the lock, two threads racing on the same new key both do the work once
+        ECPoint fresh = group.precompute(key);
+        synchronized (prepared) {
+            cached = prepared.putIfAbsent(fresh, fresh);
+        }
+        return cached != null ? cached : fresh;
+    }
+
+    /**
+     * Raise a public key to the power exp, going through its cached comb table if it is worth preparing.
+     * @param group Group the key belongs to.
+     * @param key Public key of a mix node.
+     * @param exp Exponent to raise the key to.
+     * @return key to the power exp.
+     */
+    public ECPoint expon(ECCGroup group, ECPoint key, BigInteger exp) {
+        ECPoint cached = lookup(group, key);
+        return cached != null ? group.exponPrecomputed(cached, exp) : group.expon(key, exp);
+    }
+
+    public int size() {
+        synchronized (prepared) {
+            return prepared.size();
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public void clear() {
+        synchronized (prepared) {
+            prepared.clear();
+            seen.clear();
+        }
+    }
+}
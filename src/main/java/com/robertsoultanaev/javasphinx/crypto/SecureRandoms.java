@@ -0,0 +1,33 @@
+package com.robertsoultanaev.javasphinx.crypto;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * Per-thread random sources for secrets, nonces and padding.
+ * <p>
+ * Every thread gets its own DRBG instance, seeded once when the thread first asks for it, so threads creating packets
+ * in parallel neither contend on a shared generator nor pay for seeding a new one per packet.
+ */
+public final class SecureRandoms {
+
+    private static final ThreadLocal<SecureRandom> CURRENT = ThreadLocal.withInitial(SecureRandoms::newInstance);
+
+    private SecureRandoms() {
+    }
+
+    /**
+     * Random source of the calling thread. It must not be handed to other threads.
+     */
+    public static SecureRandom current() {
+        return CURRENT.get();
+    }
+
+    private static SecureRandom newInstance() {
+        try {
+            return SecureRandom.getInstance("DRBG");
+        } catch (NoSuchAlgorithmException ex) {
+            return new SecureRandom();
+        }
+    }
+}
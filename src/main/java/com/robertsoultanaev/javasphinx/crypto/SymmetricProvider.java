@@ -0,0 +1,20 @@
+package com.robertsoultanaev.javasphinx.crypto;
+
+/**
+ * Source of the symmetric cipher implementation used by a {@link CryptoContext}. All providers produce identical
+ * output, they differ only in speed.
+ */
+public interface SymmetricProvider {
+
+    /**
+     * Create a cipher for use by a single thread.
+     */
+    AesCtr newAesCtr();
+
+    /**
+     * The provider backed by the JDK's AES/CTR cipher if it is available, BouncyCastle otherwise.
+     */
+    static SymmetricProvider defaultProvider() {
+        return JceSymmetricProvider.isAvailable() ? new JceSymmetricProvider() : new BcSymmetricProvider();
+    }
+}
@@ -0,0 +1,129 @@
+package com.robertsoultanaev.javasphinx.crypto;
+
+import org.bouncycastle.jce.ECNamedCurveTable;
+import org.bouncycastle.jce.spec.ECParameterSpec;
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECMultiplier;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.math.ec.FixedPointCombMultiplier;
+import org.bouncycastle.math.ec.FixedPointUtil;
+import org.bouncycastle.util.BigIntegers;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+/**
+ * Group backend for a named short Weierstrass curve, using BouncyCastle's point arithmetic and fixed-base comb tables.
+ */
+public class WeierstrassGroup implements Group {
+
+    private final String name;
+    private final int id;
+    private final ECCurve curve;
+    private final ECPoint generator;
+    private final BigInteger order;
+    private final int encodedPointLength;
+    private final ECMultiplier fixedPointMultiplier = new FixedPointCombMultiplier();
+
+    /**
+     * @param name Name of the curve as known to {@link ECNamedCurveTable}.
+     * @param id OpenSSL NID of the curve.
+     */
+    public WeierstrassGroup(String name, int id) {
+        ECParameterSpec ecSpec = ECNamedCurveTable.getParameterSpec(name);
+        if (ecSpec == null) {
+            throw new IllegalArgumentException("Unknown curve " + name);
+        }
+
+        this.name = name;
+        this.id = id;
+        this.curve = ecSpec.getCurve();
+        this.generator = ecSpec.getG();
+        this.order = ecSpec.getN();
+        this.encodedPointLength = generator.getEncoded(true).length;
+
+        // Build the comb table for the generator up front, so exponGenerator never pays for it on a hot path
+        FixedPointUtil.precompute(generator);
+    }
+
+    @Override
+    public int id() {
+        return id;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public ECPoint getGenerator() {
+        return generator;
+    }
+
+    @Override
+    public BigInteger getOrder() {
+        return order;
+    }
+
+    @Override
+    public BigInteger genSecret(SecureRandom random) {
+        BigInteger lowerBound = BigInteger.ZERO;
+        BigInteger upperBound = order.subtract(BigInteger.ONE);
+        return BigIntegers.createRandomInRange(lowerBound, upperBound, random);
+    }
+
+    @Override
+    public ECPoint expon(ECPoint base, BigInteger exp) {
+        return base.multiply(exp);
+    }
+
+    @Override
+    public ECPoint precompute(ECPoint base) {
+        ECPoint prepared = base.normalize();
+        FixedPointUtil.precompute(prepared);
+        return prepared;
+    }
+
+    @Override
+    public ECPoint exponPrecomputed(ECPoint base, BigInteger exp) {
+        // The comb table only covers scalars up to the bit length of the order
+        if (exp.signum() < 0 || exp.bitLength() > order.bitLength()) {
+            exp = exp.mod(order);
+        }
+        return fixedPointMultiplier.multiply(base, exp);
+    }
+
+    @Override
+    public void normalizeAll(ECPoint[] points) {
+        for (ECPoint point : points) {
+            if (point.getCurve() != curve) {
+                // Points of an equal curve built by another instance cannot share the inversion
+                Group.super.normalizeAll(points);
+                return;
+            }
+        }
+        // Montgomery's trick, a single field inversion for the whole array
+        curve.normalizeAll(points);
+    }
+
+    @Override
+    public byte[] encodePoint(ECPoint point) {
+        return point.getEncoded(true);
+    }
+
+    @Override
+    public ECPoint decodePoint(byte[] encoded) {
+        return curve.decodePoint(encoded);
+    }
+
+    @Override
+    public int encodedPointLength() {
+        return encodedPointLength;
+    }
+
+    @Override
+    public byte[] printable(ECPoint point) {
+        return point.getEncoded(false);
+    }
+}
@@ -0,0 +1,341 @@
+package com.robertsoultanaev.javasphinx.crypto;
+
+import org.bouncycastle.asn1.x9.X9ECParameters;
+import org.bouncycastle.crypto.ec.CustomNamedCurves;
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.math.ec.rfc7748.X25519Field;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.BigIntegers;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+/**
+ * Group backend for Curve25519, multiplying with the X25519 Montgomery ladder.
+ *
+ * Points are kept as BouncyCastle points on the short Weierstrass form of the curve, so they can be used wherever an
+ * {@link ECPoint} is expected. Scalar multiplication converts to the Montgomery u-coordinate, runs the ladder and
+ * recovers the y-coordinate with the Okeya-Sakurai formula. Points are encoded as their 32 byte little endian
+ * u-coordinate like in X25519.
+ *
+ * Secrets are clamped as in RFC 7748. The ladder itself accepts any scalar, since blinding factors in a Sphinx header
+ * are products of secrets modulo the group order.
+ */
+public class X25519Group implements Group {
+    public static final String CURVE_NAME = "curve25519";
+    public static final int NID = 1034;
+
+    private static final int POINT_LENGTH = 32;
+    private static final int SCALAR_BITS = 255;
+
+    private static final BigInteger P = BigInteger.ONE.shiftLeft(255).subtract(BigInteger.valueOf(19));
+    private static final int A = 486662;
+    private static final int A24 = (A - 2) / 4;
+    // Offset between the Montgomery u-coordinate and the Weierstrass x-coordinate, x = u + A/3
+    private static final BigInteger A_THIRD = BigInteger.valueOf(A).multiply(BigInteger.valueOf(3).modInverse(P)).mod(P);
+
+    private final ECCurve curve;
+    private final ECPoint generator;
+    private final BigInteger order;
+
+    public X25519Group() {
+        X9ECParameters ecSpec = CustomNamedCurves.getByName(CURVE_NAME);
+        this.curve = ecSpec.getCurve();
+        this.generator = ecSpec.getG().normalize();
+        this.order = ecSpec.getN();
+    }
+
+    @Override
+    public int id() {
+        return NID;
+    }
+
+    @Override
+    public String name() {
+        return CURVE_NAME;
+    }
+
+    @Override
+    public ECPoint getGenerator() {
+        return generator;
+    }
+
+    @Override
+    public BigInteger getOrder() {
+        return order;
+    }
+
+    @Override
+    public BigInteger genSecret(SecureRandom random) {
+        byte[] k = new byte[POINT_LENGTH];
+        random.nextBytes(k);
+        k[0] &= (byte) 248;
+        k[31] &= (byte) 127;
+        k[31] |= (byte) 64;
+        return fromLittleEndian(k);
+    }
+
+    @Override
+    public ECPoint expon(ECPoint base, BigInteger exp) {
+        return exponAll(new ECPoint[]{base}, new BigInteger[]{exp})[0];
+    }
+
+    /**
+     * Runs the ladder for every base and leaves the results in projective coordinates, then brings all of them back
+     * to affine coordinates with a single field inversion (Montgomery's trick).
+     */
+    @Override
+    public ECPoint[] exponAll(ECPoint[] bases, BigInteger[] exps) {
+        int n = bases.length;
+        ECPoint[] results = new ECPoint[n];
+        int[][] xs = new int[n][];
+        int[][] ys = new int[n][];
+        int[][] zs = new int[n][];
+        // products[j] is the product of the z-coordinates of the first j + 1 projective results
+        int[][] products = new int[n][];
+        int[] projective = new int[n];
+        int count = 0;
+
+        for (int i = 0; i < n; i++) {
+            results[i] = exponProjective(bases[i], exps[i], xs, ys, zs, i);
+            if (results[i] != null) {
+                continue;
+            }
+            int[] product = X25519Field.create();
+            if (count == 0) {
+                X25519Field.copy(zs[i], 0, product, 0);
+            } else {
+                X25519Field.mul(products[count - 1], zs[i], product);
+            }
+            products[count] = product;
+            projective[count++] = i;
+        }
+        if (count == 0) {
+            return results;
+        }
+
+        int[] inverse = X25519Field.create();
+        X25519Field.inv(products[count - 1], inverse);
+        int[] zInverse = X25519Field.create();
+        for (int j = count - 1; j >= 0; j--) {
+            int i = projective[j];
+            if (j > 0) {
+                X25519Field.mul(inverse, products[j - 1], zInverse);
+                X25519Field.mul(inverse, zs[i], inverse);
+            } else {
+                X25519Field.copy(inverse, 0, zInverse, 0);
+            }
+
+            X25519Field.mul(xs[i], zInverse, xs[i]);
+            X25519Field.mul(ys[i], zInverse, ys[i]);
+            BigInteger affineX = fromField(xs[i]).add(A_THIRD).mod(P);
+            BigInteger affineY = fromField(ys[i]);
+            results[i] = curve.createPoint(affineX, affineY);
+        }
+        return results;
+    }
+
+    @Override
+    public ECPoint[] exponPrecomputedAll(ECPoint[] bases, BigInteger[] exps) {
+        return exponAll(bases, exps);
+    }
+
+    /**
+     * Multiply a single base, leaving the result in (xs[i] : ys[i] : zs[i]).
+     * @return The result if it is an exceptional point that needs no inversion, null otherwise.
+     */
+    private ECPoint exponProjective(ECPoint base, BigInteger exp, int[][] xs, int[][] ys, int[][] zs, int i) {
+        if (exp.signum() < 0 || exp.bitLength() > SCALAR_BITS) {
+            exp = exp.mod(order);
+        }
+
+        ECPoint p = base.normalize();
+        if (p.isInfinity()) {
+            return p;
+        }
+
+        int[] xP = toField(p.getAffineXCoord().toBigInteger().subtract(A_THIRD).mod(P));
+        int[] yP = toField(p.getAffineYCoord().toBigInteger());
+
+        int[] x2 = X25519Field.create();
+        int[] z2 = X25519Field.create();
+        int[] x3 = X25519Field.create();
+        int[] z3 = X25519Field.create();
+        ladder(xP, exp, x2, z2, x3, z3);
+
+        if (isZero(z2)) {
+            return curve.getInfinity();
+        }
+        if (isZero(z3)) {
+            // (k + 1)P is the identity, so kP = -P
+            return p.negate();
+        }
+
+        xs[i] = X25519Field.create();
+        ys[i] = X25519Field.create();
+        zs[i] = X25519Field.create();
+        recoverY(xP, yP, x2, z2, x3, z3, xs[i], ys[i], zs[i]);
+        return null;
+    }
+
+    @Override
+    public ECPoint precompute(ECPoint base) {
+        return base.normalize();
+    }
+
+    @Override
+    public ECPoint exponPrecomputed(ECPoint base, BigInteger exp) {
+        return expon(base, exp);
+    }
+
+    @Override
+    public byte[] encodePoint(ECPoint point) {
+        ECPoint p = point.normalize();
+        BigInteger u = p.getAffineXCoord().toBigInteger().subtract(A_THIRD).mod(P);
+        return toLittleEndian(u);
+    }
+
+    @Override
+    public ECPoint decodePoint(byte[] encoded) {
+        if (encoded.length != POINT_LENGTH) {
+            throw new IllegalArgumentException("Invalid point encoding length " + encoded.length);
+        }
+
+        BigInteger u = fromLittleEndian(encoded);
+        if (u.compareTo(P) >= 0) {
+            throw new IllegalArgumentException("Non-canonical point encoding");
+        }
+
+        // The sign of y is irrelevant for Sphinx, only the u-coordinate of shared secrets is used
+        BigInteger x = u.add(A_THIRD).mod(P);
+        byte[] compressed = new byte[1 + POINT_LENGTH];
+        compressed[0] = 0x02;
+        BigIntegers.asUnsignedByteArray(x, compressed, 1, POINT_LENGTH);
+        return curve.decodePoint(compressed);
+    }
+
+    @Override
+    public int encodedPointLength() {
+        return POINT_LENGTH;
+    }
+
+    @Override
+    public byte[] printable(ECPoint point) {
+        return encodePoint(point);
+    }
+
+    /**
+     * Montgomery ladder on u-coordinates as in RFC 7748, leaving (x2 : z2) = kP and (x3 : z3) = (k + 1)P.
+     */
+    private static void ladder(int[] x1, BigInteger k, int[] x2, int[] z2, int[] x3, int[] z3) {
+        int[] a = X25519Field.create();
+        int[] aa = X25519Field.create();
+        int[] b = X25519Field.create();
+        int[] bb = X25519Field.create();
+        int[] e = X25519Field.create();
+        int[] c = X25519Field.create();
+        int[] d = X25519Field.create();
+        int[] t = X25519Field.create();
+
+        X25519Field.one(x2);
+        X25519Field.zero(z2);
+        X25519Field.copy(x1, 0, x3, 0);
+        X25519Field.one(z3);
+
+        int swap = 0;
+        for (int bit = SCALAR_BITS - 1; bit >= 0; bit--) {
+            int kt = k.testBit(bit) ? 1 : 0;
+            swap ^= kt;
+            X25519Field.cswap(swap, x2, x3);
+            X25519Field.cswap(swap, z2, z3);
+            swap = kt;
+
+            X25519Field.add(x2, z2, a);
+            X25519Field.sqr(a, aa);
+            X25519Field.sub(x2, z2, b);
+            X25519Field.sqr(b, bb);
+            X25519Field.sub(aa, bb, e);
+            X25519Field.add(x3, z3, c);
+            X25519Field.sub(x3, z3, d);
+            X25519Field.mul(d, a, d);
+            X25519Field.mul(c, b, c);
+            X25519Field.add(d, c, x3);
+            X25519Field.sqr(x3, x3);
+            X25519Field.sub(d, c, z3);
+            X25519Field.sqr(z3, z3);
+            X25519Field.mul(z3, x1, z3);
+            X25519Field.mul(aa, bb, x2);
+            X25519Field.mul(e, A24, t);
+            X25519Field.add(aa, t, t);
+            X25519Field.mul(e, t, z2);
+        }
+        X25519Field.cswap(swap, x2, x3);
+        X25519Field.cswap(swap, z2, z3);
+    }
+
+    /**
+     * Okeya-Sakurai y-coordinate recovery (Costello and Smith, "Montgomery curves and their arithmetic", algorithm 5)
+     * from the affine point P, Q = (xQ : zQ) and Q + P = (xS : zS), giving Q in projective coordinates (x : y : z).
+     */
+    private static void recoverY(int[] xP, int[] yP, int[] xQ, int[] zQ, int[] xS, int[] zS,
+                                 int[] x, int[] y, int[] z) {
+        int[] v1 = X25519Field.create();
+        int[] v2 = X25519Field.create();
+        int[] v3 = X25519Field.create();
+        int[] v4 = X25519Field.create();
+
+        X25519Field.mul(xP, zQ, v1);
+        X25519Field.add(xQ, v1, v2);
+        X25519Field.sub(xQ, v1, v3);
+        X25519Field.sqr(v3, v3);
+        X25519Field.mul(v3, xS, v3);
+        X25519Field.mul(zQ, 2 * A, v1);
+        X25519Field.add(v2, v1, v2);
+        X25519Field.carry(v2);
+        X25519Field.mul(xP, xQ, v4);
+        X25519Field.add(v4, zQ, v4);
+        X25519Field.mul(v2, v4, v2);
+        X25519Field.mul(v1, zQ, v1);
+        X25519Field.sub(v2, v1, v2);
+        X25519Field.mul(v2, zS, v2);
+        X25519Field.sub(v2, v3, y);
+        X25519Field.carry(y);
+        // 2B * yP with B = 1
+        X25519Field.add(yP, yP, v1);
+        X25519Field.mul(v1, zQ, v1);
+        X25519Field.mul(v1, zS, v1);
+        X25519Field.mul(v1, xQ, x);
+        X25519Field.mul(v1, zQ, z);
+    }
+
+    private static boolean isZero(int[] x) {
+        int[] t = X25519Field.create();
+        X25519Field.copy(x, 0, t, 0);
+        X25519Field.normalize(t);
+        return X25519Field.isZeroVar(t);
+    }
+
+    private static int[] toField(BigInteger value) {
+        int[] z = X25519Field.create();
+        X25519Field.decode(toLittleEndian(value), 0, z);
+        return z;
+    }
+
+    private static BigInteger fromField(int[] x) {
+        int[] t = X25519Field.create();
+        X25519Field.copy(x, 0, t, 0);
+        X25519Field.normalize(t);
+        byte[] encoded = new byte[POINT_LENGTH];
+        X25519Field.encode(t, encoded, 0);
+        return fromLittleEndian(encoded);
+    }
+
+    private static byte[] toLittleEndian(BigInteger value) {
+        return Arrays.reverseInPlace(BigIntegers.asUnsignedByteArray(POINT_LENGTH, value));
+    }
+
+    private static BigInteger fromLittleEndian(byte[] encoded) {
+        return new BigInteger(1, Arrays.reverse(encoded));
+    }
+}
@@ -0,0 +1,113 @@
+package com.robertsoultanaev.javasphinx.fragment;
+
+import com.robertsoultanaev.javasphinx.SphinxClient;
+import com.robertsoultanaev.javasphinx.SphinxException;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits messages that do not fit into a single Sphinx payload into fragments that do. Every fragment starts with a
+ * header, multi-byte integers are big endian:
+ *
+ * <pre>
+ * offset  length  field
+ *      0       8  message id
+ *      8       2  fragment index
+ *     10       2  fragment count
+ *     12       .  fragment payload
+ * </pre>
+ *
+ * All fragments but the last carry {@link #payloadLength()} bytes of the message. The message id is random, so the
+ * fragments of messages from different senders can be reassembled by one {@link Reassembler}.
+ */
+public class Fragmenter {
+
+    public static final int HEADER_LENGTH = 12;
+    public static final int MAX_FRAGMENTS = 0xffff;
+
+    static final int INDEX_OFFSET = 8;
+    static final int COUNT_OFFSET = 10;
+
+    private final int fragmentLength;
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * @param fragmentLength Length of a fragment including its header.
+     */
+    public Fragmenter(int fragmentLength) {
+        if (fragmentLength <= HEADER_LENGTH) {
+            throw new IllegalArgumentException("Fragment length (" + fragmentLength + ") must exceed the header length (" + HEADER_LENGTH + ")");
+        }
+        this.fragmentLength = fragmentLength;
+    }
+
+    /**
+     * Fragmenter producing fragments as large as a forward message of the client to the given destination can carry.
+     * @param client Client creating the forward messages.
+     * @param destination Final destination of the messages.
+     */
+    public Fragmenter(SphinxClient client, byte[] destination) throws SphinxException {
+        this(client.getMaxPayloadSize() - destination.length);
+    }
+
+    /**
+     * Length of a fragment including its header.
+     */
+    public int fragmentLength() {
+        return fragmentLength;
+    }
+
+    /**
+     * Number of message bytes carried by each fragment.
+     */
+    public int payloadLength() {
+        return fragmentLength - HEADER_LENGTH;
+    }
+
+    /**
+     * Number of fragments a message of the given length is split into.
+     */
+    public int fragmentCount(int messageLength) {
+        return Math.max(1, (messageLength + payloadLength() - 1) / payloadLength());
+    }
+
+    /**
+     * Split a message into fragments under a random message id.
+     * @param message Message of any length up to {@link #MAX_FRAGMENTS} fragments.
+     * @return The fragments in order, each to be sent as the payload of its own Sphinx packet.
+     */
+    public List<byte[]> fragment(byte[] message) throws SphinxException {
+        return fragment(random.nextLong(), message);
+    }
+
+    /**
+     * Split a message into fragments.
+     * @param messageId Identifier shared by the fragments of the message.
+     * @param message Message of any length up to {@link #MAX_FRAGMENTS} fragments.
+     * @return The fragments in order, each to be sent as the payload of its own Sphinx packet.
+     */
+    public List<byte[]> fragment(long messageId, byte[] message) throws SphinxException {
+        int count = fragmentCount(message.length);
+        if (count > MAX_FRAGMENTS) {
+            throw new SphinxException("Message of " + message.length + " bytes needs more than " + MAX_FRAGMENTS + " fragments");
+        }
+
+        List<byte[]> fragments = new ArrayList<>(count);
+        for (int index = 0; index < count; index++) {
+            int offset = index * payloadLength();
+            int length = Math.min(payloadLength(), message.length - offset);
+
+            byte[] fragment = new byte[HEADER_LENGTH + length];
+            ByteBuffer.wrap(fragment)
+                    .putLong(messageId)
+                    .putShort((short) index)
+                    .putShort((short) count)
+                    .put(message, offset, length);
+            fragments.add(fragment);
+        }
+        return fragments;
+    }
+}
@@ -0,0 +1,215 @@
+package com.robertsoultanaev.javasphinx.fragment;
+
+import com.robertsoultanaev.javasphinx.SphinxException;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Collects the fragments produced by a {@link Fragmenter} and hands every message to a consumer as soon as its last
+ * missing fragment arrives, in whatever order the fragments come in. Duplicate fragments are ignored.
+ * <p>
+ * Memory is bounded by the number of incomplete messages and by the number of buffered bytes, which counts the
+ * payloads received so far and a slot per expected fragment, so a forged fragment count is charged too. When either
+ * limit is exceeded the least recently extended incomplete messages are evicted, as are messages that received no
+ * fragment within the timeout. Evicted messages are lost, fragments of them that arrive later start a new message.
+ * <p>
+ * Instances are thread-safe. The consumer is called outside the lock, by the thread passing the completing fragment.
+ */
+public class Reassembler {
+
+    private static final int SLOT_BYTES = 8;
+
+    private final int maxPendingMessages;
+    private final long maxBufferedBytes;
+    private final long timeoutNanos;
+    private final Consumer<byte[]> delivery;
+
+    // Insertion order, messages are moved to the end when they receive a fragment, so the eldest entry is the message
+    // extended least recently. A lookup alone must not reorder, or a rejected fragment would keep a message alive.
+    private final LinkedHashMap<Long, PendingMessage> pending = new LinkedHashMap<>();
+    private long bufferedBytes;
+    private long deliveredMessages;
+    private long evictedMessages;
+
+    /**
+     * @param maxPendingMessages Maximum number of incomplete messages.
+     * @param maxBufferedBytes Maximum number of bytes buffered for incomplete messages.
+     * @param timeout Time after which an incomplete message that received no fragment is evicted.
+     * @param delivery Consumer of the reassembled messages.
+     */
+    public Reassembler(int maxPendingMessages, long maxBufferedBytes, Duration timeout, Consumer<byte[]> delivery) {
+        if (maxPendingMessages < 1 || maxBufferedBytes < 1) {
+            throw new IllegalArgumentException("Limits must be positive");
+        }
+        this.maxPendingMessages = maxPendingMessages;
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.timeoutNanos = timeout.toNanos();
+        this.delivery = delivery;
+    }
+
+    /**
+     * Add a fragment received now.
+     * @see #accept(byte[], long)
+     */
+    public void accept(byte[] fragment) throws SphinxException {
+        accept(fragment, System.nanoTime());
+    }
+
+    /**
+     * Add a fragment, delivering its message if it was the last one missing. Messages that timed out are evicted first.
+     * @param fragment Fragment as produced by {@link Fragmenter#fragment(byte[])}.
+     * @param nowNanos Arrival time of the fragment on the {@link System#nanoTime()} clock.
+     */
+    public void accept(byte[] fragment, long nowNanos) throws SphinxException {
+        if (fragment.length < Fragmenter.HEADER_LENGTH) {
+            throw new SphinxException("Fragment of " + fragment.length + " bytes is shorter than its header");
+        }
+        ByteBuffer header = ByteBuffer.wrap(fragment);
+        long messageId = header.getLong(0);
+        int index = header.getShort(Fragmenter.INDEX_OFFSET) & 0xffff;
+        int count = header.getShort(Fragmenter.COUNT_OFFSET) & 0xffff;
+        if (count == 0 || index >= count) {
+            throw new SphinxException("Invalid fragment index " + index + " of " + count);
+        }
+        int payloadLength = fragment.length - Fragmenter.HEADER_LENGTH;
+
+        byte[] message;
+        synchronized (this) {
+            evictExpired(nowNanos);
+
+            if (count == 1) {
+                message = payload(fragment);
+            } else {
+                PendingMessage pendingMessage = pending.get(messageId);
+                if (pendingMessage == null) {
+                    pendingMessage = new PendingMessage(count);
+                    pendingMessage.bytes = (long) count * SLOT_BYTES;
+                    bufferedBytes += pendingMessage.bytes;
+                } else if (pendingMessage.fragments.length != count) {
+                    throw new SphinxException("Fragment count " + count + " did not match the count of the message (" + pendingMessage.fragments.length + ")");
+                } else {
+                    pending.remove(messageId);
+                }
+                pending.put(messageId, pendingMessage);
+                pendingMessage.lastActivityNanos = nowNanos;
+
+                if (pendingMessage.fragments[index] != null) {
+                    return;
+                }
+                pendingMessage.fragments[index] = payload(fragment);
+                pendingMessage.received++;
+                pendingMessage.payloadBytes += payloadLength;
+                pendingMessage.bytes += payloadLength;
+                bufferedBytes += payloadLength;
+
+                if (pendingMessage.received == count) {
+                    pending.remove(messageId);
+                    bufferedBytes -= pendingMessage.bytes;
+                    message = pendingMessage.join();
+                } else {
+                    message = null;
+                    evictOverLimit();
+                }
+            }
+            if (message != null) {
+                deliveredMessages++;
+            }
+        }
+
+        if (message != null) {
+            delivery.accept(message);
+        }
+    }
+
+    /**
+     * Evict the incomplete messages that received no fragment within the timeout.
+     * @param nowNanos Current time on the {@link System#nanoTime()} clock.
+     */
+    public synchronized void evictExpired(long nowNanos) {
+        Iterator<PendingMessage> it = pending.values().iterator();
+        while (it.hasNext()) {
+            PendingMessage pendingMessage = it.next();
+            if (nowNanos - pendingMessage.lastActivityNanos < timeoutNanos) {
+                // Later entries were extended even more recently
+                break;
+            }
+            evict(it, pendingMessage);
+        }
+    }
+
+    /**
+     * Number of incomplete messages.
+     */
+    public synchronized int pendingMessages() {
+        return pending.size();
+    }
+
+    /**
+     * Number of bytes buffered for incomplete messages.
+     */
+    public synchronized long bufferedBytes() {
+        return bufferedBytes;
+    }
+
+    /**
+     * Number of messages delivered so far.
+     */
+    public synchronized long deliveredMessages() {
+        return deliveredMessages;
+    }
+
+    /**
+     * Number of incomplete messages evicted so far, by timeout or to stay within the limits.
+     */
+    public synchronized long evictedMessages() {
+        return evictedMessages;
+    }
+
+    private void evictOverLimit() {
+        Iterator<PendingMessage> it = pending.values().iterator();
+        while ((pending.size() > maxPendingMessages || bufferedBytes > maxBufferedBytes) && it.hasNext()) {
+            evict(it, it.next());
+        }
+    }
+
+    private void evict(Iterator<PendingMessage> it, PendingMessage pendingMessage) {
+        it.remove();
+        bufferedBytes -= pendingMessage.bytes;
+        evictedMessages++;
+    }
+
+    private static byte[] payload(byte[] fragment) {
+        byte[] payload = new byte[fragment.length - Fragmenter.HEADER_LENGTH];
+        System.arraycopy(fragment, Fragmenter.HEADER_LENGTH, payload, 0, payload.length);
+        return payload;
+    }
+
+    /**
+     * Fragments received so far of an incomplete message.
+     */
+    private static final class PendingMessage {
+        private final byte[][] fragments;
+        private int received;
+        private int payloadBytes;
+        private long bytes;
+        private long lastActivityNanos;
+
+        PendingMessage(int count) {
+            this.fragments = new byte[count][];
+        }
+
+        byte[] join() {
+            byte[] message = new byte[payloadBytes];
+            int offset = 0;
+            for (byte[] fragment : fragments) {
+                System.arraycopy(fragment, 0, message, offset, fragment.length);
+                offset += fragment.length;
+            }
+            return message;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.robertsoultanaev.javasphinx.metrics;
+
+/**
+ * Event counters of nodes and clients.
+ */
+public enum Counter {
+    /** Packets processed successfully by a node. */
+    NODE_PACKETS,
+    /** Packets rejected by a node because of a header MAC mismatch. */
+    NODE_MAC_FAILURES,
+    /** Packets rejected by a node as replays. */
+    NODE_REPLAYS,
+    /** Processed packets relayed to another node. */
+    NODE_RELAY,
+    /** Processed packets for their final destination. */
+    NODE_DESTINATION,
+    /** Processed replies for the owner of a single-use reply block. */
+    NODE_SURB,
+    /** Forward messages rejected at their destination because of a payload MAC mismatch. */
+    CLIENT_MAC_FAILURES,
+    /** Frames taken from a {@link com.robertsoultanaev.javasphinx.codec.FramePool} that were reused. */
+    POOL_HITS,
+    /** Frames taken from a {@link com.robertsoultanaev.javasphinx.codec.FramePool} that had to be allocated. */
+    POOL_MISSES
+}
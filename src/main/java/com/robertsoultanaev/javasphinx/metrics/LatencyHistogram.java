@@ -0,0 +1,120 @@
+package com.robertsoultanaev.javasphinx.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in nanoseconds with logarithmic buckets. Every power of two is split into
+ * {@code 2^SUB_BUCKET_BITS} linear sub-buckets, so recorded values are kept with a relative error below 12.5% over
+ * the whole range of a long. Recording a value does not allocate and does not lock, concurrent threads update striped
+ * counters.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Record a latency. Negative values are recorded as zero.
+     * @param nanos Latency in nanoseconds.
+     */
+    public void record(long nanos) {
+        record(nanos, 1);
+    }
+
+    /**
+     * Record the same latency several times.
+     * @param nanos Latency in nanoseconds.
+     * @param count Number of times the latency is recorded.
+     */
+    public void record(long nanos, long count) {
+        long value = Math.max(nanos, 0);
+        buckets[bucketIndex(value)].add(count);
+        sum.add(value * count);
+        max.accumulate(value);
+    }
+
+    /**
+     * Copy of the current state. Values recorded concurrently may or may not be included.
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            count += counts[i];
+        }
+        return new Snapshot(count, sum.sum(), max.get(), counts);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Largest value that falls into a bucket.
+     */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lowerBound = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+
+    /**
+     * State of a histogram at the time of the snapshot.
+     * @param count Number of recorded values.
+     * @param sum Sum of the recorded values in nanoseconds.
+     * @param max Largest recorded value in nanoseconds.
+     * @param buckets Number of values in every bucket.
+     */
+    public record Snapshot(long count, long sum, long max, long[] buckets) {
+
+        /**
+         * Mean of the recorded values in nanoseconds, 0 if nothing was recorded.
+         */
+        public double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * Value below which the given fraction of the recorded values fall, rounded up to the end of its bucket
+         * but never above the largest recorded value.
+         * @param quantile Fraction between 0 and 1.
+         * @return The value in nanoseconds, 0 if nothing was recorded.
+         */
+        public long quantile(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.robertsoultanaev.javasphinx.metrics;
+
+import com.robertsoultanaev.javasphinx.packet.RoutingFlag;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide counters and stage latencies of nodes and clients.
+ * <p>
+ * Instrumented code chains stage timings without allocating:
+ * <pre>{@code
+ * long start = Metrics.start();
+ * ...
+ * long t = Metrics.stage(Stage.NODE_SHARED_SECRET, start);
+ * ...
+ * t = Metrics.stage(Stage.NODE_AES_KEY, t);
+ * }</pre>
+ * Metrics are on unless the system property {@code javasphinx.metrics} is {@code false}. The switch is a static final
+ * constant, so when it is off the JIT removes the instrumentation entirely.
+ */
+public final class Metrics {
+
+    public static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("javasphinx.metrics"));
+
+    private static final Stage[] STAGES = Stage.values();
+    private static final Counter[] COUNTERS = Counter.values();
+    private static final LatencyHistogram[] HISTOGRAMS = new LatencyHistogram[STAGES.length];
+    private static final LongAdder[] COUNTS = new LongAdder[COUNTERS.length];
+
+    static {
+        for (int i = 0; i < HISTOGRAMS.length; i++) {
+            HISTOGRAMS[i] = new LatencyHistogram();
+        }
+        for (int i = 0; i < COUNTS.length; i++) {
+            COUNTS[i] = new LongAdder();
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * Start timing.
+     * @return The current time on the {@link System#nanoTime()} clock, 0 if metrics are off.
+     */
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record the time since {@code startNanos} as the latency of a stage.
+     * @return The current time, to be passed as the start of the next stage.
+     */
+    public static long stage(Stage stage, long startNanos) {
+        if (!ENABLED) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        HISTOGRAMS[stage.ordinal()].record(now - startNanos);
+        return now;
+    }
+
+    /**
+     * Record the time since {@code startNanos}, spent on several packets at once, as a latency of the stage per packet.
+     * The histogram receives one sample of the average time per packet for every packet, so batched and single packet
+     * processing are recorded alike.
+     * @param packets Number of packets the time was spent on, nothing is recorded for 0.
+     * @return The current time, to be passed as the start of the next stage.
+     */
+    public static long stage(Stage stage, long startNanos, int packets) {
+        if (!ENABLED) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        if (packets > 0) {
+            HISTOGRAMS[stage.ordinal()].record((now - startNanos) / packets, packets);
+        }
+        return now;
+    }
+
+    /**
+     * Count an event.
+     */
+    public static void count(Counter counter) {
+        if (ENABLED) {
+            COUNTS[counter.ordinal()].increment();
+        }
+    }
+
+    /**
+     * Count a packet processed by a node and its routing flag.
+     * @param routing Encoded routing information of the packet.
+     */
+    public static void countProcessed(byte[] routing) {
+        if (!ENABLED) {
+            return;
+        }
+        COUNTS[Counter.NODE_PACKETS.ordinal()].increment();
+        RoutingFlag flag = RoutingFlag.peek(routing);
+        if (flag == RoutingFlag.RELAY) {
+            COUNTS[Counter.NODE_RELAY.ordinal()].increment();
+        } else if (flag == RoutingFlag.DESTINATION) {
+            COUNTS[Counter.NODE_DESTINATION.ordinal()].increment();
+        } else if (flag == RoutingFlag.SURB) {
+            COUNTS[Counter.NODE_SURB.ordinal()].increment();
+        }
+    }
+
+    /**
+     * Copy of all counters and histograms. Events recorded concurrently may or may not be included.
+     */
+    public static MetricsSnapshot snapshot() {
+        Map<Counter, Long> counters = new EnumMap<>(Counter.class);
+        for (Counter counter : COUNTERS) {
+            counters.put(counter, COUNTS[counter.ordinal()].sum());
+        }
+        Map<Stage, LatencyHistogram.Snapshot> stages = new EnumMap<>(Stage.class);
+        for (Stage stage : STAGES) {
+            stages.put(stage, HISTOGRAMS[stage.ordinal()].snapshot());
+        }
+        return new MetricsSnapshot(ENABLED, counters, stages);
+    }
+}
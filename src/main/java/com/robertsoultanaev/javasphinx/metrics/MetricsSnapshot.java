@@ -0,0 +1,49 @@
+package com.robertsoultanaev.javasphinx.metrics;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Counters and stage latencies at the time of a {@link Metrics#snapshot()}.
+ */
+public record MetricsSnapshot(boolean enabled, Map<Counter, Long> counters, Map<Stage, LatencyHistogram.Snapshot> stages) {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    public long counter(Counter counter) {
+        return counters.get(counter);
+    }
+
+    public LatencyHistogram.Snapshot stage(Stage stage) {
+        return stages.get(stage);
+    }
+
+    /**
+     * Render the snapshot in the Prometheus text format, latencies in nanoseconds. Stages that recorded nothing are
+     * left out.
+     */
+    public String toText() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<Counter, Long> entry : counters.entrySet()) {
+            String name = "javasphinx_" + entry.getKey().name().toLowerCase(Locale.ROOT) + "_total";
+            text.append("# TYPE ").append(name).append(" counter\n");
+            text.append(name).append(' ').append(entry.getValue()).append('\n');
+        }
+        for (Map.Entry<Stage, LatencyHistogram.Snapshot> entry : stages.entrySet()) {
+            LatencyHistogram.Snapshot histogram = entry.getValue();
+            if (histogram.count() == 0) {
+                continue;
+            }
+            String name = "javasphinx_" + entry.getKey().name().toLowerCase(Locale.ROOT) + "_nanos";
+            text.append("# TYPE ").append(name).append(" summary\n");
+            for (double quantile : QUANTILES) {
+                text.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                        .append(histogram.quantile(quantile)).append('\n');
+            }
+            text.append(name).append("_max ").append(histogram.max()).append('\n');
+            text.append(name).append("_sum ").append(histogram.sum()).append('\n');
+            text.append(name).append("_count ").append(histogram.count()).append('\n');
+        }
+        return text.toString();
+    }
+}
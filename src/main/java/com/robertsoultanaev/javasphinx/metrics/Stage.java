@@ -0,0 +1,31 @@
+package com.robertsoultanaev.javasphinx.metrics;
+
+/**
+ * Timed stages of packet processing at a node and of packet creation and receiving at a client.
+ */
+public enum Stage {
+    /** Multiplication of alpha with the node key. */
+    NODE_SHARED_SECRET,
+    /** Hashing the shared secret into the AES key. */
+    NODE_AES_KEY,
+    /** Derivation of the per-hop keys from the AES key. */
+    NODE_KEY_DERIVATION,
+    /** Check of the header MAC. */
+    NODE_MAC,
+    /** Decryption of the routing information and the next header. */
+    NODE_HEADER_STREAM,
+    /** Blinding of alpha for the next hop. */
+    NODE_BLINDING,
+    /** Lioness decryption of the payload. */
+    NODE_PAYLOAD,
+    /** Processing of a whole packet. */
+    NODE_TOTAL,
+    /** Creation of a header, see {@link com.robertsoultanaev.javasphinx.SphinxClient#createHeader}. */
+    CLIENT_CREATE_HEADER,
+    /** Encryption of the payload of a forward message with a ready header. */
+    CLIENT_ENCRYPT_PAYLOAD,
+    /** Creation of a whole forward message, header included. */
+    CLIENT_CREATE_FORWARD_MESSAGE,
+    /** Receiving of a forward message at its destination. */
+    CLIENT_RECEIVE_FORWARD
+}
@@ -0,0 +1,18 @@
+package com.robertsoultanaev.javasphinx.packet;
+
+import java.io.IOException;
+
+/**
+ * Type to represent the return value of the buffer based mix node processing method, the processed packet itself has
+ * been written to the output buffer
+ */
+public record ProcessedFrame(byte[] tag, byte[] routing, byte[] macKey) {
+
+    public RoutingFlag routingFlag() throws IOException {
+        return RoutingFlag.of(routing);
+    }
+
+    public RelayInfo relayInfo() throws IOException {
+        return RelayInfo.of(routing);
+    }
+}
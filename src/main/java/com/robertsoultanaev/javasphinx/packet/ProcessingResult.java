@@ -0,0 +1,13 @@
+package com.robertsoultanaev.javasphinx.packet;
+
+import com.robertsoultanaev.javasphinx.SphinxException;
+
+/**
+ * Type to represent the outcome of processing a single packet of a batch, either the processed packet or the reason it was rejected
+ */
+public record ProcessingResult(ProcessedPacket packet, SphinxException error) {
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+}
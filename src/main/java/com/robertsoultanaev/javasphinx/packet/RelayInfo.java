@@ -1,4 +1,27 @@
 package com.robertsoultanaev.javasphinx.packet;
 
+import org.msgpack.core.MessagePack;
+
+import java.io.IOException;
+
 public record RelayInfo(int nextNodeId, int additionalInfo) {
+
+    /**
+     * Extract the relay information from the encoded routing information of a processed packet.
+     * @param routing Encoded routing information.
+     * @return Next node and additional info of the relay instruction.
+     */
+    public static RelayInfo of(byte[] routing) throws IOException {
+        final var unpacker = MessagePack.newDefaultUnpacker(routing);
+        unpacker.unpackArrayHeader();
+        String flag = unpacker.unpackString();
+        final var routingFlag = RoutingFlag.byValue(flag);
+        if (!RoutingFlag.RELAY.equals(routingFlag)) {
+            throw new IllegalStateException("Tried to extract relayInfo on a packet that should not be relayed!");
+        }
+        final var id = unpacker.unpackInt();
+        final var additionalInfo = unpacker.unpackInt();
+        unpacker.close();
+        return new RelayInfo(id, additionalInfo);
+    }
 }
@@ -1,5 +1,8 @@
 package com.robertsoultanaev.javasphinx.packet;
 
+import org.msgpack.core.MessagePack;
+
+import java.io.IOException;
 import java.util.Arrays;
 
 public enum RoutingFlag {
@@ -13,6 +16,37 @@ public enum RoutingFlag {
                 .findFirst().orElse(null);
     }
 
+    /**
+     * Extract the routing flag from the encoded routing information of a processed packet.
+     * @param routing Encoded routing information.
+     * @return The routing flag, null if it is unknown.
+     */
+    public static RoutingFlag of(byte[] routing) throws IOException {
+        final var unpacker = MessagePack.newDefaultUnpacker(routing);
+        unpacker.unpackArrayHeader();
+        String flag = unpacker.unpackString();
+        unpacker.close();
+        return byValue(flag);
+    }
+
+    /**
+     * Extract the routing flag from the encoded routing information without decoding it or allocating.
+     * @param routing Encoded routing information.
+     * @return The routing flag, null if it is unknown or the routing information is not in the usual encoding.
+     */
+    public static RoutingFlag peek(byte[] routing) {
+        // Array header, then the flag as a string of two UTF-8 bytes
+        if (routing.length < 4 || routing[1] != (byte) 0xa2 || routing[2] != (byte) 0xc3) {
+            return null;
+        }
+        return switch (routing[3]) {
+            case (byte) 0xb0 -> DESTINATION;
+            case (byte) 0xb1 -> RELAY;
+            case (byte) 0xb2 -> SURB;
+            default -> null;
+        };
+    }
+
     private final String value;
 
     RoutingFlag(final String value) {
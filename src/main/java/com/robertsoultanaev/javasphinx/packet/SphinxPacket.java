@@ -9,6 +9,8 @@ import java.util.Objects;
  * Type used to represent the Sphinx packet as it is encoded into a binary format
  */
 public final class SphinxPacket {
+    private final int groupId;
+    private final int suiteId;
     private final int headerLength;
     private final int bodyLength;
     private final PacketContent packetContent;
@@ -17,11 +19,28 @@ public final class SphinxPacket {
      *
      */
     public SphinxPacket(SphinxParams params, PacketContent packetContent) {
+        this.groupId = params.getGroup().id();
+        this.suiteId = params.suite().id();
         this.headerLength = params.headerLength();
         this.bodyLength = params.bodyLength();
         this.packetContent = packetContent;
     }
 
+    /**
+     * Identifier of the group alpha belongs to, see {@link com.robertsoultanaev.javasphinx.crypto.ECCGroup#id()}.
+     */
+    public int groupId() {
+        return groupId;
+    }
+
+    /**
+     * Identifier of the symmetric primitives the packet is encrypted with, see
+     * {@link com.robertsoultanaev.javasphinx.crypto.PrimitiveSuite#id()}.
+     */
+    public int suiteId() {
+        return suiteId;
+    }
+
     public int headerLength() {
         return headerLength;
     }
@@ -39,18 +58,20 @@ public final class SphinxPacket {
         if (obj == this) return true;
         if (obj == null || obj.getClass() != this.getClass()) return false;
         var that = (SphinxPacket) obj;
-        return this.headerLength == that.headerLength && this.bodyLength == that.bodyLength &&
+        return this.groupId == that.groupId && this.suiteId == that.suiteId && this.headerLength == that.headerLength && this.bodyLength == that.bodyLength &&
                 Objects.equals(this.packetContent, that.packetContent);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(headerLength, bodyLength, packetContent);
+        return Objects.hash(groupId, suiteId, headerLength, bodyLength, packetContent);
     }
 
     @Override
     public String toString() {
         return "SphinxPacket[" +
+                "groupId=" + groupId + ", " +
+                "suiteId=" + suiteId + ", " +
                 "headerLength=" + headerLength + ", " +
                 "bodyLength=" + bodyLength + ", " +
                 "packetContent=" + packetContent + ']';
@@ -4,6 +4,32 @@ import org.bouncycastle.math.ec.ECPoint;
 
 /**
  * Class to represent the header of a Sphinx packet
+ * @param epochHint Low 8 bits of the key epoch the header was built for, so a mix node holding keys of several epochs
+ *                  picks the right one directly. Not covered by the MAC, a wrong hint makes the MAC check fail.
  */
-public record Header(ECPoint alpha, byte[] beta, byte[] gamma) {
+public record Header(ECPoint alpha, byte[] beta, byte[] gamma, int epochHint) {
+
+    public Header {
+        if (epochHint < 0 || epochHint > 0xff) {
+            throw new IllegalArgumentException("Epoch hint (" + epochHint + ") must fit in a byte");
+        }
+    }
+
+    public Header(ECPoint alpha, byte[] beta, byte[] gamma) {
+        this(alpha, beta, gamma, 0);
+    }
+
+    /**
+     * Epoch hint of the key epoch, see {@link #epochHint()}.
+     */
+    public static int hintOf(long epoch) {
+        return (int) (epoch & 0xff);
+    }
+
+    /**
+     * Copy of this header carrying the hint of another key epoch.
+     */
+    public Header withEpochHint(int epochHint) {
+        return new Header(alpha, beta, gamma, epochHint);
+    }
 }
@@ -0,0 +1,14 @@
+package com.robertsoultanaev.javasphinx.pki;
+
+import org.bouncycastle.math.ec.ECPoint;
+
+/**
+ * Everything a client needs to know about a mix node to route packets through it.
+ * @param id Identifier of the mix node.
+ * @param publicKey Public key of the mix node.
+ * @param encodedNode Identifier of the mix node in binary format, as produced by
+ *                    {@link com.robertsoultanaev.javasphinx.SphinxClient#encodeNode(int, int)}.
+ * @param metadata Opaque information published along with the node, for example its address.
+ */
+public record MixDescriptor(int id, ECPoint publicKey, byte[] encodedNode, byte[] metadata) {
+}
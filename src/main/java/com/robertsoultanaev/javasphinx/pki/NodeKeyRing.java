@@ -0,0 +1,167 @@
+package com.robertsoultanaev.javasphinx.pki;
+
+import com.robertsoultanaev.javasphinx.SphinxException;
+import com.robertsoultanaev.javasphinx.packet.header.Header;
+import com.robertsoultanaev.javasphinx.replay.ReplayFilter;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Private keys of a mix node for several overlapping key epochs, so keys can be rotated while the node keeps running.
+ * <p>
+ * Packets name the epoch their header was built for in {@link Header#epochHint()}, and the key of that epoch is looked
+ * up in a table indexed by the hint, without trial decryption. Two active epochs must therefore not share a hint,
+ * which leaves room for up to 256 overlapping epochs. Every epoch has its own replay tag set in the
+ * {@link ReplayFilter} of the key ring, opened before its key becomes active and dropped together with the key when
+ * the epoch is retired. Lookups read an immutable table and never lock, only adding and retiring epochs is
+ * synchronised.
+ */
+public final class NodeKeyRing {
+
+    private static final int HINTS = 256;
+
+    /**
+     * Private key of a mix node in one key epoch.
+     */
+    public record EpochKey(long epoch, BigInteger secret) {
+    }
+
+    private final ReplayFilter replayFilter;
+    private volatile EpochKey[] keys = new EpochKey[HINTS];
+
+    public NodeKeyRing(long epoch, BigInteger secret) {
+        this(epoch, secret, null);
+    }
+
+    /**
+     * Create a key ring with a single epoch. The key ring takes over the epochs of the replay filter: the epoch is
+     * opened in the filter and all other epochs of the filter are retired.
+     * @param epoch Key epoch of the secret, non-negative.
+     * @param secret Private key of the mix node in that epoch.
+     * @param replayFilter Filter used to reject packets whose tag has already been seen, null to disable replay detection.
+     */
+    public NodeKeyRing(long epoch, BigInteger secret, ReplayFilter replayFilter) {
+        if (epoch < 0) {
+            throw new IllegalArgumentException("Epoch (" + epoch + ") must be non-negative");
+        }
+
+        this.replayFilter = replayFilter;
+        if (replayFilter != null) {
+            long[] open = replayFilter.openEpochs();
+            if (open.length == 0 || open[open.length - 1] != epoch) {
+                replayFilter.openEpoch(epoch);
+            }
+            for (long other : open) {
+                if (other != epoch) {
+                    replayFilter.retireEpoch(other);
+                }
+            }
+        }
+        keys[Header.hintOf(epoch)] = new EpochKey(epoch, Objects.requireNonNull(secret));
+    }
+
+    /**
+     * Add the key of a new epoch. Packets built for the epoch are accepted from then on.
+     * @param epoch Key epoch, newer than every active epoch and not sharing its hint with an active epoch.
+     * @param secret Private key of the mix node in that epoch.
+     */
+    public synchronized void addEpoch(long epoch, BigInteger secret) {
+        Objects.requireNonNull(secret);
+        EpochKey[] current = keys;
+        long newest = newestEpoch(current);
+        if (epoch <= newest) {
+            throw new IllegalArgumentException("Epoch " + epoch + " is not newer than the latest active epoch " + newest);
+        }
+        EpochKey colliding = current[Header.hintOf(epoch)];
+        if (colliding != null) {
+            throw new IllegalArgumentException("Epoch " + epoch + " shares its hint with the active epoch " + colliding.epoch() + ", which has to be retired first");
+        }
+
+        if (replayFilter != null) {
+            replayFilter.openEpoch(epoch);
+        }
+        EpochKey[] next = current.clone();
+        next[Header.hintOf(epoch)] = new EpochKey(epoch, secret);
+        keys = next;
+    }
+
+    /**
+     * Retire an epoch. Its key and replay tags are dropped and packets built for it are rejected afterwards.
+     * @param epoch Key epoch.
+     */
+    public synchronized void retireEpoch(long epoch) {
+        EpochKey[] current = keys;
+        EpochKey key = current[Header.hintOf(epoch)];
+        if (key == null || key.epoch() != epoch) {
+            return;
+        }
+
+        EpochKey[] next = current.clone();
+        next[Header.hintOf(epoch)] = null;
+        keys = next;
+        if (replayFilter != null) {
+            replayFilter.retireEpoch(epoch);
+        }
+    }
+
+    /**
+     * Add the key of a new epoch and retire the epochs that fall outside the retention window.
+     * @param epoch Key epoch, newer than every active epoch.
+     * @param secret Private key of the mix node in that epoch.
+     * @param retainedEpochs Number of most recent epochs kept active, including the new one.
+     */
+    public synchronized void rotate(long epoch, BigInteger secret, int retainedEpochs) {
+        if (retainedEpochs < 1) {
+            throw new IllegalArgumentException("At least one epoch has to be retained");
+        }
+        long newest = newestEpoch(keys);
+        if (epoch <= newest) {
+            throw new IllegalArgumentException("Epoch " + epoch + " is not newer than the latest active epoch " + newest);
+        }
+
+        // Retire first, so the new epoch can take the hint of an epoch that falls out of the window
+        long[] active = activeEpochs();
+        for (int i = 0; i <= active.length - retainedEpochs; i++) {
+            retireEpoch(active[i]);
+        }
+        addEpoch(epoch, secret);
+    }
+
+    /**
+     * Key of the epoch a packet was built for.
+     * @param epochHint Epoch hint of the packet header.
+     * @return The key, or null if no active epoch has that hint.
+     */
+    public EpochKey select(int epochHint) {
+        return keys[epochHint & 0xff];
+    }
+
+    /**
+     * Record the tag of a packet processed with a key of this ring.
+     * @param key Key the packet was processed with.
+     * @param tag Tag of the packet.
+     * @return True if the tag has not been seen before or replay detection is disabled, false if the packet is a replay.
+     */
+    public boolean markSeen(EpochKey key, byte[] tag) throws SphinxException {
+        return replayFilter == null || replayFilter.markSeen(key.epoch(), tag);
+    }
+
+    /**
+     * Active key epochs, oldest first.
+     */
+    public long[] activeEpochs() {
+        return Arrays.stream(keys).filter(Objects::nonNull).mapToLong(EpochKey::epoch).sorted().toArray();
+    }
+
+    private static long newestEpoch(EpochKey[] keys) {
+        long newest = -1;
+        for (EpochKey key : keys) {
+            if (key != null) {
+                newest = Math.max(newest, key.epoch());
+            }
+        }
+        return newest;
+    }
+}
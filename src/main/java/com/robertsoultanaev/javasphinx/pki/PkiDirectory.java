@@ -0,0 +1,55 @@
+package com.robertsoultanaev.javasphinx.pki;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Current PKI directory of the mix network. Every epoch is published as an immutable {@link PkiSnapshot} that replaces
+ * the previous one atomically, so readers take the current snapshot without locking and keep using it for as long as
+ * they need a consistent view, for example while building one packet.
+ */
+public final class PkiDirectory {
+
+    private final AtomicReference<PkiSnapshot> current;
+
+    /**
+     * @param initial Directory of the first epoch.
+     */
+    public PkiDirectory(PkiSnapshot initial) {
+        this.current = new AtomicReference<>(initial);
+    }
+
+    /**
+     * Snapshot of the latest published epoch.
+     */
+    public PkiSnapshot current() {
+        return current.get();
+    }
+
+    /**
+     * Publish the directory of a new epoch. Snapshots of an epoch not later than the current one are ignored, so
+     * directories fetched out of order never roll the directory back.
+     * @param snapshot Directory of the new epoch.
+     * @return Whether the snapshot was published.
+     */
+    public boolean publish(PkiSnapshot snapshot) {
+        PkiSnapshot previous;
+        do {
+            previous = current.get();
+            if (snapshot.epoch() <= previous.epoch()) {
+                return false;
+            }
+        } while (!current.compareAndSet(previous, snapshot));
+        return true;
+    }
+
+    /**
+     * Load a directory stored with {@link PkiSnapshot#write(Path)} and publish it.
+     * @param file File holding the directory.
+     * @return Whether the directory was published, see {@link #publish(PkiSnapshot)}.
+     */
+    public boolean load(Path file) throws IOException {
+        return publish(PkiSnapshot.load(current().params(), file));
+    }
+}
@@ -0,0 +1,266 @@
+package com.robertsoultanaev.javasphinx.pki;
+
+import com.robertsoultanaev.javasphinx.SphinxClient;
+import com.robertsoultanaev.javasphinx.SphinxException;
+import com.robertsoultanaev.javasphinx.SphinxParams;
+import com.robertsoultanaev.javasphinx.crypto.ECCGroup;
+import com.robertsoultanaev.javasphinx.routing.DirectorySnapshot;
+import org.bouncycastle.math.ec.ECPoint;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Immutable directory of the mix nodes of one epoch: public key, encoded identifier and metadata by node identifier.
+ * <p>
+ * A snapshot is kept in the compact binary form it is stored in: a 32-byte header, then one fixed-size record per node
+ * sorted by identifier, holding the identifier, the position of its metadata and its encoded public key, then the
+ * metadata of all nodes. Snapshots loaded from a file map it read-only, so opening a large directory costs one pass
+ * over the identifiers. Public keys are decoded when a node is first looked up. Instances are thread-safe.
+ */
+public final class PkiSnapshot {
+
+    private static final int MAGIC = 0x504b4944;
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 32;
+
+    private static final int ID_OFFSET = 0;
+    private static final int METADATA_OFFSET = 4;
+    private static final int METADATA_LENGTH_OFFSET = 8;
+    private static final int KEY_OFFSET = 12;
+
+    private final SphinxParams params;
+    private final long epoch;
+    private final int size;
+    private final int pointLength;
+    private final int recordLength;
+    private final ByteBuffer content;
+    private final ByteBuffer records;
+    private final ByteBuffer metadata;
+    private final AtomicReferenceArray<MixDescriptor> descriptors;
+    private volatile DirectorySnapshot nodeIds;
+
+    private PkiSnapshot(SphinxParams params, ByteBuffer content, String source) throws IOException {
+        ECCGroup group = params.getGroup();
+        if (content.limit() < HEADER_LENGTH || content.getInt(0) != MAGIC || content.getInt(4) != VERSION) {
+            throw new IOException(source + " is not a PKI directory");
+        }
+        if (content.getInt(16) != group.id() || content.getInt(20) != group.encodedPointLength()) {
+            throw new IOException("Group of PKI directory " + source + " did not match the group of the parameters");
+        }
+
+        this.params = params;
+        this.epoch = content.getLong(8);
+        this.size = content.getInt(24);
+        this.pointLength = content.getInt(20);
+        this.recordLength = KEY_OFFSET + pointLength;
+
+        long recordsLength = (long) size * recordLength;
+        int metadataLength = content.getInt(28);
+        if (size < 0 || metadataLength < 0 || content.limit() != HEADER_LENGTH + recordsLength + metadataLength) {
+            throw new IOException("Length of PKI directory " + source + " (" + content.limit() + ") did not match its header");
+        }
+
+        this.content = content;
+        this.records = content.slice(HEADER_LENGTH, (int) recordsLength);
+        this.metadata = content.slice(HEADER_LENGTH + (int) recordsLength, metadataLength);
+        this.descriptors = new AtomicReferenceArray<>(size);
+
+        long previous = Long.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            int id = records.getInt(i * recordLength + ID_OFFSET);
+            long offset = records.getInt(i * recordLength + METADATA_OFFSET) & 0xffffffffL;
+            long length = records.getInt(i * recordLength + METADATA_LENGTH_OFFSET) & 0xffffffffL;
+            if (id <= previous || offset + length > metadataLength) {
+                throw new IOException("Record " + i + " of PKI directory " + source + " is invalid");
+            }
+            previous = id;
+        }
+    }
+
+    /**
+     * Open a directory stored with {@link #write(Path)}. The file is mapped read-only and must not be modified in place
+     * while the snapshot is in use, {@link #write(Path)} replaces files instead.
+     * @param params Parameters whose group the public keys belong to.
+     * @param file File holding the directory.
+     */
+    public static PkiSnapshot load(SphinxParams params, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("PKI directory " + file + " is too large");
+            }
+            // The mapping stays valid after the channel is closed
+            return new PkiSnapshot(params, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), file.toString());
+        }
+    }
+
+    /**
+     * Build a directory in memory.
+     * @param params Parameters whose group the public keys belong to.
+     * @param epoch Epoch of the directory, increasing with every published directory.
+     * @param keys Public keys of the mix nodes by node identifier.
+     * @param metadata Metadata of the mix nodes by node identifier, nodes without metadata get an empty array.
+     */
+    public static PkiSnapshot of(SphinxParams params, long epoch, Map<Integer, ECPoint> keys, Map<Integer, byte[]> metadata) {
+        ECCGroup group = params.getGroup();
+        int pointLength = group.encodedPointLength();
+        int recordLength = KEY_OFFSET + pointLength;
+        int[] ids = keys.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+
+        byte[][] nodeMetadata = new byte[ids.length][];
+        int metadataLength = 0;
+        for (int i = 0; i < ids.length; i++) {
+            nodeMetadata[i] = metadata.getOrDefault(ids[i], new byte[0]);
+            metadataLength += nodeMetadata[i].length;
+        }
+
+        ByteBuffer content = ByteBuffer.allocate(HEADER_LENGTH + ids.length * recordLength + metadataLength);
+        content.putInt(MAGIC).putInt(VERSION).putLong(epoch).putInt(group.id()).putInt(pointLength)
+                .putInt(ids.length).putInt(metadataLength);
+        int metadataOffset = 0;
+        for (int i = 0; i < ids.length; i++) {
+            content.putInt(ids[i]).putInt(metadataOffset).putInt(nodeMetadata[i].length).put(group.encodePoint(keys.get(ids[i])));
+            metadataOffset += nodeMetadata[i].length;
+        }
+        for (byte[] bytes : nodeMetadata) {
+            content.put(bytes);
+        }
+
+        try {
+            return new PkiSnapshot(params, content.clear(), "PKI directory");
+        } catch (IOException ex) {
+            throw new IllegalArgumentException(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Store the directory in a file, replacing it atomically so that readers never see a partially written file.
+     * @param file File to store the directory in.
+     */
+    public void write(Path file) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer source = content.duplicate().clear();
+            while (source.hasRemaining()) {
+                channel.write(source);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public long epoch() {
+        return epoch;
+    }
+
+    public SphinxParams params() {
+        return params;
+    }
+
+    /**
+     * Number of mix nodes in the directory.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(int id) {
+        return indexOf(id) >= 0;
+    }
+
+    /**
+     * Identifiers of all mix nodes in ascending order, for the routing strategies.
+     */
+    public DirectorySnapshot nodeIds() {
+        DirectorySnapshot snapshot = nodeIds;
+        if (snapshot == null) {
+            int[] ids = new int[size];
+            for (int i = 0; i < size; i++) {
+                ids[i] = records.getInt(i * recordLength + ID_OFFSET);
+            }
+            // Benign race, concurrent callers build the same snapshot
+            snapshot = new DirectorySnapshot(ids);
+            nodeIds = snapshot;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Look up a mix node.
+     * @param id Identifier of the mix node.
+     * @return The descriptor of the node, or null if the directory does not list it.
+     */
+    public MixDescriptor get(int id) throws SphinxException {
+        int index = indexOf(id);
+        if (index < 0) {
+            return null;
+        }
+
+        MixDescriptor descriptor = descriptors.get(index);
+        if (descriptor == null) {
+            descriptor = decode(index);
+            if (!descriptors.compareAndSet(index, null, descriptor)) {
+                descriptor = descriptors.get(index);
+            }
+        }
+        return descriptor;
+    }
+
+    /**
+     * Look up the mix nodes of a route.
+     * @param route Identifiers of the mix nodes.
+     * @return The descriptors of the nodes, in route order.
+     */
+    public MixDescriptor[] resolve(int[] route) throws SphinxException {
+        MixDescriptor[] resolved = new MixDescriptor[route.length];
+        for (int i = 0; i < route.length; i++) {
+            resolved[i] = get(route[i]);
+            if (resolved[i] == null) {
+                throw new SphinxException("Mix node " + route[i] + " is not listed in the directory of epoch " + epoch);
+            }
+        }
+        return resolved;
+    }
+
+    private int indexOf(int id) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midId = records.getInt(mid * recordLength + ID_OFFSET);
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private MixDescriptor decode(int index) throws SphinxException {
+        int position = index * recordLength;
+        int id = records.getInt(position + ID_OFFSET);
+
+        byte[] key = new byte[pointLength];
+        records.get(position + KEY_OFFSET, key);
+        ECPoint publicKey;
+        try {
+            publicKey = params.getGroup().decodePoint(key);
+        } catch (IllegalArgumentException ex) {
+            throw new SphinxException("Public key of mix node " + id + " is invalid");
+        }
+
+        byte[] nodeMetadata = new byte[records.getInt(position + METADATA_LENGTH_OFFSET)];
+        metadata.get(records.getInt(position + METADATA_OFFSET), nodeMetadata);
+        return new MixDescriptor(id, publicKey, SphinxClient.encodeRelayNode(id, 0), nodeMetadata);
+    }
+}
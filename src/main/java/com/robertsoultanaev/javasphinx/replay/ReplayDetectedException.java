@@ -0,0 +1,12 @@
+package com.robertsoultanaev.javasphinx.replay;
+
+import com.robertsoultanaev.javasphinx.SphinxException;
+
+/**
+ * Exception raised when a mix node receives a packet whose tag it has already seen
+ */
+public class ReplayDetectedException extends SphinxException {
+    public ReplayDetectedException(String message) {
+        super(message);
+    }
+}
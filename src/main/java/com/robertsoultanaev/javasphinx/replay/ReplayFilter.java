@@ -0,0 +1,118 @@
+package com.robertsoultanaev.javasphinx.replay;
+
+import com.robertsoultanaev.javasphinx.SphinxException;
+
+import java.util.Arrays;
+
+/**
+ * Replay detection for a mix node, keyed on the tag returned by {@link com.robertsoultanaev.javasphinx.SphinxParams#htau(byte[])}.
+ * <p>
+ * Tags only have to be remembered for as long as the node key they were derived with is in use, so the filter keeps
+ * one {@link TagSet} per key epoch and drops it when the epoch is retired. Memory is bounded by the number of retained
+ * epochs times the capacity of a single set. Lookups read an immutable array of epochs and never lock, only opening and
+ * retiring epochs is synchronised.
+ */
+public final class ReplayFilter {
+
+    private record Epoch(long id, TagSet tags) {
+    }
+
+    private final int tagsPerEpoch;
+    private final int retainedEpochs;
+    private volatile Epoch[] epochs;
+
+    /**
+     * Create a replay filter with epoch 0 open.
+     * @param tagsPerEpoch Number of tags each epoch has to be able to hold.
+     * @param retainedEpochs Number of most recent epochs kept open by {@link #rotate(long)}.
+     */
+    public ReplayFilter(int tagsPerEpoch, int retainedEpochs) {
+        if (retainedEpochs < 1) {
+            throw new IllegalArgumentException("At least one epoch has to be retained");
+        }
+
+        this.tagsPerEpoch = tagsPerEpoch;
+        this.retainedEpochs = retainedEpochs;
+        this.epochs = new Epoch[]{new Epoch(0, new TagSet(tagsPerEpoch))};
+    }
+
+    /**
+     * Record the tag of a packet processed with the key of the most recently opened epoch.
+     * @param tag Tag of the packet.
+     * @return True if the tag has not been seen before, false if the packet is a replay.
+     */
+    public boolean markSeen(byte[] tag) throws SphinxException {
+        Epoch[] current = epochs;
+        if (current.length == 0) {
+            throw new SphinxException("No key epoch is open for replay detection");
+        }
+        return markSeen(current[current.length - 1], tag);
+    }
+
+    /**
+     * Record the tag of a packet processed with the key of the given epoch.
+     * @param epoch Key epoch the packet was processed in.
+     * @param tag Tag of the packet.
+     * @return True if the tag has not been seen before, false if the packet is a replay.
+     */
+    public boolean markSeen(long epoch, byte[] tag) throws SphinxException {
+        for (Epoch candidate : epochs) {
+            if (candidate.id() == epoch) {
+                return markSeen(candidate, tag);
+            }
+        }
+
+        throw new SphinxException("Key epoch " + epoch + " is not open for replay detection");
+    }
+
+    private boolean markSeen(Epoch epoch, byte[] tag) throws SphinxException {
+        try {
+            return epoch.tags().add(tag);
+        } catch (IllegalStateException ex) {
+            throw new SphinxException("Replay tag set of key epoch " + epoch.id() + " is full");
+        }
+    }
+
+    /**
+     * Open a new epoch and retire the epochs that fall outside the retention window.
+     * @param epoch Identifier of the new epoch, has to be larger than any open epoch.
+     */
+    public synchronized void rotate(long epoch) {
+        openEpoch(epoch);
+
+        Epoch[] current = epochs;
+        if (current.length > retainedEpochs) {
+            epochs = Arrays.copyOfRange(current, current.length - retainedEpochs, current.length);
+        }
+    }
+
+    /**
+     * Open a new epoch without retiring any other.
+     * @param epoch Identifier of the new epoch, has to be larger than any open epoch.
+     */
+    public synchronized void openEpoch(long epoch) {
+        Epoch[] current = epochs;
+        if (current.length > 0 && current[current.length - 1].id() >= epoch) {
+            throw new IllegalArgumentException("Epoch " + epoch + " is not newer than the latest open epoch " + current[current.length - 1].id());
+        }
+
+        Epoch[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = new Epoch(epoch, new TagSet(tagsPerEpoch));
+        epochs = next;
+    }
+
+    /**
+     * Retire an epoch and release its tags. Packets of that epoch are rejected afterwards.
+     * @param epoch Identifier of the epoch.
+     */
+    public synchronized void retireEpoch(long epoch) {
+        epochs = Arrays.stream(epochs).filter(candidate -> candidate.id() != epoch).toArray(Epoch[]::new);
+    }
+
+    /**
+     * Identifiers of the open epochs, oldest first.
+     */
+    public long[] openEpochs() {
+        return Arrays.stream(epochs).mapToLong(Epoch::id).toArray();
+    }
+}
@@ -0,0 +1,146 @@
+package com.robertsoultanaev.javasphinx.replay;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free, fixed-capacity set of packet tags stored off-heap in an open-addressing table with linear probing.
+ * <p>
+ * Each slot holds the first 16 bytes of a tag as two 64-bit words. Tags are outputs of a keyed hash and therefore
+ * uniformly distributed, so the first word is used directly as the hash. The lowest bit of both words is forced to one,
+ * which reserves zero for empty slots at the cost of two bits of the 128-bit tag. A slot is claimed by a CAS on its
+ * first word, the second word is published afterwards, and readers that match the first word wait for the second.
+ */
+public final class TagSet {
+
+    public static final int TAG_LENGTH = 16;
+
+    private static final int SLOT_BYTES = 16;
+    private static final int MAX_CAPACITY = 1 << 26;
+    private static final int MAX_PROBES = 128;
+    private static final long MARKER = 1L;
+
+    private static final VarHandle SLOT_WORD = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final VarHandle TAG_WORD = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final ByteBuffer slots;
+    private final int mask;
+    private final LongAdder size = new LongAdder();
+
+    /**
+     * Create a tag set able to hold at least the given number of tags. The table is sized to twice that number so
+     * probe sequences stay short.
+     * @param expectedTags Number of tags the set has to hold.
+     */
+    public TagSet(int expectedTags) {
+        if (expectedTags <= 0 || expectedTags > MAX_CAPACITY / 2) {
+            throw new IllegalArgumentException("Expected number of tags (" + expectedTags + ") must be between 1 and " + MAX_CAPACITY / 2);
+        }
+
+        int capacity = Integer.highestOneBit(expectedTags * 2 - 1) << 1;
+        this.slots = ByteBuffer.allocateDirect(capacity * SLOT_BYTES + Long.BYTES).alignedSlice(Long.BYTES);
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Add a tag to the set unless it is already present.
+     * @param tag Tag of a packet, at least {@link #TAG_LENGTH} bytes long. Only the first {@link #TAG_LENGTH} bytes are used.
+     * @return True if the tag was added, false if it was already in the set.
+     * @throws IllegalStateException If the set is too full to take the tag.
+     */
+    public boolean add(byte[] tag) {
+        long first = firstWord(tag);
+        long second = secondWord(tag);
+
+        int index = (int) (first >>> 1) & mask;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            int offset = index * SLOT_BYTES;
+            long current = (long) SLOT_WORD.getVolatile(slots, offset);
+
+            if (current == 0) {
+                if (SLOT_WORD.compareAndSet(slots, offset, 0L, first)) {
+                    SLOT_WORD.setRelease(slots, offset + Long.BYTES, second);
+                    size.increment();
+                    return true;
+                }
+                current = (long) SLOT_WORD.getVolatile(slots, offset);
+            }
+
+            if (current == first && awaitSecondWord(offset) == second) {
+                return false;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        throw new IllegalStateException("Tag set is full");
+    }
+
+    /**
+     * Check whether a tag is in the set.
+     * @param tag Tag of a packet, at least {@link #TAG_LENGTH} bytes long.
+     * @return True if the tag is in the set.
+     */
+    public boolean contains(byte[] tag) {
+        long first = firstWord(tag);
+        long second = secondWord(tag);
+
+        int index = (int) (first >>> 1) & mask;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            int offset = index * SLOT_BYTES;
+            long current = (long) SLOT_WORD.getVolatile(slots, offset);
+
+            if (current == 0) {
+                return false;
+            }
+
+            if (current == first && awaitSecondWord(offset) == second) {
+                return true;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        return false;
+    }
+
+    /**
+     * Number of tags in the set.
+     */
+    public long size() {
+        return size.sum();
+    }
+
+    /**
+     * Number of slots in the table.
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    private long awaitSecondWord(int offset) {
+        long second;
+        while ((second = (long) SLOT_WORD.getAcquire(slots, offset + Long.BYTES)) == 0) {
+            Thread.onSpinWait();
+        }
+        return second;
+    }
+
+    private static long firstWord(byte[] tag) {
+        checkTag(tag);
+        return (long) TAG_WORD.get(tag, 0) | MARKER;
+    }
+
+    private static long secondWord(byte[] tag) {
+        return (long) TAG_WORD.get(tag, Long.BYTES) | MARKER;
+    }
+
+    private static void checkTag(byte[] tag) {
+        if (tag.length < TAG_LENGTH) {
+            throw new IllegalArgumentException("Length of tag (" + tag.length + ") is shorter than " + TAG_LENGTH + " bytes");
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.robertsoultanaev.javasphinx.routing;
+
+import java.util.Random;
+
+/**
+ * Walker's alias table built with Vose's method: draws an identifier with probability proportional to its weight in
+ * constant time, from one uniform index and one uniform coin.
+ */
+public final class AliasTable {
+
+    private final int[] identifiers;
+    private final double[] weights;
+    private final double[] probability;
+    private final int[] alias;
+
+    /**
+     * @param identifiers Identifiers to draw from.
+     * @param weights Non-negative weight of every identifier, at least one of them positive.
+     */
+    public AliasTable(int[] identifiers, double[] weights) {
+        int n = identifiers.length;
+        if (weights.length != n) {
+            throw new IllegalArgumentException("Number of weights (" + weights.length + ") did not match the number of identifiers (" + n + ")");
+        }
+
+        double total = 0;
+        for (double weight : weights) {
+            if (!(weight >= 0) || Double.isInfinite(weight)) {
+                throw new IllegalArgumentException("Weight (" + weight + ") must be finite and non-negative");
+            }
+            total += weight;
+        }
+        if (!(total > 0)) {
+            throw new IllegalArgumentException("At least one weight must be positive");
+        }
+
+        this.identifiers = identifiers.clone();
+        this.weights = weights.clone();
+        this.probability = new double[n];
+        this.alias = new int[n];
+
+        // Scale so the average weight is 1, then pair every small column with a large one
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallCount = 0;
+        int largeCount = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / total;
+            if (scaled[i] < 1) {
+                small[smallCount++] = i;
+            } else {
+                large[largeCount++] = i;
+            }
+        }
+
+        while (smallCount > 0 && largeCount > 0) {
+            int less = small[--smallCount];
+            int more = large[--largeCount];
+            probability[less] = scaled[less];
+            alias[less] = more;
+            scaled[more] = (scaled[more] + scaled[less]) - 1;
+            if (scaled[more] < 1) {
+                small[smallCount++] = more;
+            } else {
+                large[largeCount++] = more;
+            }
+        }
+        // Whatever is left is 1 up to rounding errors
+        while (largeCount > 0) {
+            probability[large[--largeCount]] = 1;
+        }
+        while (smallCount > 0) {
+            probability[small[--smallCount]] = 1;
+        }
+    }
+
+    /**
+     * Draw the index of an identifier.
+     */
+    public int sampleIndex(Random random) {
+        int column = random.nextInt(probability.length);
+        return random.nextDouble() < probability[column] ? column : alias[column];
+    }
+
+    /**
+     * Draw an identifier.
+     */
+    public int sample(Random random) {
+        return identifiers[sampleIndex(random)];
+    }
+
+    public int size() {
+        return identifiers.length;
+    }
+
+    public int identifier(int index) {
+        return identifiers[index];
+    }
+
+    public double weight(int index) {
+        return weights[index];
+    }
+}
@@ -1,10 +1,12 @@
 package com.robertsoultanaev.javasphinx.routing;
 
-import java.util.Arrays;
-
 public class AscendingRoutingStrategy implements RoutingStrategy {
     @Override
-    public int[] route(final int[] identifiers, final int mixCount) {
-        return Arrays.stream(identifiers).sorted().limit(mixCount).toArray();
+    public int[] route(final DirectorySnapshot directory, final int mixCount) {
+        int[] result = new int[Math.min(mixCount, directory.size())];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = directory.ascending(i);
+        }
+        return result;
     }
 }
@@ -1,15 +1,12 @@
 package com.robertsoultanaev.javasphinx.routing;
 
-import java.util.Arrays;
-
 public class DescendingRoutingStrategy implements RoutingStrategy {
     @Override
-    public int[] route(final int[] identifiers, final int mixCount) {
-        return Arrays.stream(identifiers)
-                .map(i -> -i)
-                .sorted()
-                .map(i -> -i)
-                .limit(mixCount)
-                .toArray();
+    public int[] route(final DirectorySnapshot directory, final int mixCount) {
+        int[] result = new int[Math.min(mixCount, directory.size())];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = directory.descending(i);
+        }
+        return result;
     }
 }
@@ -0,0 +1,68 @@
+package com.robertsoultanaev.javasphinx.routing;
+
+import java.util.Arrays;
+
+/**
+ * Immutable view of the mix node identifiers of a directory, prepared once so that routing strategies can select a
+ * route without looking at every node. The identifiers are kept in the given order and, once an ordered strategy asks
+ * for them, in ascending order.
+ */
+public final class DirectorySnapshot {
+
+    private final int[] identifiers;
+    private volatile int[] ascending;
+
+    /**
+     * @param identifiers Distinct mix node identifiers, copied.
+     */
+    public DirectorySnapshot(int[] identifiers) {
+        this.identifiers = identifiers.clone();
+    }
+
+    /**
+     * Number of mix nodes in the directory.
+     */
+    public int size() {
+        return identifiers.length;
+    }
+
+    /**
+     * Identifier at a position, in the order the identifiers were given.
+     */
+    public int identifier(int index) {
+        return identifiers[index];
+    }
+
+    /**
+     * Identifier at a position in ascending order. The sorted view is built on first use.
+     */
+    public int ascending(int index) {
+        return ascending()[index];
+    }
+
+    /**
+     * Identifier at a position in descending order. The sorted view is built on first use.
+     */
+    public int descending(int index) {
+        int[] sorted = ascending();
+        return sorted[sorted.length - 1 - index];
+    }
+
+    /**
+     * Copy of the identifiers, in the order they were given.
+     */
+    public int[] identifiers() {
+        return identifiers.clone();
+    }
+
+    private int[] ascending() {
+        int[] sorted = ascending;
+        if (sorted == null) {
+            // Benign race, concurrent callers sort the same identifiers
+            sorted = identifiers.clone();
+            Arrays.sort(sorted);
+            ascending = sorted;
+        }
+        return sorted;
+    }
+}
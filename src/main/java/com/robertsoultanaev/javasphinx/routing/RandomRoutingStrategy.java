@@ -1,35 +1,61 @@
 package com.robertsoultanaev.javasphinx.routing;
 
-import java.math.BigInteger;
 import java.security.SecureRandom;
-import java.util.Arrays;
-import java.util.HashMap;
 
+/**
+ * Picks distinct mix nodes uniformly at random. While the route is short compared to the directory, positions are
+ * drawn and redrawn on collision, so selection does not depend on the size of the directory. Longer routes are drawn
+ * with a partial Fisher-Yates shuffle.
+ */
 public class RandomRoutingStrategy implements RoutingStrategy {
-    @Override
-    public int[] route(final int[] identifiers, final int mixCount) {
 
-        SecureRandom secureRandom = new SecureRandom();
+    private final SecureRandom secureRandom = new SecureRandom();
 
-        long[] randoms = new long[identifiers.length];
-        for (int i = 0; i < randoms.length; i++) {
-            byte[] rand = new byte[8];
-            secureRandom.nextBytes(rand);
-            randoms[i] = (new BigInteger(1, rand)).longValue();
+    @Override
+    public int[] route(final DirectorySnapshot directory, final int mixCount) {
+        int size = directory.size();
+        if (size < mixCount) {
+            throw new IllegalArgumentException("Number of mix nodes (" + size + ") was less than the requested number (" + mixCount + ")");
         }
 
-        HashMap<Long, Integer> randToIndex = new HashMap<>();
-        for (int i = 0; i < randoms.length; i++) {
-            randToIndex.put(randoms[i], i);
+        int[] positions = 2 * mixCount <= size ? drawPositions(size, mixCount) : shufflePositions(size, mixCount);
+        int[] result = new int[mixCount];
+        for (int i = 0; i < mixCount; i++) {
+            result[i] = directory.identifier(positions[i]);
         }
+        return result;
+    }
 
-        Arrays.sort(randoms);
+    /**
+     * At most half of the positions are taken, so every draw succeeds with probability 1/2 or more.
+     */
+    private int[] drawPositions(int size, int mixCount) {
+        int[] positions = new int[mixCount];
+        int drawn = 0;
+        while (drawn < mixCount) {
+            int position = secureRandom.nextInt(size);
+            boolean taken = false;
+            for (int i = 0; i < drawn && !taken; i++) {
+                taken = positions[i] == position;
+            }
+            if (!taken) {
+                positions[drawn++] = position;
+            }
+        }
+        return positions;
+    }
 
-        int[] result = new int[mixCount];
+    private int[] shufflePositions(int size, int mixCount) {
+        int[] positions = new int[size];
+        for (int i = 0; i < size; i++) {
+            positions[i] = i;
+        }
         for (int i = 0; i < mixCount; i++) {
-            result[i] = identifiers[randToIndex.get(randoms[i])];
+            int j = i + secureRandom.nextInt(size - i);
+            int swap = positions[i];
+            positions[i] = positions[j];
+            positions[j] = swap;
         }
-
-        return result;
+        return positions;
     }
 }
@@ -4,10 +4,23 @@ public interface RoutingStrategy {
 
     /**
      * Select a subset of mix node identifiers according to the Client's {@link RoutingStrategy}.
-     * identifiers.length MUST be greater than or equal to mixCount.
+     * directory.size() MUST be greater than or equal to mixCount.
+     * @param directory snapshot of the mix node ids, reused for every route drawn from the same directory
+     * @param mixCount count of ids to select from the directory
+     * @return mix identifiers
+     */
+    int[] route(DirectorySnapshot directory, int mixCount);
+
+    /**
+     * Select a subset of mix node identifiers according to the Client's {@link RoutingStrategy}.
+     * identifiers.length MUST be greater than or equal to mixCount. Prepares a new {@link DirectorySnapshot} on every
+     * call, callers drawing many routes from the same directory should keep one instead. Callers may refill the array
+     * between calls, so implementations must not cache anything keyed on its identity.
      * @param identifiers list of mix node ids
      * @param mixCount count of ids to select from identifiers
      * @return mix identifiers
      */
-    int[] route(int[] identifiers, int mixCount);
+    default int[] route(int[] identifiers, int mixCount) {
+        return route(new DirectorySnapshot(identifiers), mixCount);
+    }
 }
@@ -0,0 +1,147 @@
+package com.robertsoultanaev.javasphinx.routing;
+
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Picks distinct mix nodes with probability proportional to their weight, for example their bandwidth, so nodes are
+ * loaded according to their capacity. Nodes without a weight are never picked.
+ * <p>
+ * An {@link AliasTable} over a {@link DirectorySnapshot} is built once and reused for every route drawn from the same
+ * snapshot. Routes drawn from a plain identifier array build their table every time, since the array may have been
+ * refilled since the last call. Distinct hops are then drawn by rejection in O(mixCount). If a few
+ * nodes carry most of the weight and keep being drawn again, the remaining hops are drawn by a linear scan instead.
+ * New weights are swapped in atomically with {@link #updateWeights(Map)}.
+ */
+public class WeightedRoutingStrategy implements RoutingStrategy {
+
+    /**
+     * Number of rejected draws per hop after which the linear scan takes over.
+     */
+    private static final int MAX_REJECTIONS_PER_HOP = 32;
+
+    private record Table(Map<Integer, Double> weights, DirectorySnapshot directory, AliasTable aliasTable) {
+    }
+
+    private final SecureRandom random = new SecureRandom();
+    private final AtomicReference<Table> table = new AtomicReference<>();
+
+    /**
+     * @param weights Weight of every mix node by node identifier.
+     */
+    public WeightedRoutingStrategy(Map<Integer, Double> weights) {
+        this.table.set(new Table(new HashMap<>(weights), null, null));
+    }
+
+    /**
+     * Replace the weights of the mix nodes. Routes drawn concurrently use either the old or the new weights.
+     * @param weights Weight of every mix node by node identifier.
+     */
+    public void updateWeights(Map<Integer, Double> weights) {
+        table.set(new Table(new HashMap<>(weights), null, null));
+    }
+
+    @Override
+    public int[] route(final int[] identifiers, final int mixCount) {
+        // Not cached, the table of a snapshot stays in place for the callers that keep one
+        return route(build(table.get().weights(), new DirectorySnapshot(identifiers)).aliasTable(), mixCount);
+    }
+
+    @Override
+    public int[] route(final DirectorySnapshot directory, final int mixCount) {
+        Table current = table.get();
+        if (current.directory() != directory) {
+            Table built = build(current.weights(), directory);
+            // Only cache over the table the weights were taken from, never over weights updated in the meantime
+            table.compareAndSet(current, built);
+            current = built;
+        }
+        return route(current.aliasTable(), mixCount);
+    }
+
+    private int[] route(AliasTable aliasTable, int mixCount) {
+        if (aliasTable.size() < mixCount) {
+            throw new IllegalArgumentException("Number of weighted mix nodes (" + aliasTable.size() + ") was less than the requested number (" + mixCount + ")");
+        }
+
+        int[] chosen = new int[mixCount];
+        int chosenCount = 0;
+        int rejections = 0;
+        while (chosenCount < mixCount && rejections < MAX_REJECTIONS_PER_HOP * mixCount) {
+            int index = aliasTable.sampleIndex(random);
+            if (contains(chosen, chosenCount, index)) {
+                rejections++;
+            } else {
+                chosen[chosenCount++] = index;
+            }
+        }
+        while (chosenCount < mixCount) {
+            chosen[chosenCount] = sampleRemaining(aliasTable, chosen, chosenCount);
+            chosenCount++;
+        }
+
+        int[] route = new int[mixCount];
+        for (int i = 0; i < mixCount; i++) {
+            route[i] = aliasTable.identifier(chosen[i]);
+        }
+        return route;
+    }
+
+    private int sampleRemaining(AliasTable aliasTable, int[] chosen, int chosenCount) {
+        double remaining = 0;
+        for (int i = 0; i < aliasTable.size(); i++) {
+            if (!contains(chosen, chosenCount, i)) {
+                remaining += aliasTable.weight(i);
+            }
+        }
+
+        double target = random.nextDouble() * remaining;
+        int last = -1;
+        for (int i = 0; i < aliasTable.size(); i++) {
+            if (contains(chosen, chosenCount, i)) {
+                continue;
+            }
+            last = i;
+            target -= aliasTable.weight(i);
+            if (target < 0) {
+                return i;
+            }
+        }
+        return last;
+    }
+
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Table build(Map<Integer, Double> weights, DirectorySnapshot directory) {
+        int count = 0;
+        int[] weighted = new int[directory.size()];
+        double[] weightValues = new double[directory.size()];
+        for (int i = 0; i < directory.size(); i++) {
+            int identifier = directory.identifier(i);
+            Double weight = weights.get(identifier);
+            if (weight != null && weight > 0) {
+                weighted[count] = identifier;
+                weightValues[count] = weight;
+                count++;
+            }
+        }
+        if (count == 0) {
+            throw new IllegalArgumentException("None of the mix nodes has a positive weight");
+        }
+
+        int[] ids = new int[count];
+        double[] values = new double[count];
+        System.arraycopy(weighted, 0, ids, 0, count);
+        System.arraycopy(weightValues, 0, values, 0, count);
+        return new Table(weights, directory, new AliasTable(ids, values));
+    }
+}
@@ -0,0 +1,17 @@
+package com.robertsoultanaev.javasphinx.runtime;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Maps the node ids found in the routing information of packets to network addresses.
+ */
+@FunctionalInterface
+public interface AddressBook {
+
+    /**
+     * Look up the address of a mix node.
+     * @param nodeId Id of the node, as in {@link com.robertsoultanaev.javasphinx.packet.RelayInfo#nextNodeId()}.
+     * @return Address the node accepts packets on, null if the node is unknown.
+     */
+    InetSocketAddress resolve(int nodeId);
+}
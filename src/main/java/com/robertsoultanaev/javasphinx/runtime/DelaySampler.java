@@ -0,0 +1,14 @@
+package com.robertsoultanaev.javasphinx.runtime;
+
+/**
+ * Source of the delays a mix holds packets for.
+ */
+@FunctionalInterface
+public interface DelaySampler {
+
+    /**
+     * Sample the delay of one packet.
+     * @return Delay in nanoseconds.
+     */
+    long sampleNanos();
+}
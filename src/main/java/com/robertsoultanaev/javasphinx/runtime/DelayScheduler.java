@@ -0,0 +1,125 @@
+package com.robertsoultanaev.javasphinx.runtime;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Holds items for a delay and releases them in batches, one batch per tick. The pending items live in a
+ * {@link TimingWheel}, so scheduling and releasing cost O(1) per item even with millions of items in flight. A single
+ * daemon thread advances the wheel and hands every non-empty batch to the release callback.
+ *
+ * Items are released no earlier than their delay and at most one tick late, unless the callback falls behind. The
+ * callback should therefore not block, callers with slow work hand the batch on to threads of their own.
+ */
+public class DelayScheduler<T> implements Closeable {
+
+    private static final int LEVELS = 4;
+    private static final int BITS = 8;
+
+    private final DelaySampler sampler;
+    private final long tickNanos;
+    private final long startNanos;
+    private final Consumer<List<T>> release;
+    private final TimingWheel<T> wheel;
+    private final Thread ticker;
+    private volatile boolean running = true;
+
+    /**
+     * @param sampler Source of the delays of {@link #schedule(Object)}.
+     * @param tick Resolution of the scheduler.
+     * @param release Callback receiving the released items, called from the scheduler thread.
+     */
+    public DelayScheduler(DelaySampler sampler, Duration tick, Consumer<List<T>> release) {
+        if (tick.isZero() || tick.isNegative()) {
+            throw new IllegalArgumentException("Tick must be positive");
+        }
+        this.sampler = sampler;
+        this.tickNanos = tick.toNanos();
+        this.startNanos = System.nanoTime();
+        this.release = release;
+        this.wheel = new TimingWheel<>(LEVELS, BITS, 0);
+        this.ticker = new Thread(this::tickLoop, "delay-scheduler");
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+    }
+
+    /**
+     * Hold an item for a delay drawn from the sampler.
+     */
+    public void schedule(T item) {
+        schedule(item, sampler.sampleNanos());
+    }
+
+    /**
+     * Hold an item for the given delay.
+     * @param item Item to release later.
+     * @param delayNanos Delay in nanoseconds.
+     */
+    public void schedule(T item, long delayNanos) {
+        // Round up, an item never leaves before its delay has passed
+        long deadlineTick = (System.nanoTime() - startNanos + delayNanos + tickNanos - 1) / tickNanos;
+        synchronized (wheel) {
+            wheel.add(item, deadlineTick);
+        }
+    }
+
+    /**
+     * Number of items waiting for their release.
+     */
+    public long pending() {
+        synchronized (wheel) {
+            return wheel.size();
+        }
+    }
+
+    /**
+     * Stop the scheduler thread. Items still pending are discarded.
+     */
+    @Override
+    public void close() {
+        close(item -> { });
+    }
+
+    /**
+     * Stop the scheduler thread and hand the items still pending to the given consumer instead of releasing them, so
+     * that resources they hold can be freed.
+     * @param discarded Consumer of the pending items, called from the calling thread.
+     */
+    public void close(Consumer<? super T> discarded) {
+        running = false;
+        LockSupport.unpark(ticker);
+        try {
+            ticker.join(TimeUnit.NANOSECONDS.toMillis(tickNanos) + 1000);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (wheel) {
+            wheel.clear(discarded);
+        }
+    }
+
+    private void tickLoop() {
+        List<T> batch = new ArrayList<>();
+        while (running) {
+            long now = System.nanoTime() - startNanos;
+            long nowTick = now / tickNanos;
+            synchronized (wheel) {
+                wheel.advance(nowTick, batch::add);
+            }
+            if (!batch.isEmpty()) {
+                try {
+                    release.accept(batch);
+                } catch (RuntimeException ignored) {
+                    // A failing callback must not stop the clock for the other items
+                }
+                batch = new ArrayList<>();
+            }
+            LockSupport.parkNanos((nowTick + 1) * tickNanos - now);
+        }
+    }
+}
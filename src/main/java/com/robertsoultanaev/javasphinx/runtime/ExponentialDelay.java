@@ -0,0 +1,30 @@
+package com.robertsoultanaev.javasphinx.runtime;
+
+import java.security.SecureRandom;
+import java.time.Duration;
+
+/**
+ * Exponentially distributed delays as used by continuous time mixes such as Loopix. The memoryless distribution makes
+ * the time a packet has spent in the mix useless for linking it to its output.
+ */
+public class ExponentialDelay implements DelaySampler {
+
+    private final double meanNanos;
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * @param mean Mean of the delays.
+     */
+    public ExponentialDelay(Duration mean) {
+        if (mean.isNegative()) {
+            throw new IllegalArgumentException("Mean delay must be non-negative");
+        }
+        this.meanNanos = mean.toNanos();
+    }
+
+    @Override
+    public long sampleNanos() {
+        // 1 - u lies in (0, 1], keeping the logarithm finite
+        return (long) (-meanNanos * Math.log(1.0 - random.nextDouble()));
+    }
+}
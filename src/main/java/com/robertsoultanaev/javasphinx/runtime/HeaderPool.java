@@ -0,0 +1,228 @@
+package com.robertsoultanaev.javasphinx.runtime;
+
+import com.robertsoultanaev.javasphinx.SphinxClient;
+import com.robertsoultanaev.javasphinx.SphinxException;
+import com.robertsoultanaev.javasphinx.packet.header.PacketContent;
+import com.robertsoultanaev.javasphinx.routing.DirectorySnapshot;
+import org.bouncycastle.math.ec.ECPoint;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of forward message headers built on background threads, so sending a message only costs the symmetric
+ * encryption of its payload. The public key operations of a forward message do not depend on the payload, see
+ * {@link SphinxClient#createForwardHeader}.
+ * <p>
+ * Routes are chosen by the {@link com.robertsoultanaev.javasphinx.routing.RoutingStrategy} of the client among the
+ * nodes of the directory. The pool keeps up to {@code capacity} headers ready and starts refilling once it drops to
+ * the low-water mark. Every header is handed out once. When the pool is empty the header is built on the calling
+ * thread. Replacing the directory discards the prepared headers, including the ones being built.
+ */
+public class HeaderPool implements Closeable {
+
+    private record Directory(long generation, DirectorySnapshot nodeIds, Map<Integer, ECPoint> keys) {
+    }
+
+    private record Prepared(long generation, PreparedHeader header) {
+    }
+
+    private final SphinxClient client;
+    private final int mixCount;
+    private final int capacity;
+    private final int lowWaterMark;
+    private final ArrayBlockingQueue<Prepared> ready;
+    private final ExecutorService builders;
+    private final AtomicInteger building = new AtomicInteger();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private volatile Directory directory;
+
+    /**
+     * Create the pool and start filling it.
+     * @param client Client building the headers.
+     * @param nodes Public keys of the mix nodes by node identifier.
+     * @param mixCount Number of mix nodes on every route.
+     * @param capacity Number of headers kept ready.
+     * @param lowWaterMark Number of ready headers at or below which the pool is refilled.
+     * @param threads Number of threads building headers.
+     */
+    public HeaderPool(SphinxClient client, Map<Integer, ECPoint> nodes, int mixCount, int capacity, int lowWaterMark, int threads) {
+        if (capacity < 1 || lowWaterMark < 0 || lowWaterMark >= capacity) {
+            throw new IllegalArgumentException("Low-water mark (" + lowWaterMark + ") must be between 0 and the capacity (" + capacity + ")");
+        }
+
+        this.client = client;
+        this.mixCount = mixCount;
+        this.capacity = capacity;
+        this.lowWaterMark = lowWaterMark;
+        this.ready = new ArrayBlockingQueue<>(capacity);
+        this.directory = directory(0, nodes);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.builders = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "header-builder-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+
+        refill();
+    }
+
+    /**
+     * Take a prepared header, or build one on the calling thread if none is ready.
+     */
+    public PreparedHeader take() throws SphinxException {
+        Directory current = directory;
+        Prepared prepared;
+        while ((prepared = ready.poll()) != null && prepared.generation() != current.generation()) {
+            // Built for a replaced directory
+        }
+
+        if (ready.size() <= lowWaterMark) {
+            refill();
+        }
+
+        if (prepared != null) {
+            hits.increment();
+            return prepared.header();
+        }
+        misses.increment();
+        return build(current);
+    }
+
+    /**
+     * Create a forward message with a prepared header.
+     * @param destination Final destination.
+     * @param message Data payload.
+     * @return The route of the message and its header and payload.
+     */
+    public PreparedMessage createForwardMessage(byte[] destination, byte[] message) throws SphinxException {
+        PreparedHeader header = take();
+        PacketContent packetContent = client.createForwardMessage(header.headerAndSecrets(), destination, message);
+        return new PreparedMessage(header.route(), packetContent);
+    }
+
+    /**
+     * Replace the mix nodes routes are chosen from, for example after a key rotation, and discard the prepared headers.
+     * @param nodes Public keys of the mix nodes by node identifier.
+     */
+    public synchronized void updateNodes(Map<Integer, ECPoint> nodes) {
+        directory = directory(directory.generation() + 1, nodes);
+        ready.clear();
+        refill();
+    }
+
+    /**
+     * Number of headers ready to be taken.
+     */
+    public int readyHeaders() {
+        return ready.size();
+    }
+
+    /**
+     * Number of headers taken from the pool.
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * Number of headers built on the calling thread because the pool was empty.
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * Number of headers that failed to build in the background.
+     */
+    public long failedHeaders() {
+        return failed.sum();
+    }
+
+    /**
+     * Stop building headers. Headers already prepared can still be taken.
+     */
+    @Override
+    public void close() {
+        builders.shutdownNow();
+        try {
+            builders.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void refill() {
+        while (true) {
+            int current = building.get();
+            int missing = capacity - ready.size() - current;
+            if (missing <= 0) {
+                return;
+            }
+            if (!building.compareAndSet(current, current + missing)) {
+                continue;
+            }
+
+            for (int i = 0; i < missing; i++) {
+                try {
+                    builders.execute(this::buildInBackground);
+                } catch (RejectedExecutionException ex) {
+                    // Closed
+                    building.addAndGet(i - missing);
+                    return;
+                }
+            }
+            return;
+        }
+    }
+
+    private void buildInBackground() {
+        Directory current = directory;
+        try {
+            PreparedHeader header = build(current);
+            if (current == directory) {
+                ready.offer(new Prepared(current.generation(), header));
+            }
+        } catch (SphinxException | RuntimeException ex) {
+            failed.increment();
+        } finally {
+            building.decrementAndGet();
+        }
+
+        if (current != directory) {
+            // Counted as building while the directory was replaced, so build a replacement
+            refill();
+        }
+    }
+
+    private PreparedHeader build(Directory current) throws SphinxException {
+        int[] route = client.route(current.nodeIds(), mixCount);
+        byte[][] nodelist = new byte[route.length][];
+        ECPoint[] keys = new ECPoint[route.length];
+        for (int i = 0; i < route.length; i++) {
+            nodelist[i] = client.encodeNode(route[i], 0);
+            keys[i] = current.keys().get(route[i]);
+        }
+        return new PreparedHeader(route, client.createForwardHeader(nodelist, keys));
+    }
+
+    private static Directory directory(long generation, Map<Integer, ECPoint> nodes) {
+        Map<Integer, ECPoint> keys = new HashMap<>(nodes);
+        int[] nodeIds = keys.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+        return new Directory(generation, new DirectorySnapshot(nodeIds), keys);
+    }
+}
@@ -0,0 +1,429 @@
+package com.robertsoultanaev.javasphinx.runtime;
+
+import com.robertsoultanaev.javasphinx.SphinxException;
+import com.robertsoultanaev.javasphinx.SphinxNode;
+import com.robertsoultanaev.javasphinx.SphinxParams;
+import com.robertsoultanaev.javasphinx.codec.FramePool;
+import com.robertsoultanaev.javasphinx.codec.PacketBuffer;
+import com.robertsoultanaev.javasphinx.codec.PacketCodec;
+import com.robertsoultanaev.javasphinx.packet.ProcessedFrame;
+import com.robertsoultanaev.javasphinx.packet.RoutingFlag;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TCP front end of a mix node. Packets arrive as back to back frames of {@link SphinxParams#packedPacketLength()} bytes
+ * in the {@link SphinxParams#packetFormat()} of the node. A single selector thread accepts connections and cuts the
+ * streams into frames, which are processed by a bounded pool of worker threads. Relay packets are forwarded to the next
+ * node through the address book, packets for a destination or a reply block go to the respective handler.
+ *
+ * Frames that arrive while the work queue is full are dropped, as are frames that fail to process. Both are counted.
+ * Frames are read into direct buffers of a {@link FramePool}, which go back to the pool once the packet is handled or
+ * forwarded.
+ *
+ * With a {@link DelaySampler} the server works as a continuous time mix: every relay packet is held in a
+ * {@link DelayScheduler} for a sampled delay before it is forwarded. Released packets are grouped by next node and
+ * sent by a separate pool of forwarder threads, so a slow next node holds up neither the scheduler nor the packets for
+ * the other nodes. Batches that arrive while the forwarder queue is full are dropped.
+ */
+public class MixServer implements Closeable {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    public static final Duration DELAY_TICK = Duration.ofMillis(1);
+
+    private final SphinxNode node;
+    private final PacketCodec codec;
+    private final int frameLength;
+    private final FramePool framePool;
+    private final InetSocketAddress bindAddress;
+    private final PacketSender sender;
+    private final PacketHandler destinationHandler;
+    private final PacketHandler surbHandler;
+    private final ThreadPoolExecutor workers;
+    private final ThreadLocal<WorkerScratch> scratch;
+    private final DelayScheduler<Relay> delayScheduler;
+    private final ThreadPoolExecutor forwarders;
+
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread selectorThread;
+    private volatile boolean running;
+
+    public MixServer(SphinxNode node, InetSocketAddress bindAddress, AddressBook addressBook,
+                     PacketHandler destinationHandler, PacketHandler surbHandler) {
+        this(node, bindAddress, addressBook, destinationHandler, surbHandler,
+                Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param node Mix node processing the packets.
+     * @param bindAddress Address to accept packets on, port 0 picks a free port.
+     * @param addressBook Addresses of the nodes relay packets are forwarded to.
+     * @param destinationHandler Handler of packets for their final destination.
+     * @param surbHandler Handler of replies sent with a single-use reply block.
+     * @param workerThreads Number of threads processing packets.
+     * @param queueCapacity Number of received packets that may wait for a worker before packets are dropped.
+     */
+    public MixServer(SphinxNode node, InetSocketAddress bindAddress, AddressBook addressBook,
+                     PacketHandler destinationHandler, PacketHandler surbHandler, int workerThreads, int queueCapacity) {
+        this(node, bindAddress, addressBook, destinationHandler, surbHandler, workerThreads, queueCapacity, null);
+    }
+
+    /**
+     * @param node Mix node processing the packets.
+     * @param bindAddress Address to accept packets on, port 0 picks a free port.
+     * @param addressBook Addresses of the nodes relay packets are forwarded to.
+     * @param destinationHandler Handler of packets for their final destination.
+     * @param surbHandler Handler of replies sent with a single-use reply block.
+     * @param workerThreads Number of threads processing packets.
+     * @param queueCapacity Number of received packets that may wait for a worker before packets are dropped.
+     * @param delay Delays relay packets are held for before they are forwarded, null to forward them immediately.
+     */
+    public MixServer(SphinxNode node, InetSocketAddress bindAddress, AddressBook addressBook,
+                     PacketHandler destinationHandler, PacketHandler surbHandler, int workerThreads, int queueCapacity,
+                     DelaySampler delay) {
+        SphinxParams params = node.params();
+        this.node = node;
+        this.codec = params.packetCodec();
+        this.frameLength = codec.encodedLength();
+        this.framePool = new FramePool(params, true);
+        this.bindAddress = bindAddress;
+        this.sender = new PacketSender(addressBook);
+        this.destinationHandler = destinationHandler;
+        this.surbHandler = surbHandler;
+        this.scratch = ThreadLocal.withInitial(() -> new WorkerScratch(params, frameLength));
+
+        this.workers = newPool("mix-worker-", workerThreads, queueCapacity);
+        if (delay == null) {
+            this.forwarders = null;
+            this.delayScheduler = null;
+        } else {
+            this.forwarders = newPool("mix-forwarder-", workerThreads, queueCapacity);
+            this.delayScheduler = new DelayScheduler<>(delay, DELAY_TICK, this::dispatch);
+        }
+    }
+
+    private static ThreadPoolExecutor newPool(String namePrefix, int threads, int queueCapacity) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, namePrefix + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Bind the listening socket and start accepting packets.
+     */
+    public synchronized void start() throws IOException {
+        if (running) {
+            throw new IllegalStateException("Server is already running");
+        }
+
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(bindAddress);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        running = true;
+        selectorThread = new Thread(this::selectLoop, "mix-selector");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    /**
+     * Address the server accepts packets on, with the actual port if it was bound to port 0.
+     */
+    public InetSocketAddress localAddress() throws IOException {
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    /**
+     * Number of packets processed successfully.
+     */
+    public long processedPackets() {
+        return processed.sum();
+    }
+
+    /**
+     * Number of packets dropped because the work queue or the forwarder queue was full.
+     */
+    public long droppedPackets() {
+        return dropped.sum();
+    }
+
+    /**
+     * Number of packets that failed to process or to be delivered.
+     */
+    public long failedPackets() {
+        return failed.sum();
+    }
+
+    /**
+     * Number of relay packets held back for their delay.
+     */
+    public long delayedPackets() {
+        return delayScheduler == null ? 0 : delayScheduler.pending();
+    }
+
+    /**
+     * Stop accepting packets, let the workers and forwarders finish the queued packets and close all connections.
+     * Relay packets still held for their delay are discarded.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (running) {
+            running = false;
+            selector.wakeup();
+            try {
+                selectorThread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        workers.shutdown();
+        try {
+            workers.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (delayScheduler != null) {
+            delayScheduler.close(relay -> framePool.release(relay.packet()));
+            forwarders.shutdown();
+            try {
+                forwarders.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            for (Runnable unsent : forwarders.shutdownNow()) {
+                ((Forward) unsent).discard();
+            }
+        }
+        sender.close();
+    }
+
+    private void selectLoop() {
+        try {
+            while (running) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isReadable()) {
+                        read(key);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException ex) {
+            running = false;
+        } finally {
+            closeSelector();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ, framePool.acquire());
+    }
+
+    private void read(SelectionKey key) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        ByteBuffer frame = (ByteBuffer) key.attachment();
+        try {
+            int read;
+            while ((read = channel.read(frame)) > 0) {
+                if (!frame.hasRemaining()) {
+                    submit(frame.flip());
+                    frame = framePool.acquire();
+                    key.attach(frame);
+                }
+            }
+            if (read < 0) {
+                closeConnection(key);
+            }
+        } catch (IOException ex) {
+            closeConnection(key);
+        }
+    }
+
+    private void closeConnection(SelectionKey key) {
+        key.cancel();
+        // The key stays in the key set until the next select, detach the frame so it is released only once
+        framePool.release((ByteBuffer) key.attach(null));
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {
+            // Connection is gone either way
+        }
+    }
+
+    private void submit(ByteBuffer frame) {
+        try {
+            workers.execute(() -> handle(frame));
+        } catch (RejectedExecutionException ex) {
+            framePool.release(frame);
+            dropped.increment();
+        }
+    }
+
+    private void handle(ByteBuffer frame) {
+        WorkerScratch buffers = scratch.get();
+        PacketBuffer packet = buffers.packet;
+        try {
+            codec.read(frame, packet);
+            framePool.release(frame);
+            frame = null;
+            ProcessedFrame processedFrame = node.process(packet);
+
+            RoutingFlag flag = processedFrame.routingFlag();
+            if (flag == RoutingFlag.RELAY) {
+                int nextNodeId = processedFrame.relayInfo().nextNodeId();
+                if (delayScheduler == null) {
+                    ByteBuffer out = buffers.out;
+                    out.clear();
+                    codec.write(packet, out);
+                    out.flip();
+                    sender.send(nextNodeId, out);
+                } else {
+                    delayScheduler.schedule(new Relay(nextNodeId, codec.write(packet, framePool)));
+                }
+            } else if (flag == RoutingFlag.DESTINATION) {
+                destinationHandler.handle(processedFrame, packet.delta().clone());
+            } else if (flag == RoutingFlag.SURB) {
+                surbHandler.handle(processedFrame, packet.delta().clone());
+            } else {
+                throw new SphinxException("Unknown routing flag");
+            }
+            processed.increment();
+        } catch (SphinxException | IOException | RuntimeException ex) {
+            if (frame != null) {
+                framePool.release(frame);
+            }
+            failed.increment();
+        }
+    }
+
+    /**
+     * Hand the relay packets released by the delay scheduler to the forwarders, one task per next node.
+     */
+    private void dispatch(List<Relay> relays) {
+        Map<Integer, List<Relay>> byNode = new HashMap<>();
+        for (Relay relay : relays) {
+            byNode.computeIfAbsent(relay.nodeId(), nodeId -> new ArrayList<>()).add(relay);
+        }
+        for (Map.Entry<Integer, List<Relay>> entry : byNode.entrySet()) {
+            Forward forward = new Forward(entry.getKey(), entry.getValue());
+            try {
+                forwarders.execute(forward);
+            } catch (RejectedExecutionException ex) {
+                forward.discard();
+                dropped.add(entry.getValue().size());
+            }
+        }
+    }
+
+    private void closeSelector() {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof ByteBuffer frame) {
+                    framePool.release(frame);
+                }
+                key.channel().close();
+            }
+            selector.close();
+        } catch (IOException | ClosedSelectorException ignored) {
+            // Shutting down
+        }
+    }
+
+    /**
+     * Encoded relay packet waiting for its delay.
+     */
+    private record Relay(int nodeId, ByteBuffer packet) {
+    }
+
+    /**
+     * Relay packets for one next node, sent by a forwarder thread.
+     */
+    private final class Forward implements Runnable {
+        private final int nodeId;
+        private final List<Relay> relays;
+
+        Forward(int nodeId, List<Relay> relays) {
+            this.nodeId = nodeId;
+            this.relays = relays;
+        }
+
+        @Override
+        public void run() {
+            for (Relay relay : relays) {
+                try {
+                    sender.send(nodeId, relay.packet());
+                } catch (IOException ex) {
+                    failed.increment();
+                } finally {
+                    framePool.release(relay.packet());
+                }
+            }
+        }
+
+        /**
+         * Give the frames back to the pool without sending them.
+         */
+        void discard() {
+            for (Relay relay : relays) {
+                framePool.release(relay.packet());
+            }
+        }
+    }
+
+    /**
+     * Per-thread buffers of the workers.
+     */
+    private static final class WorkerScratch {
+        private final PacketBuffer packet;
+        private final ByteBuffer out;
+
+        WorkerScratch(SphinxParams params, int frameLength) {
+            this.packet = new PacketBuffer(params);
+            this.out = ByteBuffer.allocateDirect(frameLength);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.robertsoultanaev.javasphinx.runtime;
+
+import com.robertsoultanaev.javasphinx.packet.ProcessedFrame;
+
+/**
+ * Receives packets that leave the mix network at a node, either for their final destination or as replies to the
+ * creator of a single-use reply block.
+ */
+@FunctionalInterface
+public interface PacketHandler {
+
+    /**
+     * Handle a processed packet. Called from the worker threads of the {@link MixServer}.
+     * @param frame Tag, routing information and MAC key of the processed packet.
+     * @param delta Decrypted payload of the packet, owned by the handler.
+     */
+    void handle(ProcessedFrame frame, byte[] delta);
+}
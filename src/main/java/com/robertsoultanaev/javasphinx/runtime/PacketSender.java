@@ -0,0 +1,93 @@
+package com.robertsoultanaev.javasphinx.runtime;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sends encoded packets to mix nodes over TCP. One connection is kept open per node and reopened when it fails, so the
+ * sender can be shared by the clients and worker threads of a process.
+ */
+public class PacketSender implements Closeable {
+
+    private final AddressBook addressBook;
+    private final Map<Integer, Connection> connections = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    public PacketSender(AddressBook addressBook) {
+        this.addressBook = addressBook;
+    }
+
+    /**
+     * Send an encoded packet to a node, blocking until it has been written to the connection.
+     * @param nodeId Id of the receiving node.
+     * @param packet Buffer holding the encoded packet between its position and limit.
+     * @throws IOException If the node is unknown or the packet could not be written.
+     */
+    public void send(int nodeId, ByteBuffer packet) throws IOException {
+        if (closed) {
+            throw new IOException("Sender is closed");
+        }
+
+        Connection connection = connections.computeIfAbsent(nodeId, Connection::new);
+        connection.write(packet);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (Connection connection : connections.values()) {
+            connection.close();
+        }
+        connections.clear();
+    }
+
+    private final class Connection {
+        private final int nodeId;
+        private SocketChannel channel;
+
+        Connection(int nodeId) {
+            this.nodeId = nodeId;
+        }
+
+        synchronized void write(ByteBuffer packet) throws IOException {
+            try {
+                if (channel == null) {
+                    channel = open();
+                }
+                while (packet.hasRemaining()) {
+                    channel.write(packet);
+                }
+            } catch (IOException ex) {
+                close();
+                throw ex;
+            }
+        }
+
+        private SocketChannel open() throws IOException {
+            InetSocketAddress address = addressBook.resolve(nodeId);
+            if (address == null) {
+                throw new IOException("Unknown node " + nodeId);
+            }
+            SocketChannel socketChannel = SocketChannel.open(address);
+            socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            return socketChannel;
+        }
+
+        synchronized void close() {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // Nothing left to release
+                }
+                channel = null;
+            }
+        }
+    }
+}
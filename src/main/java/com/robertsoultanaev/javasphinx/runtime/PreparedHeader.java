@@ -0,0 +1,17 @@
+package com.robertsoultanaev.javasphinx.runtime;
+
+import com.robertsoultanaev.javasphinx.packet.header.HeaderAndSecrets;
+
+/**
+ * Header of a forward message built ahead of time, together with the route it was built for. The packet has to be
+ * sent to the first node of the route.
+ */
+public record PreparedHeader(int[] route, HeaderAndSecrets headerAndSecrets) {
+
+    /**
+     * Identifier of the node the packet has to be sent to.
+     */
+    public int firstNode() {
+        return route[0];
+    }
+}
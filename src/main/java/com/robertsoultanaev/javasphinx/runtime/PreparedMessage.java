@@ -0,0 +1,16 @@
+package com.robertsoultanaev.javasphinx.runtime;
+
+import com.robertsoultanaev.javasphinx.packet.header.PacketContent;
+
+/**
+ * Forward message created with a {@link PreparedHeader}. The packet has to be sent to the first node of the route.
+ */
+public record PreparedMessage(int[] route, PacketContent packetContent) {
+
+    /**
+     * Identifier of the node the packet has to be sent to.
+     */
+    public int firstNode() {
+        return route[0];
+    }
+}
@@ -0,0 +1,26 @@
+package com.robertsoultanaev.javasphinx.runtime;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Address book backed by a map that is filled in by hand.
+ */
+public class StaticAddressBook implements AddressBook {
+
+    private final Map<Integer, InetSocketAddress> addresses = new ConcurrentHashMap<>();
+
+    public void put(int nodeId, InetSocketAddress address) {
+        addresses.put(nodeId, address);
+    }
+
+    public void remove(int nodeId) {
+        addresses.remove(nodeId);
+    }
+
+    @Override
+    public InetSocketAddress resolve(int nodeId) {
+        return addresses.get(nodeId);
+    }
+}
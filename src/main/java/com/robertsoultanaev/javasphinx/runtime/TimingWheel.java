@@ -0,0 +1,198 @@
+package com.robertsoultanaev.javasphinx.runtime;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel holding items until a deadline expressed in ticks. Every level has {@code 2^bits} slots,
+ * a slot of level {@code i} spans {@code 2^(bits*i)} ticks. Items are added to the level that covers their deadline and
+ * cascade down one level whenever the level below wraps around, so adding and expiring an item are O(1) regardless of
+ * the number of items in the wheel.
+ *
+ * Deadlines beyond the range of the top level are parked in it and re-filed when their slot comes around.
+ * Not thread safe.
+ */
+public final class TimingWheel<T> {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final int bits;
+    private final int mask;
+    private final int levels;
+    // Heads of the slot lists, 0 marks an empty slot
+    private final int[][] slots;
+    private long currentTick;
+    private long size;
+
+    // Entries live in parallel arrays linked by index, so millions of pending items add no objects for the collector
+    // to trace. Index 0 is unused, freed entries form a list through next.
+    private Object[] items = new Object[INITIAL_CAPACITY];
+    private long[] deadlines = new long[INITIAL_CAPACITY];
+    private int[] next = new int[INITIAL_CAPACITY];
+    private int used;
+    private int free;
+
+    /**
+     * @param levels Number of levels.
+     * @param bits Number of bits of the slot index of every level, the wheel covers {@code 2^(bits*levels)} ticks.
+     * @param startTick Tick the wheel starts at.
+     */
+    public TimingWheel(int levels, int bits, long startTick) {
+        if (levels < 1 || bits < 1 || (long) levels * bits > 62) {
+            throw new IllegalArgumentException("Invalid wheel dimensions (" + levels + " levels of " + bits + " bits)");
+        }
+        this.bits = bits;
+        this.mask = (1 << bits) - 1;
+        this.levels = levels;
+        this.slots = new int[levels][1 << bits];
+        this.currentTick = startTick;
+    }
+
+    /**
+     * Tick up to which items have been expired.
+     */
+    public long currentTick() {
+        return currentTick;
+    }
+
+    /**
+     * Number of items in the wheel.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Add an item. Deadlines that are not after the current tick expire on the next tick.
+     * @param item Item to hold.
+     * @param deadlineTick Tick at which the item expires.
+     */
+    public void add(T item, long deadlineTick) {
+        int entry = allocate();
+        items[entry] = item;
+        deadlines[entry] = Math.max(deadlineTick, currentTick + 1);
+        file(entry);
+        size++;
+    }
+
+    /**
+     * Advance the wheel tick by tick up to the given tick, passing every expired item to the consumer.
+     * @param tick Tick to advance to.
+     * @param expired Consumer of the expired items, called in deadline order.
+     * @return Number of expired items.
+     */
+    @SuppressWarnings("unchecked")
+    public int advance(long tick, Consumer<? super T> expired) {
+        int count = 0;
+        while (currentTick < tick) {
+            currentTick++;
+            cascade();
+
+            int index = (int) (currentTick & mask);
+            int entry = slots[0][index];
+            slots[0][index] = 0;
+            while (entry != 0) {
+                int following = next[entry];
+                if (deadlines[entry] <= currentTick) {
+                    T item = (T) items[entry];
+                    release(entry);
+                    size--;
+                    count++;
+                    expired.accept(item);
+                } else {
+                    // Only parked entries whose deadline lies beyond the range of the wheel end up here
+                    file(entry);
+                }
+                entry = following;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Remove every item from the wheel without advancing it.
+     * @param discarded Consumer of the removed items, called in no particular order.
+     * @return Number of removed items.
+     */
+    @SuppressWarnings("unchecked")
+    public int clear(Consumer<? super T> discarded) {
+        int count = 0;
+        for (int[] level : slots) {
+            for (int index = 0; index < level.length; index++) {
+                int entry = level[index];
+                level[index] = 0;
+                while (entry != 0) {
+                    int following = next[entry];
+                    T item = (T) items[entry];
+                    release(entry);
+                    size--;
+                    count++;
+                    discarded.accept(item);
+                    entry = following;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Move the entries of the higher level slots that start at the current tick down to the levels they now belong to.
+     */
+    private void cascade() {
+        for (int level = 1; level < levels; level++) {
+            int shift = bits * level;
+            if ((currentTick & ((1L << shift) - 1)) != 0) {
+                return;
+            }
+            int index = (int) ((currentTick >>> shift) & mask);
+            int entry = slots[level][index];
+            slots[level][index] = 0;
+            while (entry != 0) {
+                int following = next[entry];
+                file(entry);
+                entry = following;
+            }
+        }
+    }
+
+    private void file(int entry) {
+        long delta = deadlines[entry] - currentTick;
+        for (int level = 0; level < levels; level++) {
+            int shift = bits * (level + 1);
+            if (delta < (1L << shift)) {
+                insert(level, entry, deadlines[entry]);
+                return;
+            }
+        }
+        // Park in the top level slot furthest away, the entry is re-filed when that slot is cascaded
+        long parkedTick = currentTick + (1L << (bits * levels)) - 1;
+        insert(levels - 1, entry, parkedTick);
+    }
+
+    private void insert(int level, int entry, long tick) {
+        int index = (int) ((tick >>> (bits * level)) & mask);
+        next[entry] = slots[level][index];
+        slots[level][index] = entry;
+    }
+
+    private int allocate() {
+        if (free != 0) {
+            int entry = free;
+            free = next[entry];
+            return entry;
+        }
+        if (used + 1 == items.length) {
+            int capacity = items.length * 2;
+            items = Arrays.copyOf(items, capacity);
+            deadlines = Arrays.copyOf(deadlines, capacity);
+            next = Arrays.copyOf(next, capacity);
+        }
+        return ++used;
+    }
+
+    private void release(int entry) {
+        items[entry] = null;
+        next[entry] = free;
+        free = entry;
+    }
+}
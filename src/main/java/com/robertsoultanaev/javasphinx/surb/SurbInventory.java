@@ -0,0 +1,228 @@
+package com.robertsoultanaev.javasphinx.surb;
+
+import com.robertsoultanaev.javasphinx.SphinxClient;
+import com.robertsoultanaev.javasphinx.SphinxException;
+import com.robertsoultanaev.javasphinx.packet.reply.NymTuple;
+import com.robertsoultanaev.javasphinx.packet.reply.SingleUseReplyBlock;
+import org.bouncycastle.math.ec.ECPoint;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps reply blocks ready to be handed out, per correspondent or route. Every registered route has its own stock of
+ * SURBs, which is refilled in bulk on a fork-join pool once it drops to the low-water mark. The key tuples of the
+ * SURBs are stored in a {@link SurbKeyStore} before the reply blocks are handed out, so replies can always be received
+ * with {@link #receive(byte[], byte[])}.
+ * <p>
+ * A SURB is only handed out during the first half of its lifetime, leaving the correspondent at least half of it to
+ * reply. When the stock of a route is empty the SURB is created on the calling thread.
+ *
+ * @param <K> Type of the keys identifying the routes, for example correspondents.
+ */
+public class SurbInventory<K> {
+
+    private record ReadySurb(NymTuple nymTuple, long handOutUntilMillis) {
+    }
+
+    private static final class Stock {
+        private final byte[][] nodelist;
+        private final ECPoint[] keys;
+        private final byte[] dest;
+        private final ConcurrentLinkedQueue<ReadySurb> ready = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicBoolean refilling = new AtomicBoolean();
+        private volatile boolean removed;
+
+        Stock(byte[][] nodelist, ECPoint[] keys, byte[] dest) {
+            this.nodelist = nodelist;
+            this.keys = keys;
+            this.dest = dest;
+        }
+    }
+
+    private final SphinxClient client;
+    private final SurbKeyStore keyStore;
+    private final int stockSize;
+    private final int lowWaterMark;
+    private final long lifetimeMillis;
+    private final ForkJoinPool pool;
+    private final Map<K, Stock> stocks = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    public SurbInventory(SphinxClient client, SurbKeyStore keyStore, int stockSize, int lowWaterMark, Duration lifetime) {
+        this(client, keyStore, stockSize, lowWaterMark, lifetime, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param client Client creating the SURBs.
+     * @param keyStore Store the key tuples of the SURBs are registered in.
+     * @param stockSize Number of SURBs kept ready per route.
+     * @param lowWaterMark Number of ready SURBs of a route at or below which it is refilled.
+     * @param lifetime Time after which replies to a SURB are no longer accepted.
+     * @param pool Pool the SURBs are created on.
+     */
+    public SurbInventory(SphinxClient client, SurbKeyStore keyStore, int stockSize, int lowWaterMark, Duration lifetime, ForkJoinPool pool) {
+        if (stockSize < 1 || lowWaterMark < 0 || lowWaterMark >= stockSize) {
+            throw new IllegalArgumentException("Low-water mark (" + lowWaterMark + ") must be between 0 and the stock size (" + stockSize + ")");
+        }
+
+        this.client = client;
+        this.keyStore = keyStore;
+        this.stockSize = stockSize;
+        this.lowWaterMark = lowWaterMark;
+        this.lifetimeMillis = lifetime.toMillis();
+        this.pool = pool;
+    }
+
+    /**
+     * Register a route and start filling its stock. A route registered under the same key is replaced.
+     * @param key Key identifying the route.
+     * @param nodelist List of encoded mix node identifiers used to route the replies.
+     * @param keys List of the corresponding public keys of the mix nodes in nodelist.
+     * @param dest Final destination of the replies.
+     */
+    public void register(K key, byte[][] nodelist, ECPoint[] keys, byte[] dest) {
+        Stock stock = new Stock(nodelist.clone(), keys.clone(), dest.clone());
+        Stock previous = stocks.put(key, stock);
+        if (previous != null) {
+            previous.removed = true;
+        }
+        refill(stock);
+    }
+
+    /**
+     * Stop keeping SURBs for a route. SURBs already handed out can still be replied to.
+     * @param key Key identifying the route.
+     */
+    public void unregister(K key) {
+        Stock stock = stocks.remove(key);
+        if (stock != null) {
+            stock.removed = true;
+        }
+    }
+
+    /**
+     * Hand out a reply block of a route, to be sent to the correspondent.
+     * @param key Key identifying the route.
+     * @return A reply block that is handed out only once.
+     */
+    public NymTuple take(K key) throws SphinxException {
+        Stock stock = stocks.get(key);
+        if (stock == null) {
+            throw new SphinxException("No route is registered for " + key);
+        }
+
+        long now = System.currentTimeMillis();
+        ReadySurb surb;
+        while ((surb = stock.ready.poll()) != null) {
+            stock.size.decrementAndGet();
+            if (surb.handOutUntilMillis() > now) {
+                break;
+            }
+        }
+
+        if (stock.size.get() <= lowWaterMark) {
+            refill(stock);
+        }
+
+        if (surb != null) {
+            hits.increment();
+            return surb.nymTuple();
+        }
+        misses.increment();
+        SingleUseReplyBlock created = client.createSurb(stock.nodelist, stock.keys, stock.dest);
+        keyStore.put(created, now + lifetimeMillis);
+        return created.nymTuple();
+    }
+
+    /**
+     * Receive a reply addressed to a SURB of this inventory. Every SURB can only be received once.
+     * @param xid Identifier of the SURB, as delivered by the last mix node.
+     * @param delta The encrypted data payload of the Sphinx packet.
+     * @return The data payload, or null if the SURB is unknown, was already used or has expired.
+     */
+    public byte[] receive(byte[] xid, byte[] delta) throws SphinxException {
+        byte[][] keyTuple = keyStore.take(xid);
+        return keyTuple == null ? null : client.receiveSurb(keyTuple, delta);
+    }
+
+    /**
+     * Number of SURBs ready to be handed out for a route.
+     * @param key Key identifying the route.
+     */
+    public int ready(K key) {
+        Stock stock = stocks.get(key);
+        return stock == null ? 0 : stock.size.get();
+    }
+
+    /**
+     * Number of SURBs handed out from a stock.
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * Number of SURBs created on the calling thread because the stock was empty.
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * Number of background refills that failed.
+     */
+    public long failedRefills() {
+        return failed.sum();
+    }
+
+    private void refill(Stock stock) {
+        if (!stock.refilling.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            pool.execute(() -> refillNow(stock));
+        } catch (RejectedExecutionException ex) {
+            stock.refilling.set(false);
+            failed.increment();
+        }
+    }
+
+    private void refillNow(Stock stock) {
+        try {
+            // SURBs taken while the refill runs are replaced right away
+            int missing;
+            while ((missing = stockSize - stock.size.get()) > 0 && !stock.removed) {
+                SingleUseReplyBlock[] surbs = client.createSurbs(missing, stock.nodelist, stock.keys, stock.dest, pool);
+                long expiresAtMillis = System.currentTimeMillis() + lifetimeMillis;
+                long handOutUntilMillis = expiresAtMillis - lifetimeMillis / 2;
+                for (SingleUseReplyBlock surb : surbs) {
+                    keyStore.put(surb, expiresAtMillis);
+                    stock.ready.add(new ReadySurb(surb.nymTuple(), handOutUntilMillis));
+                    stock.size.incrementAndGet();
+                }
+            }
+        } catch (SphinxException | RuntimeException ex) {
+            failed.increment();
+            stock.refilling.set(false);
+            return;
+        }
+
+        stock.refilling.set(false);
+        if (stock.size.get() <= lowWaterMark && !stock.removed) {
+            // Taken after the last check, while the refill still looked busy
+            refill(stock);
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package com.robertsoultanaev.javasphinx.surb;
+
+import com.robertsoultanaev.javasphinx.SphinxException;
+import com.robertsoultanaev.javasphinx.packet.reply.SingleUseReplyBlock;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Fixed-capacity store of the key tuples of outstanding SURBs, keyed by their xid, in an open-addressing table with
+ * linear probing that lives off-heap or in a memory-mapped file.
+ * <p>
+ * Every slot is a fixed-size record holding its state, a checksum, the expiry time, the xid and up to
+ * {@code maxHops + 1} keys. A record is written completely before its state byte marks it as live, and removing a
+ * record only flips the state byte, so a store reopened after a crash never sees a partially written record as live.
+ * Records whose checksum does not match, such as pages torn by a power failure, are dropped on reopen.
+ * <p>
+ * Xids are random, so their first bytes are used directly as the hash. Removed and expired records are reused by
+ * later insertions. Instances are thread-safe.
+ */
+public final class SurbKeyStore implements Closeable {
+
+    private static final int MAGIC = 0x53555242;
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_LENGTH = 64;
+    private static final int MAX_PROBES = 128;
+
+    private static final byte EMPTY = 0;
+    private static final byte LIVE = 1;
+    private static final byte REMOVED = 2;
+
+    private static final int STATE_OFFSET = 0;
+    private static final int KEY_COUNT_OFFSET = 1;
+    private static final int CHECKSUM_OFFSET = 4;
+    private static final int EXPIRY_OFFSET = 8;
+    private static final int XID_OFFSET = 16;
+
+    private final int keyLength;
+    private final int maxKeys;
+    private final int recordLength;
+    private final int mask;
+    private final ByteBuffer table;
+    private final FileChannel channel;
+    private final MappedByteBuffer mapped;
+    private final ByteBuffer checksumView;
+    private final CRC32C crc = new CRC32C();
+    private int size;
+
+    /**
+     * Create a store in off-heap memory, which is lost when the store is discarded.
+     * @param capacity Number of SURBs the store has to be able to hold.
+     * @param keyLength Length of the xid and of every key, {@link com.robertsoultanaev.javasphinx.SphinxParams#keyLength()}.
+     * @param maxHops Maximum number of hops of a SURB.
+     */
+    public SurbKeyStore(int capacity, int keyLength, int maxHops) {
+        this.keyLength = keyLength;
+        this.maxKeys = maxHops + 1;
+        this.recordLength = recordLength(keyLength, maxKeys);
+        int slots = slots(capacity, recordLength);
+        this.mask = slots - 1;
+        this.table = ByteBuffer.allocateDirect(slots * recordLength);
+        this.channel = null;
+        this.mapped = null;
+        this.checksumView = table.duplicate();
+    }
+
+    /**
+     * Open the store persisted in a file, creating the file if it does not exist. The parameters have to match the
+     * ones the file was created with.
+     * @param file File holding the store.
+     * @param capacity Number of SURBs the store has to be able to hold.
+     * @param keyLength Length of the xid and of every key, {@link com.robertsoultanaev.javasphinx.SphinxParams#keyLength()}.
+     * @param maxHops Maximum number of hops of a SURB.
+     */
+    public SurbKeyStore(Path file, int capacity, int keyLength, int maxHops) throws IOException {
+        this.keyLength = keyLength;
+        this.maxKeys = maxHops + 1;
+        this.recordLength = recordLength(keyLength, maxKeys);
+        int slots = slots(capacity, recordLength);
+        this.mask = slots - 1;
+
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            boolean created = channel.size() == 0;
+            long fileLength = FILE_HEADER_LENGTH + (long) slots * recordLength;
+            if (!created && channel.size() != fileLength) {
+                throw new IOException("Length of SURB key store " + file + " (" + channel.size() + ") did not match the parameters (" + fileLength + ")");
+            }
+
+            this.mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileLength);
+            if (created) {
+                mapped.putInt(4, VERSION).putInt(8, keyLength).putInt(12, maxKeys).putInt(16, slots);
+                // The magic goes last so a file cut short while being created is rejected
+                mapped.putInt(0, MAGIC);
+                mapped.force();
+            } else if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION) {
+                throw new IOException(file + " is not a SURB key store");
+            } else if (mapped.getInt(8) != keyLength || mapped.getInt(12) != maxKeys || mapped.getInt(16) != slots) {
+                throw new IOException("Parameters of SURB key store " + file + " did not match the requested parameters");
+            }
+
+            this.table = mapped.slice(FILE_HEADER_LENGTH, slots * recordLength);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+
+        this.checksumView = table.duplicate();
+        recover();
+    }
+
+    /**
+     * Store the key tuple of a SURB.
+     * @param surb SURB as returned by {@link com.robertsoultanaev.javasphinx.SphinxClient#createSurb}.
+     * @param expiresAtMillis Time after which replies to the SURB are no longer accepted, in milliseconds since the epoch.
+     */
+    public void put(SingleUseReplyBlock surb, long expiresAtMillis) throws SphinxException {
+        put(surb.xid(), surb.keyTuple(), expiresAtMillis);
+    }
+
+    /**
+     * Store a key tuple, replacing the one stored under the same xid.
+     * @param xid Identifier of the SURB.
+     * @param keyTuple Key tuple to receive replies to the SURB.
+     * @param expiresAtMillis Time after which replies to the SURB are no longer accepted, in milliseconds since the epoch.
+     */
+    public synchronized void put(byte[] xid, byte[][] keyTuple, long expiresAtMillis) throws SphinxException {
+        checkXid(xid);
+        if (keyTuple.length == 0 || keyTuple.length > maxKeys) {
+            throw new SphinxException("Key tuple of " + keyTuple.length + " keys does not fit the store (at most " + maxKeys + ")");
+        }
+        for (byte[] key : keyTuple) {
+            if (key.length != keyLength) {
+                throw new SphinxException("Length of key (" + key.length + ") did not match the key length (" + keyLength + ")");
+            }
+        }
+
+        int target = -1;
+        int index = index(xid);
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            int offset = index * recordLength;
+            byte state = table.get(offset + STATE_OFFSET);
+            if (state == EMPTY) {
+                if (target < 0) {
+                    target = offset;
+                }
+                break;
+            }
+            if (state == LIVE && matches(offset, xid)) {
+                target = offset;
+                size--;
+                break;
+            }
+            if (target < 0 && (state == REMOVED || table.getLong(offset + EXPIRY_OFFSET) <= System.currentTimeMillis())) {
+                target = offset;
+            }
+            index = (index + 1) & mask;
+        }
+        if (target < 0) {
+            throw new SphinxException("SURB key store is full");
+        }
+
+        if (table.get(target + STATE_OFFSET) == LIVE && !matches(target, xid)) {
+            // Overwriting an expired record
+            size--;
+        }
+        table.put(target + STATE_OFFSET, REMOVED);
+        table.put(target + KEY_COUNT_OFFSET, (byte) keyTuple.length);
+        table.putLong(target + EXPIRY_OFFSET, expiresAtMillis);
+        table.put(target + XID_OFFSET, xid);
+        int keyOffset = target + XID_OFFSET + keyLength;
+        for (byte[] key : keyTuple) {
+            table.put(keyOffset, key);
+            keyOffset += keyLength;
+        }
+        table.putInt(target + CHECKSUM_OFFSET, checksum(target));
+        table.put(target + STATE_OFFSET, LIVE);
+        size++;
+    }
+
+    /**
+     * Remove and return the key tuple of a SURB a reply was received for.
+     * @see #take(byte[], long)
+     */
+    public byte[][] take(byte[] xid) throws SphinxException {
+        return take(xid, System.currentTimeMillis());
+    }
+
+    /**
+     * Remove and return the key tuple of a SURB a reply was received for, so every SURB is used once.
+     * @param xid Identifier of the SURB.
+     * @param nowMillis Current time in milliseconds since the epoch.
+     * @return The key tuple, or null if no SURB with that xid is stored or it has expired.
+     */
+    public synchronized byte[][] take(byte[] xid, long nowMillis) throws SphinxException {
+        int offset = find(xid);
+        if (offset < 0) {
+            return null;
+        }
+
+        table.put(offset + STATE_OFFSET, REMOVED);
+        size--;
+        if (table.getLong(offset + EXPIRY_OFFSET) <= nowMillis) {
+            return null;
+        }
+
+        byte[][] keyTuple = new byte[table.get(offset + KEY_COUNT_OFFSET)][keyLength];
+        int keyOffset = offset + XID_OFFSET + keyLength;
+        for (byte[] key : keyTuple) {
+            table.get(keyOffset, key);
+            keyOffset += keyLength;
+        }
+        return keyTuple;
+    }
+
+    /**
+     * Check whether a SURB with the given xid is stored, expired or not.
+     * @param xid Identifier of the SURB.
+     */
+    public synchronized boolean contains(byte[] xid) throws SphinxException {
+        return find(xid) >= 0;
+    }
+
+    /**
+     * Remove every SURB that has expired.
+     * @param nowMillis Current time in milliseconds since the epoch.
+     * @return Number of SURBs removed.
+     */
+    public synchronized int purgeExpired(long nowMillis) {
+        int purged = 0;
+        for (int offset = 0; offset < table.capacity(); offset += recordLength) {
+            if (table.get(offset + STATE_OFFSET) == LIVE && table.getLong(offset + EXPIRY_OFFSET) <= nowMillis) {
+                table.put(offset + STATE_OFFSET, REMOVED);
+                purged++;
+            }
+        }
+        size -= purged;
+        return purged;
+    }
+
+    /**
+     * Number of stored SURBs, including expired ones that were not removed yet.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Number of slots in the table.
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Write the changes of a file-backed store to the storage device, so they survive a power failure as well as a
+     * crash of the process.
+     */
+    public synchronized void flush() {
+        if (mapped != null) {
+            mapped.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            flush();
+            channel.close();
+        }
+    }
+
+    private void recover() {
+        for (int offset = 0; offset < table.capacity(); offset += recordLength) {
+            if (table.get(offset + STATE_OFFSET) == LIVE) {
+                int keyCount = table.get(offset + KEY_COUNT_OFFSET);
+                if (keyCount < 1 || keyCount > maxKeys || table.getInt(offset + CHECKSUM_OFFSET) != checksum(offset)) {
+                    table.put(offset + STATE_OFFSET, REMOVED);
+                } else {
+                    size++;
+                }
+            }
+        }
+    }
+
+    private int find(byte[] xid) throws SphinxException {
+        checkXid(xid);
+
+        int index = index(xid);
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            int offset = index * recordLength;
+            byte state = table.get(offset + STATE_OFFSET);
+            if (state == EMPTY) {
+                return -1;
+            }
+            if (state == LIVE && matches(offset, xid)) {
+                return offset;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    private boolean matches(int offset, byte[] xid) {
+        for (int i = 0; i < keyLength; i++) {
+            if (table.get(offset + XID_OFFSET + i) != xid[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int checksum(int offset) {
+        crc.reset();
+        crc.update(table.get(offset + KEY_COUNT_OFFSET));
+        checksumView.limit(offset + recordLength).position(offset + EXPIRY_OFFSET);
+        crc.update(checksumView);
+        return (int) crc.getValue();
+    }
+
+    private int index(byte[] xid) {
+        long hash = ByteBuffer.wrap(xid).getLong(0);
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void checkXid(byte[] xid) throws SphinxException {
+        if (xid.length != keyLength) {
+            throw new SphinxException("Length of xid (" + xid.length + ") did not match the key length (" + keyLength + ")");
+        }
+    }
+
+    private static int recordLength(int keyLength, int maxKeys) {
+        if (keyLength < Long.BYTES) {
+            throw new IllegalArgumentException("Key length (" + keyLength + ") must be at least " + Long.BYTES + " bytes");
+        }
+        if (maxKeys < 2 || maxKeys > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Maximum number of hops (" + (maxKeys - 1) + ") must be between 1 and " + (Byte.MAX_VALUE - 1));
+        }
+        int length = XID_OFFSET + keyLength * (maxKeys + 1);
+        return (length + Long.BYTES - 1) & -Long.BYTES;
+    }
+
+    private static int slots(int capacity, int recordLength) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity (" + capacity + ") must be positive");
+        }
+        // Twice the capacity keeps probe sequences short
+        long slots = Long.highestOneBit(capacity * 2L - 1) << 1;
+        if (slots * recordLength > Integer.MAX_VALUE - FILE_HEADER_LENGTH) {
+            throw new IllegalArgumentException("SURB key store of capacity " + capacity + " does not fit in a single mapping");
+        }
+        return (int) slots;
+    }
+}
@@ -0,0 +1,215 @@
+import com.robertsoultanaev.javasphinx.SphinxClient;
+import com.robertsoultanaev.javasphinx.SphinxException;
+import com.robertsoultanaev.javasphinx.SphinxNode;
+import com.robertsoultanaev.javasphinx.SphinxParams;
+import com.robertsoultanaev.javasphinx.codec.BinaryPacketCodec;
+import com.robertsoultanaev.javasphinx.codec.PacketFormat;
+import com.robertsoultanaev.javasphinx.crypto.ECCGroup;
+import com.robertsoultanaev.javasphinx.packet.ProcessedFrame;
+import com.robertsoultanaev.javasphinx.packet.ProcessedPacket;
+import com.robertsoultanaev.javasphinx.packet.RoutingFlag;
+import com.robertsoultanaev.javasphinx.packet.SphinxPacket;
+import com.robertsoultanaev.javasphinx.packet.header.PacketContent;
+import com.robertsoultanaev.javasphinx.pki.PkiEntry;
+import com.robertsoultanaev.javasphinx.pki.PkiGenerator;
+import com.robertsoultanaev.javasphinx.routing.RandomRoutingStrategy;
+import org.bouncycastle.math.ec.ECPoint;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class BinaryPacketCodecTest {
+
+    private SphinxParams params;
+    private SphinxClient client;
+    private PkiEntry[] keyPairs;
+    private PacketContent packetContent;
+
+    @Before
+    public void setUp() throws SphinxException {
+        params = new SphinxParams(16, 1024, 192, new ECCGroup(), PacketFormat.BINARY);
+        client = new SphinxClient(params, new RandomRoutingStrategy());
+
+        PkiGenerator generator = new PkiGenerator(params);
+        keyPairs = new PkiEntry[]{generator.generateKeyPair(), generator.generateKeyPair(), generator.generateKeyPair()};
+        byte[][] nodelist = new byte[keyPairs.length][];
+        ECPoint[] keys = new ECPoint[keyPairs.length];
+        for (int i = 0; i < keyPairs.length; i++) {
+            nodelist[i] = client.encodeNode(i, 0);
+            keys[i] = keyPairs[i].pub();
+        }
+
+        packetContent = client.createForwardMessage(nodelist, keys, "bob".getBytes(), "this is a test".getBytes());
+    }
+
+    @Test
+    public void layout() throws SphinxException {
+        BinaryPacketCodec codec = (BinaryPacketCodec) params.packetCodec();
+        ByteBuffer encoded = ByteBuffer.wrap(client.encodePacket(client.createPacket(packetContent)));
+
+        assertEquals(params.packedPacketLength(), encoded.capacity());
+        assertEquals(BinaryPacketCodec.PREFIX_LENGTH + 29 + 160 + 16 + 1024, encoded.capacity());
+        assertEquals(BinaryPacketCodec.MAGIC, encoded.getInt(0));
+        assertEquals(BinaryPacketCodec.VERSION, encoded.get(4));
+        assertEquals(ECCGroup.DEFAULT_CURVE_NID, encoded.getShort(6));
+        assertEquals(192, encoded.getInt(8));
+        assertEquals(1024, encoded.getInt(12));
+
+        byte[] alpha = params.getGroup().encodePoint(packetContent.header().alpha());
+        assertArrayEquals(alpha, Arrays.copyOfRange(encoded.array(), codec.alphaOffset(), codec.betaOffset()));
+        assertArrayEquals(packetContent.header().beta(), Arrays.copyOfRange(encoded.array(), codec.betaOffset(), codec.gammaOffset()));
+        assertArrayEquals(packetContent.header().gamma(), Arrays.copyOfRange(encoded.array(), codec.gammaOffset(), codec.deltaOffset()));
+        assertArrayEquals(packetContent.delta(), Arrays.copyOfRange(encoded.array(), codec.deltaOffset(), encoded.capacity()));
+    }
+
+    @Test
+    public void encodeAndDecode() throws SphinxException {
+        SphinxPacket sphinxPacket = client.createPacket(packetContent);
+        SphinxPacket decoded = client.decodePacket(client.encodePacket(sphinxPacket));
+
+        assertEquals(sphinxPacket.groupId(), decoded.groupId());
+        assertEquals(sphinxPacket.headerLength(), decoded.headerLength());
+        assertEquals(sphinxPacket.bodyLength(), decoded.bodyLength());
+        assertEquals(packetContent.header().alpha().normalize(), decoded.packetContent().header().alpha());
+        assertArrayEquals(packetContent.header().beta(), decoded.packetContent().header().beta());
+        assertArrayEquals(packetContent.header().gamma(), decoded.packetContent().header().gamma());
+        assertArrayEquals(packetContent.delta(), decoded.packetContent().delta());
+    }
+
+    @Test
+    public void epochHint() throws SphinxException {
+        PacketContent hinted = new PacketContent(packetContent.header().withEpochHint(0xab), packetContent.delta());
+        byte[] encoded = client.encodePacket(client.createPacket(hinted));
+
+        assertEquals((byte) 0xab, encoded[16]);
+        assertEquals(0xab, client.decodePacket(encoded).packetContent().header().epochHint());
+        assertEquals(0, client.decodePacket(client.encodePacket(client.createPacket(packetContent))).packetContent().header().epochHint());
+    }
+
+    @Test(expected = SphinxException.class)
+    public void msgpackRejectsEpochHint() throws SphinxException {
+        SphinxParams msgpackParams = new SphinxParams();
+        SphinxClient msgpackClient = new SphinxClient(msgpackParams, new RandomRoutingStrategy());
+        PacketContent hinted = new PacketContent(packetContent.header().withEpochHint(1), packetContent.delta());
+        msgpackClient.encodePacket(msgpackClient.createPacket(hinted));
+    }
+
+    @Test(expected = SphinxException.class)
+    public void decodeBadMagic() throws SphinxException {
+        byte[] encoded = client.encodePacket(client.createPacket(packetContent));
+        encoded[0] ^= 1;
+        client.decodePacket(encoded);
+    }
+
+    @Test(expected = SphinxException.class)
+    public void decodeBadVersion() throws SphinxException {
+        byte[] encoded = client.encodePacket(client.createPacket(packetContent));
+        encoded[4] = BinaryPacketCodec.VERSION + 1;
+        client.decodePacket(encoded);
+    }
+
+    @Test
+    public void decodeNonZeroReserved() throws SphinxException {
+        byte[] encoded = client.encodePacket(client.createPacket(packetContent));
+        for (int i = 17; i < BinaryPacketCodec.PREFIX_LENGTH; i++) {
+            byte[] modified = encoded.clone();
+            modified[i] = 1;
+            try {
+                client.decodePacket(modified);
+                fail("Packet with a non-zero reserved byte at " + i + " was decoded");
+            } catch (SphinxException expected) {
+                // Reserved for later versions
+            }
+        }
+    }
+
+    @Test(expected = SphinxException.class)
+    public void decodeTruncated() throws SphinxException {
+        byte[] encoded = client.encodePacket(client.createPacket(packetContent));
+        client.decodePacket(Arrays.copyOf(encoded, encoded.length - 1));
+    }
+
+    @Test(expected = SphinxException.class)
+    public void decodeGroupMismatch() throws SphinxException {
+        byte[] encoded = client.encodePacket(client.createPacket(packetContent));
+        SphinxParams otherParams = new SphinxParams(16, 1024, 192, ECCGroup.x25519(), PacketFormat.BINARY);
+        new SphinxClient(otherParams, new RandomRoutingStrategy()).decodePacket(encoded);
+    }
+
+    @Test
+    public void msgpackRejectsUnexpectedStructure() throws SphinxException {
+        SphinxParams msgpackParams = new SphinxParams();
+        SphinxClient msgpackClient = new SphinxClient(msgpackParams, new RandomRoutingStrategy());
+        ECPoint key = msgpackParams.derivePublicKey(msgpackParams.generatePrivateKey());
+        PacketContent content = msgpackClient.createForwardMessage(new byte[][]{msgpackClient.encodeNode(0, 0)}, new ECPoint[]{key}, "bob".getBytes(), "test".getBytes());
+        byte[] encoded = msgpackClient.encodePacket(msgpackClient.createPacket(content));
+        msgpackClient.decodePacket(encoded);
+
+        // Outer array, the array of header and payload, the header array and the ext length of alpha
+        int headerArray = indexOf(encoded, (byte) 0x93);
+        int[] offsets = {0, headerArray - 1, headerArray, headerArray + 2};
+        for (int offset : offsets) {
+            byte[] modified = encoded.clone();
+            modified[offset]++;
+            try {
+                msgpackClient.decodePacket(modified);
+                fail("Packet with a modified structure byte at " + offset + " was decoded");
+            } catch (SphinxException expected) {
+                // Structure no longer matches the format
+            }
+        }
+    }
+
+    private static int indexOf(byte[] data, byte value) {
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void msgpackPackedPacketLength() throws SphinxException {
+        SphinxParams msgpackParams = new SphinxParams(16, 1024, 192, ECCGroup.x25519());
+        SphinxClient msgpackClient = new SphinxClient(msgpackParams, new RandomRoutingStrategy());
+        ECPoint key = msgpackParams.derivePublicKey(msgpackParams.generatePrivateKey());
+        PacketContent content = msgpackClient.createForwardMessage(new byte[][]{msgpackClient.encodeNode(0, 0)}, new ECPoint[]{key}, "bob".getBytes(), "test".getBytes());
+
+        byte[] packed = msgpackClient.packMessage(msgpackClient.createPacket(content));
+        assertEquals(packed.length, msgpackParams.packedPacketLength());
+        assertEquals(1254, new SphinxParams().packedPacketLength());
+    }
+
+    @Test
+    public void processBufferMatchesSphinxProcess() throws Exception {
+        ByteBuffer in = ByteBuffer.allocateDirect(params.packedPacketLength());
+        in.put(client.encodePacket(client.createPacket(packetContent))).flip();
+        int hop = 0;
+
+        while (true) {
+            final var node = new SphinxNode(params, new RandomRoutingStrategy(), keyPairs[hop].priv());
+            ProcessedPacket expected = node.sphinxProcess(packetContent);
+            byte[] expectedEncoded = client.encodePacket(node.repack(expected));
+
+            ByteBuffer out = ByteBuffer.allocateDirect(params.packedPacketLength());
+            ProcessedFrame frame = node.process(in, out);
+            out.flip();
+
+            assertEquals(0, in.remaining());
+            assertEquals(ByteBuffer.wrap(expectedEncoded), out);
+            assertArrayEquals(expected.routing(), frame.routing());
+
+            if (frame.routingFlag() == RoutingFlag.DESTINATION) {
+                break;
+            }
+            hop = frame.relayInfo().nextNodeId();
+            packetContent = expected.packetContent();
+            in = out;
+        }
+    }
+}
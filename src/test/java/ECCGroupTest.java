@@ -1,16 +1,22 @@
 import com.robertsoultanaev.javasphinx.SerializationUtils;
 import com.robertsoultanaev.javasphinx.crypto.ECCGroup;
+import com.robertsoultanaev.javasphinx.crypto.SecureRandoms;
 import org.bouncycastle.math.ec.ECPoint;
 import org.bouncycastle.util.encoders.Hex;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.math.BigInteger;
+import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class ECCGroupTest {
 
@@ -33,6 +39,55 @@ public class ECCGroupTest {
         assertArrayEquals(expectedOutput, output);
     }
 
+    @Test
+    public void exponGenerator() {
+        BigInteger secret = new BigInteger("10242318609670578569309311701916918226942711495988531232197429015905");
+
+        byte[] expectedOutput = Hex.decode("02a66335a59f1277c193315eb2db69808e6eaf15c944286765c0adcae2");
+        byte[] output = SerializationUtils.encodeECPoint(eccGroup.exponGenerator(secret));
+
+        assertArrayEquals(expectedOutput, output);
+    }
+
+    @Test
+    public void exponGeneratorMatchesExpon() {
+        for (int i = 0; i < 20; i++) {
+            BigInteger secret = eccGroup.genSecret();
+            assertEquals(eccGroup.expon(eccGroup.getGenerator(), secret), eccGroup.exponGenerator(secret));
+        }
+
+        BigInteger beyondOrder = eccGroup.getOrder().shiftLeft(3).add(BigInteger.TEN);
+        assertEquals(eccGroup.expon(eccGroup.getGenerator(), beyondOrder), eccGroup.exponGenerator(beyondOrder));
+    }
+
+    @Test
+    public void exponAllMatchesExpon() {
+        ECPoint[] bases = new ECPoint[10];
+        BigInteger[] exps = new BigInteger[bases.length];
+        for (int i = 0; i < bases.length; i++) {
+            bases[i] = eccGroup.exponGenerator(eccGroup.genSecret());
+            exps[i] = eccGroup.genSecret();
+        }
+
+        ECPoint[] results = eccGroup.exponAll(bases, exps);
+        ECPoint[] generated = eccGroup.exponGeneratorAll(exps);
+        byte[][] encoded = eccGroup.encodePoints(bases);
+        for (int i = 0; i < bases.length; i++) {
+            assertTrue(results[i].isNormalized());
+            assertEquals(eccGroup.expon(bases[i], exps[i]), results[i]);
+            assertEquals(eccGroup.exponGenerator(exps[i]), generated[i]);
+            assertArrayEquals(eccGroup.encodePoint(bases[i]), encoded[i]);
+        }
+        assertEquals(0, eccGroup.exponAll(new ECPoint[0], new BigInteger[0]).length);
+
+        try {
+            eccGroup.exponAll(bases, Arrays.copyOf(exps, 3));
+            fail("Batch with fewer exponents than bases was accepted");
+        } catch (IllegalArgumentException expected) {
+            // One exponent per base
+        }
+    }
+
     @Test
     public void multiexpon() {
         BigInteger secret1 = new BigInteger("10242318609670578569309311701916918226942711495988531232197429015905");
@@ -72,4 +127,23 @@ public class ECCGroupTest {
 
         assertArrayEquals(expectedOutput, output);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void genSecretUsesGivenRandomSource() throws Exception {
+        SecureRandom first = SecureRandom.getInstance("SHA1PRNG");
+        first.setSeed(42);
+        SecureRandom second = SecureRandom.getInstance("SHA1PRNG");
+        second.setSeed(42);
+        BigInteger secret = eccGroup.genSecret(first);
+        assertEquals(secret, eccGroup.genSecret(second));
+        assertTrue(secret.signum() >= 0 && secret.compareTo(eccGroup.getOrder()) < 0);
+
+        // Every thread keeps its own source
+        SecureRandom[] other = new SecureRandom[1];
+        Thread thread = new Thread(() -> other[0] = SecureRandoms.current());
+        thread.start();
+        thread.join();
+        assertSame(SecureRandoms.current(), SecureRandoms.current());
+        assertNotSame(SecureRandoms.current(), other[0]);
+    }
+}
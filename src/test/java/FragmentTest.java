@@ -0,0 +1,234 @@
+import com.robertsoultanaev.javasphinx.SphinxClient;
+import com.robertsoultanaev.javasphinx.SphinxException;
+import com.robertsoultanaev.javasphinx.SphinxNode;
+import com.robertsoultanaev.javasphinx.SphinxParams;
+import com.robertsoultanaev.javasphinx.fragment.Fragmenter;
+import com.robertsoultanaev.javasphinx.fragment.Reassembler;
+import com.robertsoultanaev.javasphinx.packet.ProcessedPacket;
+import com.robertsoultanaev.javasphinx.packet.RoutingFlag;
+import com.robertsoultanaev.javasphinx.packet.header.PacketContent;
+import com.robertsoultanaev.javasphinx.packet.message.DestinationAndMessage;
+import com.robertsoultanaev.javasphinx.pki.PkiEntry;
+import com.robertsoultanaev.javasphinx.pki.PkiGenerator;
+import com.robertsoultanaev.javasphinx.routing.RandomRoutingStrategy;
+import org.bouncycastle.math.ec.ECPoint;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FragmentTest {
+
+    private final List<byte[]> delivered = new ArrayList<>();
+
+    private static byte[] randomMessage(int length) {
+        byte[] message = new byte[length];
+        new SecureRandom().nextBytes(message);
+        return message;
+    }
+
+    @Test
+    public void routeLargeMessage() throws Exception {
+        SphinxParams params = new SphinxParams();
+        SphinxClient client = new SphinxClient(params, new RandomRoutingStrategy());
+        PkiGenerator generator = new PkiGenerator(params);
+        PkiEntry[] keyPairs = {generator.generateKeyPair(), generator.generateKeyPair(), generator.generateKeyPair()};
+        byte[][] nodelist = new byte[keyPairs.length][];
+        ECPoint[] keys = new ECPoint[keyPairs.length];
+        for (int i = 0; i < keyPairs.length; i++) {
+            nodelist[i] = client.encodeNode(i, 0);
+            keys[i] = keyPairs[i].pub();
+        }
+
+        byte[] dest = "bob".getBytes();
+        byte[] message = randomMessage(40_000);
+        Fragmenter fragmenter = new Fragmenter(client, dest);
+        List<byte[]> fragments = fragmenter.fragment(message);
+        assertEquals(fragmenter.fragmentCount(message.length), fragments.size());
+        assertTrue(fragments.size() > 40);
+
+        Reassembler reassembler = new Reassembler(16, 1 << 20, Duration.ofMinutes(1), delivered::add);
+        for (byte[] fragment : fragments) {
+            PacketContent packetContent = client.createForwardMessage(nodelist, keys, dest, fragment);
+            int hop = 0;
+            while (true) {
+                ProcessedPacket ret = new SphinxNode(params, new RandomRoutingStrategy(), keyPairs[hop].priv()).sphinxProcess(packetContent);
+                packetContent = ret.packetContent();
+                if (ret.routingFlag() == RoutingFlag.DESTINATION) {
+                    DestinationAndMessage destAndMsg = client.receiveForward(ret.macKey(), packetContent.delta());
+                    reassembler.accept(destAndMsg.message());
+                    break;
+                }
+                hop = ret.relayInfo().nextNodeId();
+            }
+        }
+
+        assertEquals(1, delivered.size());
+        assertArrayEquals(message, delivered.get(0));
+        assertEquals(0, reassembler.pendingMessages());
+        assertEquals(0, reassembler.bufferedBytes());
+    }
+
+    @Test(expected = SphinxException.class)
+    public void fragmentDoesNotFitWithoutHeaderSpace() throws SphinxException {
+        SphinxClient client = new SphinxClient(new SphinxParams(), new RandomRoutingStrategy());
+        byte[] dest = "bob".getBytes();
+        byte[] fragment = new byte[client.getMaxPayloadSize() - dest.length + 1];
+
+        client.createForwardMessage(new byte[][]{client.encodeNode(0, 0)}, new ECPoint[]{new SphinxParams().derivePublicKey(java.math.BigInteger.TWO)}, dest, fragment);
+    }
+
+    @Test
+    public void reassembleOutOfOrderWithDuplicates() throws SphinxException {
+        Fragmenter fragmenter = new Fragmenter(100);
+        byte[] first = randomMessage(1000);
+        byte[] second = randomMessage(450);
+
+        List<byte[]> fragments = new ArrayList<>(fragmenter.fragment(1, first));
+        fragments.addAll(fragmenter.fragment(2, second));
+        fragments.add(fragments.get(3));
+        Collections.shuffle(fragments, new Random(7));
+
+        Reassembler reassembler = new Reassembler(16, 1 << 20, Duration.ofMinutes(1), delivered::add);
+        for (byte[] fragment : fragments) {
+            reassembler.accept(fragment);
+        }
+
+        assertEquals(2, delivered.size());
+        byte[] a = delivered.get(0).length == first.length ? delivered.get(0) : delivered.get(1);
+        byte[] b = a == delivered.get(0) ? delivered.get(1) : delivered.get(0);
+        assertArrayEquals(first, a);
+        assertArrayEquals(second, b);
+        assertEquals(0, reassembler.pendingMessages());
+    }
+
+    @Test
+    public void emptyAndSingleFragmentMessages() throws SphinxException {
+        Fragmenter fragmenter = new Fragmenter(100);
+        Reassembler reassembler = new Reassembler(16, 1 << 20, Duration.ofMinutes(1), delivered::add);
+
+        List<byte[]> empty = fragmenter.fragment(new byte[0]);
+        assertEquals(1, empty.size());
+        assertEquals(Fragmenter.HEADER_LENGTH, empty.get(0).length);
+        reassembler.accept(empty.get(0));
+
+        byte[] exact = randomMessage(fragmenter.payloadLength());
+        List<byte[]> single = fragmenter.fragment(exact);
+        assertEquals(1, single.size());
+        reassembler.accept(single.get(0));
+
+        assertEquals(2, delivered.size());
+        assertArrayEquals(new byte[0], delivered.get(0));
+        assertArrayEquals(exact, delivered.get(1));
+    }
+
+    @Test
+    public void evictLeastRecentlyExtendedOverByteLimit() throws SphinxException {
+        Fragmenter fragmenter = new Fragmenter(Fragmenter.HEADER_LENGTH + 100);
+        // Room for the slots and two payloads of each of two messages, but not for a third message
+        Reassembler reassembler = new Reassembler(16, 2 * (3 * 8 + 200) + 50, Duration.ofMinutes(1), delivered::add);
+        List<byte[]> a = fragmenter.fragment(1, randomMessage(300));
+        List<byte[]> b = fragmenter.fragment(2, randomMessage(300));
+        List<byte[]> c = fragmenter.fragment(3, randomMessage(300));
+
+        reassembler.accept(a.get(0), 0);
+        reassembler.accept(b.get(0), 1);
+        reassembler.accept(a.get(1), 2);
+        reassembler.accept(b.get(1), 3);
+        assertEquals(0, reassembler.evictedMessages());
+
+        // a was extended before b, so it goes first
+        reassembler.accept(c.get(0), 4);
+        assertEquals(1, reassembler.evictedMessages());
+        assertEquals(2, reassembler.pendingMessages());
+
+        reassembler.accept(b.get(2), 5);
+        reassembler.accept(a.get(2), 6);
+        assertEquals(1, delivered.size());
+        assertEquals(2, reassembler.pendingMessages());
+    }
+
+    @Test
+    public void evictOverMessageLimit() throws SphinxException {
+        Fragmenter fragmenter = new Fragmenter(50);
+        Reassembler reassembler = new Reassembler(2, 1 << 20, Duration.ofMinutes(1), delivered::add);
+
+        for (long id = 0; id < 5; id++) {
+            reassembler.accept(fragmenter.fragment(id, randomMessage(100)).get(0), id);
+        }
+
+        assertEquals(2, reassembler.pendingMessages());
+        assertEquals(3, reassembler.evictedMessages());
+    }
+
+    @Test
+    public void evictByTimeout() throws SphinxException {
+        Fragmenter fragmenter = new Fragmenter(50);
+        long timeout = Duration.ofSeconds(10).toNanos();
+        Reassembler reassembler = new Reassembler(16, 1 << 20, Duration.ofNanos(timeout), delivered::add);
+        List<byte[]> stale = fragmenter.fragment(1, randomMessage(100));
+        List<byte[]> fresh = fragmenter.fragment(2, randomMessage(100));
+
+        reassembler.accept(stale.get(0), 0);
+        reassembler.accept(fresh.get(0), timeout / 2);
+        reassembler.evictExpired(timeout);
+        assertEquals(1, reassembler.pendingMessages());
+        assertEquals(1, reassembler.evictedMessages());
+
+        // The remaining fragments of the evicted message cannot complete it any more
+        for (int i = 1; i < stale.size(); i++) {
+            reassembler.accept(stale.get(i), timeout);
+        }
+        for (int i = 1; i < fresh.size(); i++) {
+            reassembler.accept(fresh.get(i), timeout);
+        }
+        assertEquals(1, delivered.size());
+    }
+
+    @Test
+    public void rejectedFragmentDoesNotExtendTimeout() throws SphinxException {
+        Fragmenter fragmenter = new Fragmenter(50);
+        long timeout = Duration.ofSeconds(10).toNanos();
+        Reassembler reassembler = new Reassembler(16, 1 << 20, Duration.ofNanos(timeout), delivered::add);
+        reassembler.accept(fragmenter.fragment(1, randomMessage(100)).get(0), 0);
+        reassembler.accept(fragmenter.fragment(2, randomMessage(100)).get(0), timeout / 2);
+        try {
+            reassembler.accept(fragmenter.fragment(1, randomMessage(200)).get(1), timeout / 2);
+            fail("Fragment with a different count was accepted");
+        } catch (SphinxException expected) {
+            // Count mismatch
+        }
+
+        reassembler.evictExpired(timeout);
+        assertEquals(1, reassembler.pendingMessages());
+        assertEquals(1, reassembler.evictedMessages());
+    }
+
+    @Test(expected = SphinxException.class)
+    public void rejectInvalidIndex() throws SphinxException {
+        byte[] fragment = new Fragmenter(50).fragment(randomMessage(10)).get(0);
+        ByteBuffer.wrap(fragment).putShort(8, (short) 1);
+
+        new Reassembler(16, 1 << 20, Duration.ofMinutes(1), delivered::add).accept(fragment);
+    }
+
+    @Test(expected = SphinxException.class)
+    public void rejectCountMismatch() throws SphinxException {
+        Fragmenter fragmenter = new Fragmenter(50);
+        Reassembler reassembler = new Reassembler(16, 1 << 20, Duration.ofMinutes(1), delivered::add);
+        reassembler.accept(fragmenter.fragment(1, randomMessage(100)).get(0));
+        reassembler.accept(fragmenter.fragment(1, randomMessage(200)).get(1));
+    }
+
+    @Test(expected = SphinxException.class)
+    public void rejectTooManyFragments() throws SphinxException {
+        new Fragmenter(Fragmenter.HEADER_LENGTH + 1).fragment(new byte[Fragmenter.MAX_FRAGMENTS + 1]);
+    }
+}
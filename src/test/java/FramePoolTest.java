@@ -0,0 +1,140 @@
+import com.robertsoultanaev.javasphinx.SphinxClient;
+import com.robertsoultanaev.javasphinx.SphinxException;
+import com.robertsoultanaev.javasphinx.SphinxParams;
+import com.robertsoultanaev.javasphinx.codec.FramePool;
+import com.robertsoultanaev.javasphinx.codec.PacketFormat;
+import com.robertsoultanaev.javasphinx.crypto.ECCGroup;
+import com.robertsoultanaev.javasphinx.metrics.Counter;
+import com.robertsoultanaev.javasphinx.metrics.Metrics;
+import com.robertsoultanaev.javasphinx.metrics.MetricsSnapshot;
+import com.robertsoultanaev.javasphinx.packet.SphinxPacket;
+import com.robertsoultanaev.javasphinx.packet.header.PacketContent;
+import com.robertsoultanaev.javasphinx.pki.PkiGenerator;
+import com.robertsoultanaev.javasphinx.routing.RandomRoutingStrategy;
+import org.bouncycastle.math.ec.ECPoint;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class FramePoolTest {
+
+    private SphinxParams params;
+
+    @Before
+    public void setUp() {
+        params = new SphinxParams(16, 1024, 192, new ECCGroup(), PacketFormat.BINARY);
+    }
+
+    @Test
+    public void framesAreReused() {
+        assertTrue(FramePool.LEAK_DETECTION);
+        FramePool pool = new FramePool(params, true);
+
+        MetricsSnapshot before = Metrics.snapshot();
+        ByteBuffer frame = pool.acquire();
+        assertTrue(frame.isDirect());
+        assertEquals(params.packedPacketLength(), frame.remaining());
+        frame.order(ByteOrder.LITTLE_ENDIAN).putInt(7).flip();
+        pool.release(frame);
+
+        ByteBuffer again = pool.acquire();
+        assertSame(frame, again);
+        assertEquals(0, again.position());
+        assertEquals(params.packedPacketLength(), again.limit());
+        assertEquals(ByteOrder.BIG_ENDIAN, again.order());
+        pool.release(again);
+        MetricsSnapshot after = Metrics.snapshot();
+
+        assertEquals(1, after.counter(Counter.POOL_MISSES) - before.counter(Counter.POOL_MISSES));
+        assertEquals(1, after.counter(Counter.POOL_HITS) - before.counter(Counter.POOL_HITS));
+        pool.checkLeaks();
+    }
+
+    @Test
+    public void framesMoveBetweenThreads() throws Exception {
+        FramePool pool = new FramePool(params, false, 2, 8, true);
+        ByteBuffer[] frames = new ByteBuffer[6];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = pool.acquire();
+        }
+
+        // Two frames stay in the cache of the releasing thread, the others go to the shared stack
+        Thread releaser = new Thread(() -> {
+            for (ByteBuffer frame : frames) {
+                pool.release(frame);
+            }
+        });
+        releaser.start();
+        releaser.join();
+
+        for (int i = 0; i < frames.length - 2; i++) {
+            ByteBuffer frame = pool.acquire();
+            assertTrue(indexOf(frames, frame) >= 2);
+            pool.release(frame);
+        }
+        pool.checkLeaks();
+    }
+
+    @Test
+    public void leaksAndDoubleReleasesAreDetected() {
+        FramePool pool = new FramePool(params, false, 4, 4, true);
+        ByteBuffer frame = pool.acquire();
+        try {
+            pool.checkLeaks();
+            fail("Frame that is still out was not reported");
+        } catch (IllegalStateException expected) {
+            assertEquals("Frame acquired here", expected.getCause().getMessage());
+        }
+
+        pool.release(frame);
+        pool.checkLeaks();
+        try {
+            pool.release(frame);
+            fail("Frame was released twice");
+        } catch (IllegalArgumentException expected) {
+            // Already back in the pool
+        }
+        try {
+            pool.release(ByteBuffer.allocate(params.packedPacketLength() + 1));
+            fail("Foreign buffer was released");
+        } catch (IllegalArgumentException expected) {
+            // Wrong length
+        }
+    }
+
+    @Test
+    public void encodeIntoPooledFrame() throws SphinxException {
+        FramePool pool = new FramePool(params, true);
+        SphinxClient client = new SphinxClient(params, new RandomRoutingStrategy());
+        ECPoint key = new PkiGenerator(params).generateKeyPair().pub();
+        byte[][] nodelist = {client.encodeNode(0, 0)};
+        PacketContent content = client.createForwardMessage(nodelist, new ECPoint[]{key}, "bob".getBytes(), "test".getBytes());
+        SphinxPacket packet = client.createPacket(content);
+
+        ByteBuffer frame = client.encodePacket(packet, pool);
+        assertEquals(params.packedPacketLength(), frame.remaining());
+        byte[] encoded = new byte[frame.remaining()];
+        frame.duplicate().get(encoded);
+        assertArrayEquals(client.encodePacket(packet), encoded);
+
+        SphinxPacket decoded = client.decodePacket(frame);
+        assertFalse(frame.hasRemaining());
+        pool.release(frame);
+        assertArrayEquals(content.delta(), decoded.packetContent().delta());
+        assertEquals(content.header().alpha(), decoded.packetContent().header().alpha());
+        pool.checkLeaks();
+    }
+
+    private static int indexOf(ByteBuffer[] frames, ByteBuffer frame) {
+        for (int i = 0; i < frames.length; i++) {
+            if (frames[i] == frame) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
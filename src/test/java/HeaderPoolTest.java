@@ -0,0 +1,145 @@
+import com.robertsoultanaev.javasphinx.SphinxClient;
+import com.robertsoultanaev.javasphinx.SphinxException;
+import com.robertsoultanaev.javasphinx.SphinxNode;
+import com.robertsoultanaev.javasphinx.SphinxParams;
+import com.robertsoultanaev.javasphinx.packet.ProcessedPacket;
+import com.robertsoultanaev.javasphinx.packet.RoutingFlag;
+import com.robertsoultanaev.javasphinx.packet.header.PacketContent;
+import com.robertsoultanaev.javasphinx.packet.message.DestinationAndMessage;
+import com.robertsoultanaev.javasphinx.pki.PkiEntry;
+import com.robertsoultanaev.javasphinx.pki.PkiGenerator;
+import com.robertsoultanaev.javasphinx.routing.RandomRoutingStrategy;
+import com.robertsoultanaev.javasphinx.runtime.HeaderPool;
+import com.robertsoultanaev.javasphinx.runtime.PreparedHeader;
+import com.robertsoultanaev.javasphinx.runtime.PreparedMessage;
+import org.bouncycastle.math.ec.ECPoint;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class HeaderPoolTest {
+
+    private static final int NODES = 5;
+    private static final int MIX_COUNT = 3;
+
+    private SphinxParams params;
+    private SphinxClient client;
+    private Map<Integer, PkiEntry> pki;
+
+    @Before
+    public void setUp() {
+        params = new SphinxParams();
+        client = new SphinxClient(params, new RandomRoutingStrategy());
+        pki = generatePki();
+    }
+
+    private Map<Integer, PkiEntry> generatePki() {
+        PkiGenerator generator = new PkiGenerator(params);
+        Map<Integer, PkiEntry> entries = new HashMap<>();
+        for (int i = 0; i < NODES; i++) {
+            entries.put(i, generator.generateKeyPair());
+        }
+        return entries;
+    }
+
+    private Map<Integer, ECPoint> publicKeys() {
+        Map<Integer, ECPoint> keys = new HashMap<>();
+        pki.forEach((id, entry) -> keys.put(id, entry.pub()));
+        return keys;
+    }
+
+    private static void awaitReady(HeaderPool pool, int headers) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (pool.readyHeaders() < headers && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(headers, pool.readyHeaders());
+    }
+
+    private DestinationAndMessage route(PreparedMessage prepared) throws Exception {
+        PacketContent packetContent = prepared.packetContent();
+        int hop = prepared.firstNode();
+        while (true) {
+            ProcessedPacket ret = new SphinxNode(params, new RandomRoutingStrategy(), pki.get(hop).priv()).sphinxProcess(packetContent);
+            packetContent = ret.packetContent();
+            if (ret.routingFlag() == RoutingFlag.DESTINATION) {
+                return client.receiveForward(ret.macKey(), packetContent.delta());
+            }
+            hop = ret.relayInfo().nextNodeId();
+        }
+    }
+
+    @Test
+    public void routeMessageWithPreparedHeader() throws Exception {
+        try (HeaderPool pool = new HeaderPool(client, publicKeys(), MIX_COUNT, 8, 2, 2)) {
+            awaitReady(pool, 8);
+
+            PreparedMessage prepared = pool.createForwardMessage("bob".getBytes(), "this is a test".getBytes());
+            assertEquals(MIX_COUNT, prepared.route().length);
+            DestinationAndMessage destAndMsg = route(prepared);
+            assertArrayEquals("bob".getBytes(), destAndMsg.destination());
+            assertArrayEquals("this is a test".getBytes(), destAndMsg.message());
+            assertEquals(1, pool.hits());
+            assertEquals(0, pool.misses());
+            assertEquals(0, pool.failedHeaders());
+        }
+    }
+
+    @Test
+    public void refillBelowLowWaterMark() throws Exception {
+        try (HeaderPool pool = new HeaderPool(client, publicKeys(), MIX_COUNT, 8, 4, 2)) {
+            awaitReady(pool, 8);
+
+            Set<ECPoint> alphas = new HashSet<>();
+            for (int i = 0; i < 6; i++) {
+                alphas.add(pool.take().headerAndSecrets().header().alpha());
+            }
+            // Headers are never handed out twice
+            assertEquals(6, alphas.size());
+            awaitReady(pool, 8);
+        }
+    }
+
+    @Test
+    public void buildOnCallerWhenEmpty() throws Exception {
+        HeaderPool pool = new HeaderPool(client, publicKeys(), MIX_COUNT, 2, 0, 1);
+        awaitReady(pool, 2);
+        pool.close();
+
+        for (int i = 0; i < 3; i++) {
+            PreparedHeader header = pool.take();
+            assertEquals(MIX_COUNT, header.route().length);
+        }
+        assertEquals(2, pool.hits());
+        assertEquals(1, pool.misses());
+    }
+
+    @Test
+    public void updateNodesDiscardsHeaders() throws Exception {
+        try (HeaderPool pool = new HeaderPool(client, publicKeys(), MIX_COUNT, 4, 1, 2)) {
+            awaitReady(pool, 4);
+
+            pki = generatePki();
+            pool.updateNodes(publicKeys());
+            awaitReady(pool, 4);
+
+            for (int i = 0; i < 4; i++) {
+                PreparedMessage prepared = pool.createForwardMessage("bob".getBytes(), ("message " + i).getBytes());
+                assertArrayEquals(("message " + i).getBytes(), route(prepared).message());
+            }
+        }
+    }
+
+    @Test(expected = SphinxException.class)
+    public void rejectEmptyDestination() throws SphinxException {
+        byte[][] nodelist = {client.encodeNode(0, 0)};
+        ECPoint[] keys = {pki.get(0).pub()};
+        client.createForwardMessage(client.createForwardHeader(nodelist, keys), new byte[0], "test".getBytes());
+    }
+}
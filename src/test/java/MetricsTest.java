@@ -0,0 +1,176 @@
+import com.robertsoultanaev.javasphinx.SphinxClient;
+import com.robertsoultanaev.javasphinx.SphinxException;
+import com.robertsoultanaev.javasphinx.SphinxNode;
+import com.robertsoultanaev.javasphinx.SphinxParams;
+import com.robertsoultanaev.javasphinx.metrics.Counter;
+import com.robertsoultanaev.javasphinx.metrics.LatencyHistogram;
+import com.robertsoultanaev.javasphinx.metrics.Metrics;
+import com.robertsoultanaev.javasphinx.metrics.MetricsSnapshot;
+import com.robertsoultanaev.javasphinx.metrics.Stage;
+import com.robertsoultanaev.javasphinx.packet.ProcessedPacket;
+import com.robertsoultanaev.javasphinx.packet.RoutingFlag;
+import com.robertsoultanaev.javasphinx.packet.header.Header;
+import com.robertsoultanaev.javasphinx.packet.header.PacketContent;
+import com.robertsoultanaev.javasphinx.pki.PkiEntry;
+import com.robertsoultanaev.javasphinx.pki.PkiGenerator;
+import com.robertsoultanaev.javasphinx.routing.RandomRoutingStrategy;
+import org.bouncycastle.math.ec.ECPoint;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+
+    private static final int NODES = 3;
+
+    private SphinxParams params;
+    private SphinxClient client;
+    private PkiEntry[] keyPairs;
+    private byte[][] nodelist;
+    private ECPoint[] keys;
+
+    @Before
+    public void setUp() throws SphinxException {
+        assertTrue(Metrics.ENABLED);
+
+        params = new SphinxParams();
+        client = new SphinxClient(params, new RandomRoutingStrategy());
+        PkiGenerator generator = new PkiGenerator(params);
+        keyPairs = new PkiEntry[NODES];
+        nodelist = new byte[NODES][];
+        keys = new ECPoint[NODES];
+        for (int i = 0; i < NODES; i++) {
+            keyPairs[i] = generator.generateKeyPair();
+            nodelist[i] = client.encodeNode(i, 0);
+            keys[i] = keyPairs[i].pub();
+        }
+    }
+
+    private static long counterDelta(MetricsSnapshot before, MetricsSnapshot after, Counter counter) {
+        return after.counter(counter) - before.counter(counter);
+    }
+
+    private static long stageDelta(MetricsSnapshot before, MetricsSnapshot after, Stage stage) {
+        return after.stage(stage).count() - before.stage(stage).count();
+    }
+
+    @Test
+    public void histogramQuantiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        histogram.record(-5);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1001, snapshot.count());
+        assertEquals(1_000_000, snapshot.max());
+        assertEquals(500_500_000L, snapshot.sum());
+        assertEquals(0, snapshot.quantile(0));
+        assertEquals(500_000, snapshot.quantile(0.5), 500_000 * 0.125);
+        assertEquals(990_000, snapshot.quantile(0.99), 990_000 * 0.125);
+        assertEquals(1_000_000, snapshot.quantile(1));
+        assertEquals(0, new LatencyHistogram().snapshot().quantile(0.5));
+
+        LatencyHistogram repeated = new LatencyHistogram();
+        repeated.record(2000, 5);
+        assertEquals(5, repeated.snapshot().count());
+        assertEquals(10_000, repeated.snapshot().sum());
+        assertEquals(2000, repeated.snapshot().max());
+    }
+
+    @Test
+    public void countNodeStagesAndRoutingFlags() throws Exception {
+        MetricsSnapshot before = Metrics.snapshot();
+
+        PacketContent packetContent = client.createForwardMessage(nodelist, keys, "bob".getBytes(), "test".getBytes());
+        int hop = 0;
+        while (true) {
+            ProcessedPacket ret = new SphinxNode(params, new RandomRoutingStrategy(), keyPairs[hop].priv()).sphinxProcess(packetContent);
+            packetContent = ret.packetContent();
+            if (ret.routingFlag() == RoutingFlag.DESTINATION) {
+                client.receiveForward(ret.macKey(), packetContent.delta());
+                break;
+            }
+            hop = ret.relayInfo().nextNodeId();
+        }
+
+        MetricsSnapshot after = Metrics.snapshot();
+        assertEquals(NODES, counterDelta(before, after, Counter.NODE_PACKETS));
+        assertEquals(NODES - 1, counterDelta(before, after, Counter.NODE_RELAY));
+        assertEquals(1, counterDelta(before, after, Counter.NODE_DESTINATION));
+        assertEquals(0, counterDelta(before, after, Counter.NODE_SURB));
+        for (Stage stage : Stage.values()) {
+            if (stage.name().startsWith("NODE_")) {
+                assertEquals(stage.name(), NODES, stageDelta(before, after, stage));
+            }
+        }
+        assertTrue(stageDelta(before, after, Stage.CLIENT_CREATE_HEADER) >= 1);
+        assertTrue(stageDelta(before, after, Stage.CLIENT_CREATE_FORWARD_MESSAGE) >= 1);
+        assertTrue(stageDelta(before, after, Stage.CLIENT_RECEIVE_FORWARD) >= 1);
+    }
+
+    @Test
+    public void countBatchStagesPerPacket() throws Exception {
+        SphinxNode node = new SphinxNode(params, new RandomRoutingStrategy(), keyPairs[0].priv());
+        List<PacketContent> batch = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            batch.add(client.createForwardMessage(new byte[][]{nodelist[0]}, new ECPoint[]{keys[0]}, "bob".getBytes(), "test".getBytes()));
+        }
+
+        MetricsSnapshot before = Metrics.snapshot();
+        node.processBatch(batch);
+        MetricsSnapshot after = Metrics.snapshot();
+
+        // Ranges processed together still record one sample per packet
+        for (Stage stage : Stage.values()) {
+            if (stage.name().startsWith("NODE_")) {
+                assertEquals(stage.name(), batch.size(), stageDelta(before, after, stage));
+            }
+        }
+    }
+
+    @Test
+    public void countMacFailures() throws SphinxException {
+        PacketContent packetContent = client.createForwardMessage(nodelist, keys, "bob".getBytes(), "test".getBytes());
+        Header header = packetContent.header();
+        byte[] gamma = header.gamma().clone();
+        gamma[0] ^= 1;
+        PacketContent tampered = new PacketContent(new Header(header.alpha(), header.beta(), gamma), packetContent.delta());
+
+        MetricsSnapshot before = Metrics.snapshot();
+        try {
+            new SphinxNode(params, new RandomRoutingStrategy(), keyPairs[0].priv()).sphinxProcess(tampered);
+            fail("Tampered packet was processed");
+        } catch (SphinxException expected) {
+            // MAC mismatch
+        }
+        MetricsSnapshot after = Metrics.snapshot();
+
+        assertEquals(1, counterDelta(before, after, Counter.NODE_MAC_FAILURES));
+        assertEquals(0, counterDelta(before, after, Counter.NODE_PACKETS));
+    }
+
+    @Test
+    public void exportText() throws SphinxException {
+        client.createForwardMessage(nodelist, keys, "bob".getBytes(), "test".getBytes());
+        String text = Metrics.snapshot().toText();
+
+        assertTrue(text.contains("# TYPE javasphinx_node_mac_failures_total counter\n"));
+        assertTrue(text.contains("javasphinx_client_create_header_nanos{quantile=\"0.99\"} "));
+        assertTrue(text.contains("javasphinx_client_create_header_nanos_count "));
+    }
+
+    @Test
+    public void peekRoutingFlag() throws Exception {
+        byte[] relay = client.encodeNode(7, 0);
+        assertEquals(RoutingFlag.of(relay), RoutingFlag.peek(relay));
+        assertEquals(RoutingFlag.RELAY, RoutingFlag.peek(relay));
+        assertNull(RoutingFlag.peek(new byte[]{(byte) 0x91, (byte) 0xa2, (byte) 0xc3, (byte) 0xb9}));
+        assertNull(RoutingFlag.peek(new byte[2]));
+    }
+}
@@ -0,0 +1,186 @@
+import com.robertsoultanaev.javasphinx.SphinxClient;
+import com.robertsoultanaev.javasphinx.SphinxException;
+import com.robertsoultanaev.javasphinx.SphinxNode;
+import com.robertsoultanaev.javasphinx.SphinxParams;
+import com.robertsoultanaev.javasphinx.codec.PacketFormat;
+import com.robertsoultanaev.javasphinx.crypto.ECCGroup;
+import com.robertsoultanaev.javasphinx.packet.RelayInfo;
+import com.robertsoultanaev.javasphinx.packet.header.PacketContent;
+import com.robertsoultanaev.javasphinx.packet.message.DestinationAndMessage;
+import com.robertsoultanaev.javasphinx.packet.reply.SingleUseReplyBlock;
+import com.robertsoultanaev.javasphinx.pki.PkiEntry;
+import com.robertsoultanaev.javasphinx.pki.PkiGenerator;
+import com.robertsoultanaev.javasphinx.routing.RandomRoutingStrategy;
+import com.robertsoultanaev.javasphinx.runtime.DelaySampler;
+import com.robertsoultanaev.javasphinx.runtime.ExponentialDelay;
+import com.robertsoultanaev.javasphinx.runtime.MixServer;
+import com.robertsoultanaev.javasphinx.runtime.PacketSender;
+import com.robertsoultanaev.javasphinx.runtime.StaticAddressBook;
+import org.bouncycastle.math.ec.ECPoint;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class MixServerTest {
+
+    private static final int NODES = 3;
+
+    private final List<MixServer> servers = new ArrayList<>();
+    private final StaticAddressBook addressBook = new StaticAddressBook();
+    private final BlockingQueue<byte[][]> delivered = new LinkedBlockingQueue<>();
+    private final BlockingQueue<byte[][]> replies = new LinkedBlockingQueue<>();
+    private PkiEntry[] keyPairs;
+
+    private SphinxClient startNodes(SphinxParams params) throws IOException {
+        return startNodes(params, null);
+    }
+
+    private SphinxClient startNodes(SphinxParams params, DelaySampler delay) throws IOException {
+        PkiGenerator generator = new PkiGenerator(params);
+        keyPairs = new PkiEntry[NODES];
+        for (int i = 0; i < NODES; i++) {
+            keyPairs[i] = generator.generateKeyPair();
+            SphinxNode node = new SphinxNode(params, new RandomRoutingStrategy(), keyPairs[i].priv());
+            MixServer server = new MixServer(node, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), addressBook,
+                    (frame, delta) -> delivered.add(new byte[][]{frame.macKey(), delta}),
+                    (frame, delta) -> replies.add(new byte[][]{frame.routing(), delta}),
+                    2, 64, delay);
+            server.start();
+            addressBook.put(i, server.localAddress());
+            servers.add(server);
+        }
+        return new SphinxClient(params, new RandomRoutingStrategy());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (MixServer server : servers) {
+            server.close();
+        }
+    }
+
+    private long processedPackets() {
+        long processed = 0;
+        for (MixServer server : servers) {
+            processed += server.processedPackets();
+        }
+        return processed;
+    }
+
+    private byte[][] nodelist(SphinxClient client) throws SphinxException {
+        byte[][] nodelist = new byte[NODES][];
+        for (int i = 0; i < NODES; i++) {
+            nodelist[i] = client.encodeNode(i, 0);
+        }
+        return nodelist;
+    }
+
+    private ECPoint[] keys() {
+        ECPoint[] keys = new ECPoint[NODES];
+        for (int i = 0; i < NODES; i++) {
+            keys[i] = keyPairs[i].pub();
+        }
+        return keys;
+    }
+
+    @Test
+    public void routeForwardMessages() throws Exception {
+        SphinxParams params = new SphinxParams(16, 1024, 192, new ECCGroup(), PacketFormat.BINARY);
+        SphinxClient client = startNodes(params);
+
+        int messages = 10;
+        try (PacketSender sender = new PacketSender(addressBook)) {
+            for (int i = 0; i < messages; i++) {
+                byte[] message = ("message " + i).getBytes();
+                PacketContent packetContent = client.createForwardMessage(nodelist(client), keys(), "bob".getBytes(), message);
+                sender.send(0, ByteBuffer.wrap(client.encodePacket(client.createPacket(packetContent))));
+            }
+
+            List<String> received = new ArrayList<>();
+            for (int i = 0; i < messages; i++) {
+                byte[][] delivery = delivered.poll(10, TimeUnit.SECONDS);
+                assertNotNull(delivery);
+                DestinationAndMessage destAndMsg = client.receiveForward(delivery[0], delivery[1]);
+                assertArrayEquals("bob".getBytes(), destAndMsg.destination());
+                received.add(new String(destAndMsg.message()));
+            }
+
+            for (int i = 0; i < messages; i++) {
+                assertTrue(received.contains("message " + i));
+            }
+        }
+
+        // Counters are bumped after the handler returns, so give the last hop a moment
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (processedPackets() < messages * NODES && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(messages * NODES, processedPackets());
+        for (MixServer server : servers) {
+            assertEquals(0, server.failedPackets());
+        }
+    }
+
+    @Test
+    public void routeSurb() throws Exception {
+        SphinxParams params = new SphinxParams();
+        SphinxClient client = startNodes(params);
+
+        SingleUseReplyBlock surb = client.createSurb(nodelist(client), keys(), "myself".getBytes());
+        PacketContent packetContent = client.packageSurb(surb.nymTuple(), "This is a reply".getBytes());
+
+        try (PacketSender sender = new PacketSender(addressBook)) {
+            int firstNode = RelayInfo.of(surb.nymTuple().node()).nextNodeId();
+            sender.send(firstNode, ByteBuffer.wrap(client.packMessage(client.createPacket(packetContent))));
+
+            byte[][] reply = replies.poll(10, TimeUnit.SECONDS);
+            assertNotNull(reply);
+            assertArrayEquals("This is a reply".getBytes(), client.receiveSurb(surb.keyTuple(), reply[1]));
+        }
+    }
+
+    @Test
+    public void routeWithDelay() throws Exception {
+        SphinxParams params = new SphinxParams();
+        SphinxClient client = startNodes(params, new ExponentialDelay(Duration.ofMillis(20)));
+
+        PacketContent packetContent = client.createForwardMessage(nodelist(client), keys(), "bob".getBytes(), "delayed".getBytes());
+        try (PacketSender sender = new PacketSender(addressBook)) {
+            sender.send(0, ByteBuffer.wrap(client.packMessage(client.createPacket(packetContent))));
+
+            byte[][] delivery = delivered.poll(10, TimeUnit.SECONDS);
+            assertNotNull(delivery);
+            assertArrayEquals("delayed".getBytes(), client.receiveForward(delivery[0], delivery[1]).message());
+        }
+    }
+
+    @Test
+    public void dropMalformedPacket() throws Exception {
+        SphinxParams params = new SphinxParams();
+        startNodes(params);
+
+        try (PacketSender sender = new PacketSender(addressBook)) {
+            sender.send(0, ByteBuffer.allocate(params.packedPacketLength()));
+        }
+
+        MixServer server = servers.get(0);
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (server.failedPackets() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, server.failedPackets());
+        assertEquals(0, server.processedPackets());
+    }
+}
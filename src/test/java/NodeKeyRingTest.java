@@ -0,0 +1,139 @@
+import com.robertsoultanaev.javasphinx.SphinxClient;
+import com.robertsoultanaev.javasphinx.SphinxException;
+import com.robertsoultanaev.javasphinx.SphinxNode;
+import com.robertsoultanaev.javasphinx.SphinxParams;
+import com.robertsoultanaev.javasphinx.codec.PacketFormat;
+import com.robertsoultanaev.javasphinx.crypto.ECCGroup;
+import com.robertsoultanaev.javasphinx.packet.ProcessedFrame;
+import com.robertsoultanaev.javasphinx.packet.ProcessedPacket;
+import com.robertsoultanaev.javasphinx.packet.RoutingFlag;
+import com.robertsoultanaev.javasphinx.packet.header.PacketContent;
+import com.robertsoultanaev.javasphinx.pki.NodeKeyRing;
+import com.robertsoultanaev.javasphinx.pki.PkiEntry;
+import com.robertsoultanaev.javasphinx.pki.PkiGenerator;
+import com.robertsoultanaev.javasphinx.pki.PkiSnapshot;
+import com.robertsoultanaev.javasphinx.replay.ReplayDetectedException;
+import com.robertsoultanaev.javasphinx.replay.ReplayFilter;
+import com.robertsoultanaev.javasphinx.routing.RandomRoutingStrategy;
+import org.bouncycastle.math.ec.ECPoint;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class NodeKeyRingTest {
+
+    private SphinxParams params;
+    private SphinxClient client;
+    private PkiGenerator generator;
+
+    @Before
+    public void setUp() {
+        params = new SphinxParams(16, 1024, 192, new ECCGroup(), PacketFormat.BINARY);
+        client = new SphinxClient(params, new RandomRoutingStrategy());
+        generator = new PkiGenerator(params);
+    }
+
+    private PacketContent singleHop(long epoch, ECPoint key) throws SphinxException {
+        PkiSnapshot snapshot = PkiSnapshot.of(params, epoch, Map.of(0, key), Map.of());
+        return client.createForwardMessage(snapshot, new int[]{0}, "bob".getBytes(), "test".getBytes());
+    }
+
+    @Test
+    public void processPacketsOfOverlappingEpochs() throws Exception {
+        PkiEntry first = generator.generateKeyPair();
+        PkiEntry second = generator.generateKeyPair();
+        NodeKeyRing keyRing = new NodeKeyRing(1, first.priv(), new ReplayFilter(1000, 2));
+        SphinxNode node = new SphinxNode(params, new RandomRoutingStrategy(), keyRing);
+
+        PacketContent old = singleHop(1, first.pub());
+        keyRing.addEpoch(2, second.priv());
+        PacketContent current = singleHop(2, second.pub());
+        assertArrayEquals(new long[]{1, 2}, keyRing.activeEpochs());
+
+        assertEquals(RoutingFlag.DESTINATION, node.sphinxProcess(old).routingFlag());
+        ProcessedPacket processed = node.sphinxProcess(current);
+        assertEquals(RoutingFlag.DESTINATION, processed.routingFlag());
+        assertEquals(2, processed.packetContent().header().epochHint());
+
+        keyRing.retireEpoch(1);
+        assertArrayEquals(new long[]{2}, keyRing.activeEpochs());
+        try {
+            node.sphinxProcess(singleHop(1, first.pub()));
+            fail("Packet of a retired epoch was processed");
+        } catch (SphinxException expected) {
+            // No key for the hint
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void keyRingRequiresEpochHints() {
+        SphinxParams msgpack = new SphinxParams();
+        new SphinxNode(msgpack, new RandomRoutingStrategy(), new NodeKeyRing(1, generator.generateKeyPair().priv()));
+    }
+
+    @Test
+    public void replaysAreDetectedPerEpoch() throws SphinxException {
+        PkiEntry first = generator.generateKeyPair();
+        ReplayFilter replayFilter = new ReplayFilter(1000, 2);
+        NodeKeyRing keyRing = new NodeKeyRing(5, first.priv(), replayFilter);
+        assertArrayEquals(new long[]{5}, replayFilter.openEpochs());
+        SphinxNode node = new SphinxNode(params, new RandomRoutingStrategy(), keyRing);
+
+        PacketContent packet = singleHop(5, first.pub());
+        node.sphinxProcess(packet);
+        try {
+            node.sphinxProcess(packet);
+            fail("Replayed packet was processed");
+        } catch (ReplayDetectedException expected) {
+            // Tag already seen in epoch 5
+        }
+
+        keyRing.rotate(6, generator.generateKeyPair().priv(), 1);
+        assertArrayEquals(new long[]{6}, keyRing.activeEpochs());
+        assertArrayEquals(new long[]{6}, replayFilter.openEpochs());
+    }
+
+    @Test
+    public void hintsMustNotCollide() {
+        NodeKeyRing keyRing = new NodeKeyRing(1, generator.generateKeyPair().priv());
+        try {
+            keyRing.addEpoch(257, generator.generateKeyPair().priv());
+            fail("Epoch sharing a hint with an active epoch was added");
+        } catch (IllegalArgumentException expected) {
+            // 257 and 1 share hint 1
+        }
+        try {
+            keyRing.addEpoch(1, generator.generateKeyPair().priv());
+            fail("Epoch that is not newer was added");
+        } catch (IllegalArgumentException expected) {
+            // Epochs only move forward
+        }
+
+        keyRing.rotate(257, generator.generateKeyPair().priv(), 1);
+        assertArrayEquals(new long[]{257}, keyRing.activeEpochs());
+        assertEquals(257, keyRing.select(1).epoch());
+        assertNull(keyRing.select(2));
+    }
+
+    @Test
+    public void processBufferWithEpochHint() throws Exception {
+        PkiEntry first = generator.generateKeyPair();
+        PkiEntry second = generator.generateKeyPair();
+        NodeKeyRing keyRing = new NodeKeyRing(3, first.priv());
+        keyRing.addEpoch(4, second.priv());
+        SphinxNode node = new SphinxNode(params, new RandomRoutingStrategy(), keyRing);
+
+        for (long epoch = 3; epoch <= 4; epoch++) {
+            ECPoint key = epoch == 3 ? first.pub() : second.pub();
+            ByteBuffer in = ByteBuffer.wrap(client.encodePacket(client.createPacket(singleHop(epoch, key))));
+            ByteBuffer out = ByteBuffer.allocate(params.packedPacketLength());
+            ProcessedFrame frame = node.process(in, out);
+            assertEquals(RoutingFlag.DESTINATION, frame.routingFlag());
+            assertEquals((byte) epoch, out.get(16));
+        }
+    }
+}
@@ -0,0 +1,164 @@
+import com.robertsoultanaev.javasphinx.SphinxClient;
+import com.robertsoultanaev.javasphinx.SphinxException;
+import com.robertsoultanaev.javasphinx.SphinxNode;
+import com.robertsoultanaev.javasphinx.SphinxParams;
+import com.robertsoultanaev.javasphinx.packet.ProcessedPacket;
+import com.robertsoultanaev.javasphinx.packet.RoutingFlag;
+import com.robertsoultanaev.javasphinx.packet.header.PacketContent;
+import com.robertsoultanaev.javasphinx.pki.MixDescriptor;
+import com.robertsoultanaev.javasphinx.pki.PkiDirectory;
+import com.robertsoultanaev.javasphinx.pki.PkiEntry;
+import com.robertsoultanaev.javasphinx.pki.PkiGenerator;
+import com.robertsoultanaev.javasphinx.pki.PkiSnapshot;
+import com.robertsoultanaev.javasphinx.routing.RandomRoutingStrategy;
+import org.bouncycastle.math.ec.ECPoint;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class PkiDirectoryTest {
+
+    private static final int NODES = 6;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SphinxParams params;
+    private SphinxClient client;
+    private Map<Integer, PkiEntry> keyPairs;
+    private Map<Integer, ECPoint> keys;
+    private Map<Integer, byte[]> metadata;
+
+    @Before
+    public void setUp() {
+        params = new SphinxParams();
+        client = new SphinxClient(params, new RandomRoutingStrategy());
+        PkiGenerator generator = new PkiGenerator(params);
+        keyPairs = new HashMap<>();
+        keys = new HashMap<>();
+        metadata = new HashMap<>();
+        for (int i = 0; i < NODES; i++) {
+            int id = 100 - 7 * i;
+            keyPairs.put(id, generator.generateKeyPair());
+            keys.put(id, keyPairs.get(id).pub());
+            if (i % 2 == 0) {
+                metadata.put(id, ("mix" + id + ".example.org:4000").getBytes());
+            }
+        }
+    }
+
+    @Test
+    public void lookUpNodes() throws SphinxException {
+        PkiSnapshot snapshot = PkiSnapshot.of(params, 3, keys, metadata);
+
+        assertEquals(3, snapshot.epoch());
+        assertEquals(NODES, snapshot.size());
+        assertEquals(NODES, snapshot.nodeIds().size());
+        assertEquals(65, snapshot.nodeIds().ascending(0));
+        for (int id : keys.keySet()) {
+            MixDescriptor descriptor = snapshot.get(id);
+            assertEquals(id, descriptor.id());
+            assertEquals(keys.get(id), descriptor.publicKey());
+            assertArrayEquals(client.encodeNode(id, 0), descriptor.encodedNode());
+            assertArrayEquals(metadata.getOrDefault(id, new byte[0]), descriptor.metadata());
+            assertSame(descriptor, snapshot.get(id));
+        }
+        assertNull(snapshot.get(1));
+        assertFalse(snapshot.contains(1));
+    }
+
+    @Test
+    public void loadFromFile() throws IOException, SphinxException {
+        Path file = folder.getRoot().toPath().resolve("directory");
+        PkiSnapshot.of(params, 9, keys, metadata).write(file);
+
+        PkiSnapshot loaded = PkiSnapshot.load(params, file);
+        assertEquals(9, loaded.epoch());
+        assertEquals(NODES, loaded.size());
+        for (int id : keys.keySet()) {
+            assertEquals(keys.get(id), loaded.get(id).publicKey());
+            assertArrayEquals(metadata.getOrDefault(id, new byte[0]), loaded.get(id).metadata());
+        }
+    }
+
+    @Test
+    public void rejectCorruptFiles() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("directory");
+        PkiSnapshot.of(params, 1, keys, metadata).write(file);
+        byte[] content = Files.readAllBytes(file);
+
+        Files.write(file, Arrays.copyOf(content, content.length - 1));
+        try {
+            PkiSnapshot.load(params, file);
+            fail("Truncated directory was loaded");
+        } catch (IOException expected) {
+            // Length does not match the header
+        }
+
+        content[0] ^= 1;
+        Files.write(file, content);
+        try {
+            PkiSnapshot.load(params, file);
+            fail("Directory with a bad magic was loaded");
+        } catch (IOException expected) {
+            // Not a directory
+        }
+    }
+
+    @Test
+    public void publishNewerEpochsOnly() throws IOException {
+        PkiDirectory directory = new PkiDirectory(PkiSnapshot.of(params, 5, keys, metadata));
+
+        assertFalse(directory.publish(PkiSnapshot.of(params, 5, Map.of(), Map.of())));
+        assertFalse(directory.publish(PkiSnapshot.of(params, 4, Map.of(), Map.of())));
+        assertEquals(NODES, directory.current().size());
+
+        Path file = folder.getRoot().toPath().resolve("directory");
+        PkiSnapshot.of(params, 6, Map.of(1, keys.get(100)), Map.of()).write(file);
+        assertTrue(directory.load(file));
+        assertEquals(6, directory.current().epoch());
+        assertEquals(1, directory.current().size());
+    }
+
+    @Test
+    public void routeThroughDirectory() throws Exception {
+        PkiSnapshot snapshot = PkiSnapshot.of(params, 1, keys, metadata);
+        int[] route = client.route(snapshot, 3);
+
+        PacketContent packetContent = client.createForwardMessage(snapshot, route, "bob".getBytes(), "test".getBytes());
+        // The msgpack format cannot carry the epoch hint, the packet still packs
+        assertEquals(0, packetContent.header().epochHint());
+        client.packMessage(client.createPacket(packetContent));
+        int hop = route[0];
+        int hops = 0;
+        while (true) {
+            SphinxNode node = new SphinxNode(params, new RandomRoutingStrategy(), keyPairs.get(hop).priv());
+            ProcessedPacket ret = node.sphinxProcess(packetContent);
+            packetContent = ret.packetContent();
+            hops++;
+            if (ret.routingFlag() == RoutingFlag.DESTINATION) {
+                break;
+            }
+            hop = ret.relayInfo().nextNodeId();
+            assertEquals(route[hops], hop);
+        }
+        assertEquals(3, hops);
+
+        try {
+            client.createForwardHeader(snapshot, new int[]{route[0], 1});
+            fail("Route through an unknown node was built");
+        } catch (SphinxException expected) {
+            // Node 1 is not listed
+        }
+    }
+}
@@ -0,0 +1,176 @@
+import com.robertsoultanaev.javasphinx.SphinxClient;
+import com.robertsoultanaev.javasphinx.SphinxException;
+import com.robertsoultanaev.javasphinx.SphinxNode;
+import com.robertsoultanaev.javasphinx.SphinxParams;
+import com.robertsoultanaev.javasphinx.codec.BinaryPacketCodec;
+import com.robertsoultanaev.javasphinx.codec.PacketFormat;
+import com.robertsoultanaev.javasphinx.crypto.ECCGroup;
+import com.robertsoultanaev.javasphinx.crypto.PrimitiveSuite;
+import com.robertsoultanaev.javasphinx.packet.ProcessedFrame;
+import com.robertsoultanaev.javasphinx.packet.ProcessedPacket;
+import com.robertsoultanaev.javasphinx.packet.RelayInfo;
+import com.robertsoultanaev.javasphinx.packet.RoutingFlag;
+import com.robertsoultanaev.javasphinx.packet.SphinxPacket;
+import com.robertsoultanaev.javasphinx.packet.header.PacketContent;
+import com.robertsoultanaev.javasphinx.packet.message.DestinationAndMessage;
+import com.robertsoultanaev.javasphinx.packet.reply.SingleUseReplyBlock;
+import com.robertsoultanaev.javasphinx.routing.RandomRoutingStrategy;
+import org.bouncycastle.math.ec.ECPoint;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class PrimitiveSuiteTest {
+
+    private static final int NODES = 4;
+
+    private SphinxParams params;
+    private SphinxClient client;
+    private BigInteger[] privateKeys;
+    private ECPoint[] nodeKeys;
+    private byte[][] nodelist;
+    private byte[] key;
+
+    @Before
+    public void setUp() throws SphinxException {
+        params = new SphinxParams(16, 1024, 192, new ECCGroup(), PacketFormat.BINARY, PrimitiveSuite.CHACHA20_BLAKE2);
+        client = new SphinxClient(params, new RandomRoutingStrategy());
+
+        privateKeys = new BigInteger[NODES];
+        nodeKeys = new ECPoint[NODES];
+        nodelist = new byte[NODES][];
+        for (int i = 0; i < NODES; i++) {
+            privateKeys[i] = params.generatePrivateKey();
+            nodeKeys[i] = params.derivePublicKey(privateKeys[i]);
+            nodelist[i] = client.encodeNode(i, 0);
+        }
+
+        key = new byte[params.keyLength()];
+        new SecureRandom().nextBytes(key);
+    }
+
+    @Test
+    public void routeForwardMessage() throws Exception {
+        byte[] message = "this is a test".getBytes();
+        PacketContent packetContent = client.createForwardMessage(nodelist, nodeKeys, "bob".getBytes(), message);
+
+        ByteBuffer in = ByteBuffer.wrap(client.encodePacket(client.createPacket(packetContent)));
+        int hop = 0;
+        while (true) {
+            SphinxNode node = new SphinxNode(params, new RandomRoutingStrategy(), privateKeys[hop]);
+            ByteBuffer out = ByteBuffer.allocate(params.packedPacketLength());
+            ProcessedFrame frame = node.process(in, out);
+            out.flip();
+
+            if (frame.routingFlag() == RoutingFlag.DESTINATION) {
+                SphinxPacket packet = client.decodePacket(out.array());
+                DestinationAndMessage destAndMsg = client.receiveForward(frame.macKey(), packet.packetContent().delta());
+                assertArrayEquals("bob".getBytes(), destAndMsg.destination());
+                assertArrayEquals(message, destAndMsg.message());
+                break;
+            }
+            assertEquals(RoutingFlag.RELAY, frame.routingFlag());
+            hop = frame.relayInfo().nextNodeId();
+            in = out;
+        }
+    }
+
+    @Test
+    public void routeSurb() throws Exception {
+        SphinxParams msgpackParams = new SphinxParams(16, 1024, 192, new ECCGroup(), PacketFormat.MSGPACK, PrimitiveSuite.CHACHA20_BLAKE2);
+        SphinxClient msgpackClient = new SphinxClient(msgpackParams, new RandomRoutingStrategy());
+        byte[] message = "This is a reply".getBytes();
+
+        SingleUseReplyBlock surb = msgpackClient.createSurb(nodelist, nodeKeys, "myself".getBytes());
+        PacketContent packetContent = msgpackClient.packageSurb(surb.nymTuple(), message);
+        int hop = RelayInfo.of(surb.nymTuple().node()).nextNodeId();
+
+        while (true) {
+            byte[] packed = msgpackClient.packMessage(msgpackClient.createPacket(packetContent));
+            assertEquals(msgpackParams.packedPacketLength(), packed.length);
+            packetContent = msgpackClient.unpackMessage(packed).packetContent();
+
+            SphinxNode node = new SphinxNode(msgpackParams, new RandomRoutingStrategy(), privateKeys[hop]);
+            ProcessedPacket ret = node.sphinxProcess(packetContent);
+            packetContent = ret.packetContent();
+            if (ret.routingFlag() == RoutingFlag.SURB) {
+                assertArrayEquals(message, msgpackClient.receiveSurb(surb.keyTuple(), packetContent.delta()));
+                break;
+            }
+            assertEquals(RoutingFlag.RELAY, ret.routingFlag());
+            hop = ret.relayInfo().nextNodeId();
+        }
+    }
+
+    @Test
+    public void suiteRecordedInBinaryPacket() throws SphinxException {
+        PacketContent packetContent = client.createForwardMessage(nodelist, nodeKeys, "bob".getBytes(), "test".getBytes());
+        byte[] encoded = client.encodePacket(client.createPacket(packetContent));
+
+        assertEquals(PrimitiveSuite.CHACHA20_BLAKE2.id(), encoded[5]);
+        assertEquals(PrimitiveSuite.CHACHA20_BLAKE2.id(), client.decodePacket(encoded).suiteId());
+        assertEquals(BinaryPacketCodec.VERSION, encoded[4]);
+    }
+
+    @Test(expected = SphinxException.class)
+    public void decodeBinarySuiteMismatch() throws SphinxException {
+        PacketContent packetContent = client.createForwardMessage(nodelist, nodeKeys, "bob".getBytes(), "test".getBytes());
+        byte[] encoded = client.encodePacket(client.createPacket(packetContent));
+
+        SphinxParams aesParams = new SphinxParams(16, 1024, 192, new ECCGroup(), PacketFormat.BINARY);
+        new SphinxClient(aesParams, new RandomRoutingStrategy()).decodePacket(encoded);
+    }
+
+    @Test(expected = SphinxException.class)
+    public void unpackMsgpackSuiteMismatch() throws SphinxException {
+        SphinxParams aesParams = new SphinxParams();
+        SphinxClient aesClient = new SphinxClient(aesParams, new RandomRoutingStrategy());
+        PacketContent packetContent = aesClient.createForwardMessage(nodelist, nodeKeys, "bob".getBytes(), "test".getBytes());
+        byte[] packed = aesClient.packMessage(aesClient.createPacket(packetContent));
+
+        SphinxParams msgpackParams = new SphinxParams(16, 1024, 192, new ECCGroup(), PacketFormat.MSGPACK, PrimitiveSuite.CHACHA20_BLAKE2);
+        new SphinxClient(msgpackParams, new RandomRoutingStrategy()).unpackMessage(packed);
+    }
+
+    @Test
+    public void xorRhoPositionMatchesKeystream() throws SphinxException {
+        byte[] keystream = params.xorRho(key, new byte[300]);
+
+        byte[] part = new byte[100];
+        params.xorRho(key, 123, part, 0, part.length);
+        assertArrayEquals(Arrays.copyOfRange(keystream, 123, 223), part);
+    }
+
+    @Test
+    public void primitivesDifferFromAes() throws SphinxException {
+        SphinxParams aesParams = new SphinxParams();
+        byte[] message = new byte[params.bodyLength()];
+
+        assertFalse(Arrays.equals(aesParams.xorRho(key, message), params.xorRho(key, message)));
+        assertFalse(Arrays.equals(aesParams.lionessEnc(key, message), params.lionessEnc(key, message)));
+        assertFalse(Arrays.equals(aesParams.mu(key, message), params.mu(key, message)));
+        assertFalse(Arrays.equals(aesParams.hrho(key), params.hrho(key)));
+        assertEquals(params.keyLength(), params.hrho(key).length);
+    }
+
+    @Test
+    public void lionessEncryptThenDecrypt() throws SphinxException {
+        byte[] message = new byte[params.bodyLength()];
+        new SecureRandom().nextBytes(message);
+
+        byte[] ciphertext = params.pi(key, message);
+        assertFalse(Arrays.equals(message, ciphertext));
+        assertArrayEquals(message, params.pii(key, ciphertext));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectLongKeys() {
+        new SphinxParams(32, 1024, 192, new ECCGroup(), PacketFormat.BINARY, PrimitiveSuite.CHACHA20_BLAKE2);
+    }
+}
@@ -0,0 +1,96 @@
+import com.robertsoultanaev.javasphinx.SerializationUtils;
+import com.robertsoultanaev.javasphinx.crypto.ECCGroup;
+import com.robertsoultanaev.javasphinx.crypto.PublicKeyCache;
+import org.bouncycastle.math.ec.ECPoint;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class PublicKeyCacheTest {
+
+    private ECCGroup group;
+
+    @Before
+    public void setUp() {
+        group = new ECCGroup();
+    }
+
+    @Test
+    public void exponMatchesVariableBase() {
+        PublicKeyCache cache = new PublicKeyCache(4);
+        ECPoint key = group.exponGenerator(group.genSecret());
+
+        for (int i = 0; i < 10; i++) {
+            BigInteger exp = group.genSecret();
+            assertEquals(group.expon(key, exp), cache.expon(group, key, exp));
+        }
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void preparedKeyIsReused() {
+        PublicKeyCache cache = new PublicKeyCache(4);
+        ECPoint key = group.exponGenerator(group.genSecret());
+
+        ECPoint prepared = cache.prepare(group, key);
+        ECPoint decodedKey = SerializationUtils.decodeECPoint(SerializationUtils.encodeECPoint(key));
+        assertSame(prepared, cache.prepare(group, decodedKey));
+    }
+
+    @Test
+    public void leastRecentlyUsedKeyIsEvicted() {
+        PublicKeyCache cache = new PublicKeyCache(2);
+        ECPoint first = group.exponGenerator(group.genSecret());
+        ECPoint second = group.exponGenerator(group.genSecret());
+        ECPoint third = group.exponGenerator(group.genSecret());
+
+        ECPoint preparedFirst = cache.prepare(group, first);
+        cache.prepare(group, second);
+        cache.prepare(group, first);
+        ECPoint preparedSecond = cache.prepare(group, second);
+        cache.prepare(group, third);
+
+        assertEquals(2, cache.size());
+        assertSame(preparedSecond, cache.prepare(group, second));
+        assertNotSame(preparedFirst, cache.prepare(group, first));
+    }
+
+    @Test
+    public void keyIsPreparedWhenSeenAgain() {
+        PublicKeyCache cache = new PublicKeyCache(4, 4);
+        ECPoint key = group.exponGenerator(group.genSecret());
+
+        // The first use multiplies the plain way and builds no table
+        assertNull(cache.lookup(group, key));
+        assertEquals(0, cache.size());
+        ECPoint prepared = cache.lookup(group, key);
+        assertNotNull(prepared);
+        assertSame(prepared, cache.lookup(group, key));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void keysUsedOnceAreNeverPrepared() {
+        PublicKeyCache cache = new PublicKeyCache(2, 4);
+        ECPoint[] keys = new ECPoint[8];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = group.exponGenerator(group.genSecret());
+        }
+
+        // More keys than are remembered, cycled through like the nodes of a large directory
+        for (int round = 0; round < 3; round++) {
+            for (ECPoint key : keys) {
+                BigInteger exp = group.genSecret();
+                assertEquals(group.expon(key, exp), cache.expon(group, key, exp));
+            }
+        }
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,130 @@
+import com.robertsoultanaev.javasphinx.SphinxClient;
+import com.robertsoultanaev.javasphinx.SphinxException;
+import com.robertsoultanaev.javasphinx.SphinxNode;
+import com.robertsoultanaev.javasphinx.SphinxParams;
+import com.robertsoultanaev.javasphinx.packet.header.PacketContent;
+import com.robertsoultanaev.javasphinx.pki.PkiEntry;
+import com.robertsoultanaev.javasphinx.pki.PkiGenerator;
+import com.robertsoultanaev.javasphinx.replay.ReplayDetectedException;
+import com.robertsoultanaev.javasphinx.replay.ReplayFilter;
+import com.robertsoultanaev.javasphinx.replay.TagSet;
+import com.robertsoultanaev.javasphinx.routing.RandomRoutingStrategy;
+import org.bouncycastle.math.ec.ECPoint;
+import org.junit.Test;
+
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReplayFilterTest {
+
+    private static byte[] randomTag(SecureRandom random) {
+        byte[] tag = new byte[TagSet.TAG_LENGTH];
+        random.nextBytes(tag);
+        return tag;
+    }
+
+    @Test
+    public void tagSetRejectsDuplicates() {
+        SecureRandom random = new SecureRandom();
+        TagSet tags = new TagSet(10_000);
+
+        byte[][] inserted = new byte[10_000][];
+        for (int i = 0; i < inserted.length; i++) {
+            inserted[i] = randomTag(random);
+            assertTrue(tags.add(inserted[i]));
+        }
+
+        for (byte[] tag : inserted) {
+            assertTrue(tags.contains(tag));
+            assertFalse(tags.add(tag.clone()));
+        }
+
+        assertFalse(tags.contains(randomTag(random)));
+        assertEquals(inserted.length, tags.size());
+    }
+
+    @Test
+    public void tagSetHasSingleWinnerUnderContention() throws InterruptedException {
+        SecureRandom random = new SecureRandom();
+        TagSet tags = new TagSet(1_000);
+        byte[][] shared = new byte[1_000][];
+        for (int i = 0; i < shared.length; i++) {
+            shared[i] = randomTag(random);
+        }
+
+        int threads = 8;
+        AtomicInteger added = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ConcurrentLinkedQueue<Thread> workers = new ConcurrentLinkedQueue<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                for (byte[] tag : shared) {
+                    if (tags.add(tag)) {
+                        added.incrementAndGet();
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals(shared.length, added.get());
+    }
+
+    @Test
+    public void rotationRetiresOldEpochs() throws SphinxException {
+        SecureRandom random = new SecureRandom();
+        ReplayFilter filter = new ReplayFilter(100, 2);
+        byte[] tag = randomTag(random);
+
+        assertTrue(filter.markSeen(0, tag));
+        filter.rotate(1);
+        assertFalse(filter.markSeen(0, tag));
+        assertTrue(filter.markSeen(tag));
+
+        filter.rotate(2);
+        assertArrayEquals(new long[]{1, 2}, filter.openEpochs());
+        assertTrue(filter.markSeen(tag));
+    }
+
+    @Test(expected = SphinxException.class)
+    public void retiredEpochIsRejected() throws SphinxException {
+        ReplayFilter filter = new ReplayFilter(100, 2);
+        filter.rotate(1);
+        filter.retireEpoch(0);
+
+        filter.markSeen(0, randomTag(new SecureRandom()));
+    }
+
+    @Test(expected = ReplayDetectedException.class)
+    public void nodeRejectsReplayedPacket() throws SphinxException {
+        final var params = new SphinxParams();
+        final PkiEntry keyPair = new PkiGenerator(params).generateKeyPair();
+        final var node = new SphinxNode(params, new RandomRoutingStrategy(), keyPair.priv(), new ReplayFilter(100, 2));
+        final SphinxClient client = node.client();
+
+        byte[][] nodelist = {client.encodeNode(0, 0)};
+        ECPoint[] keys = {keyPair.pub()};
+        PacketContent packetContent = client.createForwardMessage(nodelist, keys, "bob".getBytes(), "this is a test".getBytes());
+
+        node.sphinxProcess(packetContent);
+        node.sphinxProcess(packetContent);
+    }
+}
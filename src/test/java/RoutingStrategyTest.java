@@ -0,0 +1,91 @@
+import com.robertsoultanaev.javasphinx.routing.AscendingRoutingStrategy;
+import com.robertsoultanaev.javasphinx.routing.DescendingRoutingStrategy;
+import com.robertsoultanaev.javasphinx.routing.DirectorySnapshot;
+import com.robertsoultanaev.javasphinx.routing.RandomRoutingStrategy;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class RoutingStrategyTest {
+
+    private static final int[] IDENTIFIERS = {42, 7, 19, 3, 88, 61, 25, 14};
+
+    @Test
+    public void ascending() {
+        DirectorySnapshot directory = new DirectorySnapshot(IDENTIFIERS);
+        assertArrayEquals(new int[]{3, 7, 14}, new AscendingRoutingStrategy().route(directory, 3));
+        assertArrayEquals(new int[]{3, 7, 14, 19}, new AscendingRoutingStrategy().route(IDENTIFIERS, 4));
+    }
+
+    @Test
+    public void descending() {
+        DirectorySnapshot directory = new DirectorySnapshot(IDENTIFIERS);
+        assertArrayEquals(new int[]{88, 61, 42}, new DescendingRoutingStrategy().route(directory, 3));
+        assertArrayEquals(new int[]{88, 61, 42, 25}, new DescendingRoutingStrategy().route(IDENTIFIERS, 4));
+    }
+
+    @Test
+    public void snapshotCopiesIdentifiers() {
+        int[] identifiers = IDENTIFIERS.clone();
+        DirectorySnapshot directory = new DirectorySnapshot(identifiers);
+        identifiers[0] = -1;
+
+        assertEquals(42, directory.identifier(0));
+        assertEquals(3, directory.ascending(0));
+        assertEquals(88, directory.descending(0));
+        assertArrayEquals(IDENTIFIERS, directory.identifiers());
+    }
+
+    @Test
+    public void randomRoutesAreDistinct() {
+        RandomRoutingStrategy strategy = new RandomRoutingStrategy();
+        DirectorySnapshot directory = new DirectorySnapshot(IDENTIFIERS);
+        // Short routes are drawn by rejection, long ones by shuffling
+        for (int mixCount = 1; mixCount <= IDENTIFIERS.length; mixCount++) {
+            for (int i = 0; i < 200; i++) {
+                int[] route = strategy.route(directory, mixCount);
+                Set<Integer> hops = new HashSet<>();
+                for (int hop : route) {
+                    assertTrue(contains(IDENTIFIERS, hop));
+                    hops.add(hop);
+                }
+                assertEquals(mixCount, hops.size());
+            }
+        }
+    }
+
+    @Test
+    public void randomRoutesAreUniform() {
+        RandomRoutingStrategy strategy = new RandomRoutingStrategy();
+        DirectorySnapshot directory = new DirectorySnapshot(IDENTIFIERS);
+        int draws = 40_000;
+        int[] counts = new int[100];
+        for (int i = 0; i < draws; i++) {
+            for (int hop : strategy.route(directory, 3)) {
+                counts[hop]++;
+            }
+        }
+
+        double expected = draws * 3.0 / IDENTIFIERS.length;
+        for (int identifier : IDENTIFIERS) {
+            assertEquals(expected, counts[identifier], expected * 0.05);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void randomRouteLongerThanDirectory() {
+        new RandomRoutingStrategy().route(new DirectorySnapshot(IDENTIFIERS), IDENTIFIERS.length + 1);
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
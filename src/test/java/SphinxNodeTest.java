@@ -1,19 +1,33 @@
 import com.robertsoultanaev.javasphinx.SerializationUtils;
+import com.robertsoultanaev.javasphinx.SphinxClient;
 import com.robertsoultanaev.javasphinx.SphinxException;
 import com.robertsoultanaev.javasphinx.SphinxNode;
 import com.robertsoultanaev.javasphinx.SphinxParams;
+import com.robertsoultanaev.javasphinx.codec.PacketFormat;
+import com.robertsoultanaev.javasphinx.crypto.ECCGroup;
+import com.robertsoultanaev.javasphinx.packet.ProcessedFrame;
 import com.robertsoultanaev.javasphinx.packet.ProcessedPacket;
+import com.robertsoultanaev.javasphinx.packet.ProcessingResult;
+import com.robertsoultanaev.javasphinx.packet.RoutingFlag;
 import com.robertsoultanaev.javasphinx.packet.header.Header;
 import com.robertsoultanaev.javasphinx.packet.header.PacketContent;
+import com.robertsoultanaev.javasphinx.pki.PkiEntry;
+import com.robertsoultanaev.javasphinx.pki.PkiGenerator;
 import com.robertsoultanaev.javasphinx.routing.RandomRoutingStrategy;
 import org.bouncycastle.math.ec.ECPoint;
 import org.bouncycastle.util.encoders.Hex;
 import org.junit.Test;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class SphinxNodeTest {
     @Test
@@ -111,4 +125,114 @@ public class SphinxNodeTest {
 
         node.sphinxProcess(inputPacketContent);
     }
+
+    @Test
+    public void processBatchKeepsOrderAndIsolatesFailures() throws Exception {
+        final var params = new SphinxParams();
+        final PkiEntry keyPair = new PkiGenerator(params).generateKeyPair();
+        final var node = new SphinxNode(params, new RandomRoutingStrategy(), keyPair.priv());
+        final SphinxClient client = node.client();
+
+        byte[][] nodelist = {client.encodeNode(0, 0)};
+        ECPoint[] keys = {keyPair.pub()};
+
+        List<PacketContent> batch = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            batch.add(client.createForwardMessage(nodelist, keys, "bob".getBytes(), ("message " + i).getBytes()));
+        }
+
+        Header valid = batch.get(7).header();
+        Header badMac = new Header(valid.alpha(), valid.beta(), new byte[params.keyLength()]);
+        batch.set(7, new PacketContent(badMac, batch.get(7).delta()));
+
+        List<ProcessingResult> results = node.processBatch(batch);
+
+        assertEquals(batch.size(), results.size());
+        for (int i = 0; i < results.size(); i++) {
+            ProcessingResult result = results.get(i);
+            if (i == 7) {
+                assertFalse(result.isSuccess());
+                continue;
+            }
+
+            assertTrue(result.isSuccess());
+            ProcessedPacket packet = result.packet();
+            assertEquals(RoutingFlag.DESTINATION, packet.routingFlag());
+            byte[] message = client.receiveForward(packet.macKey(), packet.packetContent().delta()).message();
+            assertArrayEquals(("message " + i).getBytes(), message);
+        }
+    }
+
+    @Test
+    public void processBatchIsolatesMalformedRouting() throws Exception {
+        final var params = new SphinxParams(16, 1024, 512, new ECCGroup(), PacketFormat.MSGPACK);
+        final var generator = new PkiGenerator(params);
+        final PkiEntry keyPair = generator.generateKeyPair();
+        final var node = new SphinxNode(params, new RandomRoutingStrategy(), keyPair.priv());
+        final SphinxClient client = node.client();
+
+        ECPoint[] keys = {keyPair.pub(), generator.generateKeyPair().pub()};
+        byte[][] good = {client.encodeNode(0, 0), client.encodeNode(1, 0)};
+        // A next hop id of 200 bytes has a valid MAC, but its length byte reads as negative
+        byte[][] bad = {client.encodeNode(0, 0), new byte[200]};
+
+        List<PacketContent> batch = List.of(
+                client.createForwardMessage(good, keys, "bob".getBytes(), "first".getBytes()),
+                client.createForwardMessage(bad, keys, "bob".getBytes(), "second".getBytes()),
+                client.createForwardMessage(good, keys, "bob".getBytes(), "third".getBytes()));
+
+        List<ProcessingResult> results = node.processBatch(batch);
+
+        assertTrue(results.get(0).isSuccess());
+        assertFalse(results.get(1).isSuccess());
+        assertTrue(results.get(2).isSuccess());
+        try {
+            node.sphinxProcess(batch.get(1));
+            fail("Packet with a negative routing length was processed");
+        } catch (SphinxException expected) {
+            // Rejected like any other malformed packet
+        }
+    }
+
+    @Test
+    public void processBufferMatchesSphinxProcess() throws Exception {
+        final var params = new SphinxParams();
+        final var generator = new PkiGenerator(params);
+        final PkiEntry[] keyPairs = {generator.generateKeyPair(), generator.generateKeyPair(), generator.generateKeyPair()};
+        final SphinxClient client = new SphinxClient(params, new RandomRoutingStrategy());
+
+        byte[][] nodelist = new byte[keyPairs.length][];
+        ECPoint[] keys = new ECPoint[keyPairs.length];
+        for (int i = 0; i < keyPairs.length; i++) {
+            nodelist[i] = client.encodeNode(i, 0);
+            keys[i] = keyPairs[i].pub();
+        }
+
+        PacketContent packetContent = client.createForwardMessage(nodelist, keys, "bob".getBytes(), "this is a test".getBytes());
+        ByteBuffer in = ByteBuffer.wrap(client.packMessage(client.createPacket(packetContent)));
+        int hop = 0;
+
+        while (true) {
+            final var node = new SphinxNode(params, new RandomRoutingStrategy(), keyPairs[hop].priv());
+            ProcessedPacket expected = node.sphinxProcess(packetContent);
+            byte[] expectedPacked = client.packMessage(node.repack(expected));
+
+            ByteBuffer out = ByteBuffer.allocateDirect(expectedPacked.length);
+            ProcessedFrame frame = node.process(in, out);
+            out.flip();
+
+            assertEquals(0, in.remaining());
+            assertEquals(ByteBuffer.wrap(expectedPacked), out);
+            assertArrayEquals(expected.tag(), frame.tag());
+            assertArrayEquals(expected.routing(), frame.routing());
+            assertArrayEquals(expected.macKey(), frame.macKey());
+
+            if (frame.routingFlag() == RoutingFlag.DESTINATION) {
+                break;
+            }
+            hop = frame.relayInfo().nextNodeId();
+            packetContent = expected.packetContent();
+            in = out;
+        }
+    }
 }
@@ -1,28 +1,50 @@
 import com.robertsoultanaev.javasphinx.SerializationUtils;
 import com.robertsoultanaev.javasphinx.SphinxException;
 import com.robertsoultanaev.javasphinx.SphinxParams;
+import com.robertsoultanaev.javasphinx.codec.PacketFormat;
+import com.robertsoultanaev.javasphinx.crypto.BcSymmetricProvider;
+import com.robertsoultanaev.javasphinx.crypto.ECCGroup;
+import com.robertsoultanaev.javasphinx.crypto.HopKeys;
+import com.robertsoultanaev.javasphinx.crypto.JceSymmetricProvider;
+import com.robertsoultanaev.javasphinx.crypto.SymmetricProvider;
 import org.bouncycastle.math.ec.ECPoint;
 import org.bouncycastle.util.Arrays;
 import org.bouncycastle.util.encoders.Hex;
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
 
 import java.math.BigInteger;
 import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
+import java.util.List;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
+@RunWith(Parameterized.class)
 public class SphinxParamsTest {
 
+    @Parameterized.Parameters(name = "{0}")
+    public static List<Object[]> providers() {
+        return List.of(
+                new Object[]{"BouncyCastle", new BcSymmetricProvider()},
+                new Object[]{"JCE", new JceSymmetricProvider()});
+    }
+
+    private final SymmetricProvider symmetricProvider;
     private SphinxParams params;
     private byte[] key;
     private byte[] plaintext;
 
+    public SphinxParamsTest(String name, SymmetricProvider symmetricProvider) {
+        this.symmetricProvider = symmetricProvider;
+    }
+
     @Before
     public void setUp() {
-        params = new SphinxParams();
+        params = new SphinxParams(16, 1024, 192, new ECCGroup(), PacketFormat.MSGPACK, symmetricProvider);
         key = Hex.decode("5f060d3716b345c253f6749abac10917");
         plaintext = Hex.decode("265f3338efbf92c9feacf25fb10778b6d96996e72b41c4e4f55f373d182ba4e1acd5b972e95a917da9f6946924aab6e0b926b94996c25bea7e00422d1f11468578b60f460cb5ce2eafa72fef8cb1a2de");
     }
@@ -99,6 +121,26 @@ public class SphinxParamsTest {
         params.lionessDec(key, badMessage);
     }
 
+    @Test
+    public void lionessInPlaceAtOffset() throws SphinxException {
+        byte[] expectedOutput = Hex.decode("937e52902f5300c07b0dbd39d4e10b9d0de98278ed16d2ef2f4652d5318041da6d16188c11f4dbfba12b36f7e23a1a8daebff5942703463241d7ed2c909116e913bb9f74d645fb8d99971f299d21ac51");
+        byte[] buf = new byte[plaintext.length + 10];
+        System.arraycopy(plaintext, 0, buf, 7, plaintext.length);
+
+        params.lionessEnc(key, buf, 7, plaintext.length);
+        assertArrayEquals(expectedOutput, Arrays.copyOfRange(buf, 7, 7 + plaintext.length));
+        assertArrayEquals(new byte[7], Arrays.copyOfRange(buf, 0, 7));
+        assertArrayEquals(new byte[3], Arrays.copyOfRange(buf, 7 + plaintext.length, buf.length));
+
+        params.lionessDec(key, buf, 7, plaintext.length);
+        assertArrayEquals(plaintext, Arrays.copyOfRange(buf, 7, 7 + plaintext.length));
+    }
+
+    @Test(expected = SphinxException.class)
+    public void lionessInPlaceBadMessageLength() throws SphinxException {
+        params.lionessEnc(key, plaintext.clone(), 0, key.length * 2 - 1);
+    }
+
     @Test
     public void xorRho() throws SphinxException {
         byte[] expectedOutput = Hex.decode("0e000098e34558b1c728b1580787f881012f2a1eaf3ac383fd596b13d87a95cce1376225b739b15e630f89fe64dbc54752a22ed567f1b368cae6aa1c374fdb008602fbbe5b1cfe3c7c256669e080903d");
@@ -248,4 +290,49 @@ public class SphinxParamsTest {
         assertArrayEquals(expectedOutput, output);
     }
 
+    @Test
+    public void deriveHopKeys() {
+        HopKeys hopKeys = params.deriveHopKeys(key);
+
+        assertArrayEquals(Hex.decode("a941fceaec8077174e46e0c1e40dc454"), hopKeys.rho());
+        assertArrayEquals(Hex.decode("be430289b8937b4ded6bf31f6e8ac891"), hopKeys.mu());
+        assertArrayEquals(Hex.decode("f74e9cf22a397c70c033cf47f2e63523"), hopKeys.pi());
+        assertArrayEquals(Hex.decode("5d6904bdc9c4fb34e30d8d807b130d82"), hopKeys.tau());
+        assertEquals(new BigInteger("99291632524521846780855783327754112432"), hopKeys.blind());
+    }
+
+    @Test
+    public void aesCtrAlternatingKeys() {
+        byte[] iv = Hex.decode("18e3e4c93f5bdd1fb4961630309206e6");
+        byte[] otherKey = Hex.decode("000102030405060708090a0b0c0d0e0f");
+
+        byte[] expectedOutput = Hex.decode("fbf3df496e16a07c149c197a1772e9901a7fbac16a9424c6282ed06624e4fdec5b2c1c50a347fb782647c8bce5b9a04b32a3eaa1c2d2aae082aad017103aa212e32569a45f0436ff4a5ea95c52522c92");
+        params.aesCtr(otherKey, plaintext, iv);
+        byte[] output = params.aesCtr(key, plaintext, iv);
+        params.aesCtr(otherKey, plaintext, iv);
+
+        assertArrayEquals(expectedOutput, output);
+        assertArrayEquals(expectedOutput, params.aesCtr(key, plaintext, iv));
+    }
+
+    @Test
+    public void aesCtrPositionMatchesKeystream() {
+        SecureRandom random = new SecureRandom();
+        byte[][] ivs = {new byte[16], Hex.decode("ffffffffffffffffffffffffffffffff"), Hex.decode("00000000000000fffffffffffffffffe")};
+
+        for (byte[] iv : ivs) {
+            for (int position : new int[]{0, 1, 15, 16, 17, 100}) {
+                byte[] data = new byte[1 + random.nextInt(200)];
+                random.nextBytes(data);
+                byte[] keystream = params.aesCtr(key, new byte[position + data.length], iv);
+                byte[] expected = new byte[data.length];
+                for (int i = 0; i < data.length; i++) {
+                    expected[i] = (byte) (data[i] ^ keystream[position + i]);
+                }
+
+                params.aesCtr(key, iv, position, data, 0, data.length);
+                assertArrayEquals(expected, data);
+            }
+        }
+    }
 }
@@ -0,0 +1,159 @@
+import com.robertsoultanaev.javasphinx.SphinxClient;
+import com.robertsoultanaev.javasphinx.SphinxException;
+import com.robertsoultanaev.javasphinx.SphinxNode;
+import com.robertsoultanaev.javasphinx.SphinxParams;
+import com.robertsoultanaev.javasphinx.packet.ProcessedPacket;
+import com.robertsoultanaev.javasphinx.packet.RelayInfo;
+import com.robertsoultanaev.javasphinx.packet.RoutingFlag;
+import com.robertsoultanaev.javasphinx.packet.header.PacketContent;
+import com.robertsoultanaev.javasphinx.packet.reply.NymTuple;
+import com.robertsoultanaev.javasphinx.packet.reply.SingleUseReplyBlock;
+import com.robertsoultanaev.javasphinx.pki.PkiEntry;
+import com.robertsoultanaev.javasphinx.pki.PkiGenerator;
+import com.robertsoultanaev.javasphinx.routing.RandomRoutingStrategy;
+import com.robertsoultanaev.javasphinx.surb.SurbInventory;
+import com.robertsoultanaev.javasphinx.surb.SurbKeyStore;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.util.encoders.Hex;
+import org.junit.Before;
+import org.junit.Test;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessageUnpacker;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class SurbInventoryTest {
+
+    private static final int NODES = 3;
+
+    private SphinxParams params;
+    private SphinxClient client;
+    private PkiEntry[] keyPairs;
+    private byte[][] nodelist;
+    private ECPoint[] keys;
+
+    @Before
+    public void setUp() throws SphinxException {
+        params = new SphinxParams();
+        client = new SphinxClient(params, new RandomRoutingStrategy());
+        PkiGenerator generator = new PkiGenerator(params);
+        keyPairs = new PkiEntry[NODES];
+        nodelist = new byte[NODES][];
+        keys = new ECPoint[NODES];
+        for (int i = 0; i < NODES; i++) {
+            keyPairs[i] = generator.generateKeyPair();
+            nodelist[i] = client.encodeNode(i, 0);
+            keys[i] = keyPairs[i].pub();
+        }
+    }
+
+    /**
+     * Route a reply to the last mix node, returning the xid and the payload it hands to the recipient.
+     */
+    private byte[][] routeReply(NymTuple nymTuple, byte[] message) throws Exception {
+        PacketContent packetContent = client.packageSurb(nymTuple, message);
+        int hop = RelayInfo.of(nymTuple.node()).nextNodeId();
+        while (true) {
+            ProcessedPacket ret = new SphinxNode(params, new RandomRoutingStrategy(), keyPairs[hop].priv()).sphinxProcess(packetContent);
+            packetContent = ret.packetContent();
+            if (ret.routingFlag() == RoutingFlag.SURB) {
+                try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(ret.routing())) {
+                    unpacker.unpackArrayHeader();
+                    unpacker.unpackString();
+                    unpacker.readPayload(unpacker.unpackBinaryHeader());
+                    byte[] xid = unpacker.readPayload(unpacker.unpackBinaryHeader());
+                    return new byte[][]{xid, packetContent.delta()};
+                }
+            }
+            hop = ret.relayInfo().nextNodeId();
+        }
+    }
+
+    private static void awaitReady(SurbInventory<String> inventory, String key, int surbs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (inventory.ready(key) < surbs && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(surbs, inventory.ready(key));
+    }
+
+    @Test
+    public void createSurbsInParallel() throws Exception {
+        SingleUseReplyBlock[] surbs = client.createSurbs(32, nodelist, keys, "myself".getBytes(), new ForkJoinPool(4));
+
+        Set<String> xids = new HashSet<>();
+        for (SingleUseReplyBlock surb : surbs) {
+            xids.add(Hex.toHexString(surb.xid()));
+        }
+        assertEquals(surbs.length, xids.size());
+
+        byte[][] reply = routeReply(surbs[17].nymTuple(), "This is a reply".getBytes());
+        assertArrayEquals(surbs[17].xid(), reply[0]);
+        assertArrayEquals("This is a reply".getBytes(), client.receiveSurb(surbs[17].keyTuple(), reply[1]));
+    }
+
+    @Test
+    public void receiveRepliesToStockedSurbs() throws Exception {
+        SurbKeyStore keyStore = new SurbKeyStore(1024, params.keyLength(), NODES);
+        SurbInventory<String> inventory = new SurbInventory<>(client, keyStore, 8, 2, Duration.ofHours(1));
+        inventory.register("alice", nodelist, keys, "myself".getBytes());
+        awaitReady(inventory, "alice", 8);
+        assertEquals(8, keyStore.size());
+
+        for (int i = 0; i < 3; i++) {
+            byte[] message = ("reply " + i).getBytes();
+            byte[][] reply = routeReply(inventory.take("alice"), message);
+            assertArrayEquals(message, inventory.receive(reply[0], reply[1]));
+            // A SURB is only good for one reply
+            assertNull(inventory.receive(reply[0], reply[1]));
+        }
+        assertEquals(3, inventory.hits());
+        assertEquals(0, inventory.misses());
+    }
+
+    @Test
+    public void refillBelowLowWaterMark() throws Exception {
+        SurbKeyStore keyStore = new SurbKeyStore(1024, params.keyLength(), NODES);
+        SurbInventory<String> inventory = new SurbInventory<>(client, keyStore, 6, 3, Duration.ofHours(1));
+        inventory.register("alice", nodelist, keys, "myself".getBytes());
+        inventory.register("bob", nodelist, keys, "myself".getBytes());
+        awaitReady(inventory, "alice", 6);
+        awaitReady(inventory, "bob", 6);
+
+        // Taking down to the low-water mark starts a refill, which replaces every SURB taken until the stock is full
+        Set<NymTuple> handedOut = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            handedOut.add(inventory.take("alice"));
+        }
+        assertEquals(3, handedOut.size());
+        assertEquals(3, inventory.hits());
+        awaitReady(inventory, "alice", 6);
+        assertEquals(6, inventory.ready("bob"));
+        assertEquals(0, inventory.failedRefills());
+    }
+
+    @Test
+    public void createOnCallerWhenEmpty() throws Exception {
+        SurbKeyStore keyStore = new SurbKeyStore(1024, params.keyLength(), NODES);
+        // No threads, so the stock is never filled
+        ForkJoinPool pool = new ForkJoinPool(1);
+        pool.shutdown();
+        SurbInventory<String> inventory = new SurbInventory<>(client, keyStore, 4, 1, Duration.ofHours(1), pool);
+        inventory.register("alice", nodelist, keys, "myself".getBytes());
+
+        byte[][] reply = routeReply(inventory.take("alice"), "late reply".getBytes());
+        assertArrayEquals("late reply".getBytes(), inventory.receive(reply[0], reply[1]));
+        assertEquals(1, inventory.misses());
+    }
+
+    @Test(expected = SphinxException.class)
+    public void rejectUnknownRoute() throws SphinxException {
+        SurbKeyStore keyStore = new SurbKeyStore(16, params.keyLength(), NODES);
+        new SurbInventory<String>(client, keyStore, 4, 1, Duration.ofHours(1)).take("carol");
+    }
+}
@@ -0,0 +1,210 @@
+import com.robertsoultanaev.javasphinx.SphinxClient;
+import com.robertsoultanaev.javasphinx.SphinxException;
+import com.robertsoultanaev.javasphinx.SphinxNode;
+import com.robertsoultanaev.javasphinx.SphinxParams;
+import com.robertsoultanaev.javasphinx.packet.ProcessedPacket;
+import com.robertsoultanaev.javasphinx.packet.RelayInfo;
+import com.robertsoultanaev.javasphinx.packet.RoutingFlag;
+import com.robertsoultanaev.javasphinx.packet.header.PacketContent;
+import com.robertsoultanaev.javasphinx.packet.reply.SingleUseReplyBlock;
+import com.robertsoultanaev.javasphinx.pki.PkiEntry;
+import com.robertsoultanaev.javasphinx.pki.PkiGenerator;
+import com.robertsoultanaev.javasphinx.routing.RandomRoutingStrategy;
+import com.robertsoultanaev.javasphinx.surb.SurbKeyStore;
+import org.bouncycastle.math.ec.ECPoint;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+
+import static org.junit.Assert.*;
+
+public class SurbKeyStoreTest {
+
+    private static final int KEY_LENGTH = 16;
+    private static final int MAX_HOPS = 5;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final SecureRandom random = new SecureRandom();
+
+    private byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private byte[][] randomKeyTuple(int keys) {
+        byte[][] keyTuple = new byte[keys][];
+        for (int i = 0; i < keys; i++) {
+            keyTuple[i] = randomBytes(KEY_LENGTH);
+        }
+        return keyTuple;
+    }
+
+    private static long later() {
+        return System.currentTimeMillis() + 60_000;
+    }
+
+    @Test
+    public void receiveReplyWithStoredKeys() throws Exception {
+        SphinxParams params = new SphinxParams();
+        SphinxClient client = new SphinxClient(params, new RandomRoutingStrategy());
+        PkiGenerator generator = new PkiGenerator(params);
+        PkiEntry[] keyPairs = {generator.generateKeyPair(), generator.generateKeyPair(), generator.generateKeyPair()};
+        byte[][] nodelist = new byte[keyPairs.length][];
+        ECPoint[] keys = new ECPoint[keyPairs.length];
+        for (int i = 0; i < keyPairs.length; i++) {
+            nodelist[i] = client.encodeNode(i, 0);
+            keys[i] = keyPairs[i].pub();
+        }
+
+        SurbKeyStore store = new SurbKeyStore(16, params.keyLength(), MAX_HOPS);
+        SingleUseReplyBlock surb = client.createSurb(nodelist, keys, "myself".getBytes());
+        store.put(surb, later());
+
+        PacketContent packetContent = client.packageSurb(surb.nymTuple(), "This is a reply".getBytes());
+        int hop = RelayInfo.of(surb.nymTuple().node()).nextNodeId();
+        while (true) {
+            ProcessedPacket ret = new SphinxNode(params, new RandomRoutingStrategy(), keyPairs[hop].priv()).sphinxProcess(packetContent);
+            packetContent = ret.packetContent();
+            if (ret.routingFlag() == RoutingFlag.SURB) {
+                byte[][] keyTuple = store.take(surb.xid());
+                assertArrayEquals("This is a reply".getBytes(), client.receiveSurb(keyTuple, packetContent.delta()));
+                break;
+            }
+            hop = ret.relayInfo().nextNodeId();
+        }
+
+        assertNull(store.take(surb.xid()));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void takeOnce() throws SphinxException {
+        SurbKeyStore store = new SurbKeyStore(10_000, KEY_LENGTH, MAX_HOPS);
+        byte[][] xids = new byte[10_000][];
+        byte[][][] keyTuples = new byte[xids.length][][];
+        for (int i = 0; i < xids.length; i++) {
+            xids[i] = randomBytes(KEY_LENGTH);
+            keyTuples[i] = randomKeyTuple(1 + i % (MAX_HOPS + 1));
+            store.put(xids[i], keyTuples[i], later());
+        }
+        assertEquals(xids.length, store.size());
+
+        for (int i = 0; i < xids.length; i++) {
+            assertTrue(store.contains(xids[i]));
+            assertArrayEquals(keyTuples[i], store.take(xids[i]));
+            assertFalse(store.contains(xids[i]));
+            assertNull(store.take(xids[i]));
+        }
+        assertEquals(0, store.size());
+
+        // Removed slots are reused
+        for (int i = 0; i < xids.length; i++) {
+            store.put(xids[i], keyTuples[i], later());
+        }
+        assertEquals(xids.length, store.size());
+    }
+
+    @Test
+    public void replaceKeyTuple() throws SphinxException {
+        SurbKeyStore store = new SurbKeyStore(16, KEY_LENGTH, MAX_HOPS);
+        byte[] xid = randomBytes(KEY_LENGTH);
+        byte[][] replacement = randomKeyTuple(3);
+
+        store.put(xid, randomKeyTuple(4), later());
+        store.put(xid, replacement, later());
+        assertEquals(1, store.size());
+        assertArrayEquals(replacement, store.take(xid));
+    }
+
+    @Test
+    public void expiredSurbsAreNotReturned() throws SphinxException {
+        SurbKeyStore store = new SurbKeyStore(16, KEY_LENGTH, MAX_HOPS);
+        long now = System.currentTimeMillis();
+        byte[] stale = randomBytes(KEY_LENGTH);
+        byte[] fresh = randomBytes(KEY_LENGTH);
+        byte[] purged = randomBytes(KEY_LENGTH);
+        store.put(stale, randomKeyTuple(4), now + 1_000);
+        store.put(fresh, randomKeyTuple(4), now + 10_000);
+        store.put(purged, randomKeyTuple(4), now + 1_000);
+
+        assertNull(store.take(stale, now + 5_000));
+        assertEquals(1, store.purgeExpired(now + 5_000));
+        assertFalse(store.contains(purged));
+        assertEquals(1, store.size());
+        assertNotNull(store.take(fresh, now + 5_000));
+    }
+
+    @Test
+    public void reopenKeepsSurbs() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("surbs");
+        byte[] kept = randomBytes(KEY_LENGTH);
+        byte[] used = randomBytes(KEY_LENGTH);
+        byte[][] keyTuple = randomKeyTuple(4);
+
+        try (SurbKeyStore store = new SurbKeyStore(file, 1000, KEY_LENGTH, MAX_HOPS)) {
+            store.put(kept, keyTuple, later());
+            store.put(used, randomKeyTuple(4), later());
+            assertNotNull(store.take(used));
+        }
+
+        try (SurbKeyStore store = new SurbKeyStore(file, 1000, KEY_LENGTH, MAX_HOPS)) {
+            assertEquals(1, store.size());
+            assertNull(store.take(used));
+            assertArrayEquals(keyTuple, store.take(kept));
+        }
+    }
+
+    @Test
+    public void reopenDropsCorruptRecords() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("surbs");
+        byte[] xid = randomBytes(KEY_LENGTH);
+        try (SurbKeyStore store = new SurbKeyStore(file, 1000, KEY_LENGTH, MAX_HOPS)) {
+            store.put(xid, randomKeyTuple(4), later());
+            store.put(randomBytes(KEY_LENGTH), randomKeyTuple(4), later());
+        }
+
+        // Damage the first key of the record, as a torn write would
+        byte[] contents = Files.readAllBytes(file);
+        int xidOffset = indexOf(contents, xid);
+        contents[xidOffset + KEY_LENGTH] ^= 1;
+        Files.write(file, contents);
+
+        try (SurbKeyStore store = new SurbKeyStore(file, 1000, KEY_LENGTH, MAX_HOPS)) {
+            assertEquals(1, store.size());
+            assertFalse(store.contains(xid));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void reopenWithOtherParameters() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("surbs");
+        new SurbKeyStore(file, 1000, KEY_LENGTH, MAX_HOPS).close();
+        new SurbKeyStore(file, 1000, KEY_LENGTH, MAX_HOPS + 1).close();
+    }
+
+    @Test(expected = SphinxException.class)
+    public void rejectTooManyHops() throws SphinxException {
+        new SurbKeyStore(16, KEY_LENGTH, MAX_HOPS).put(randomBytes(KEY_LENGTH), randomKeyTuple(MAX_HOPS + 2), later());
+    }
+
+    private static int indexOf(byte[] haystack, byte[] needle) {
+        outer:
+        for (int i = 0; i <= haystack.length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        throw new AssertionError("Record not found");
+    }
+}
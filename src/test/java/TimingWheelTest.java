@@ -0,0 +1,110 @@
+import com.robertsoultanaev.javasphinx.runtime.DelayScheduler;
+import com.robertsoultanaev.javasphinx.runtime.ExponentialDelay;
+import com.robertsoultanaev.javasphinx.runtime.TimingWheel;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TimingWheelTest {
+
+    @Test
+    public void expireAtDeadlineOnEveryLevel() {
+        TimingWheel<Long> wheel = new TimingWheel<>(3, 4, 7);
+        Random random = new Random(3);
+        int items = 5000;
+        for (int i = 0; i < items; i++) {
+            long deadline = 8 + random.nextInt(1 << 12);
+            wheel.add(deadline, deadline);
+        }
+        assertEquals(items, wheel.size());
+
+        List<Long> expired = new ArrayList<>();
+        while (wheel.size() > 0) {
+            long tick = wheel.currentTick() + 1;
+            wheel.advance(tick, deadline -> {
+                assertEquals(tick, (long) deadline);
+                expired.add(deadline);
+            });
+        }
+        assertEquals(items, expired.size());
+    }
+
+    @Test
+    public void expireBeyondRange() {
+        TimingWheel<String> wheel = new TimingWheel<>(2, 2, 0);
+        wheel.add("late", 100);
+        wheel.add("early", 3);
+
+        List<String> expired = new ArrayList<>();
+        assertEquals(1, wheel.advance(99, expired::add));
+        assertEquals(List.of("early"), expired);
+        assertEquals(1, wheel.advance(100, expired::add));
+        assertEquals(List.of("early", "late"), expired);
+    }
+
+    @Test
+    public void expirePastDeadlineOnNextTick() {
+        TimingWheel<String> wheel = new TimingWheel<>(2, 4, 50);
+        wheel.add("past", 10);
+
+        List<String> expired = new ArrayList<>();
+        wheel.advance(50, expired::add);
+        assertTrue(expired.isEmpty());
+        wheel.advance(51, expired::add);
+        assertEquals(List.of("past"), expired);
+    }
+
+    @Test
+    public void schedulerReleasesAfterDelay() throws InterruptedException {
+        BlockingQueue<Long> released = new LinkedBlockingQueue<>();
+        try (DelayScheduler<Long> scheduler = new DelayScheduler<>(new ExponentialDelay(Duration.ofMillis(5)), Duration.ofMillis(1),
+                batch -> {
+                    long now = System.nanoTime();
+                    for (Long deadline : batch) {
+                        released.add(now - deadline);
+                    }
+                })) {
+            for (int i = 0; i < 100; i++) {
+                long delay = TimeUnit.MILLISECONDS.toNanos(i % 20);
+                scheduler.schedule(System.nanoTime() + delay, delay);
+            }
+            scheduler.schedule(System.nanoTime());
+
+            for (int i = 0; i < 101; i++) {
+                Long lateness = released.poll(10, TimeUnit.SECONDS);
+                assertNotNull(lateness);
+                assertTrue(lateness >= 0);
+            }
+            assertEquals(0, scheduler.pending());
+        }
+    }
+
+    @Test
+    public void closeHandsBackPendingItems() {
+        List<Integer> released = new ArrayList<>();
+        List<Integer> discarded = new ArrayList<>();
+        DelayScheduler<Integer> scheduler = new DelayScheduler<>(new ExponentialDelay(Duration.ofMillis(5)), Duration.ofMillis(1),
+                released::addAll);
+        for (int i = 0; i < 100; i++) {
+            scheduler.schedule(i, TimeUnit.HOURS.toNanos(1) * (i + 1));
+        }
+        assertEquals(100, scheduler.pending());
+
+        scheduler.close(discarded::add);
+        assertTrue(released.isEmpty());
+        assertEquals(0, scheduler.pending());
+        Collections.sort(discarded);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, (int) discarded.get(i));
+        }
+    }
+}
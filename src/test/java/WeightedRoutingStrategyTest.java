@@ -0,0 +1,155 @@
+import com.robertsoultanaev.javasphinx.routing.AliasTable;
+import com.robertsoultanaev.javasphinx.routing.DirectorySnapshot;
+import com.robertsoultanaev.javasphinx.routing.WeightedRoutingStrategy;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class WeightedRoutingStrategyTest {
+
+    private static final int DRAWS = 100_000;
+
+    @Test
+    public void aliasTableFollowsWeights() {
+        int[] identifiers = {10, 20, 30, 40};
+        double[] weights = {1, 2, 3, 0};
+        AliasTable table = new AliasTable(identifiers, weights);
+        Random random = new Random(1);
+
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (int i = 0; i < DRAWS; i++) {
+            counts.merge(table.sample(random), 1, Integer::sum);
+        }
+
+        assertNull(counts.get(40));
+        assertEquals(DRAWS / 6.0, counts.get(10), DRAWS * 0.01);
+        assertEquals(DRAWS * 2 / 6.0, counts.get(20), DRAWS * 0.01);
+        assertEquals(DRAWS * 3 / 6.0, counts.get(30), DRAWS * 0.01);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void aliasTableRejectsNegativeWeights() {
+        new AliasTable(new int[]{1, 2}, new double[]{1, -1});
+    }
+
+    @Test
+    public void routesAreDistinctAndSkipUnweightedNodes() {
+        Map<Integer, Double> weights = new HashMap<>();
+        for (int i = 0; i < 10; i++) {
+            weights.put(i, i % 2 == 0 ? 1.0 : 0.0);
+        }
+        WeightedRoutingStrategy strategy = new WeightedRoutingStrategy(weights);
+        int[] identifiers = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+
+        for (int i = 0; i < 1000; i++) {
+            int[] route = strategy.route(identifiers, 5);
+            Set<Integer> hops = new HashSet<>();
+            for (int hop : route) {
+                assertEquals(0, hop % 2);
+                assertTrue(hop < 10);
+                hops.add(hop);
+            }
+            assertEquals(5, hops.size());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooFewWeightedNodes() {
+        WeightedRoutingStrategy strategy = new WeightedRoutingStrategy(Map.of(1, 1.0, 2, 1.0));
+        strategy.route(new int[]{1, 2, 3}, 3);
+    }
+
+    @Test
+    public void dominantNodeStillGivesDistinctHops() {
+        Map<Integer, Double> weights = new HashMap<>();
+        weights.put(0, 1e12);
+        for (int i = 1; i < 100; i++) {
+            weights.put(i, 1.0);
+        }
+        WeightedRoutingStrategy strategy = new WeightedRoutingStrategy(weights);
+        int[] identifiers = weights.keySet().stream().mapToInt(Integer::intValue).toArray();
+
+        int[] route = strategy.route(identifiers, 3);
+        assertEquals(0, route[0]);
+        assertEquals(3, Set.of(route[0], route[1], route[2]).size());
+    }
+
+    @Test
+    public void updatedWeightsAreUsed() {
+        WeightedRoutingStrategy strategy = new WeightedRoutingStrategy(Map.of(1, 1.0, 2, 1.0, 3, 0.0));
+        int[] identifiers = {1, 2, 3};
+        for (int i = 0; i < 100; i++) {
+            assertNotEquals(3, strategy.route(identifiers, 1)[0]);
+        }
+
+        strategy.updateWeights(Map.of(1, 0.0, 2, 0.0, 3, 1.0));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(3, strategy.route(identifiers, 1)[0]);
+        }
+    }
+
+    @Test
+    public void refilledArrayIsRoutedOverItsNewContents() {
+        WeightedRoutingStrategy strategy = new WeightedRoutingStrategy(Map.of(1, 1.0, 2, 1.0, 3, 1.0, 4, 1.0));
+        int[] identifiers = {1, 2};
+        strategy.route(identifiers, 2);
+
+        identifiers[0] = 3;
+        identifiers[1] = 4;
+        for (int i = 0; i < 100; i++) {
+            int hop = strategy.route(identifiers, 1)[0];
+            assertTrue(hop == 3 || hop == 4);
+        }
+    }
+
+    @Test
+    public void updatesAreNotLostToConcurrentRoutes() throws InterruptedException {
+        Map<Integer, Double> onlyFirst = Map.of(1, 1.0, 2, 0.0);
+        Map<Integer, Double> onlySecond = Map.of(1, 0.0, 2, 1.0);
+        WeightedRoutingStrategy strategy = new WeightedRoutingStrategy(onlyFirst);
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread[] routers = new Thread[4];
+        for (int i = 0; i < routers.length; i++) {
+            routers[i] = new Thread(() -> {
+                while (running.get()) {
+                    // A fresh snapshot every time, so every route builds and caches a table
+                    strategy.route(new DirectorySnapshot(new int[]{1, 2}), 1);
+                }
+            });
+            routers[i].start();
+        }
+        try {
+            for (int i = 0; i < 20_000; i++) {
+                Map<Integer, Double> weights = i % 2 == 0 ? onlySecond : onlyFirst;
+                strategy.updateWeights(weights);
+                int expected = weights == onlyFirst ? 1 : 2;
+                assertEquals(expected, strategy.route(new DirectorySnapshot(new int[]{1, 2}), 1)[0]);
+            }
+        } finally {
+            running.set(false);
+            for (Thread router : routers) {
+                router.join();
+            }
+        }
+    }
+
+    @Test
+    public void firstHopFollowsWeights() {
+        WeightedRoutingStrategy strategy = new WeightedRoutingStrategy(Map.of(1, 1.0, 2, 3.0));
+        int[] identifiers = {1, 2};
+        int second = 0;
+        for (int i = 0; i < 20_000; i++) {
+            if (strategy.route(identifiers, 1)[0] == 2) {
+                second++;
+            }
+        }
+        assertEquals(15_000, second, 20_000 * 0.02);
+    }
+}
@@ -0,0 +1,172 @@
+import com.robertsoultanaev.javasphinx.SphinxClient;
+import com.robertsoultanaev.javasphinx.SphinxException;
+import com.robertsoultanaev.javasphinx.SphinxNode;
+import com.robertsoultanaev.javasphinx.SphinxParams;
+import com.robertsoultanaev.javasphinx.crypto.ECCGroup;
+import com.robertsoultanaev.javasphinx.crypto.X25519Group;
+import com.robertsoultanaev.javasphinx.packet.ProcessedPacket;
+import com.robertsoultanaev.javasphinx.packet.RelayInfo;
+import com.robertsoultanaev.javasphinx.packet.RoutingFlag;
+import com.robertsoultanaev.javasphinx.packet.SphinxPacket;
+import com.robertsoultanaev.javasphinx.packet.header.PacketContent;
+import com.robertsoultanaev.javasphinx.packet.message.DestinationAndMessage;
+import com.robertsoultanaev.javasphinx.routing.RandomRoutingStrategy;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.math.ec.rfc7748.X25519;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.BigIntegers;
+import org.bouncycastle.util.encoders.Hex;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class X25519GroupTest {
+
+    private final ECCGroup group = ECCGroup.x25519();
+
+    @Test
+    public void generatorEncoding() {
+        byte[] expected = new byte[32];
+        expected[0] = 9;
+        assertArrayEquals(expected, group.encodePoint(group.getGenerator()));
+        assertEquals(X25519Group.NID, group.id());
+    }
+
+    @Test
+    public void exponMatchesWeierstrassMultiply() {
+        Random random = new Random(1);
+        ECPoint base = group.getGenerator().multiply(new BigInteger(250, random)).normalize();
+        BigInteger[] exponents = {
+                BigInteger.ONE,
+                BigInteger.TWO,
+                group.getOrder().subtract(BigInteger.ONE),
+                new BigInteger(252, random),
+                new BigInteger(255, random),
+                group.genSecret()
+        };
+
+        for (BigInteger exp : exponents) {
+            ECPoint expected = base.multiply(exp).normalize();
+            ECPoint actual = group.expon(base, exp);
+            assertEquals(expected, actual);
+        }
+
+        assertTrue(group.expon(base, group.getOrder()).isInfinity());
+    }
+
+    @Test
+    public void exponAllSharesInversion() {
+        Random random = new Random(2);
+        ECPoint base = group.getGenerator().multiply(new BigInteger(250, random)).normalize();
+        // Exceptional results in the middle of the batch must not disturb the shared inversion
+        ECPoint[] bases = {base, base, group.getGenerator(), base, group.getGenerator()};
+        BigInteger[] exps = {
+                new BigInteger(255, random),
+                group.getOrder(),
+                group.genSecret(),
+                group.getOrder().subtract(BigInteger.ONE),
+                BigInteger.TWO
+        };
+
+        ECPoint[] results = group.exponAll(bases, exps);
+        for (int i = 0; i < bases.length; i++) {
+            assertEquals(bases[i].multiply(exps[i]).normalize(), results[i]);
+        }
+        assertTrue(results[1].isInfinity());
+    }
+
+    @Test
+    public void exponGeneratorMatchesX25519() {
+        for (int i = 0; i < 4; i++) {
+            BigInteger secret = group.genSecret();
+            byte[] scalar = Arrays.reverse(BigIntegers.asUnsignedByteArray(32, secret));
+            byte[] expected = new byte[X25519.POINT_SIZE];
+            X25519.scalarMultBase(scalar, 0, expected, 0);
+
+            assertArrayEquals(expected, group.printable(group.exponGenerator(secret)));
+        }
+    }
+
+    @Test
+    public void rfc7748DiffieHellman() {
+        byte[] scalar = Hex.decode("77076d0a7318a57d3c16c17251b26645df4c2f87ebc0992ab177fba51db92c2a");
+        byte[] publicKey = Hex.decode("de9edb7d7b7dc1b4d35b61c2ece435373f8343c85b78674dadfc7e146f882b4f");
+        byte[] expected = Hex.decode("4a5d9d5ba4ce2de1728e3bf480350f25e07e21c947d19e3376f09b3c1e161742");
+
+        scalar[0] &= (byte) 248;
+        scalar[31] &= (byte) 127;
+        scalar[31] |= (byte) 64;
+        BigInteger k = new BigInteger(1, Arrays.reverse(scalar));
+
+        ECPoint base = group.decodePoint(publicKey);
+
+        assertArrayEquals(expected, group.printable(group.expon(base, k)));
+    }
+
+    @Test
+    public void encodeAndDecodePoint() {
+        ECPoint point = group.exponGenerator(group.genSecret());
+        byte[] encoded = group.encodePoint(point);
+
+        assertEquals(group.encodedPointLength(), encoded.length);
+        assertArrayEquals(encoded, group.encodePoint(group.decodePoint(encoded)));
+    }
+
+    @Test
+    public void routeSphinxMessage() throws Exception {
+        SphinxParams params = new SphinxParams(16, 1024, 192, group);
+        SphinxClient client = new SphinxClient(params, new RandomRoutingStrategy());
+
+        int r = 5;
+        BigInteger[] privateKeys = new BigInteger[r];
+        ECPoint[] nodeKeys = new ECPoint[r];
+        byte[][] nodesRouting = new byte[r][];
+        for (int i = 0; i < r; i++) {
+            privateKeys[i] = group.genSecret();
+            nodeKeys[i] = params.derivePublicKey(privateKeys[i]);
+            nodesRouting[i] = client.encodeNode(i, 0);
+        }
+
+        byte[] dest = "bob".getBytes();
+        byte[] message = "this is a test".getBytes();
+        PacketContent packetContent = client.createForwardMessage(nodesRouting, nodeKeys, dest, message);
+
+        SphinxPacket sphinxPacket = client.unpackMessage(client.packMessage(new SphinxPacket(params, packetContent)));
+        assertEquals(X25519Group.NID, sphinxPacket.groupId());
+        packetContent = sphinxPacket.packetContent();
+
+        int current = 0;
+        while (true) {
+            SphinxNode node = new SphinxNode(params, new RandomRoutingStrategy(), privateKeys[current]);
+            ProcessedPacket ret = node.sphinxProcess(packetContent);
+            packetContent = ret.packetContent();
+
+            if (ret.routingFlag() == RoutingFlag.RELAY) {
+                RelayInfo relayInfo = ret.relayInfo();
+                current = relayInfo.nextNodeId();
+            } else {
+                assertEquals(RoutingFlag.DESTINATION, ret.routingFlag());
+                DestinationAndMessage destAndMsg = client.receiveForward(ret.macKey(), ret.packetContent().delta());
+                assertArrayEquals(dest, destAndMsg.destination());
+                assertArrayEquals(message, destAndMsg.message());
+                break;
+            }
+        }
+    }
+
+    @Test(expected = SphinxException.class)
+    public void unpackMessageGroupMismatch() throws SphinxException {
+        SphinxParams params = new SphinxParams(16, 1024, 192, group);
+        SphinxClient client = new SphinxClient(params, new RandomRoutingStrategy());
+        ECPoint key = params.derivePublicKey(group.genSecret());
+
+        PacketContent packetContent = client.createForwardMessage(new byte[][]{client.encodeNode(0, 0)}, new ECPoint[]{key}, "bob".getBytes(), "test".getBytes());
+        byte[] packed = client.packMessage(new SphinxPacket(params, packetContent));
+
+        SphinxParams otherParams = new SphinxParams(16, 1024, 192, new ECCGroup());
+        new SphinxClient(otherParams, new RandomRoutingStrategy()).unpackMessage(packed);
+    }
+}